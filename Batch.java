@@ -0,0 +1,401 @@
+package pet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import pet.model.RegexFinder;
+import pet.model.StdPetModel;
+
+/**
+ * Mode sans interface : applique une substitution à la sed à un ensemble de
+ *  fichiers, chacun étant chargé, modifié et sauvegardé par un StdPetModel,
+ *  avec la même détection d'encodage, les mêmes fins de ligne et la même
+ *  sauvegarde atomique que dans l'éditeur.
+ *
+ *   pet --batch --regex 's/motif/remplacement/[gi]' [--threads N] [--io N]
+ *       [--dry-run] fichier|répertoire|motif...
+ *
+ * Un répertoire désigne tous les fichiers qu'il contient, récursivement ; un
+ *  argument qui contient *, ?, [ ou { est un motif de chemins (glob), où **
+ *  traverse les répertoires. Comme pour sed, \1 à \9 et & désignent dans le
+ *  remplacement les groupes de l'occurrence, et seule la première
+ *  occurrence de chaque ligne est remplacée sans le drapeau g.
+ * Les fichiers sont traités en parallèle par un nombre fixe de threads ; un
+ *  sémaphore borne en outre le nombre de lectures et d'écritures
+ *  simultanées. Un bilan du débit est affiché à la fin.
+ */
+public final class Batch {
+
+    // ATTRIBUTS STATIQUES
+
+    private static final String USAGE = "usage : pet --batch --regex "
+            + "'s/motif/remplacement/[gi]' [--threads N] [--io N] "
+            + "[--dry-run] fichier|répertoire|motif...";
+    private static final int DEFAULT_IO_PERMITS = 8;
+
+    // CONSTRUCTEURS
+
+    private Batch() {
+        // rien
+    }
+
+    // COMMANDES
+
+    /**
+     * Exécute le mode sans interface avec les arguments args (ceux qui
+     *  suivent --batch) et retourne le code de sortie : 0 en cas de succès,
+     *  1 si un fichier n'a pas pu être traité, 2 si les arguments sont
+     *  incorrects.
+     */
+    public static int run(String[] args) {
+        String expr = null;
+        int threads = 2 * Runtime.getRuntime().availableProcessors();
+        int ioPermits = DEFAULT_IO_PERMITS;
+        boolean dryRun = false;
+        List<String> operands = new ArrayList<String>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String a = args[i];
+                if (a.equals("--regex") && i + 1 < args.length) {
+                    expr = args[++i];
+                } else if (a.equals("--threads") && i + 1 < args.length) {
+                    threads = Integer.parseInt(args[++i]);
+                } else if (a.equals("--io") && i + 1 < args.length) {
+                    ioPermits = Integer.parseInt(args[++i]);
+                } else if (a.equals("--dry-run")) {
+                    dryRun = true;
+                } else if (a.startsWith("--")) {
+                    return usage("option inconnue : " + a);
+                } else {
+                    operands.add(a);
+                }
+            }
+        } catch (NumberFormatException e) {
+            return usage("nombre invalide : " + e.getMessage());
+        }
+        if (expr == null || operands.isEmpty() || threads <= 0
+                || ioPermits <= 0) {
+            return usage(null);
+        }
+        Substitution sub;
+        try {
+            sub = Substitution.parse(expr);
+        } catch (IllegalArgumentException e) {
+            return usage(e.getMessage());
+        }
+        Set<File> files = new LinkedHashSet<File>();
+        for (String op : operands) {
+            try {
+                collect(op, files);
+            } catch (IOException e) {
+                System.err.println("pet: " + op + " : " + e.getMessage());
+                return 1;
+            }
+        }
+        return process(files, sub, threads, ioPermits, dryRun);
+    }
+
+    // OUTILS
+
+    /**
+     * Traite files avec threads threads, au plus ioPermits lectures ou
+     *  écritures à la fois, puis affiche le bilan.
+     */
+    private static int process(Set<File> files, final Substitution sub,
+            int threads, int ioPermits, final boolean dryRun) {
+        final Semaphore io = new Semaphore(ioPermits);
+        final AtomicInteger changed = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final AtomicLong matches = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        for (final File f : files) {
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        int n = edit(f, sub, io, dryRun);
+                        bytes.addAndGet(f.length());
+                        if (n > 0) {
+                            changed.incrementAndGet();
+                            matches.addAndGet(n);
+                        }
+                    } catch (IOException e) {
+                        failed.incrementAndGet();
+                        System.err.println("pet: " + f + " : " + e.getMessage());
+                    } catch (RuntimeException e) {
+                        failed.incrementAndGet();
+                        System.err.println("pet: " + f + " : " + e);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+        pool.shutdown();
+        try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+            return 1;
+        }
+        double secs = Math.max(System.nanoTime() - start, 1) / 1e9;
+        double mb = bytes.get() / (1024.0 * 1024.0);
+        PrintStream out = System.out;
+        out.printf("%d fichier(s) lu(s) (%.1f Mo), %d %s, %d remplacement(s),"
+                + " %d erreur(s) en %.2f s : %.0f fichiers/s, %.1f Mo/s%n",
+                files.size() - failed.get(), mb, changed.get(),
+                dryRun ? "à modifier" : "modifié(s)", matches.get(),
+                failed.get(), secs, (files.size() - failed.get()) / secs,
+                mb / secs);
+        return failed.get() == 0 ? 0 : 1;
+    }
+
+    /**
+     * Applique sub à f et sauvegarde f s'il a changé (sauf si dryRun), en
+     *  retenant un jeton de io pendant la lecture et pendant l'écriture.
+     * Retourne le nombre de remplacements.
+     */
+    private static int edit(File f, Substitution sub, Semaphore io,
+            boolean dryRun) throws IOException, InterruptedException {
+        if (!f.canRead() || !f.canWrite()) {
+            throw new IOException("fichier inaccessible");
+        }
+        StdPetModel model = new StdPetModel();
+        model.setHeadless(true);
+        model.setJournaling(false);
+        model.setCompressionThreshold(Long.MAX_VALUE);
+        io.acquire();
+        try {
+            model.setNewDocAndNewFile(f);
+        } finally {
+            io.release();
+        }
+        int n = sub.finder.replace(model.getDocument(), sub.replacement,
+                sub.global);
+        if (n > 0 && !dryRun) {
+            io.acquire();
+            try {
+                model.saveCurrentDocIntoCurrentFile();
+            } finally {
+                io.release();
+            }
+        }
+        model.removeDocAndFile();
+        return n;
+    }
+
+    /**
+     * Ajoute à files les fichiers que désigne op : lui-même, ceux d'un
+     *  répertoire, ou ceux qui correspondent à un motif.
+     */
+    private static void collect(String op, final Set<File> files)
+            throws IOException {
+        int g = firstGlobChar(op);
+        if (g < 0) {
+            File f = new File(op);
+            if (f.isDirectory()) {
+                walk(f.toPath(), null, files);
+            } else if (f.isFile()) {
+                files.add(f);
+            } else {
+                throw new IOException("fichier introuvable");
+            }
+            return;
+        }
+        int sep = op.lastIndexOf('/', g);
+        Path root = Paths.get(sep < 0 ? "." : sep == 0 ? "/" : op.substring(0, sep));
+        String glob = sep < 0 ? op : op.substring(sep + 1);
+        if (!Files.isDirectory(root)) {
+            throw new IOException("répertoire introuvable");
+        }
+        walk(root, FileSystems.getDefault().getPathMatcher("glob:" + glob),
+                files);
+    }
+
+    /**
+     * Ajoute à files les fichiers de root dont le chemin relatif à root
+     *  correspond à matcher (tous si matcher est null).
+     * Un motif terminé par ** désigne aussi les fichiers du répertoire
+     *  lui-même.
+     */
+    private static void walk(final Path root, final PathMatcher matcher,
+            final Set<File> files) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path p, BasicFileAttributes a) {
+                if (a.isRegularFile() && (matcher == null
+                        || matcher.matches(root.relativize(p)))) {
+                    files.add(p.toFile());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static int firstGlobChar(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if ("*?[{".indexOf(s.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int usage(String message) {
+        if (message != null) {
+            System.err.println("pet: " + message);
+        }
+        System.err.println(USAGE);
+        return 2;
+    }
+
+    // TYPES IMBRIQUES
+
+    /**
+     * Une substitution s/motif/remplacement/drapeaux : le premier caractère
+     *  qui suit s sert de délimiteur, et peut figurer dans le motif ou le
+     *  remplacement précédé de \. Les drapeaux sont g (toutes les
+     *  occurrences) et i (sans tenir compte de la casse) ; ^ et $ désignent
+     *  les débuts et fins de ligne.
+     */
+    private static final class Substitution {
+        final RegexFinder finder;
+        final String replacement;
+        final boolean global;
+
+        private Substitution(RegexFinder finder, String replacement,
+                boolean global) {
+            this.finder = finder;
+            this.replacement = replacement;
+            this.global = global;
+        }
+
+        /**
+         * Lève IllegalArgumentException si expr est mal formée.
+         */
+        static Substitution parse(String expr) {
+            if (expr.length() < 2 || expr.charAt(0) != 's') {
+                throw new IllegalArgumentException(
+                        "substitution invalide : " + expr);
+            }
+            char delim = expr.charAt(1);
+            List<String> parts = new ArrayList<String>();
+            StringBuilder part = new StringBuilder();
+            for (int i = 2; i < expr.length(); i++) {
+                char c = expr.charAt(i);
+                if (c == '\\' && i + 1 < expr.length()
+                        && expr.charAt(i + 1) == delim) {
+                    part.append(delim);
+                    i += 1;
+                } else if (c == delim && parts.size() < 2) {
+                    parts.add(part.toString());
+                    part.setLength(0);
+                } else {
+                    part.append(c);
+                }
+            }
+            if (parts.size() != 2) {
+                throw new IllegalArgumentException(
+                        "substitution invalide : " + expr);
+            }
+            int flags = Pattern.MULTILINE;
+            boolean global = false;
+            for (char c : part.toString().toCharArray()) {
+                if (c == 'g') {
+                    global = true;
+                } else if (c == 'i') {
+                    flags |= Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+                } else {
+                    throw new IllegalArgumentException(
+                            "drapeau inconnu : " + c);
+                }
+            }
+            Pattern p;
+            try {
+                p = Pattern.compile(parts.get(0), flags);
+            } catch (PatternSyntaxException e) {
+                throw new IllegalArgumentException(e.getDescription()
+                        + " : " + parts.get(0));
+            }
+            String rep = toJavaReplacement(parts.get(1));
+            if (groupCount(rep) > p.matcher("").groupCount()) {
+                throw new IllegalArgumentException(
+                        "groupe inexistant dans : " + parts.get(1));
+            }
+            return new Substitution(new RegexFinder(p), rep, global);
+        }
+
+        /**
+         * Le remplacement sed s traduit pour Matcher.appendReplacement :
+         *  \n devient $n, & devient $0, \& et \\ désignent & et \, $ est
+         *  littéral.
+         */
+        private static String toJavaReplacement(String s) {
+            StringBuilder r = new StringBuilder();
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == '\\' && i + 1 < s.length()) {
+                    char n = s.charAt(++i);
+                    if (n >= '0' && n <= '9') {
+                        r.append('$').append(n);
+                    } else if (n == 'n') {
+                        r.append('\n');
+                    } else if (n == 't') {
+                        r.append('\t');
+                    } else {
+                        if (n == '\\' || n == '$') {
+                            r.append('\\');
+                        }
+                        r.append(n);
+                    }
+                } else if (c == '&') {
+                    r.append("$0");
+                } else if (c == '$' || c == '\\') {
+                    r.append('\\').append(c);
+                } else {
+                    r.append(c);
+                }
+            }
+            return r.toString();
+        }
+
+        /**
+         * Le plus grand numéro de groupe désigné par le remplacement r.
+         */
+        private static int groupCount(String r) {
+            int max = 0;
+            for (int i = 0; i + 1 < r.length(); i++) {
+                if (r.charAt(i) == '\\') {
+                    i += 1;
+                } else if (r.charAt(i) == '$') {
+                    max = Math.max(max, r.charAt(i + 1) - '0');
+                }
+            }
+            return max;
+        }
+    }
+}
@@ -1,8 +1,13 @@
 package pet;
 
+import java.io.File;
+import java.util.Arrays;
+
 import javax.swing.SwingUtilities;
 
 import pet.gui.Pet;
+import pet.model.EditJournal;
+import pet.model.Metrics;
 
 public final class Main {
 
@@ -13,11 +18,27 @@ public final class Main {
     // POINT D'ENTREE
 
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--batch")) {
+            System.setProperty("java.awt.headless", "true");
+            System.exit(Batch.run(
+                    Arrays.copyOfRange(args, 1, args.length)));
+        }
+        // un fichier désigné sur la ligne de commande est ouvert au démarrage
+        final File file = args.length > 0 ? new File(args[0]) : null;
         SwingUtilities.invokeLater(new Runnable() {
             @Override
             public void run() {
-                new Pet().display();
+                Pet pet = new Pet();
+                pet.display();
+                for (File j : EditJournal.findJournals()) {
+                    pet.offerRecovery(j);
+                }
+                if (file != null) {
+                    pet.open(file);
+                }
             }
         });
+        // Le serveur JMX démarre pendant que la fenêtre se construit
+        Metrics.register();
     }
 }
@@ -0,0 +1,522 @@
+package pet.bench;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+import javax.swing.text.Document;
+import javax.swing.text.PlainDocument;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pet.model.Durability;
+import pet.model.StdPetModel;
+import pet.model.TextStats;
+
+/**
+ * Mesures JMH des chemins critiques du modèle : chargement et sauvegarde
+ *  selon la taille du fichier, la longueur des lignes et le jeu de
+ *  caractères (comparés aux anciens chemins par lignes), sauvegarde selon
+ *  la durabilité, coût d'une frappe avec les observateurs du modèle, de la
+ *  différence avec le fichier et des statistiques du texte.
+ * Les paramètres se restreignent par les options de JMH, par exemple
+ *  -p size=1k,1m pour écarter les fichiers de 64 Mo.
+ *
+ * Toutes les opérations sur le modèle ont lieu sur le thread de
+ *  distribution des événements, comme dans l'éditeur.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g", "-Djava.awt.headless=true" })
+public class ModelBench {
+
+    // ATTRIBUTS STATIQUES
+
+    private static final int KEYSTROKES = 10000;
+
+    // MESURES
+
+    /**
+     * Chargement d'un fichier, dans le tas ou projeté en mémoire.
+     */
+    @Benchmark
+    public int load(final Sample s, final Mapping mapping) throws Exception {
+        final int[] length = new int[1];
+        onEdt(new Op() {
+            @Override
+            public void run() throws Exception {
+                StdPetModel m = model(mapping.threshold());
+                m.setNewDocAndNewFile(s.file);
+                length[0] = m.getDocument().getLength();
+                m.removeDocAndFile();
+            }
+        });
+        return length[0];
+    }
+
+    @Benchmark
+    public void save(final Opened o) throws Exception {
+        onEdt(new Op() {
+            @Override
+            public void run() throws Exception {
+                o.model.saveCurrentDocIntoCurrentFile();
+            }
+        });
+    }
+
+    /**
+     * L'ancien chargement, à titre de comparaison.
+     */
+    @Benchmark
+    public Document legacyLoad(final Sample s) throws Exception {
+        final Document[] d = new Document[1];
+        onEdt(new Op() {
+            @Override
+            public void run() throws Exception {
+                d[0] = legacyLoad(s.file, charsetOf(s.charset));
+            }
+        });
+        return d[0];
+    }
+
+    /**
+     * L'ancienne sauvegarde, à titre de comparaison.
+     */
+    @Benchmark
+    public void legacySave(final Legacy l) throws Exception {
+        onEdt(new Op() {
+            @Override
+            public void run() throws Exception {
+                legacySave(l.document, l.file, charsetOf(l.charset));
+            }
+        });
+    }
+
+    @Benchmark
+    public void saveDurability(final Durable d) throws Exception {
+        onEdt(new Op() {
+            @Override
+            public void run() throws Exception {
+                d.model.saveCurrentDocIntoCurrentFile();
+            }
+        });
+    }
+
+    /**
+     * Une frappe (insertion puis suppression d'un caractère au milieu du
+     *  texte) avec les observateurs du modèle.
+     */
+    @Benchmark
+    @OperationsPerInvocation(KEYSTROKES)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void keystroke(final Typing t) throws Exception {
+        onEdt(new Op() {
+            @Override
+            public void run() throws Exception {
+                Document d = t.document;
+                int mid = d.getLength() / 2;
+                for (int i = 0; i < KEYSTROKES; i++) {
+                    d.insertString(mid, "x", null);
+                    d.remove(mid, 1);
+                }
+            }
+        });
+    }
+
+    /**
+     * Une frappe suivie de la différence ligne à ligne avec le fichier.
+     */
+    @Benchmark
+    @OperationsPerInvocation(KEYSTROKES)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void keystrokeWithDiff(final Typing t) throws Exception {
+        onEdt(new Op() {
+            @Override
+            public void run() throws Exception {
+                Document d = t.document;
+                int mid = d.getLength() / 2;
+                for (int i = 0; i < KEYSTROKES; i++) {
+                    d.insertString(mid, "x", null);
+                    t.model.getLineDiff();
+                    d.remove(mid, 1);
+                    t.model.getLineDiff();
+                }
+            }
+        });
+    }
+
+    /**
+     * Une frappe suivie du nombre de mots qui la précèdent.
+     */
+    @Benchmark
+    @OperationsPerInvocation(KEYSTROKES)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void keystrokeWithStats(final Counting c) throws Exception {
+        onEdt(new Op() {
+            @Override
+            public void run() throws Exception {
+                Document d = c.document;
+                int mid = d.getLength() / 2;
+                for (int i = 0; i < KEYSTROKES; i++) {
+                    d.insertString(mid, "x ", null);
+                    c.stats.getWordCount(0, mid);
+                    d.remove(mid, 2);
+                    c.stats.getWordCount(0, mid);
+                }
+            }
+        });
+    }
+
+    // OUTILS
+
+    /**
+     * Un fichier temporaire d'environ size octets, aux lignes de line
+     *  caractères (quelques-uns non ASCII), encodé selon cs.
+     */
+    private static File sample(long size, int line, String cs)
+            throws IOException {
+        StringBuilder b = new StringBuilder();
+        String words = "le petit éditeur de texte lit et écrit ";
+        while (b.length() < line) {
+            b.append(words);
+        }
+        b.setLength(line);
+        b.append('\n');
+        byte[] bytes = b.toString().getBytes(charsetOf(cs));
+        File f = File.createTempFile("pet-bench", ".txt");
+        OutputStream out = new FileOutputStream(f);
+        try {
+            if (cs.endsWith("+BOM")) {
+                out.write(new byte[] { (byte) 0xFF, (byte) 0xFE });
+            }
+            for (long n = 0; n < size; n += bytes.length) {
+                out.write(bytes);
+            }
+        } finally {
+            out.close();
+        }
+        return f;
+    }
+
+    /**
+     * Le jeu de caractères cs, privé de l'éventuel suffixe "+BOM".
+     */
+    private static Charset charsetOf(String cs) {
+        return Charset.forName(cs.endsWith("+BOM")
+                ? cs.substring(0, cs.length() - "+BOM".length()) : cs);
+    }
+
+    private static StdPetModel model(long threshold) {
+        StdPetModel m = new StdPetModel();
+        m.setJournaling(false);
+        m.setMappingThreshold(threshold);
+        return m;
+    }
+
+    /**
+     * Un modèle chargé dans le tas depuis f, sauvegardé selon level.
+     */
+    private static StdPetModel open(final File f, Durability level)
+            throws Exception {
+        final StdPetModel m = model(Long.MAX_VALUE);
+        m.setDurability(level);
+        onEdt(new Op() {
+            @Override
+            public void run() throws Exception {
+                m.setNewDocAndNewFile(f);
+            }
+        });
+        return m;
+    }
+
+    private static void close(final StdPetModel m) throws Exception {
+        onEdt(new Op() {
+            @Override
+            public void run() throws Exception {
+                m.removeDocAndFile();
+            }
+        });
+    }
+
+    /**
+     * L'ancien chargement : lecture ligne à ligne, concaténation puis
+     *  insertion du texte entier dans un PlainDocument.
+     */
+    private static Document legacyLoad(File f, Charset cs) throws Exception {
+        BufferedReader r = new BufferedReader(
+                new InputStreamReader(new FileInputStream(f), cs));
+        StringBuilder b = new StringBuilder();
+        try {
+            String line = r.readLine();
+            if (line != null) {
+                b.append(line);
+                line = r.readLine();
+            }
+            while (line != null) {
+                b.append("\n" + line);
+                line = r.readLine();
+            }
+        } finally {
+            r.close();
+        }
+        Document d = new PlainDocument();
+        d.insertString(0, b.toString(), null);
+        return d;
+    }
+
+    /**
+     * L'ancienne sauvegarde : texte entier en chaîne, découpé en lignes,
+     *  écrit par un BufferedWriter.
+     */
+    private static void legacySave(Document d, File f, Charset cs)
+            throws Exception {
+        String content = d.getText(0, d.getLength());
+        String[] lines = content.split("\n", -1);
+        BufferedWriter w = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(f), cs));
+        try {
+            for (String line : lines) {
+                w.write(line);
+                w.newLine();
+            }
+        } finally {
+            w.close();
+        }
+    }
+
+    private static long parseSize(String s) {
+        String t = s.trim().toLowerCase(Locale.ROOT);
+        long unit = 1;
+        if (t.endsWith("k")) {
+            unit = 1L << 10;
+        } else if (t.endsWith("m")) {
+            unit = 1L << 20;
+        } else if (t.endsWith("g")) {
+            unit = 1L << 30;
+        }
+        if (unit != 1) {
+            t = t.substring(0, t.length() - 1);
+        }
+        return Long.parseLong(t) * unit;
+    }
+
+    private static void onEdt(final Op op) throws Exception {
+        final Exception[] failure = new Exception[1];
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    op.run();
+                } catch (Exception e) {
+                    failure[0] = e;
+                }
+            }
+        });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+    }
+
+    // TYPES IMBRIQUES
+
+    private interface Op {
+        void run() throws Exception;
+    }
+
+    /**
+     * Un fichier d'environ size octets, aux lignes de lineLength caractères,
+     *  encodé selon charset, créé pour la durée d'une mesure.
+     * Les sous-classes préparent le reste de la mesure dans prepare().
+     */
+    @State(Scope.Benchmark)
+    public static class Sample {
+        @Param({ "1k", "1m", "64m" })
+        public String size;
+        @Param({ "40", "4000" })
+        public int lineLength;
+        @Param({ "UTF-8", "ISO-8859-1", "UTF-16LE+BOM" })
+        public String charset;
+        File file;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            file = sample(parseSize(size), lineLength, charset);
+            prepare();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            dispose();
+            file.delete();
+        }
+
+        void prepare() throws Exception {
+            // rien
+        }
+
+        void dispose() throws Exception {
+            // rien
+        }
+    }
+
+    /**
+     * Le mode de chargement : array dans le tas, mapped projeté en mémoire
+     *  (sauf en UTF-16, que la projection ne prend pas en charge).
+     */
+    @State(Scope.Benchmark)
+    public static class Mapping {
+        @Param({ "array", "mapped" })
+        public String mode;
+
+        long threshold() {
+            return mode.equals("mapped") ? 0 : Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Le fichier, ouvert dans un modèle qui le sauvegarde sans
+     *  synchronisation.
+     */
+    @State(Scope.Benchmark)
+    public static class Opened extends Sample {
+        StdPetModel model;
+
+        @Override
+        void prepare() throws Exception {
+            model = open(file, Durability.NONE);
+        }
+
+        @Override
+        void dispose() throws Exception {
+            close(model);
+        }
+    }
+
+    /**
+     * Le fichier, chargé par l'ancien chemin.
+     */
+    @State(Scope.Benchmark)
+    public static class Legacy extends Sample {
+        Document document;
+
+        @Override
+        void prepare() throws Exception {
+            document = legacyLoad(file, charsetOf(charset));
+        }
+    }
+
+    /**
+     * Un fichier en UTF-8 aux lignes courtes, ouvert dans un modèle qui le
+     *  sauvegarde selon durability.
+     */
+    @State(Scope.Benchmark)
+    public static class Durable {
+        @Param({ "1k", "1m", "64m" })
+        public String size;
+        @Param({ "NONE", "FILE", "FILE_AND_DIRECTORY" })
+        public Durability durability;
+        File file;
+        StdPetModel model;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            file = sample(parseSize(size), 40, "UTF-8");
+            model = open(file, durability);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            close(model);
+            file.delete();
+        }
+    }
+
+    /**
+     * Un fichier en UTF-8 aux lignes courtes, ouvert dans un modèle pour y
+     *  faire des frappes.
+     */
+    @State(Scope.Benchmark)
+    public static class Typing {
+        @Param({ "1k", "1m", "64m" })
+        public String size;
+        File file;
+        StdPetModel model;
+        Document document;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            file = sample(parseSize(size), 40, "UTF-8");
+            model = open(file, Durability.FILE);
+            document = model.getDocument();
+            prepare();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            dispose();
+            close(model);
+            file.delete();
+        }
+
+        void prepare() throws Exception {
+            // rien
+        }
+
+        void dispose() throws Exception {
+            // rien
+        }
+    }
+
+    /**
+     * Le document des frappes, dont les statistiques sont tenues à jour.
+     */
+    @State(Scope.Benchmark)
+    public static class Counting extends Typing {
+        TextStats stats;
+
+        @Override
+        void prepare() throws Exception {
+            onEdt(new Op() {
+                @Override
+                public void run() throws Exception {
+                    stats = new TextStats(document);
+                }
+            });
+        }
+
+        @Override
+        void dispose() throws Exception {
+            onEdt(new Op() {
+                @Override
+                public void run() throws Exception {
+                    stats.dispose();
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,11 @@
+#!/bin/sh
+# Lance les mesures JMH du modèle (tâche jmh du sous-projet bench) ; les
+#  arguments qui suivent le classpath sont transmis à JMH.
+# Usage : bench/run.sh classpath-de-util [-p size=1k,1m,64m] [-wi 1 -i 3]
+#         [ModelBench.load]
+# Les résultats sont écrits dans bench/build/results/jmh/results.json.
+set -e
+root=$(cd "$(dirname "$0")/.." && pwd)
+cp="${1:-$CLASSPATH}"
+[ $# -gt 0 ] && shift
+exec gradle -q -p "$root" -Putil="$cp" :bench:jmh -Pjmh="$*"
@@ -0,0 +1,120 @@
+package pet.gui;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.geom.Rectangle2D;
+
+import javax.swing.JComponent;
+import javax.swing.JTextArea;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+
+import pet.model.LineDiff;
+
+/**
+ * La marge placée à gauche d'une zone de texte, qui signale les lignes
+ *  ajoutées (en vert) ou modifiées (en bleu) depuis le dernier chargement
+ *  ou la dernière sauvegarde, et d'un triangle rouge, en haut de la ligne
+ *  qui les suivait, l'emplacement des lignes retirées.
+ * Seules les lignes visibles sont examinées à chaque affichage ; leur
+ *  position est celle que donne la zone de texte, si bien que la marge suit
+ *  aussi les lignes repliées par un retour à la ligne automatique.
+ */
+final class ChangeGutter extends JComponent {
+
+    // ATTRIBUTS STATIQUES
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int WIDTH = 8;
+    private static final int BAR = 4;
+    private static final Color ADDED = new Color(0x2E, 0xA0, 0x43);
+    private static final Color MODIFIED = new Color(0x1F, 0x6F, 0xEB);
+    private static final Color DELETED = new Color(0xCF, 0x22, 0x2E);
+
+    // ATTRIBUTS
+
+    private final JTextArea editor;
+    private LineDiff diff;
+
+    // CONSTRUCTEURS
+
+    ChangeGutter(JTextArea editor) {
+        this.editor = editor;
+        diff = LineDiff.NONE;
+        setOpaque(true);
+        setBackground(editor.getBackground());
+        editor.addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                revalidate();
+                repaint();
+            }
+        });
+    }
+
+    // REQUETES
+
+    @Override
+    public Dimension getPreferredSize() {
+        return new Dimension(WIDTH, editor.getHeight());
+    }
+
+    // COMMANDES
+
+    /**
+     * Affiche les différences d.
+     */
+    void setDiff(LineDiff d) {
+        diff = d;
+        repaint();
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) {
+            clip = new Rectangle(0, 0, getWidth(), getHeight());
+        }
+        g.setColor(getBackground());
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
+        if (diff.isEmpty()) {
+            return;
+        }
+        Element root = editor.getDocument().getDefaultRootElement();
+        int first = root.getElementIndex(
+                editor.viewToModel2D(new Point(0, clip.y)));
+        int last = root.getElementIndex(
+                editor.viewToModel2D(new Point(0, clip.y + clip.height)));
+        // la comparaison peut ne pas encore refléter la dernière modification
+        last = Math.min(last, diff.getLineCount() - 1);
+        try {
+            double next = -1;
+            for (int line = last; line >= first; line--) {
+                Element e = root.getElement(line);
+                Rectangle2D r = editor.modelToView2D(e.getStartOffset());
+                double bottom = next >= 0 ? next : r.getY() + r.getHeight();
+                next = r.getY();
+                LineDiff.Change c = diff.getChange(line);
+                if (c == LineDiff.Change.ADDED || c == LineDiff.Change.MODIFIED) {
+                    g.setColor(c == LineDiff.Change.ADDED ? ADDED : MODIFIED);
+                    g.fillRect(0, (int) r.getY(), BAR,
+                            (int) Math.ceil(bottom - r.getY()));
+                } else if (c == LineDiff.Change.DELETED) {
+                    int y = (int) r.getY();
+                    g.setColor(DELETED);
+                    g.fillPolygon(new int[] { 0, WIDTH - 1, 0 },
+                            new int[] { y - WIDTH / 2, y, y + WIDTH / 2 }, 3);
+                }
+            }
+        } catch (BadLocationException e) {
+            // Ne devrait pas survenir
+            throw new InternalError(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package pet.gui;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+
+import pet.model.Metrics;
+import util.Contract;
+
+/**
+ * Surveille la réactivité du thread de distribution des événements : un
+ *  thread de fond y poste régulièrement un événement et mesure le délai de
+ *  son traitement (Metrics.EDT_LATENCY).
+ * Si ce délai dépasse le seuil, le thread est considéré comme bloqué : sa
+ *  pile est relevée pendant le blocage, puis un événement JFR pet.EdtStall
+ *  qui couvre toute sa durée est émis et Metrics.EDT_STALLS est
+ *  incrémenté.
+ *
+ * @cons <pre>
+ *     $ARGS$ long thresholdMillis
+ *     $PRE$
+ *         thresholdMillis > 0
+ *     $POST$
+ *         la surveillance a commencé </pre>
+ */
+final class EdtWatchdog {
+
+    // ATTRIBUTS
+
+    private final long threshold;
+    private final ScheduledExecutorService timer;
+    /**
+     * L'événement posté et pas encore traité (null s'il n'y en a pas).
+     */
+    private volatile Ping pending;
+    /**
+     * Le thread de distribution des événements, connu dès le traitement du
+     *  premier événement posté : un blocage antérieur est signalé sans sa
+     *  pile.
+     */
+    private volatile Thread edt;
+
+    // CONSTRUCTEURS
+
+    EdtWatchdog(long thresholdMillis) {
+        Contract.checkCondition(thresholdMillis > 0);
+
+        threshold = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+        timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "pet-edt-watchdog");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        long period = Math.max(thresholdMillis / 2, 1);
+        timer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                tick();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    // COMMANDES
+
+    /**
+     * Arrête la surveillance.
+     */
+    void close() {
+        timer.shutdownNow();
+    }
+
+    // OUTILS
+
+    /**
+     * Poste un nouvel événement si le précédent a été traité ; relève sinon
+     *  la pile du thread bloqué, une seule fois par blocage.
+     */
+    private void tick() {
+        Ping p = pending;
+        if (p == null) {
+            p = new Ping();
+            pending = p;
+            SwingUtilities.invokeLater(p);
+        } else if (p.stack == null && edt != null
+                && System.nanoTime() - p.posted >= threshold) {
+            StringBuilder s = new StringBuilder();
+            for (StackTraceElement e : edt.getStackTrace()) {
+                s.append("\tat ").append(e).append('\n');
+            }
+            p.stack = s.toString();
+        }
+    }
+
+    // TYPES IMBRIQUES
+
+    private final class Ping implements Runnable {
+        final long posted;
+        final GuiEvents.EdtStall event;
+        volatile String stack;
+
+        Ping() {
+            event = new GuiEvents.EdtStall();
+            event.begin();
+            posted = System.nanoTime();
+        }
+
+        @Override
+        public void run() {
+            long delay = System.nanoTime() - posted;
+            edt = Thread.currentThread();
+            Metrics.record(Metrics.EDT_LATENCY, delay);
+            if (delay >= threshold) {
+                Metrics.add(Metrics.EDT_STALLS, 1);
+                event.end();
+                if (event.shouldCommit()) {
+                    event.stack = stack;
+                    event.commit();
+                }
+            }
+            pending = null;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package pet.gui;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import pet.model.Metrics;
+
+/**
+ * Les événements JDK Flight Recorder de la vue, qui complètent ceux du
+ *  modèle.
+ */
+final class GuiEvents {
+
+    // CONSTRUCTEURS
+
+    private GuiEvents() {
+        // rien
+    }
+
+    // TYPES IMBRIQUES
+
+    /**
+     * Mise à jour d'une partie de la fenêtre : la durée est aussi
+     *  enregistrée dans l'histogramme de Metrics nommé target.
+     */
+    @Name("pet.GuiUpdate")
+    @Label("Mise à jour de la vue")
+    @Category({ "Pet", "Vue" })
+    static final class Update extends Event {
+        @Label("Partie mise à jour")
+        String target;
+        private transient long start;
+
+        /**
+         * Commence la mesure de la mise à jour target.
+         */
+        static Update start(String target) {
+            Update e = new Update();
+            e.target = target;
+            e.start = System.nanoTime();
+            e.begin();
+            return e;
+        }
+
+        /**
+         * Termine la mesure.
+         */
+        void finish() {
+            commit();
+            Metrics.record(target, System.nanoTime() - start);
+        }
+    }
+
+    @Name("pet.EdtStall")
+    @Label("Blocage du thread de distribution des événements")
+    @Description("Un événement posté n'a été traité qu'après le seuil")
+    @Category({ "Pet", "Vue" })
+    static final class EdtStall extends Event {
+        @Label("Pile du thread bloqué")
+        String stack;
+    }
+}
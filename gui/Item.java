@@ -1,13 +1,24 @@
 package pet.gui;
 
 enum Item {
+    NEW_TAB("Nouvel onglet"),
+    CLOSE_TAB("Fermer l'onglet"),
     NEW("Créer"),
     NEW_FROM_FILE("Créer à partir de..."),
     OPEN("Ouvrir..."),
     REOPEN("Réouvrir"),
+    VIEW_LARGE("Consulter en lecture seule..."),
     SAVE("Sauvegarder"),
     SAVE_AS("Sauvegarder comme..."),
     CLOSE("Fermer"),
+    CANCEL("Interrompre l'opération en cours"),
+    UNDO("Annuler"),
+    REDO("Rétablir"),
+    FIND("Rechercher..."),
+    FIND_NEXT("Rechercher le suivant"),
+    REPLACE("Remplacer tout..."),
+    FIND_ALL("Rechercher une expression régulière..."),
+    GO_TO_LINE("Aller à la ligne..."),
     CLEAR("Effacer"),
     QUIT("Quitter");
     
@@ -0,0 +1,302 @@
+package pet.gui;
+
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.event.ActionEvent;
+import java.awt.event.AdjustmentEvent;
+import java.awt.event.AdjustmentListener;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.event.MouseWheelListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import javax.swing.AbstractAction;
+import javax.swing.BorderFactory;
+import javax.swing.JComponent;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollBar;
+import javax.swing.KeyStroke;
+import javax.swing.border.EtchedBorder;
+
+import pet.model.LargeFile;
+import pet.model.ProgressListener;
+
+/**
+ * Fenêtre de consultation en lecture seule d'un fichier trop volumineux pour
+ *  être chargé dans un document : seules les lignes visibles sont lues, à
+ *  chaque affichage, depuis le LargeFile qui projette le fichier en mémoire.
+ * La zone d'affichage n'a ni document ni vues Swing : elle dessine elle-même
+ *  les lignes, précédées de leur numéro (marqué d'un ~ tant qu'il n'est
+ *  qu'estimé), et ses barres de défilement sont exprimées en lignes et en
+ *  colonnes. L'étendue de la barre verticale suit l'avancement de
+ *  l'indexation, pendant laquelle le défilement reste possible.
+ */
+final class LargeFileViewer {
+
+    // ATTRIBUTS STATIQUES
+
+    private static final Font FONT = new Font(Font.MONOSPACED, Font.PLAIN, 12);
+    private static final int MARGIN = 4;
+    private static final int WHEEL_LINES = 3;
+
+    // ATTRIBUTS
+
+    private final LargeFile file;
+    private final JFrame frame;
+    private final Canvas canvas;
+    private final JScrollBar vertical;
+    private final JScrollBar horizontal;
+    private final JLabel status;
+
+    // CONSTRUCTEURS
+
+    private LargeFileViewer(LargeFile f, JFrame frame) {
+        file = f;
+        this.frame = frame;
+        canvas = new Canvas();
+        vertical = new JScrollBar(JScrollBar.VERTICAL);
+        horizontal = new JScrollBar(JScrollBar.HORIZONTAL);
+        status = new JLabel();
+        status.setBorder(BorderFactory.createEtchedBorder(EtchedBorder.LOWERED));
+        JPanel p = new JPanel(new BorderLayout());
+        p.add(canvas, BorderLayout.CENTER);
+        p.add(vertical, BorderLayout.EAST);
+        p.add(horizontal, BorderLayout.SOUTH);
+        frame.add(p, BorderLayout.CENTER);
+        frame.add(status, BorderLayout.SOUTH);
+        connectControllers();
+        updateScrollBars();
+        updateStatus();
+    }
+
+    // COMMANDES
+
+    /**
+     * Ouvre une fenêtre de consultation du fichier f, qui est fermé en même
+     *  temps qu'elle.
+     * @throws IOException
+     *     si f ne peut pas être lu, ou si son encodage n'est pas pris en
+     *      charge
+     */
+    static void open(File f) throws IOException {
+        if (!f.canRead()) {
+            throw new IOException("fichier illisible");
+        }
+        final JFrame frame = new JFrame("Lecture seule - " + f.getName());
+        final LargeFileViewer[] viewer = new LargeFileViewer[1];
+        LargeFile lf = LargeFile.open(f, new ProgressListener() {
+            @Override
+            public void progressChanged(long done, long total) {
+                if (viewer[0] != null) {
+                    viewer[0].updateScrollBars();
+                    viewer[0].updateStatus();
+                    viewer[0].canvas.repaint();
+                }
+            }
+        });
+        viewer[0] = new LargeFileViewer(lf, frame);
+        frame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+        frame.setPreferredSize(new Dimension(800, 600));
+        frame.pack();
+        frame.setLocationByPlatform(true);
+        frame.setVisible(true);
+        viewer[0].canvas.requestFocusInWindow();
+    }
+
+    // OUTILS
+
+    private void connectControllers() {
+        vertical.addAdjustmentListener(new AdjustmentListener() {
+            @Override
+            public void adjustmentValueChanged(AdjustmentEvent e) {
+                updateHorizontalRange();
+                canvas.repaint();
+            }
+        });
+        horizontal.addAdjustmentListener(new AdjustmentListener() {
+            @Override
+            public void adjustmentValueChanged(AdjustmentEvent e) {
+                canvas.repaint();
+            }
+        });
+        canvas.addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                updateScrollBars();
+            }
+        });
+        canvas.addMouseWheelListener(new MouseWheelListener() {
+            @Override
+            public void mouseWheelMoved(MouseWheelEvent e) {
+                JScrollBar bar = e.isShiftDown() ? horizontal : vertical;
+                bar.setValue(bar.getValue()
+                        + e.getWheelRotation() * WHEEL_LINES);
+            }
+        });
+        bind("UP", vertical, -1, false);
+        bind("DOWN", vertical, 1, false);
+        bind("PAGE_UP", vertical, -1, true);
+        bind("PAGE_DOWN", vertical, 1, true);
+        bind("LEFT", horizontal, -1, false);
+        bind("RIGHT", horizontal, 1, false);
+        bind("ctrl HOME", vertical, Integer.MIN_VALUE, false);
+        bind("ctrl END", vertical, Integer.MAX_VALUE, false);
+        frame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                file.close();
+            }
+        });
+    }
+
+    /**
+     * Associe à la touche key le déplacement de bar de delta unités, ou de
+     *  delta pages si page est vrai.
+     */
+    private void bind(String key, final JScrollBar bar, final int delta,
+            final boolean page) {
+        canvas.getInputMap(JComponent.WHEN_FOCUSED).put(
+                KeyStroke.getKeyStroke(key), key);
+        canvas.getActionMap().put(key, new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (delta == Integer.MIN_VALUE) {
+                    bar.setValue(bar.getMinimum());
+                } else if (delta == Integer.MAX_VALUE) {
+                    bar.setValue(bar.getMaximum());
+                } else {
+                    int step = page ? Math.max(bar.getVisibleAmount() - 1, 1) : 1;
+                    bar.setValue(bar.getValue() + delta * step);
+                }
+            }
+        });
+    }
+
+    /**
+     * Ajuste l'étendue des barres de défilement au nombre de lignes (connu
+     *  ou estimé) et à la taille de la zone d'affichage.
+     */
+    private void updateScrollBars() {
+        FontMetrics fm = canvas.getFontMetrics(FONT);
+        int rows = Math.max(canvas.getHeight() / fm.getHeight(), 1);
+        int lines = (int) Math.min(file.getLineCount(), Integer.MAX_VALUE - rows);
+        vertical.setValues(Math.min(vertical.getValue(), lines), rows, 0,
+                lines + rows - 1);
+        vertical.setBlockIncrement(Math.max(rows - 1, 1));
+        int cols = Math.max(canvas.getWidth() / fm.charWidth('m'), 1);
+        horizontal.setValues(horizontal.getValue(), cols, 0,
+                Math.max(horizontal.getMaximum(), cols));
+        horizontal.setBlockIncrement(Math.max(cols - 1, 1));
+        updateHorizontalRange();
+    }
+
+    /**
+     * Étend la barre de défilement horizontale à la plus longue des lignes
+     *  affichées ; elle ne se réduit pas lorsque cette ligne sort de la vue.
+     * Appelée quand la vue change de lignes ou de taille, et non pendant
+     *  qu'elle est dessinée.
+     */
+    private void updateHorizontalRange() {
+        FontMetrics fm = canvas.getFontMetrics(FONT);
+        int rows = canvas.getHeight() / fm.getHeight() + 1;
+        int widest = 0;
+        for (String line : file.getLines(vertical.getValue(), rows)) {
+            widest = Math.max(widest, expandTabs(line).length());
+        }
+        if (widest > horizontal.getMaximum()) {
+            horizontal.setMaximum(widest);
+        }
+    }
+
+    /**
+     * line, dont les tabulations sont remplacées par des espaces.
+     */
+    private static String expandTabs(String line) {
+        if (line.indexOf('\t') < 0) {
+            return line;
+        }
+        StringBuilder b = new StringBuilder(line.length() + 16);
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '\t') {
+                do {
+                    b.append(' ');
+                } while (b.length() % 8 != 0);
+            } else {
+                b.append(c);
+            }
+        }
+        return b.toString();
+    }
+
+    private void updateStatus() {
+        StringBuilder s = new StringBuilder("Fichier : ");
+        s.append(file.getFile().getAbsolutePath());
+        s.append(" [").append(file.getCharset().name()).append(", lecture seule]");
+        s.append(" - ");
+        if (file.isIndexed()) {
+            s.append(file.getLineCount()).append(" ligne(s)");
+        } else {
+            s.append("~").append(file.getLineCount()).append(" ligne(s), ");
+            s.append("indexation : ")
+                    .append(100 * file.getIndexedBytes() / Math.max(file.getSize(), 1))
+                    .append(" %");
+        }
+        status.setText(s.toString());
+    }
+
+    // TYPES IMBRIQUES
+
+    /**
+     * La zone d'affichage : elle ne lit que les lignes qu'elle dessine.
+     */
+    private final class Canvas extends JComponent {
+        private static final long serialVersionUID = 1L;
+
+        Canvas() {
+            setFont(FONT);
+            setFocusable(true);
+            setOpaque(true);
+            setBackground(Color.WHITE);
+        }
+
+        @Override
+        protected void paintComponent(Graphics g) {
+            g.setColor(getBackground());
+            g.fillRect(0, 0, getWidth(), getHeight());
+            FontMetrics fm = g.getFontMetrics(FONT);
+            int h = fm.getHeight();
+            int cw = fm.charWidth('m');
+            long first = vertical.getValue();
+            int rows = getHeight() / h + 1;
+            List<String> lines = file.getLines(first, rows);
+            long lastNumber = first + lines.size();
+            String widest = (file.isExact(lastNumber) ? "" : "~") + lastNumber;
+            int gutter = MARGIN + fm.stringWidth(widest) + MARGIN;
+            int x0 = MARGIN - horizontal.getValue() * cw;
+            Graphics text = g.create(gutter, 0,
+                    Math.max(getWidth() - gutter, 0), getHeight());
+            text.setColor(Color.BLACK);
+            g.setColor(Color.GRAY);
+            for (int i = 0; i < lines.size(); i++) {
+                long n = first + i;
+                int y = i * h + fm.getAscent();
+                String number = (file.isExact(n) ? "" : "~") + (n + 1);
+                g.drawString(number, gutter - MARGIN - fm.stringWidth(number), y);
+                text.drawString(expandTabs(lines.get(i)), x0, y);
+            }
+            text.dispose();
+        }
+    }
+}
@@ -0,0 +1,614 @@
+package pet.gui;
+
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import javax.swing.JTextArea;
+import javax.swing.event.DocumentEvent;
+import javax.swing.plaf.basic.BasicTextAreaUI;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.JTextComponent;
+import javax.swing.text.PlainDocument;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.text.TabExpander;
+import javax.swing.text.Utilities;
+import javax.swing.text.View;
+import javax.swing.text.ViewFactory;
+
+/**
+ * La vue d'un document texte sans retour à la ligne automatique, qui
+ *  remplace PlainView pour les lignes très longues (JSON ou CSV minifiés) :
+ *  PlainView mesure et dessine chaque ligne en entier à chaque affichage,
+ *  et la remesure en entier à chaque frappe.
+ * Une ligne de plus de CHUNK caractères est découpée en morceaux d'environ
+ *  CHUNK caractères, dont la largeur est mesurée une fois pour toutes et
+ *  conservée, avec l'abscisse de leur début, dans un Layout associé à la
+ *  ligne. Seuls les morceaux qui coupent la zone à redessiner sont
+ *  dessinés ; la conversion entre position et abscisse ne mesure que
+ *  l'intérieur d'un morceau. Une modification de la ligne ne remesure que
+ *  les morceaux qu'elle touche (et ceux qui contiennent une tabulation,
+ *  si leur abscisse a changé).
+ * La largeur préférée, celle de la plus longue ligne, est calculée à la
+ *  création de la vue puis ne fait que croître au fil des modifications :
+ *  elle n'est pas recalculée sur tout le document quand la plus longue
+ *  ligne raccourcit.
+ */
+final class LongLineView extends View implements TabExpander {
+
+    // ATTRIBUTS STATIQUES
+
+    /**
+     * Nombre de caractères des morceaux de ligne : une ligne plus courte est
+     *  mesurée et dessinée d'un seul tenant.
+     */
+    static final int CHUNK = 1024;
+    private static final int DEFAULT_TAB_SIZE = 8;
+
+    // ATTRIBUTS
+
+    private Font font;
+    private FontMetrics metrics;
+    private float tabWidth;
+    /**
+     * L'abscisse, relative au début de la ligne, de l'origine des abscisses
+     *  passées à Utilities : le texte est mesuré et dessiné à partir du
+     *  début de son morceau, pour que les abscisses restent petites et
+     *  précises en simple précision même très loin dans une longue ligne.
+     */
+    private double tabOrigin;
+    private final Segment text;
+    /**
+     * Le découpage des lignes de plus de CHUNK caractères déjà mesurées.
+     */
+    private final Map<Element, Layout> layouts;
+    /**
+     * Largeur de la plus longue ligne (négative tant qu'elle n'a pas été
+     *  calculée).
+     */
+    private double longestWidth;
+
+    // CONSTRUCTEURS
+
+    LongLineView(Element root) {
+        super(root);
+        text = new Segment();
+        layouts = new WeakHashMap<Element, Layout>();
+        longestWidth = -1;
+    }
+
+    // REQUETES
+
+    @Override
+    public float getPreferredSpan(int axis) {
+        updateMetrics();
+        if (axis == View.X_AXIS) {
+            if (longestWidth < 0) {
+                longestWidth = 0;
+                Element root = getElement();
+                for (int i = 0; i < root.getElementCount(); i++) {
+                    longestWidth = Math.max(longestWidth,
+                            lineWidth(root.getElement(i)));
+                }
+            }
+            // place du curseur en fin de ligne
+            return (float) longestWidth + 1;
+        }
+        return getElement().getElementCount() * metrics.getHeight();
+    }
+
+    @Override
+    public Shape modelToView(int pos, Shape a, Position.Bias b)
+            throws BadLocationException {
+        Document doc = getDocument();
+        if (pos < 0 || pos > doc.getLength() + 1) {
+            throw new BadLocationException("Position invalide", pos);
+        }
+        updateMetrics();
+        Rectangle alloc = a.getBounds();
+        Element root = getElement();
+        int line = root.getElementIndex(pos);
+        double x = xOf(root.getElement(line), pos);
+        int h = metrics.getHeight();
+        return new Rectangle(alloc.x + (int) x, alloc.y + line * h, 1, h);
+    }
+
+    @Override
+    public int viewToModel(float fx, float fy, Shape a, Position.Bias[] bias) {
+        updateMetrics();
+        bias[0] = Position.Bias.Forward;
+        Rectangle alloc = a.getBounds();
+        Element root = getElement();
+        if (fy < alloc.y) {
+            return getStartOffset();
+        }
+        if (fy > alloc.y + alloc.height) {
+            return getEndOffset() - 1;
+        }
+        int line = Math.min((int) (fy - alloc.y) / metrics.getHeight(),
+                root.getElementCount() - 1);
+        Element e = root.getElement(line);
+        int p0 = e.getStartOffset();
+        int p1 = e.getEndOffset() - 1;
+        double x = fx - alloc.x;
+        if (x <= 0) {
+            return p0;
+        }
+        int from = p0;
+        int to = p1;
+        double x0 = 0;
+        if (p1 - p0 > CHUNK) {
+            Layout l = layout(e);
+            if (x >= l.width()) {
+                return p1;
+            }
+            int k = l.chunkAtX(x);
+            from = p0 + l.offsets[k];
+            to = p0 + l.offsets[k + 1];
+            x0 = l.xs[k];
+        }
+        loadText(from, to);
+        tabOrigin = x0;
+        int off = Utilities.getTabbedTextOffset(text, metrics, 0,
+                (float) (x - x0), this, from, true);
+        tabOrigin = 0;
+        return Math.min(from + off, p1);
+    }
+
+    /**
+     * La position du taquet de tabulation qui suit x, les taquets étant
+     *  régulièrement espacés depuis le début des lignes.
+     */
+    @Override
+    public float nextTabStop(float x, int tabOffset) {
+        if (tabWidth == 0) {
+            return x;
+        }
+        double n = Math.floor((tabOrigin + x) / tabWidth);
+        return (float) ((n + 1) * tabWidth - tabOrigin);
+    }
+
+    // COMMANDES
+
+    @Override
+    public void paint(Graphics g, Shape a) {
+        updateMetrics();
+        Rectangle alloc = a.getBounds();
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) {
+            clip = alloc;
+        }
+        JTextComponent host = (JTextComponent) getContainer();
+        Element root = getElement();
+        int h = metrics.getHeight();
+        int first = Math.max((clip.y - alloc.y) / h, 0);
+        int last = Math.min((clip.y + clip.height - alloc.y) / h,
+                root.getElementCount() - 1);
+        double xmin = clip.x - alloc.x;
+        double xmax = xmin + clip.width;
+        int s0 = host.getSelectionStart();
+        int s1 = host.getSelectionEnd();
+        Color selected = host.getSelectedTextColor();
+        if (s0 == s1 || selected == null || host.getCaret() == null
+                || !host.getCaret().isSelectionVisible()) {
+            s0 = -1;
+            s1 = -1;
+        }
+        Color normal = host.isEnabled() ? host.getForeground()
+                : host.getDisabledTextColor();
+        Graphics2D g2 = (Graphics2D) g.create();
+        try {
+            g2.translate(alloc.x, alloc.y);
+            g2.setFont(font);
+            for (int line = first; line <= last; line++) {
+                Element e = root.getElement(line);
+                int p0 = e.getStartOffset();
+                int p1 = e.getEndOffset() - 1;
+                int from = p0;
+                int to = p1;
+                double start = 0;
+                if (p1 - p0 > CHUNK) {
+                    Layout l = layout(e);
+                    if (xmin >= l.width()) {
+                        continue;
+                    }
+                    int k = l.chunkAtX(xmin);
+                    from = p0 + l.offsets[k];
+                    to = p0 + l.offsets[l.chunkAtX(xmax) + 1];
+                    start = l.xs[k];
+                }
+                double base = Math.floor(start);
+                tabOrigin = base;
+                g2.translate(base, 0);
+                float x = (float) (start - base);
+                float y = line * h + metrics.getAscent();
+                x = draw(g2, from, Math.min(s0, to), x, y, normal);
+                x = draw(g2, Math.max(from, s0), Math.min(s1, to), x, y,
+                        selected);
+                draw(g2, Math.max(from, s1), to, x, y, normal);
+                g2.translate(-base, 0);
+                tabOrigin = 0;
+            }
+        } finally {
+            g2.dispose();
+        }
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+        update(e, a);
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+        update(e, a);
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+        update(e, a);
+    }
+
+    // OUTILS
+
+    /**
+     * Relève les mesures de la police de la zone de texte ; si elle a
+     *  changé, tout est à remesurer.
+     */
+    private void updateMetrics() {
+        Component c = getContainer();
+        Font f = c.getFont();
+        if (metrics == null || f != font) {
+            font = f;
+            metrics = c.getFontMetrics(f);
+            Object size = getDocument().getProperty(
+                    PlainDocument.tabSizeAttribute);
+            int tabSize = size instanceof Integer ? (Integer) size
+                    : DEFAULT_TAB_SIZE;
+            tabWidth = tabSize * metrics.charWidth('m');
+            layouts.clear();
+            longestWidth = -1;
+        }
+    }
+
+    /**
+     * Reporte la modification e du document : le découpage de la ligne
+     *  modifiée est mis à jour, ceux des lignes retirées sont oubliés.
+     */
+    private void update(DocumentEvent e, Shape a) {
+        Component host = getContainer();
+        if (host == null) {
+            return;
+        }
+        updateMetrics();
+        Element root = getElement();
+        DocumentEvent.ElementChange change = e.getChange(root);
+        if (change != null) {
+            for (Element x : change.getChildrenRemoved()) {
+                layouts.remove(x);
+            }
+            for (Element x : change.getChildrenAdded()) {
+                widen(x);
+            }
+            preferenceChanged(null, true, true);
+            host.repaint();
+            return;
+        }
+        int line = root.getElementIndex(e.getOffset());
+        Element x = root.getElement(line);
+        Layout l = layouts.get(x);
+        if (l != null) {
+            int p0 = x.getStartOffset();
+            if (x.getEndOffset() - 1 - p0 <= CHUNK) {
+                layouts.remove(x);
+            } else if (e.getType() == DocumentEvent.EventType.INSERT) {
+                l.insert(p0, e.getOffset() - p0, e.getLength());
+            } else if (e.getType() == DocumentEvent.EventType.REMOVE) {
+                l.remove(p0, e.getOffset() - p0, e.getLength());
+            } else {
+                layouts.remove(x);
+            }
+        }
+        widen(x);
+        preferenceChanged(null, true, false);
+        if (a == null) {
+            host.repaint();
+        } else {
+            Rectangle alloc = a.getBounds();
+            int h = metrics.getHeight();
+            host.repaint(alloc.x, alloc.y + line * h, alloc.width, h);
+        }
+    }
+
+    /**
+     * Prend en compte la largeur de la ligne e dans celle de la plus longue
+     *  ligne, si celle-ci est connue.
+     */
+    private void widen(Element e) {
+        if (longestWidth >= 0) {
+            longestWidth = Math.max(longestWidth, lineWidth(e));
+        }
+    }
+
+    private double lineWidth(Element e) {
+        int p0 = e.getStartOffset();
+        int p1 = e.getEndOffset() - 1;
+        if (p1 - p0 <= CHUNK) {
+            return measure(p0, p1, 0);
+        }
+        return layout(e).width();
+    }
+
+    /**
+     * L'abscisse, relative au début de la ligne e, de la position pos.
+     */
+    private double xOf(Element e, int pos) {
+        int p0 = e.getStartOffset();
+        int p1 = e.getEndOffset() - 1;
+        pos = Math.min(pos, p1);
+        if (p1 - p0 <= CHUNK) {
+            return measure(p0, pos, 0);
+        }
+        Layout l = layout(e);
+        int k = l.chunkAt(pos - p0);
+        return l.xs[k] + measure(p0 + l.offsets[k], pos, l.xs[k]);
+    }
+
+    private Layout layout(Element e) {
+        Layout l = layouts.get(e);
+        if (l == null) {
+            l = new Layout(e.getStartOffset(), e.getEndOffset() - 1);
+            layouts.put(e, l);
+        }
+        return l;
+    }
+
+    /**
+     * La largeur du texte [p, q[, qui commence à l'abscisse x.
+     */
+    private float measure(int p, int q, double x) {
+        if (q <= p) {
+            return 0;
+        }
+        loadText(p, q);
+        tabOrigin = x;
+        float w = Utilities.getTabbedTextWidth(text, metrics, 0f, this, p);
+        tabOrigin = 0;
+        return w;
+    }
+
+    /**
+     * Dessine le texte [p, q[ à partir de l'abscisse x (relative à
+     *  tabOrigin) avec la couleur c, et retourne l'abscisse de sa fin.
+     */
+    private float draw(Graphics2D g, int p, int q, float x, float y, Color c) {
+        if (q <= p) {
+            return x;
+        }
+        loadText(p, q);
+        g.setColor(c);
+        return Utilities.drawTabbedText(text, x, y, g, this, p);
+    }
+
+    private void loadText(int p, int q) {
+        try {
+            getDocument().getText(p, q - p, text);
+        } catch (BadLocationException e) {
+            // Ne devrait pas survenir
+            throw new InternalError(e.getMessage());
+        }
+    }
+
+    // TYPES IMBRIQUES
+
+    /**
+     * Le découpage d'une ligne en morceaux : le nombre de caractères de
+     *  chacun, sa largeur et l'abscisse de début avec laquelle elle a été
+     *  mesurée (NaN s'il est à remesurer), ainsi que les sommes cumulées des
+     *  caractères et des largeurs, qui donnent la position et l'abscisse du
+     *  début de chaque morceau (offsets[n] et xs[n] sont celles de la fin de
+     *  la ligne).
+     * Les positions sont relatives au début de la ligne.
+     */
+    private final class Layout {
+        private int n;
+        private int[] chars;
+        private float[] widths;
+        private double[] measuredAt;
+        private boolean[] tabbed;
+        int[] offsets;
+        double[] xs;
+
+        /**
+         * Le découpage de la ligne [p0, p1[.
+         */
+        Layout(int p0, int p1) {
+            int len = p1 - p0;
+            n = (len + CHUNK - 1) / CHUNK;
+            allocate(n + 1);
+            for (int k = 0; k < n; k++) {
+                chars[k] = Math.min(CHUNK, len - k * CHUNK);
+                measuredAt[k] = Double.NaN;
+            }
+            refresh(p0);
+        }
+
+        double width() {
+            return xs[n];
+        }
+
+        /**
+         * Le morceau qui contient la position rel (le dernier si rel est la
+         *  fin de la ligne).
+         */
+        int chunkAt(int rel) {
+            int lo = 0;
+            int hi = n - 1;
+            while (lo < hi) {
+                int mid = (lo + hi + 1) >>> 1;
+                if (offsets[mid] <= rel) {
+                    lo = mid;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return lo;
+        }
+
+        /**
+         * Le morceau qui contient l'abscisse x (le dernier si x est au-delà
+         *  de la fin de la ligne).
+         */
+        int chunkAtX(double x) {
+            int lo = 0;
+            int hi = n - 1;
+            while (lo < hi) {
+                int mid = (lo + hi + 1) >>> 1;
+                if (xs[mid] <= x) {
+                    lo = mid;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return lo;
+        }
+
+        /**
+         * Reporte l'insertion de len caractères à la position rel de la
+         *  ligne qui commence en p0 : le morceau qui les reçoit est remesuré,
+         *  et découpé s'il est devenu trop long.
+         */
+        void insert(int p0, int rel, int len) {
+            int k = chunkAt(rel);
+            int total = chars[k] + len;
+            int pieces = total > 2 * CHUNK ? (total + CHUNK - 1) / CHUNK : 1;
+            open(k + 1, pieces - 1);
+            for (int i = 0; i < pieces; i++) {
+                chars[k + i] = pieces == 1 ? total
+                        : Math.min(CHUNK, total - i * CHUNK);
+                measuredAt[k + i] = Double.NaN;
+            }
+            refresh(p0);
+        }
+
+        /**
+         * Reporte le retrait de len caractères à partir de la position rel de
+         *  la ligne qui commence en p0 : les morceaux touchés sont remesurés,
+         *  ceux qui sont vidés sont supprimés.
+         */
+        void remove(int p0, int rel, int len) {
+            int end = rel + len;
+            int first = chunkAt(rel);
+            int k = first;
+            while (k < n && offsets[k] < end) {
+                int o = offsets[k];
+                chars[k] -= Math.min(o + chars[k], end) - Math.max(o, rel);
+                measuredAt[k] = Double.NaN;
+                k += 1;
+            }
+            int w = first;
+            for (int i = first; i < n; i++) {
+                if (chars[i] > 0 || w == 0 && i == n - 1) {
+                    chars[w] = chars[i];
+                    widths[w] = widths[i];
+                    measuredAt[w] = measuredAt[i];
+                    tabbed[w] = tabbed[i];
+                    w += 1;
+                }
+            }
+            n = w;
+            refresh(p0);
+        }
+
+        /**
+         * Remesure les morceaux qui doivent l'être et recalcule les sommes
+         *  cumulées.
+         */
+        private void refresh(int p0) {
+            offsets[0] = 0;
+            xs[0] = 0;
+            for (int k = 0; k < n; k++) {
+                if (Double.isNaN(measuredAt[k])
+                        || tabbed[k] && measuredAt[k] != xs[k]) {
+                    int p = p0 + offsets[k];
+                    widths[k] = measure(p, p + chars[k], xs[k]);
+                    tabbed[k] = chars[k] > 0 && hasTab(text);
+                    measuredAt[k] = xs[k];
+                }
+                offsets[k + 1] = offsets[k] + chars[k];
+                xs[k + 1] = xs[k] + widths[k];
+            }
+        }
+
+        /**
+         * Insère count morceaux vides à l'indice k.
+         */
+        private void open(int k, int count) {
+            if (count == 0) {
+                return;
+            }
+            if (n + count + 1 > chars.length) {
+                int[] c = chars;
+                float[] w = widths;
+                double[] m = measuredAt;
+                boolean[] t = tabbed;
+                allocate(Math.max(2 * chars.length, n + count + 1));
+                System.arraycopy(c, 0, chars, 0, n);
+                System.arraycopy(w, 0, widths, 0, n);
+                System.arraycopy(m, 0, measuredAt, 0, n);
+                System.arraycopy(t, 0, tabbed, 0, n);
+            }
+            System.arraycopy(chars, k, chars, k + count, n - k);
+            System.arraycopy(widths, k, widths, k + count, n - k);
+            System.arraycopy(measuredAt, k, measuredAt, k + count, n - k);
+            System.arraycopy(tabbed, k, tabbed, k + count, n - k);
+            n += count;
+        }
+
+        private void allocate(int capacity) {
+            chars = new int[capacity];
+            widths = new float[capacity];
+            measuredAt = new double[capacity];
+            tabbed = new boolean[capacity];
+            offsets = new int[capacity];
+            xs = new double[capacity];
+        }
+
+        private boolean hasTab(Segment s) {
+            for (int i = s.offset; i < s.offset + s.count; i++) {
+                if (s.array[i] == '\t') {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * L'interface d'une zone de texte dont le document est affiché par une
+     *  LongLineView, sauf en cas de retour à la ligne automatique ou de
+     *  texte bidirectionnel, laissés à BasicTextAreaUI.
+     */
+    static final class TextAreaUI extends BasicTextAreaUI {
+        @Override
+        public View create(Element elem) {
+            Document doc = elem.getDocument();
+            if (elem == doc.getDefaultRootElement()
+                    && !Boolean.TRUE.equals(doc.getProperty("i18n"))
+                    && !((JTextArea) getComponent()).getLineWrap()) {
+                return new LongLineView(elem);
+            }
+            return super.create(elem);
+        }
+    }
+}
@@ -22,14 +22,26 @@ enum Menu {
     static {
         STRUCT = new EnumMap<Menu, Item[]>(Menu.class); 
         STRUCT.put(Menu.FILE, new Item[] {
+                Item.NEW_TAB, Item.CLOSE_TAB,
+                null,
                 Item.NEW, Item.NEW_FROM_FILE,
                 null,
-                Item.OPEN, Item.REOPEN,
+                Item.OPEN, Item.REOPEN, Item.VIEW_LARGE,
                 null,
                 Item.SAVE, Item.SAVE_AS,
                 null,
-                Item.CLOSE });
-        STRUCT.put(Menu.EDIT, new Item[] { Item.CLEAR });
+                Item.CLOSE,
+                null,
+                Item.CANCEL });
+        STRUCT.put(Menu.EDIT, new Item[] {
+                Item.UNDO, Item.REDO,
+                null,
+                Item.FIND, Item.FIND_NEXT, Item.REPLACE,
+                Item.FIND_ALL,
+                null,
+                Item.GO_TO_LINE,
+                null,
+                Item.CLEAR });
         STRUCT.put(Menu.QUIT, new Item[] { Item.QUIT });
     }
 }
@@ -6,14 +6,24 @@ import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Font;
+import java.awt.Graphics;
 import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.File;
 import java.io.IOException;
 import java.util.EnumMap;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import javax.swing.BorderFactory;
 import javax.swing.Icon;
@@ -25,43 +35,135 @@ import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JRootPane;
 import javax.swing.JScrollPane;
 import javax.swing.JSeparator;
+import javax.swing.JTabbedPane;
 import javax.swing.JTextArea;
+import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
 import javax.swing.border.EtchedBorder;
+import javax.swing.event.CaretEvent;
+import javax.swing.event.CaretListener;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.filechooser.FileSystemView;
 import javax.swing.plaf.FileChooserUI;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultHighlighter;
 import javax.swing.text.Document;
+import javax.swing.text.Highlighter;
+import javax.swing.text.PlainDocument;
 
-import pet.model.PetModel;
+import pet.model.DocumentCache;
+import pet.model.EditJournal;
+import pet.model.FileChangeListener;
+import pet.model.FileWatcher;
+import pet.model.LineIndex;
+import pet.model.MatchListener;
+import pet.model.ModelChangeEvent;
+import pet.model.Metrics;
+import pet.model.ProgressListener;
+import pet.model.RegexFinder;
 import pet.model.StdPetModel;
+import pet.model.TextFinder;
+import pet.model.TextRange;
+import pet.model.TextStats;
 import util.Contract;
 
 public class Pet {
     
+    /**
+     * Nombre maximal d'occurrences surlignées par une recherche exhaustive.
+     */
+    private static final int MAX_HIGHLIGHTS = 10000;
+    /**
+     * Délai de traitement d'un événement au-delà duquel le thread de
+     *  distribution des événements est considéré comme bloqué.
+     */
+    private static final long EDT_STALL_MILLIS = 200;
+    /**
+     * Nombre maximal d'icônes de fichiers chargées à l'avance pour le
+     *  sélecteur de fichiers.
+     */
+    private static final int PREWARMED_ICONS = 64;
+    private static final Highlighter.HighlightPainter MATCH_PAINTER =
+            new DefaultHighlighter.DefaultHighlightPainter(new Color(0, 0, 160));
+    
     private final JFrame frame;
     private final JLabel statusBar;
-    private final JTextArea editor;
-    private final JScrollPane scroller;
-    private final PetModel model;
+    private final JLabel caretStatus;
+    private final JTabbedPane tabs;
+    /**
+     * Les onglets, dans l'ordre de tabs.
+     */
+    private final List<Tab> tabList;
+    /**
+     * Le cache qui borne la place occupée dans le tas par les documents des
+     *  onglets : ceux des onglets inactifs y sont mis en sommeil.
+     */
+    private final DocumentCache cache;
+    /**
+     * La surveillance des fichiers des onglets (null si le système de
+     *  fichiers ne la permet pas).
+     */
+    private final FileWatcher watcher;
+    private final EdtWatchdog watchdog;
+    /**
+     * L'onglet affiché, dont le modèle et la zone de texte sont aussi
+     *  désignés par model et editor.
+     */
+    private Tab current;
+    private StdPetModel model;
+    private JTextArea editor;
     private final Map<Item, JMenuItem> menuItems;
+    private CompletableFuture<?> pendingIO;
+    private String progress;
+    private TextFinder finder;
+    private Pattern regex;
+    private final List<Object> matchTags;
+    private int streamedMatches;
+    private int matchCount;
+    private boolean caretStatusPending;
+    /**
+     * Le sélecteur de fichiers, réutilisé d'un dialogue à l'autre (null
+     *  tant qu'il n'a pas été construit).
+     */
+    private JFileChooser fileChooser;
+    private final StartupTimes startup;
 
     // CONSTRUCTEUR
     
     public Pet() {
         // MODELE
-        model = new StdPetModel();
+        cache = new DocumentCache(Runtime.getRuntime().maxMemory() / 2);
+        watcher = buildFileWatcher();
+        watchdog = new EdtWatchdog(EDT_STALL_MILLIS);
         // VUE
         frame = buildMainFrame();
-        editor = buildEditor();
-        scroller = new JScrollPane();
+        tabs = new JTabbedPane();
+        tabList = new ArrayList<Tab>();
+        current = null;
         statusBar = new JLabel();
+        caretStatus = new JLabel("", SwingConstants.RIGHT);
         menuItems = buildMenuItemsMap();
+        pendingIO = null;
+        progress = null;
+        finder = null;
+        regex = null;
+        matchTags = new ArrayList<Object>();
+        streamedMatches = 0;
+        matchCount = -1;
+        caretStatusPending = false;
+        fileChooser = null;
+        startup = new StartupTimes();
         placeMenuItemsAndMenus();
         placeComponents();
         // CONTROLEUR
         connectControllers();
+        openTab();
     }
     
     //COMMANDE
@@ -73,21 +175,147 @@ public class Pet {
         frame.setLocationRelativeTo(null);
         frame.setVisible(true);
     }
+    
+    /**
+     * Ouvre le fichier f dans un nouvel onglet (ou dans l'onglet courant
+     *  s'il est le seul et n'a pas de document), typiquement au démarrage
+     *  pour un fichier désigné sur la ligne de commande : le démarrage ne se
+     *  termine alors qu'à l'affichage de son document (voir StartupTimes).
+     * Un fichier qui ne peut pas être écrit est ouvert comme un nouveau
+     *  document sans fichier.
+     * @pre <pre>
+     *     f != null </pre>
+     */
+    public void open(File f) {
+    	Contract.checkCondition(f != null);
+    	
+    	if (!f.isFile() || !f.canRead()) {
+    		displayError("Le fichier " + f + " n'existe pas ou ne peut pas être lu");
+    		return;
+    	}
+    	if (pendingIO != null) {
+    		return;
+    	}
+    	if (tabList.size() > 1 || model.getDocument() != null) {
+    		openTab();
+    	}
+    	CompletableFuture<Void> io = f.canWrite()
+    			? model.setNewDocAndNewFileAsync(f, progressListener("Lecture"))
+    			: model.setNewDocFromFileAsync(f, progressListener("Lecture"));
+    	startup.expectDocument();
+    	io.whenComplete(new BiConsumer<Object, Throwable>() {
+    		@Override
+    		public void accept(Object v, Throwable t) {
+    			startup.documentReady(t == null);
+    		}
+    	});
+    	followIO(io, "Erreur de lecture du fichier ", null);
+    }
+    
+    /**
+     * Propose de rétablir les modifications non sauvegardées consignées
+     *  dans le journal j, dans un nouvel onglet (ou dans l'onglet courant
+     *  s'il est le seul et n'a pas de document). Un journal refusé ou qui ne
+     *  peut plus être reporté sur son fichier est supprimé si l'utilisateur
+     *  le confirme.
+     * @pre <pre>
+     *     j != null </pre>
+     */
+    public void offerRecovery(File j) {
+    	Contract.checkCondition(j != null);
+    	
+    	EditJournal.Recovery r;
+    	try {
+    		r = EditJournal.read(j);
+    	} catch (IOException e) {
+    		startup.pause();
+    		try {
+    			displayError("Journal illisible : " + j);
+    		} finally {
+    			startup.resume();
+    		}
+    		return;
+    	}
+    	File base = r.getBaseFile();
+    	if (!r.isBaseUnchanged()) {
+    		if (confirmRecovery("Le fichier " + base + " a changé depuis la "
+    				+ "dernière session : ses modifications non sauvegardées "
+    				+ "ne peuvent plus lui être reportées.\n"
+    				+ "Supprimer le journal ?")) {
+    			EditJournal.delete(j);
+    		}
+    		return;
+    	}
+    	if (!confirmRecovery(r.getEditCount() + " modification(s) non "
+    			+ "sauvegardée(s) de " + base + " ont été retrouvées.\n"
+    			+ "Les rétablir ?")) {
+    		EditJournal.delete(j);
+    		return;
+    	}
+    	if (tabList.size() > 1 || model.getDocument() != null) {
+    		openTab();
+    	}
+    	try {
+    		model.recoverJournal(j);
+    	} catch (IOException e) {
+    		startup.pause();
+    		try {
+    			displayError("Les modifications n'ont pas pu être rétablies : "
+    					+ e.getMessage());
+    		} finally {
+    			startup.resume();
+    		}
+    	}
+    }
 
     // OUTILS
     
     private JFrame buildMainFrame() {
         final Dimension prefSize = new Dimension(640, 480);
         
-        JFrame jf = new JFrame("Petit Éditeur de Texte");
+        // la zone de texte n'est affichée qu'avec un document : le premier
+        // affichage est celui du panneau racine
+        JFrame jf = new JFrame("Petit Éditeur de Texte") {
+            @Override
+            protected JRootPane createRootPane() {
+                JRootPane rp = new JRootPane() {
+                    @Override
+                    public void paint(Graphics g) {
+                        super.paint(g);
+                        notifyPainted();
+                    }
+                };
+                rp.setOpaque(true);
+                return rp;
+            }
+        };
         jf.setPreferredSize(prefSize);
         return jf;
     }
     
+    private FileWatcher buildFileWatcher() {
+        try {
+            return new FileWatcher();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+    
     private JTextArea buildEditor() {
         final int fontSize = 14;
         
-        JTextArea jta = new JTextArea();
+        // les longues lignes sont affichées par morceaux, voir LongLineView
+        JTextArea jta = new JTextArea() {
+            @Override
+            public void updateUI() {
+                setUI(new LongLineView.TextAreaUI());
+            }
+            @Override
+            protected void paintComponent(Graphics g) {
+                super.paintComponent(g);
+                notifyPainted();
+            }
+        };
         jta.setBackground(Color.BLACK);
         jta.setForeground(Color.LIGHT_GRAY);
         jta.setCaretColor(Color.RED);
@@ -130,7 +358,7 @@ public class Pet {
     	frame.setJMenuBar(jmb);
     }
     private void placeComponents() {
-        frame.add(scroller, BorderLayout.CENTER);
+        frame.add(tabs, BorderLayout.CENTER);
         
         JPanel p = new JPanel(new GridLayout(1, 0));
         p.setBorder(BorderFactory.createCompoundBorder(
@@ -138,6 +366,7 @@ public class Pet {
                 BorderFactory.createEmptyBorder(3, 5, 3, 5)));
         { //--
             p.add(statusBar);
+            p.add(caretStatus);
         } //--
         
         frame.add(p, BorderLayout.SOUTH);
@@ -151,20 +380,36 @@ public class Pet {
          */
     	frame.setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
         /*
-         * Observateur du modèle.
+         * Observateur des onglets : l'onglet sélectionné devient l'onglet
+         *  courant.
          */
-    	model.addChangeListener(new ChangeListener() {
+    	tabs.addChangeListener(new ChangeListener() {
 			@Override
 			public void stateChanged(ChangeEvent e) {
-				setItemsEnabledState();
-				updateScrollerAndEditorComponents();
-				updateStatusBar();
+				int i = tabs.getSelectedIndex();
+				if (i >= 0 && tabList.get(i) != current) {
+					selectTab(tabList.get(i));
+				}
 			}
 		});
         
         /*
          * Écouteurs des items du menu
          */
+        menuItems.get(Item.NEW_TAB).addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+            	openTab();
+            }
+        });
+        menuItems.get(Item.CLOSE_TAB).addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+            	if (confirmAction()) {
+            		closeTab(current);
+            	}
+            }
+        });
         menuItems.get(Item.NEW).addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
@@ -180,12 +425,9 @@ public class Pet {
 				if (confirmAction()) {
 					File f= selectLoadFile();
 					if (f != null) {
-						try {
-							model.setNewDocFromFile(f);
-						} catch (IOException e2) {
-							displayError("Erreur de lecture du fichier ");
-						}
-						
+						followIO(model.setNewDocFromFileAsync(f,
+								progressListener("Lecture")),
+								"Erreur de lecture du fichier ", null);
 					}
 				}
 			}
@@ -198,12 +440,9 @@ public class Pet {
 				if (confirmAction()) {
 					File f= selectLoadFile();
 					if (f != null) {
-						try {
-							model.setNewDocAndNewFile(f);
-						} catch (IOException e2) {
-							displayError("Erreur de lecture du fichier ");
-						}
-						
+						followIO(model.setNewDocAndNewFileAsync(f,
+								progressListener("Lecture")),
+								"Erreur de lecture du fichier ", null);
 					}
 				}
 			}
@@ -214,38 +453,47 @@ public class Pet {
             	if(confirmAction()){
             		File f= selectLoadFile();
             		if (f != null) {
-            			try {
-            				model.resetCurrentDocWithCurrentFile();
-						} catch (IOException e2) {
-							displayError("Erreur de lecture du fichier ");
-						}
+            			followIO(model.resetCurrentDocWithCurrentFileAsync(
+            					progressListener("Lecture")),
+            					"Erreur de lecture du fichier ", null);
 					}
             		
             	}
             }
         });
-        menuItems.get(Item.SAVE).addActionListener(new ActionListener() {
+        menuItems.get(Item.VIEW_LARGE).addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-            	try {
-            		if (confirmReplaceContent(model.getFile())) {
-            			model.saveCurrentDocIntoCurrentFile();
+            	File f = selectLoadFile();
+            	if (f != null) {
+            		try {
+            			LargeFileViewer.open(f);
+            		} catch (IOException x) {
+            			displayError("Erreur de lecture du fichier : "
+            					+ x.getMessage());
             		}
-				} catch (IOException e2) {
-					displayError("Erreur d'ecriture dans le fichier ");
-				}
+            	}
+            }
+        });
+        menuItems.get(Item.SAVE).addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+            	if (confirmReplaceContent(model.getFile())) {
+            		followIO(model.saveCurrentDocIntoCurrentFileAsync(
+            				progressListener("Écriture")),
+            				"Erreur d'ecriture dans le fichier ", null);
+            	}
             }
         });
         menuItems.get(Item.SAVE_AS).addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
             	File f = selectSaveFile();
-            	try {
-            		model.saveCurrentDocIntoFile(f);
-				} catch (IOException e2) {
-					displayError("Erreur d'ecriture dans le fichier ");
-				}
-            	
+            	if (f != null) {
+            		followIO(model.saveCurrentDocIntoFileAsync(f,
+            				progressListener("Écriture")),
+            				"Erreur d'ecriture dans le fichier ", null);
+            	}
             }
         });
         menuItems.get(Item.CLOSE).addActionListener(new ActionListener() {
@@ -264,58 +512,514 @@ public class Pet {
             	}
             }
         });
+        menuItems.get(Item.UNDO).addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+            	model.undo();
+            }
+        });
+        menuItems.get(Item.REDO).addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+            	model.redo();
+            }
+        });
+        menuItems.get(Item.FIND).addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+            	String p = askPattern("Rechercher :");
+            	if (p != null) {
+            		finder = new TextFinder(p);
+            		setItemsEnabledState();
+            		findFrom(editor.getCaretPosition());
+            	}
+            }
+        });
+        menuItems.get(Item.FIND_NEXT).addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+            	findFrom(editor.getSelectionEnd());
+            }
+        });
+        menuItems.get(Item.REPLACE).addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+            	String p = askPattern("Remplacer :");
+            	if (p == null) {
+            		return;
+            	}
+            	String r = JOptionPane.showInputDialog(frame,
+            			"Remplacer « " + p + " » par :", "");
+            	if (r == null) {
+            		return;
+            	}
+            	finder = new TextFinder(p);
+            	int n = finder.replaceAll(model.getDocument(), r);
+            	JOptionPane.showMessageDialog(frame,
+            			n + " occurrence(s) remplacée(s)", "Remplacer tout",
+            			JOptionPane.INFORMATION_MESSAGE);
+            }
+        });
+        menuItems.get(Item.FIND_ALL).addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+            	String p = JOptionPane.showInputDialog(frame,
+            			"Expression régulière :",
+            			regex == null ? "" : regex.pattern());
+            	if (p == null || p.isEmpty()) {
+            		return;
+            	}
+            	try {
+            		regex = Pattern.compile(p);
+            	} catch (PatternSyntaxException x) {
+            		displayError("Expression invalide : " + x.getDescription());
+            		return;
+            	}
+            	clearMatches();
+            	final CompletableFuture<List<TextRange>> io =
+            			new RegexFinder(regex).findAll(model.getDocument(),
+            					new MatchListener() {
+            						@Override
+            						public void matchesFound(List<TextRange> ranges) {
+            							streamedMatches += ranges.size();
+            							highlight(ranges);
+            						}
+            					}, progressListener("Recherche"));
+            	followIO(io, "La recherche a échoué", new Runnable() {
+            		@Override
+            		public void run() {
+            			List<TextRange> all = io.getNow(null);
+            			if (all.size() != streamedMatches) {
+            				clearMatches();
+            				highlight(all);
+            			}
+            			matchCount = all.size();
+            			updateStatusBar();
+            		}
+            	});
+            }
+        });
+        menuItems.get(Item.GO_TO_LINE).addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+            	LineIndex lineIndex = current.lineIndex;
+            	int n = lineIndex.getLineCount();
+            	String s = JOptionPane.showInputDialog(frame,
+            			"Aller à la ligne (1 - " + n + ") :", "");
+            	if (s == null) {
+            		return;
+            	}
+            	int line;
+            	try {
+            		line = Integer.parseInt(s.trim());
+            	} catch (NumberFormatException x) {
+            		displayError("Numéro de ligne invalide");
+            		return;
+            	}
+            	line = Math.max(1, Math.min(n, line));
+            	editor.setCaretPosition(lineIndex.getLineStartOffset(line - 1));
+            	editor.requestFocusInWindow();
+            }
+        });
+        menuItems.get(Item.CANCEL).addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+            	if (pendingIO != null) {
+            		pendingIO.cancel(false);
+            	}
+            }
+        });
         menuItems.get(Item.QUIT).addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-            	if (!model.isSynchronized() && model.getDocument() != null) {
-            		if (confirmAction()) {
-            			if (model.getFile() != null) {
-            				if (confirmSave()) {
-								try {
-									model.saveCurrentDocIntoCurrentFile();
-								} catch (IOException e2) {
-									displayError("Le fichier n'a pas été sauvegardé");
-									return;
-								}
-							}
-							
-						}else {
-							if (confirmSave()) {
-								try {
-									File file = selectSaveFile();
-									if (file == null) {
-										displayError("Aucun fichier selectioné ");
-										return; 
-									}
-									model.saveCurrentDocIntoFile(file);
-								} catch (IOException e2) {
-									displayError("Le fichier n'a pas été sauvegardé");
-									return;
-								}								
-							}
-						}
-					}
-            		frame.dispose();
-                	System.exit(0);
-				}else {
-					frame.dispose();
-				}
+            	quit(new HashSet<Tab>());
             }
         });
     }
     
+    /**
+     * Propose de sauvegarder, un onglet après l'autre, les documents
+     *  modifiés qui ne figurent pas dans reviewed, puis libère les
+     *  ressources de la fenêtre.
+     * Un document mis en sommeil est d'abord réveillé.
+     */
+    private void quit(final Set<Tab> reviewed) {
+    	Tab t = null;
+    	for (Tab x : tabList) {
+    		if (t == null && !reviewed.contains(x) && x.isModified()) {
+    			t = x;
+    		}
+    	}
+    	if (t == null) {
+    		for (Tab x : tabList) {
+    			x.model.removeDocAndFile();
+    		}
+    		if (watcher != null) {
+    			watcher.close();
+    		}
+    		watchdog.close();
+    		frame.dispose();
+    		if (!reviewed.isEmpty()) {
+    			System.exit(0);
+    		}
+    		return;
+    	}
+    	reviewed.add(t);
+    	if (t.model.isHibernating()) {
+    		try {
+    			t.model.wake();
+    		} catch (IOException x) {
+    			displayError("Erreur de lecture du fichier ");
+    			return;
+    		}
+    	}
+    	tabs.setSelectedIndex(tabList.indexOf(t));
+    	Runnable next = new Runnable() {
+    		@Override
+    		public void run() {
+    			quit(reviewed);
+    		}
+    	};
+    	if (confirmAction()) {
+    		if (model.getFile() != null) {
+    			if (confirmSave()) {
+    				followIO(model.saveCurrentDocIntoCurrentFileAsync(
+    						progressListener("Écriture")),
+    						"Le fichier n'a pas été sauvegardé", next);
+    				return;
+    			}
+    		} else {
+    			if (confirmSave()) {
+    				File file = selectSaveFile();
+    				if (file == null) {
+    					displayError("Aucun fichier selectioné ");
+    					return;
+    				}
+    				followIO(model.saveCurrentDocIntoFileAsync(file,
+    						progressListener("Écriture")),
+    						"Le fichier n'a pas été sauvegardé", next);
+    				return;
+    			}
+    		}
+    	}
+    	next.run();
+    }
+    
+    /**
+     * Ajoute un onglet vide, avec son propre modèle, et le sélectionne.
+     */
+    private void openTab() {
+    	final Tab t = new Tab();
+        /*
+         * Observateur du modèle de l'onglet.
+         */
+    	t.model.addChangeListener(new ChangeListener() {
+			@Override
+			public void stateChanged(ChangeEvent e) {
+				ModelChangeEvent c = (ModelChangeEvent) e;
+				boolean docChanged = c.hasChanged(ModelChangeEvent.Property.DOCUMENT);
+				if (docChanged) {
+					updateScrollerAndEditorComponents(t);
+				}
+				if (docChanged || c.hasChanged(ModelChangeEvent.Property.SYNC)
+						|| c.hasChanged(ModelChangeEvent.Property.FILE)
+						|| c.hasChanged(ModelChangeEvent.Property.HIBERNATION)) {
+					updateTabTitle(t);
+				}
+				if (c.hasChanged(ModelChangeEvent.Property.FILE)) {
+					updateWatchedFile(t);
+				}
+				if (c.hasChanged(ModelChangeEvent.Property.DIFF)
+						&& t.gutter != null) {
+					t.gutter.setDiff(t.model.getLineDiff());
+				}
+				if (t == current) {
+					setItemsEnabledState();
+					updateStatusBar();
+					if (docChanged) {
+						updateCaretStatus();
+					}
+				}
+			}
+		});
+        /*
+         * Observateur du curseur.
+         */
+    	t.editor.addCaretListener(new CaretListener() {
+			@Override
+			public void caretUpdate(CaretEvent e) {
+				scheduleCaretStatus(t);
+			}
+		});
+    	tabList.add(t);
+    	cache.add(t.model);
+    	tabs.addTab(t.title(), t.scroller);
+    	tabs.setSelectedIndex(tabList.size() - 1);
+    }
+    
+    /**
+     * Ferme l'onglet t, qui n'est pas le seul, en abandonnant son document.
+     */
+    private void closeTab(Tab t) {
+    	int i = tabList.indexOf(t);
+    	cache.remove(t.model);
+    	if (t.watchedFile != null) {
+    		watcher.unwatch(t.watchedFile, t.fileListener);
+    	}
+    	t.model.removeDocAndFile();
+    	tabList.remove(i);
+    	tabs.removeTabAt(i);
+    	if (current == t) {
+    		selectTab(tabList.get(tabs.getSelectedIndex()));
+    	}
+    }
+    
+    /**
+     * Fait de t l'onglet courant, en réveillant au besoin son document.
+     */
+    private void selectTab(Tab t) {
+    	if (current != null) {
+    		clearMatches();
+    	}
+    	current = t;
+    	model = t.model;
+    	editor = t.editor;
+    	setItemsEnabledState();
+    	updateStatusBar();
+    	updateCaretStatus();
+    	if (model.isHibernating()) {
+    		followIO(model.wakeAsync(progressListener("Lecture")),
+    				"Erreur de lecture du fichier ", null);
+    	} else {
+    		cache.touch(model);
+    	}
+    	if (t.stale) {
+    		reloadIfChanged(t);
+    	}
+    }
+    
+    /**
+     * Recharge le document de t si son fichier a été modifié par ailleurs
+     *  alors que le document, lui, est synchronisé : seules les lignes qui
+     *  diffèrent sont remplacées.
+     * Pour un onglet inactif, ou si une opération est en cours, la
+     *  vérification est remise à la sélection de l'onglet ou à la fin de
+     *  l'opération.
+     */
+    private void reloadIfChanged(Tab t) {
+    	if (t != current || pendingIO != null) {
+    		t.stale = true;
+    		return;
+    	}
+    	t.stale = false;
+    	if (model.getDocument() != null && model.isSynchronized()
+    			&& model.hasFileChanged()) {
+    		followIO(model.resetCurrentDocWithCurrentFileAsync(
+    				progressListener("Rechargement")),
+    				"Erreur de lecture du fichier ", null);
+    	}
+    }
+    
+    /**
+     * Fait surveiller le fichier du modèle de t, et lui seul.
+     */
+    private void updateWatchedFile(Tab t) {
+    	File f = t.model.getFile();
+    	if (watcher == null
+    			|| (f == null ? t.watchedFile == null : f.equals(t.watchedFile))) {
+    		return;
+    	}
+    	if (t.watchedFile != null) {
+    		watcher.unwatch(t.watchedFile, t.fileListener);
+    		t.watchedFile = null;
+    	}
+    	if (f != null) {
+    		try {
+    			watcher.watch(f, t.fileListener);
+    			t.watchedFile = f;
+    		} catch (IOException e) {
+    			// le fichier ne sera pas surveillé
+    		}
+    	}
+    }
+    
+    /**
+     * Met à jour le titre de l'onglet t, qui reste celui d'avant la mise en
+     *  sommeil tant que son document est en sommeil.
+     */
+    private void updateTabTitle(Tab t) {
+    	if (t.model.isHibernating()) {
+    		return;
+    	}
+    	t.modified = t.model.getDocument() != null
+    			&& !t.model.isSynchronized();
+    	int i = tabList.indexOf(t);
+    	File f = t.model.getFile();
+    	tabs.setTitleAt(i, t.title());
+    	tabs.setToolTipTextAt(i, f == null ? null : f.getAbsolutePath());
+    }
+    
+    /**
+     * Suit l'opération asynchrone io du modèle : tant qu'elle s'exécute,
+     *  seul l'élément CANCEL du menu est disponible, la zone de texte n'est
+     *  plus modifiable et la barre d'état affiche l'avancement.
+     * À sa terminaison, errorMessage est affiché si elle a échoué, et
+     *  onSuccess (s'il n'est pas null) est exécuté si elle a réussi.
+     */
+    private void followIO(CompletableFuture<?> io, final String errorMessage,
+    		final Runnable onSuccess) {
+    	pendingIO = io;
+    	editor.setEditable(false);
+    	setItemsEnabledState();
+    	updateStatusBar();
+    	io.whenComplete(new BiConsumer<Object, Throwable>() {
+    		@Override
+    		public void accept(Object v, Throwable t) {
+    			pendingIO = null;
+    			progress = null;
+    			editor.setEditable(true);
+    			setItemsEnabledState();
+    			updateStatusBar();
+    			if (t == null) {
+    				if (onSuccess != null) {
+    					onSuccess.run();
+    				}
+    			} else if (!(t instanceof CancellationException)) {
+    				displayError(errorMessage);
+    			}
+    			if (pendingIO == null && current.stale) {
+    				reloadIfChanged(current);
+    			}
+    		}
+    	});
+    }
+    
+    /**
+     * Demande un motif de recherche non vide à l'utilisateur, en lui
+     *  proposant le précédent.
+     * Retourne null si l'utilisateur a annulé ou saisi un motif vide.
+     */
+    private String askPattern(String message) {
+    	String p = JOptionPane.showInputDialog(frame, message,
+    			finder == null ? "" : finder.getPattern());
+    	if (p == null || p.isEmpty()) {
+    		return null;
+    	}
+    	return p;
+    }
+    
+    /**
+     * Sélectionne la prochaine occurrence du motif courant à partir de from,
+     *  en reprenant au début du document s'il n'y en a plus après from.
+     */
+    private void findFrom(int from) {
+    	Document d = model.getDocument();
+    	int k = finder.find(d, from);
+    	if (k < 0 && from > 0) {
+    		k = finder.find(d, 0);
+    	}
+    	if (k < 0) {
+    		JOptionPane.showMessageDialog(frame,
+    				"« " + finder.getPattern() + " » est introuvable",
+    				"Rechercher", JOptionPane.INFORMATION_MESSAGE);
+    		return;
+    	}
+    	editor.select(k, k + finder.getPattern().length());
+    	editor.requestFocusInWindow();
+    }
+    
+    /**
+     * Surligne dans la zone de texte les occurrences ranges, dans la limite
+     *  de MAX_HIGHLIGHTS occurrences surlignées.
+     */
+    private void highlight(List<TextRange> ranges) {
+    	Highlighter h = editor.getHighlighter();
+    	for (TextRange r : ranges) {
+    		if (matchTags.size() >= MAX_HIGHLIGHTS) {
+    			return;
+    		}
+    		try {
+    			matchTags.add(h.addHighlight(r.getStart(), r.getEnd(),
+    					MATCH_PAINTER));
+    		} catch (BadLocationException e) {
+    			// Ne devrait pas survenir
+    			throw new InternalError(e.getMessage());
+    		}
+    	}
+    }
+    
+    /**
+     * Retire les surlignages de la dernière recherche exhaustive.
+     */
+    private void clearMatches() {
+    	Highlighter h = editor.getHighlighter();
+    	for (Object tag : matchTags) {
+    		h.removeHighlight(tag);
+    	}
+    	matchTags.clear();
+    	streamedMatches = 0;
+    	matchCount = -1;
+    }
+    
+    /**
+     * Un observateur d'avancement qui affiche dans la barre d'état le
+     *  pourcentage de l'opération en cours, précédé de label.
+     */
+    private ProgressListener progressListener(final String label) {
+    	progress = label + "...";
+    	return new ProgressListener() {
+    		@Override
+    		public void progressChanged(long done, long total) {
+    			if (pendingIO != null) {
+    				progress = label + " : " + (done * 100 / total) + " %";
+    				updateStatusBar();
+    			}
+    		}
+    	};
+    }
+    
     /**
      * Gère l'état de la disponibilité des éléments du menu en fonction de
-     *  l'état du modèle.
+     *  l'état du modèle ; la durée de la mise à jour est mesurée dans
+     *  Metrics.MENU_STATE.
      */
     private void setItemsEnabledState() {
+    	GuiEvents.Update event = GuiEvents.Update.start(Metrics.MENU_STATE);
+    	try {
+    		updateItems();
+    	} finally {
+    		event.finish();
+    	}
+    }
+
+    /**
+     * La mise à jour proprement dite de la disponibilité des éléments du
+     *  menu.
+     */
+    private void updateItems() {
     	Document d =model.getDocument();
     	File f = model.getFile();
     	boolean b =d != null && f!=null && !model.isSynchronized();
     	
     	for (Item item : Item.values()) {
-			menuItems.get(item).setEnabled(true);
+			menuItems.get(item).setEnabled(pendingIO == null);
 		}
+    	menuItems.get(Item.CANCEL).setEnabled(pendingIO != null);
+    	for (int i = 0; i < tabs.getTabCount(); i++) {
+    		tabs.setEnabledAt(i, pendingIO == null
+    				|| i == tabs.getSelectedIndex());
+    	}
+    	if (pendingIO != null) {
+    		return;
+    	}
+    	menuItems.get(Item.CLOSE_TAB).setEnabled(tabList.size() > 1);
+    	menuItems.get(Item.UNDO).setEnabled(model.canUndo());
+    	menuItems.get(Item.REDO).setEnabled(model.canRedo());
+    	menuItems.get(Item.FIND).setEnabled(d != null);
+    	menuItems.get(Item.FIND_NEXT).setEnabled(d != null && finder != null);
+    	menuItems.get(Item.REPLACE).setEnabled(d != null);
+    	menuItems.get(Item.FIND_ALL).setEnabled(d != null);
+    	menuItems.get(Item.GO_TO_LINE).setEnabled(d != null);
     	menuItems.get(Item.CLEAR).setEnabled(d != null && d.getLength() > 0);
     	menuItems.get(Item.REOPEN).setEnabled(b);
     	menuItems.get(Item.SAVE).setEnabled(b);
@@ -324,29 +1028,65 @@ public class Pet {
     }
     
     /**
-     * Met à jour le Viewport du JScrollPane en fonction de la présence d'un
-     *  document dans le modèle.
+     * Met à jour le Viewport du JScrollPane de l'onglet t en fonction de la
+     *  présence d'un document dans son modèle.
      * Remplace le document de la zone de texte par celui du modèle quand c'est
-     *  nécessaire.
+     *  nécessaire : sans document, la zone de texte n'en retient aucun, pour
+     *  que celui d'un modèle mis en sommeil puisse être libéré, et la
+     *  position du curseur est conservée jusqu'à son réveil.
      */
     @SuppressWarnings("unused")
-	private void updateScrollerAndEditorComponents() { 
-    	Document modelDoc=model.getDocument();
-    	Document editorDoc=editor.getDocument();
+	private void updateScrollerAndEditorComponents(Tab t) { 
+    	Document modelDoc=t.model.getDocument();
+    	Document editorDoc=t.editor.getDocument();
+    	if (t.lineIndex != null && t.lineIndex.getDocument() != modelDoc) {
+    		t.lineIndex.getDocument().removeDocumentListener(t.statusListener);
+    		t.lineIndex.dispose();
+    		t.lineIndex = null;
+    		t.stats.dispose();
+    		t.stats = null;
+    	}
     	if (modelDoc == null){
-    		scroller.setViewportView(null);
+    		if (editorDoc != t.emptyDocument) {
+    			t.caret = t.model.isHibernating() ? t.editor.getCaretPosition() : 0;
+    			if (t == current) {
+    				clearMatches();
+    			}
+    			t.editor.setDocument(t.emptyDocument);
+    		}
+    		t.scroller.setViewportView(null);
+    		t.scroller.setRowHeaderView(null);
     	}else {
+    		if (t.gutter == null) {
+    			t.gutter = new ChangeGutter(t.editor);
+    		}
+    		if (t.lineIndex == null) {
+    			t.lineIndex = new LineIndex(modelDoc);
+    			t.stats = new TextStats(modelDoc);
+    			modelDoc.addDocumentListener(t.statusListener);
+    		}
         	if (editorDoc != modelDoc) {
-    			editor.setDocument(modelDoc);
+        		if (t == current) {
+        			clearMatches();
+        		}
+    			t.editor.setDocument(modelDoc);
+    			t.editor.setCaretPosition(Math.min(t.caret, modelDoc.getLength()));
+    			t.caret = 0;
+    			if (t == current) {
+    				cache.touch(t.model);
+    			}
     		}
-			scroller.setViewportView(editor);
+			t.scroller.setViewportView(t.editor);
+			t.scroller.setRowHeaderView(t.gutter);
 		}
     }
     
     /**
-     * Met à jour la barre d'état.
+     * Met à jour la barre d'état ; la durée de la mise à jour est mesurée
+     *  dans Metrics.STATUS_BAR.
      */
     private void updateStatusBar() {
+    	GuiEvents.Update event = GuiEvents.Update.start(Metrics.STATUS_BAR);
     	File f = model.getFile();
     	
     	StringBuffer rslt= new StringBuffer("Fichier : ");
@@ -358,7 +1098,71 @@ public class Pet {
 		}else {
 			rslt.append(f.getAbsolutePath());
 		}
+		if (model.getDocument() != null) {
+			rslt.append(" [").append(model.getEncoding()).append(", ")
+					.append(model.getLineEndings()).append("]");
+		}
+		if (progress != null) {
+			rslt.append(" - ").append(progress);
+		} else if (matchCount >= 0) {
+			rslt.append(" - ").append(matchCount).append(" occurrence(s)");
+		}
     	statusBar.setText(rslt.toString());
+    	event.finish();
+    }
+    
+    /**
+     * Programme la mise à jour de la partie de la barre d'état propre au
+     *  curseur, si t est l'onglet courant : elle n'a lieu qu'une fois les
+     *  notifications de l'édition en cours terminées, l'index des lignes et
+     *  les statistiques étant eux-mêmes tenus à jour par l'une d'elles, et
+     *  une seule fois pour toutes les notifications de cette édition.
+     */
+    private void scheduleCaretStatus(Tab t) {
+    	if (t != current || caretStatusPending) {
+    		return;
+    	}
+    	caretStatusPending = true;
+    	SwingUtilities.invokeLater(new Runnable() {
+    		@Override
+    		public void run() {
+    			caretStatusPending = false;
+    			updateCaretStatus();
+    		}
+    	});
+    }
+    
+    /**
+     * Affiche dans la barre d'état la ligne et la colonne du curseur, et les
+     *  nombres de mots, de lignes et de caractères de la sélection (ou du
+     *  document s'il n'y a pas de sélection).
+     */
+    private void updateCaretStatus() {
+    	LineIndex lineIndex = current.lineIndex;
+    	TextStats stats = current.stats;
+    	if (lineIndex == null || editor.getDocument() != lineIndex.getDocument()) {
+    		caretStatus.setText("");
+    		return;
+    	}
+    	int pos = editor.getCaretPosition();
+    	int line = lineIndex.getLineOfOffset(pos);
+    	int col = pos - lineIndex.getLineStartOffset(line) + 1;
+    	StringBuffer rslt = new StringBuffer("Ln ");
+    	rslt.append(line + 1).append(", Col ").append(col).append(" - ");
+    	int start = editor.getSelectionStart();
+    	int end = editor.getSelectionEnd();
+    	if (start < end) {
+    		rslt.append("Sélection : ")
+    				.append(stats.getWordCount(start, end)).append(" mot(s), ")
+    				.append(stats.getLineCount(start, end)).append(" ligne(s), ")
+    				.append(end - start);
+    	} else {
+    		rslt.append(stats.getWordCount()).append(" mot(s), ")
+    				.append(stats.getLineCount()).append(" ligne(s), ")
+    				.append(stats.getCharCount());
+    	}
+    	rslt.append(" caractère(s)");
+    	caretStatus.setText(rslt.toString());
     }
     
     /**
@@ -429,7 +1233,7 @@ public class Pet {
      */
     @SuppressWarnings("unused")
 	private File selectSaveFile() {
-    	JFileChooser fc = new JFileChooser();
+    	JFileChooser fc = getFileChooser();
     	int choice =fc.showSaveDialog(null);
     	
         if (choice == JFileChooser.APPROVE_OPTION) {
@@ -468,7 +1272,7 @@ public class Pet {
      */
     @SuppressWarnings("unused")
 	private File selectLoadFile() {
-    	JFileChooser fc = new JFileChooser();
+    	JFileChooser fc = getFileChooser();
     	int choice =fc.showOpenDialog(null);
     	if (choice ==JFileChooser.APPROVE_OPTION) {
     		File selectedFile = fc.getSelectedFile();
@@ -481,4 +1285,184 @@ public class Pet {
 			return null;
 		}
     }
+    
+    /**
+     * Pose à l'utilisateur la question de récupération message ; le temps
+     *  de sa réponse n'est pas compté dans les durées du démarrage.
+     */
+    private boolean confirmRecovery(String message) {
+    	startup.pause();
+    	try {
+    		return JOptionPane.showConfirmDialog(frame, message,
+    				"Récupération", JOptionPane.YES_NO_OPTION)
+    				== JOptionPane.YES_OPTION;
+    	} finally {
+    		startup.resume();
+    	}
+    }
+    
+    /**
+     * Le sélecteur de fichiers, construit à sa première demande ; la durée
+     *  de sa construction est mesurée dans Metrics.FILE_CHOOSER.
+     */
+    private JFileChooser getFileChooser() {
+    	if (fileChooser == null) {
+    		long start = System.nanoTime();
+    		fileChooser = new JFileChooser();
+    		Metrics.record(Metrics.FILE_CHOOSER, System.nanoTime() - start);
+    	}
+    	return fileChooser;
+    }
+    
+    /**
+     * Signale un affichage de la fenêtre ou de la zone de texte aux durées
+     *  du démarrage, et prépare le sélecteur de fichiers au premier.
+     */
+    private void notifyPainted() {
+    	if (startup != null && !startup.isDone() && startup.painted()) {
+    		prewarmFileChooser();
+    	}
+    }
+    
+    /**
+     * Prépare, après le premier affichage de la fenêtre, la construction du
+     *  sélecteur de fichiers, pour que le premier dialogue s'ouvre sans
+     *  délai : un thread de fond de faible priorité remplit les caches de la
+     *  vue du système de fichiers (racines, répertoire par défaut, son
+     *  contenu, leurs noms et leurs icônes), qui ne sont pas des composants
+     *  Swing ; le sélecteur lui-même est ensuite construit sur le thread de
+     *  distribution des événements, comme tout composant Swing.
+     */
+    private void prewarmFileChooser() {
+    	Thread t = new Thread(new Runnable() {
+    		@Override
+    		public void run() {
+    			FileSystemView v = FileSystemView.getFileSystemView();
+    			v.getRoots();
+    			v.getHomeDirectory();
+    			File dir = v.getDefaultDirectory();
+    			v.getSystemDisplayName(dir);
+    			v.getSystemIcon(dir);
+    			File[] files = v.getFiles(dir, true);
+    			for (int i = 0; i < Math.min(files.length, PREWARMED_ICONS); i++) {
+    				v.isTraversable(files[i]);
+    				v.getSystemDisplayName(files[i]);
+    				v.getSystemIcon(files[i]);
+    			}
+    			SwingUtilities.invokeLater(new Runnable() {
+    				@Override
+    				public void run() {
+    					getFileChooser();
+    				}
+    			});
+    		}
+    	}, "pet-chooser-prewarm");
+    	t.setDaemon(true);
+    	t.setPriority(Thread.MIN_PRIORITY);
+    	t.start();
+    }
+    
+    // TYPES IMBRIQUES
+    
+    /**
+     * Un onglet : un modèle, la zone de texte qui affiche son document et
+     *  l'index des lignes de celui-ci.
+     */
+    private final class Tab {
+    	final StdPetModel model;
+    	final JTextArea editor;
+    	final JScrollPane scroller;
+    	/**
+    	 * Marge signalant les lignes modifiées depuis la dernière sauvegarde,
+    	 *  construite avec le premier document de l'onglet (null avant).
+    	 */
+    	ChangeGutter gutter;
+    	/**
+    	 * Document vide laissé à la zone de texte lorsque le modèle n'en a pas.
+    	 */
+    	final Document emptyDocument;
+    	LineIndex lineIndex;
+    	/**
+    	 * Nombres de mots, de lignes et de caractères du document, et
+    	 *  l'observateur du document qui les fait afficher après chaque
+    	 *  modification (même loin du curseur).
+    	 */
+    	TextStats stats;
+    	final DocumentListener statusListener;
+    	/**
+    	 * Position du curseur à restaurer au réveil du document.
+    	 */
+    	int caret;
+    	/**
+    	 * Le document était-il modifié lors de la dernière notification du
+    	 *  modèle ? (Reste connu pendant que le document est en sommeil.)
+    	 */
+    	boolean modified;
+    	/**
+    	 * Le fichier surveillé pour l'onglet, et l'observateur de ses
+    	 *  modifications.
+    	 */
+    	File watchedFile;
+    	final FileChangeListener fileListener;
+    	/**
+    	 * Le fichier a-t-il été modifié par ailleurs sans que le document
+    	 *  ait encore été comparé à son nouveau contenu ?
+    	 */
+    	boolean stale;
+    	
+    	Tab() {
+    		model = new StdPetModel();
+    		editor = buildEditor();
+    		scroller = new JScrollPane();
+    		gutter = null;
+    		emptyDocument = new PlainDocument();
+    		editor.setDocument(emptyDocument);
+    		lineIndex = null;
+    		stats = null;
+    		statusListener = new DocumentListener() {
+    			@Override
+    			public void changedUpdate(DocumentEvent e) {
+    				// rien ici
+    			}
+    			@Override
+    			public void insertUpdate(DocumentEvent e) {
+    				scheduleCaretStatus(Tab.this);
+    			}
+    			@Override
+    			public void removeUpdate(DocumentEvent e) {
+    				scheduleCaretStatus(Tab.this);
+    			}
+    		};
+    		caret = 0;
+    		modified = false;
+    		watchedFile = null;
+    		fileListener = new FileChangeListener() {
+    			@Override
+    			public void fileChanged(File f) {
+    				reloadIfChanged(Tab.this);
+    			}
+    		};
+    		stale = false;
+    	}
+    	
+    	/**
+    	 * Le document de l'onglet est-il modifié ?
+    	 */
+    	boolean isModified() {
+    		if (model.isHibernating()) {
+    			return modified;
+    		}
+    		return model.getDocument() != null && !model.isSynchronized();
+    	}
+    	
+    	/**
+    	 * Le titre de l'onglet : le nom du fichier, précédé de « * » si le
+    	 *  document est modifié.
+    	 */
+    	String title() {
+    		File f = model.getFile();
+    		String name = f == null ? "Sans titre" : f.getName();
+    		return isModified() ? "* " + name : name;
+    	}
+    }
 }
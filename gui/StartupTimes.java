@@ -0,0 +1,218 @@
+package pet.gui;
+
+import java.lang.management.ManagementFactory;
+
+import javax.swing.SwingUtilities;
+
+import pet.model.Metrics;
+
+/**
+ * Les durées du démarrage de l'éditeur, comptées depuis le lancement de la
+ *  JVM : jusqu'au premier affichage de la fenêtre, puis jusqu'à celui du
+ *  document ouvert depuis la ligne de commande, s'il y en a un.
+ * Le temps passé dans les dialogues qui attendent l'utilisateur (entre
+ *  pause() et resume()) n'est pas compté dans ces durées ; il est mesuré à
+ *  part.
+ * Une fois connues, elles sont enregistrées dans Metrics.STARTUP_FIRST_PAINT,
+ *  Metrics.STARTUP_DOCUMENT et Metrics.STARTUP_EXCLUDED et, si la propriété
+ *  système REPORT_PROPERTY vaut true, écrites sur la sortie d'erreur.
+ *  L'instant du lancement de la JVM n'est demandé qu'à ce moment, depuis un
+ *  thread de fond.
+ * Ne doit être utilisée que sur le thread de distribution des événements.
+ */
+final class StartupTimes {
+
+    // ATTRIBUTS STATIQUES
+
+    static final String REPORT_PROPERTY = "pet.startupReport";
+
+    // ATTRIBUTS
+
+    /**
+     * Les instants (System.nanoTime, diminués du temps exclu écoulé avant
+     *  eux) du premier affichage et de celui du document (0 s'ils ne sont
+     *  pas encore connus).
+     */
+    private long firstPaint;
+    private long documentPaint;
+    /**
+     * Le temps exclu déjà écoulé, et l'instant du début de la pause en
+     *  cours (0 hors pause).
+     */
+    private long excluded;
+    private long pausedSince;
+    /**
+     * Un document est-il attendu, et est-il installé dans la zone de
+     *  texte ?
+     */
+    private boolean documentExpected;
+    private boolean documentReady;
+    private boolean done;
+
+    // CONSTRUCTEURS
+
+    StartupTimes() {
+        firstPaint = 0;
+        documentPaint = 0;
+        excluded = 0;
+        pausedSince = 0;
+        documentExpected = false;
+        documentReady = false;
+        done = false;
+    }
+
+    // REQUETES
+
+    /**
+     * Toutes les durées du démarrage sont-elles connues ?
+     */
+    boolean isDone() {
+        return done;
+    }
+
+    // COMMANDES
+
+    /**
+     * Signale qu'un document est en cours d'ouverture depuis la ligne de
+     *  commande : le démarrage se termine à son affichage.
+     * Sans effet une fois le démarrage terminé.
+     */
+    void expectDocument() {
+        if (!done) {
+            documentExpected = true;
+        }
+    }
+
+    /**
+     * Signale que le document attendu est installé dans la zone de texte,
+     *  ou que son ouverture a échoué (si !loaded), auquel cas le démarrage
+     *  se termine sans lui.
+     */
+    void documentReady(boolean loaded) {
+        if (!documentExpected || done) {
+            return;
+        }
+        if (loaded) {
+            documentReady = true;
+        } else {
+            documentExpected = false;
+            if (firstPaint != 0 && pausedSince == 0) {
+                finish();
+            }
+        }
+    }
+
+    /**
+     * Signale un affichage de la fenêtre ou de la zone de texte.
+     * Retourne true s'il s'agit du premier.
+     * Pendant une pause, seul le premier affichage est noté : le démarrage
+     *  ne se termine qu'après elle.
+     */
+    boolean painted() {
+        if (done) {
+            return false;
+        }
+        long now = effective(System.nanoTime());
+        boolean first = firstPaint == 0;
+        if (first) {
+            firstPaint = now;
+        }
+        if (pausedSince != 0) {
+            return first;
+        }
+        if (documentReady) {
+            documentPaint = now;
+            finish();
+        } else if (!documentExpected) {
+            finish();
+        }
+        return first;
+    }
+
+    /**
+     * Signale l'ouverture d'un dialogue qui attend l'utilisateur : le temps
+     *  écoulé jusqu'à resume() n'est pas compté.
+     * Sans effet une fois le démarrage terminé ou pendant une pause.
+     */
+    void pause() {
+        if (!done && pausedSince == 0) {
+            pausedSince = System.nanoTime();
+        }
+    }
+
+    /**
+     * Signale la fermeture du dialogue signalé par pause().
+     * Si la fenêtre a déjà été affichée et qu'aucun document n'est encore
+     *  attendu, le démarrage se terminera à la fin du traitement de
+     *  l'événement en cours, à moins qu'une ouverture ou une autre pause ne
+     *  soit signalée d'ici là.
+     */
+    void resume() {
+        if (pausedSince == 0) {
+            return;
+        }
+        excluded += System.nanoTime() - pausedSince;
+        pausedSince = 0;
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                if (!done && pausedSince == 0 && firstPaint != 0
+                        && !documentExpected) {
+                    finish();
+                }
+            }
+        });
+    }
+
+    // OUTILS
+
+    /**
+     * L'instant t diminué du temps exclu écoulé avant lui.
+     */
+    private long effective(long t) {
+        long e = excluded;
+        if (pausedSince != 0) {
+            e += t - pausedSince;
+        }
+        return t - e;
+    }
+
+    private void finish() {
+        done = true;
+        final long paint = firstPaint;
+        final long document = documentPaint;
+        final long skipped = excluded;
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+                long launch = System.nanoTime() - uptime * 1000000L;
+                Metrics.record(Metrics.STARTUP_FIRST_PAINT, paint - launch);
+                if (document != 0) {
+                    Metrics.record(Metrics.STARTUP_DOCUMENT, document - launch);
+                }
+                if (skipped != 0) {
+                    Metrics.record(Metrics.STARTUP_EXCLUDED, skipped);
+                }
+                if (Boolean.getBoolean(REPORT_PROPERTY)) {
+                    StringBuilder b = new StringBuilder("Démarrage : ");
+                    b.append("premier affichage ")
+                            .append((paint - launch) / 1000000L).append(" ms");
+                    if (document != 0) {
+                        b.append(", document affiché ")
+                                .append((document - launch) / 1000000L)
+                                .append(" ms");
+                    }
+                    b.append(" depuis le lancement de la JVM");
+                    if (skipped != 0) {
+                        b.append(" (hors dialogues : ")
+                                .append(skipped / 1000000L).append(" ms)");
+                    }
+                    System.err.println(b);
+                }
+            }
+        }, "pet-startup-times");
+        t.setDaemon(true);
+        t.start();
+    }
+}
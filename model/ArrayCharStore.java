@@ -0,0 +1,60 @@
+package pet.model;
+
+import javax.swing.text.Segment;
+
+import util.Contract;
+
+/**
+ * Un CharStore dont les caractères sont rangés dans un unique tableau.
+ * Le tableau peut être plus grand que la séquence (il n'est pas recopié pour
+ *  être ajusté), seuls ses length() premiers éléments sont significatifs.
+ */
+final class ArrayCharStore implements CharStore {
+
+    // ATTRIBUTS
+
+    private final char[] chars;
+    private final int length;
+
+    // CONSTRUCTEURS
+
+    /**
+     * @pre <pre>
+     *     chars != null && 0 <= length <= chars.length </pre>
+     * @post <pre>
+     *     length() == length
+     *     la séquence est formée des length premiers éléments de chars </pre>
+     */
+    ArrayCharStore(char[] chars, int length) {
+        Contract.checkCondition(chars != null);
+        Contract.checkCondition(0 <= length && length <= chars.length);
+
+        this.chars = chars;
+        this.length = length;
+    }
+
+    // REQUETES
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    /**
+     * La place (en octets) qu'occupe la séquence dans le tas.
+     */
+    long heapSize() {
+        return 2L * chars.length;
+    }
+
+    // COMMANDES
+
+    @Override
+    public void segment(int where, int len, Segment s) {
+        assert 0 <= where && len > 0 && where + len <= length;
+
+        s.array = chars;
+        s.offset = where;
+        s.count = len;
+    }
+}
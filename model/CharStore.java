@@ -0,0 +1,39 @@
+package pet.model;
+
+import javax.swing.text.Segment;
+
+/**
+ * Une séquence de caractères immuable servant de tampon d'origine à un
+ *  document (typiquement le contenu d'un fichier au moment de son
+ *  chargement).
+ * Les caractères ne sont jamais recopiés par les clients : ils y accèdent à
+ *  travers des vues Segment qui désignent directement le stockage interne.
+ *
+ * @inv <pre>
+ *     length() >= 0
+ *     la séquence de caractères ne change jamais </pre>
+ */
+public interface CharStore {
+
+    // REQUETES
+
+    /**
+     * Le nombre de caractères de la séquence.
+     */
+    int length();
+
+    // COMMANDES
+
+    /**
+     * Fait désigner à s une portion contiguë de la séquence commençant en
+     *  where, de longueur au plus len.
+     * Le tableau désigné par s ne doit pas être modifié par le client.
+     * @pre <pre>
+     *     0 <= where && len > 0 && where + len <= length()
+     *     s != null </pre>
+     * @post <pre>
+     *     0 < s.count <= len
+     *     s désigne les caractères d'indices where à where + s.count - 1 </pre>
+     */
+    void segment(int where, int len, Segment s);
+}
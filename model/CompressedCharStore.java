@@ -0,0 +1,263 @@
+package pet.model;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import javax.swing.text.Segment;
+
+/**
+ * Un CharStore dont les caractères sont conservés compressés dans le tas,
+ *  et décompressés à la demande.
+ * La séquence est découpée en blocs de BLOCK_CHARS caractères. Un bloc dont
+ *  tous les caractères sont Latin-1 est rangé à raison d'un octet par
+ *  caractère, les autres à raison de deux ; ces octets sont ensuite
+ *  compressés (Deflater) lorsque cela en réduit la taille. Seuls les blocs
+ *  effectivement consultés sont décompressés et conservés dans un petit
+ *  cache LRU : ceux qu'on lit autour du curseur et de la zone affichée y
+ *  restent, et leur lecture coûte alors autant que celle d'un tableau.
+ * La compression des blocs est répartie sur tous les processeurs.
+ */
+final class CompressedCharStore implements CharStore {
+
+    // ATTRIBUTS STATIQUES
+
+    private static final int BLOCK_CHARS = 1 << 15;
+    private static final int CACHE_BLOCKS = 32;
+    /**
+     * Nombre maximal de blocs compressés par une même tâche.
+     */
+    private static final int TASK_BLOCKS = 8;
+    /**
+     * Rangement des octets d'un bloc.
+     */
+    private static final byte LATIN1 = 0;
+    private static final byte LATIN1_DEFLATED = 1;
+    private static final byte UTF16 = 2;
+    private static final byte UTF16_DEFLATED = 3;
+
+    // ATTRIBUTS
+
+    private final byte[][] blocks;
+    private final byte[] kinds;
+    private final int length;
+    private final byte[] inflateBuffer;
+    private final Map<Integer, char[]> cache;
+
+    // CONSTRUCTEURS
+
+    private CompressedCharStore(byte[][] blocks, byte[] kinds, int length) {
+        this.blocks = blocks;
+        this.kinds = kinds;
+        this.length = length;
+        inflateBuffer = new byte[2 * BLOCK_CHARS];
+        cache = new LinkedHashMap<Integer, char[]>(CACHE_BLOCKS, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, char[]> e) {
+                return size() > CACHE_BLOCKS;
+            }
+        };
+    }
+
+    // REQUETES
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    /**
+     * La place (en octets) qu'occupent dans le tas les blocs compressés et
+     *  ceux du cache.
+     */
+    synchronized long heapSize() {
+        long size = inflateBuffer.length + kinds.length;
+        for (byte[] b : blocks) {
+            size += b.length;
+        }
+        for (char[] chars : cache.values()) {
+            size += 2L * chars.length;
+        }
+        return size;
+    }
+
+    // COMMANDES
+
+    /**
+     * Une copie compressée de s.
+     * @pre <pre>
+     *     s != null </pre>
+     * @post <pre>
+     *     result est formé des caractères de s </pre>
+     */
+    static CompressedCharStore compress(CharStore s) {
+        assert s != null;
+
+        int n = (s.length() + BLOCK_CHARS - 1) / BLOCK_CHARS;
+        byte[][] blocks = new byte[n][];
+        byte[] kinds = new byte[n];
+        ForkJoinPool.commonPool().invoke(
+                new Compression(s, blocks, kinds, 0, n));
+        return new CompressedCharStore(blocks, kinds, s.length());
+    }
+
+    @Override
+    public void segment(int where, int len, Segment s) {
+        assert 0 <= where && len > 0 && where + len <= length;
+
+        int b = where / BLOCK_CHARS;
+        char[] chars = block(b);
+        int k = where - b * BLOCK_CHARS;
+        s.array = chars;
+        s.offset = k;
+        s.count = Math.min(len, chars.length - k);
+    }
+
+    // OUTILS
+
+    /**
+     * Les caractères du bloc b.
+     * Un bloc compressé l'est par un Inflater propre, libéré aussitôt : le
+     *  cache rend ces décompressions rares, et la mémoire native d'un
+     *  Inflater conservé ne serait rendue qu'à sa finalisation.
+     */
+    private synchronized char[] block(int b) {
+        char[] chars = cache.get(b);
+        if (chars != null) {
+            return chars;
+        }
+        chars = new char[Math.min(BLOCK_CHARS, length - b * BLOCK_CHARS)];
+        byte kind = kinds[b];
+        byte[] bytes = blocks[b];
+        if (kind == LATIN1_DEFLATED || kind == UTF16_DEFLATED) {
+            Inflater inflater = new Inflater();
+            inflater.setInput(bytes);
+            int n = (kind == LATIN1_DEFLATED ? 1 : 2) * chars.length;
+            try {
+                int done = 0;
+                while (done < n) {
+                    int k = inflater.inflate(inflateBuffer, done, n - done);
+                    if (k == 0 && (inflater.finished()
+                            || inflater.needsInput())) {
+                        break;
+                    }
+                    done += k;
+                }
+                if (done != n) {
+                    throw new InternalError("Bloc compressé tronqué : " + b);
+                }
+            } catch (DataFormatException e) {
+                // Ne devrait pas survenir
+                throw new InternalError(e.getMessage());
+            } finally {
+                inflater.end();
+            }
+            bytes = inflateBuffer;
+        }
+        if (kind == LATIN1 || kind == LATIN1_DEFLATED) {
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = (char) (bytes[i] & 0xFF);
+            }
+        } else {
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = (char) ((bytes[2 * i] & 0xFF) << 8
+                        | bytes[2 * i + 1] & 0xFF);
+            }
+        }
+        cache.put(b, chars);
+        return chars;
+    }
+
+    // TYPES IMBRIQUES
+
+    /**
+     * La compression des blocs [lo, hi[, partagée en deux tant qu'elle en
+     *  compte plus de TASK_BLOCKS.
+     */
+    private static final class Compression extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final CharStore source;
+        private final byte[][] blocks;
+        private final byte[] kinds;
+        private final int lo;
+        private final int hi;
+
+        Compression(CharStore source, byte[][] blocks, byte[] kinds,
+                int lo, int hi) {
+            this.source = source;
+            this.blocks = blocks;
+            this.kinds = kinds;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo > TASK_BLOCKS) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new Compression(source, blocks, kinds, lo, mid),
+                        new Compression(source, blocks, kinds, mid, hi));
+                return;
+            }
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            char[] chars = new char[BLOCK_CHARS];
+            byte[] bytes = new byte[2 * BLOCK_CHARS];
+            byte[] out = new byte[2 * BLOCK_CHARS];
+            Segment seg = new Segment();
+            try {
+                for (int b = lo; b < hi; b++) {
+                    int from = b * BLOCK_CHARS;
+                    int n = Math.min(BLOCK_CHARS, source.length() - from);
+                    int done = 0;
+                    while (done < n) {
+                        source.segment(from + done, n - done, seg);
+                        System.arraycopy(seg.array, seg.offset, chars, done,
+                                seg.count);
+                        done += seg.count;
+                    }
+                    boolean latin1 = true;
+                    for (int i = 0; i < n && latin1; i++) {
+                        latin1 = chars[i] <= 0xFF;
+                    }
+                    int size;
+                    if (latin1) {
+                        for (int i = 0; i < n; i++) {
+                            bytes[i] = (byte) chars[i];
+                        }
+                        size = n;
+                    } else {
+                        for (int i = 0; i < n; i++) {
+                            bytes[2 * i] = (byte) (chars[i] >> 8);
+                            bytes[2 * i + 1] = (byte) chars[i];
+                        }
+                        size = 2 * n;
+                    }
+                    deflater.reset();
+                    deflater.setInput(bytes, 0, size);
+                    deflater.finish();
+                    int k = deflater.deflate(out, 0, size);
+                    if (deflater.finished() && k < size) {
+                        blocks[b] = copy(out, k);
+                        kinds[b] = latin1 ? LATIN1_DEFLATED : UTF16_DEFLATED;
+                    } else {
+                        blocks[b] = copy(bytes, size);
+                        kinds[b] = latin1 ? LATIN1 : UTF16;
+                    }
+                }
+            } finally {
+                deflater.end();
+            }
+        }
+
+        private static byte[] copy(byte[] a, int n) {
+            byte[] result = new byte[n];
+            System.arraycopy(a, 0, result, 0, n);
+            return result;
+        }
+    }
+}
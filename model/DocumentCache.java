@@ -0,0 +1,139 @@
+package pet.model;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import util.Contract;
+
+/**
+ * Cache des modèles ouverts simultanément, qui borne la place qu'occupent
+ *  ensemble leurs documents dans le tas.
+ * Les modèles sont rangés du moins au plus récemment utilisé. Lorsque le
+ *  total dépasse le budget, les moins récemment utilisés sont mis en sommeil
+ *  (StdPetModel.hibernate()) jusqu'à ce qu'il soit respecté ; le plus
+ *  récemment utilisé, celui que l'on affiche, n'est jamais mis en sommeil.
+ * Un modèle dont une opération asynchrone est en cours ne doit pas pouvoir
+ *  être mis en sommeil : il doit alors être le plus récemment utilisé.
+ *
+ * @inv <pre>
+ *     getBudget() > 0
+ *     getModels() != null
+ *     getModels() est rangée du moins au plus récemment utilisé </pre>
+ *
+ * @cons <pre>
+ *     $ARGS$ long budget
+ *     $PRE$
+ *         budget > 0
+ *     $POST$
+ *         getBudget() == budget
+ *         getModels().isEmpty() </pre>
+ */
+public final class DocumentCache {
+
+    // ATTRIBUTS
+
+    private final long budget;
+    private final Set<StdPetModel> models;
+
+    // CONSTRUCTEURS
+
+    public DocumentCache(long budget) {
+        Contract.checkCondition(budget > 0);
+
+        this.budget = budget;
+        models = new LinkedHashSet<StdPetModel>();
+    }
+
+    // REQUETES
+
+    /**
+     * La place (en octets) que peuvent occuper ensemble dans le tas les
+     *  documents éveillés.
+     */
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * La place approximative (en octets) qu'occupent ensemble dans le tas
+     *  les documents des modèles.
+     */
+    public long getHeapSize() {
+        long size = 0;
+        for (StdPetModel m : models) {
+            size += m.getHeapSize();
+        }
+        return size;
+    }
+
+    /**
+     * Les modèles du cache, du moins au plus récemment utilisé.
+     */
+    public List<StdPetModel> getModels() {
+        return Collections.unmodifiableList(new ArrayList<StdPetModel>(models));
+    }
+
+    // COMMANDES
+
+    /**
+     * Ajoute m au cache, comme modèle le plus récemment utilisé.
+     * Le budget n'est vérifié qu'au prochain appel de touch().
+     * @pre <pre>
+     *     m != null && !getModels().contains(m) </pre>
+     * @post <pre>
+     *     getModels().get(getModels().size() - 1) == m </pre>
+     */
+    public void add(StdPetModel m) {
+        Contract.checkCondition(m != null && !models.contains(m));
+
+        models.add(m);
+    }
+
+    /**
+     * Retire m du cache.
+     * @pre <pre>
+     *     m != null </pre>
+     * @post <pre>
+     *     !getModels().contains(m) </pre>
+     */
+    public void remove(StdPetModel m) {
+        Contract.checkCondition(m != null);
+
+        models.remove(m);
+    }
+
+    /**
+     * Fait de m le modèle le plus récemment utilisé, puis met en sommeil les
+     *  moins récemment utilisés tant que le budget est dépassé.
+     * Un document dont le texte n'a pas pu être déporté reste éveillé.
+     * @pre <pre>
+     *     m != null && getModels().contains(m) </pre>
+     * @post <pre>
+     *     getModels().get(getModels().size() - 1) == m </pre>
+     */
+    public void touch(StdPetModel m) {
+        Contract.checkCondition(m != null && models.contains(m));
+
+        models.remove(m);
+        models.add(m);
+        long size = getHeapSize();
+        for (StdPetModel old : new ArrayList<StdPetModel>(models)) {
+            if (size <= budget || old == m) {
+                return;
+            }
+            if (old.getDocument() != null && !old.isHibernating()) {
+                long s = old.getHeapSize();
+                try {
+                    old.hibernate();
+                    size -= s;
+                } catch (IOException e) {
+                    // le document reste en mémoire
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package pet.model;
+
+import javax.swing.text.Document;
+
+/**
+ * Fabrique des documents utilisés par un modèle.
+ * C'est par elle que le modèle choisit la représentation en mémoire du texte
+ *  qu'il édite.
+ */
+public interface DocumentFactory {
+
+    // REQUETES
+
+    /**
+     * Un nouveau document vide.
+     * @post <pre>
+     *     result != null && result.getLength() == 0 </pre>
+     */
+    Document createDocument();
+
+    /**
+     * Un nouveau document dont le texte est celui de text.
+     * La fabrique peut conserver text tel quel plutôt que de le recopier.
+     * @pre <pre>
+     *     text != null </pre>
+     * @post <pre>
+     *     result != null
+     *     le texte de result est celui de text </pre>
+     */
+    Document createDocument(CharStore text);
+}
@@ -0,0 +1,26 @@
+package pet.model;
+
+/**
+ * Le niveau de durabilité d'une sauvegarde, c'est-à-dire ce qui est
+ *  garanti d'avoir atteint le disque lorsque la sauvegarde se termine.
+ * Dans tous les cas, le fichier est remplacé de façon atomique : après un
+ *  arrêt brutal, on trouve soit l'ancien contenu, soit le nouveau.
+ */
+public enum Durability {
+    /**
+     * Aucune synchronisation : le système écrit les données quand il le
+     *  souhaite. C'est le plus rapide, mais un arrêt brutal peu après la
+     *  sauvegarde peut faire perdre le nouveau contenu.
+     */
+    NONE,
+    /**
+     * Le contenu du fichier est synchronisé sur le disque avant de remplacer
+     *  l'ancien fichier.
+     */
+    FILE,
+    /**
+     * Comme FILE, puis le répertoire est synchronisé à son tour pour que le
+     *  remplacement lui-même soit durable (lorsque la plateforme le permet).
+     */
+    FILE_AND_DIRECTORY
+}
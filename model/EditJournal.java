@@ -0,0 +1,621 @@
+package pet.model;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+
+import util.Contract;
+
+/**
+ * Journal binaire des modifications d'un document depuis le dernier
+ *  chargement ou la dernière sauvegarde de son fichier (la base).
+ * Le journal est un fichier caché placé à côté de la base. Chaque insertion
+ *  et chaque suppression y est ajoutée sous forme d'un court enregistrement
+ *  (position, longueur et texte inséré en UTF-8 modifié, qui conserve tout
+ *  caractère) : son coût dépend de la taille de la modification et non de
+ *  celle du fichier.
+ * Les enregistrements sont regroupés en mémoire puis écrits par lots, sur un
+ *  thread d'arrière-plan, au plus tard BATCH_MILLIS après la modification
+ *  qui a ouvert le lot. Chaque lot est précédé de sa longueur et de sa somme
+ *  de contrôle : un lot incomplet (arrêt brutal pendant son écriture) est
+ *  ignoré à la relecture, ainsi que ceux qui le suivent.
+ * Les journaux sont aussi recensés dans un répertoire de l'utilisateur, afin
+ *  d'être retrouvés au démarrage (findJournals()) puis reportés sur leur
+ *  base (read() puis Recovery.replay()).
+ * Un journal ne pouvant être créé ou écrit est abandonné sans erreur : le
+ *  document n'en est pas affecté.
+ *
+ * @cons <pre>
+ *     $ARGS$ File base, long baseSize, long baseModified, boolean force
+ *     $PRE$
+ *         base != null
+ *     $POST$
+ *         le journal de base est (re)créé vide, en arrière-plan
+ *         baseSize et baseModified (en ms) décrivent l'état de base
+ *         si force, chaque lot est synchronisé sur le disque </pre>
+ */
+public final class EditJournal {
+
+    // ATTRIBUTS STATIQUES
+
+    private static final int MAGIC = 0x5045544A;
+    private static final int VERSION = 1;
+    private static final byte INSERT = 1;
+    private static final byte REMOVE = 2;
+    /**
+     * Délai (en ms) au bout duquel un lot est écrit.
+     */
+    private static final long BATCH_MILLIS = 500;
+    /**
+     * Taille (en octets) à partir de laquelle un lot est écrit sans attendre.
+     */
+    private static final int MAX_BATCH_BYTES = 1 << 16;
+    /**
+     * Nombre maximal de caractères d'un morceau de texte inséré : encodé en
+     *  UTF-8 modifié (DataOutput.writeUTF), il occupe au plus 65535 octets.
+     */
+    private static final int CHUNK_CHARS = 65535 / 3;
+    private static final String SUFFIX = ".pet-journal";
+    private static final String REF_SUFFIX = ".ref";
+    /**
+     * Répertoire où chaque journal est recensé par un fichier contenant son
+     *  chemin.
+     */
+    private static final File INDEX_DIR = new File(
+            new File(System.getProperty("user.home"), ".pet"), "journals");
+
+    // ATTRIBUTS
+
+    private final File base;
+    private final File file;
+    private final long baseSize;
+    private final long baseModified;
+    private final boolean force;
+    /**
+     * Lot en cours, protégé par le verrou du journal.
+     */
+    private final ByteArrayOutputStream pending;
+    private final DataOutputStream out;
+    private boolean flushScheduled;
+    /**
+     * Accédés seulement depuis le thread du journal.
+     */
+    private FileChannel channel;
+    private FileLock lock;
+
+    // CONSTRUCTEURS
+
+    public EditJournal(File base, long baseSize, long baseModified,
+            boolean force) {
+        Contract.checkCondition(base != null);
+
+        this.base = base.getAbsoluteFile();
+        this.file = journalOf(this.base);
+        this.baseSize = baseSize;
+        this.baseModified = baseModified;
+        this.force = force;
+        pending = new ByteArrayOutputStream();
+        out = new DataOutputStream(pending);
+        flushScheduled = false;
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                open();
+            }
+        });
+    }
+
+    // REQUETES
+
+    /**
+     * Le fichier dont les modifications sont journalisées.
+     */
+    public File getBaseFile() {
+        return base;
+    }
+
+    /**
+     * Le fichier du journal.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Les journaux laissés par une session précédente : ceux qui sont
+     *  recensés, existent encore et ne sont plus écrits par aucun processus.
+     * @post <pre>
+     *     result != null </pre>
+     */
+    public static List<File> findJournals() {
+        File[] refs = INDEX_DIR.listFiles();
+        if (refs == null) {
+            return Collections.emptyList();
+        }
+        List<File> result = new ArrayList<File>();
+        for (File ref : refs) {
+            if (!ref.getName().endsWith(REF_SUFFIX)) {
+                continue;
+            }
+            File j;
+            try {
+                j = new File(new String(Files.readAllBytes(ref.toPath()),
+                        StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                continue;
+            }
+            if (!j.isFile()) {
+                ref.delete();
+            } else if (!isInUse(j)) {
+                result.add(j);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Relit le journal j.
+     * Les lots incomplets ou altérés qui le terminent sont ignorés.
+     * @pre <pre>
+     *     j != null </pre>
+     * @post <pre>
+     *     result != null </pre>
+     * @throws IOException
+     *     si j ne peut pas être lu ou n'est pas un journal
+     */
+    public static Recovery read(File j) throws IOException {
+        Contract.checkCondition(j != null);
+
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(j)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Journal invalide : " + j);
+            }
+            long size = in.readLong();
+            long modified = in.readLong();
+            File base = new File(in.readUTF());
+            List<Edit> edits = new ArrayList<Edit>();
+            CRC32 crc = new CRC32();
+            while (readBatch(in, crc, edits)) {
+                // lot suivant
+            }
+            return new Recovery(base, size, modified, edits);
+        } catch (EOFException e) {
+            throw new IOException("Journal tronqué : " + j);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Supprime le journal j et son recensement.
+     * @pre <pre>
+     *     j != null </pre>
+     */
+    public static void delete(File j) {
+        Contract.checkCondition(j != null);
+
+        j.delete();
+        refOf(j).delete();
+    }
+
+    // COMMANDES
+
+    /**
+     * Journalise l'insertion de text en offset.
+     * @pre <pre>
+     *     offset >= 0 && text != null </pre>
+     */
+    public synchronized void insert(int offset, String text) {
+        Contract.checkCondition(offset >= 0 && text != null);
+
+        try {
+            out.writeByte(INSERT);
+            out.writeInt(offset);
+            out.writeInt(text.length());
+            for (int i = 0; i < text.length(); i += CHUNK_CHARS) {
+                out.writeUTF(text.substring(i,
+                        Math.min(text.length(), i + CHUNK_CHARS)));
+            }
+        } catch (IOException e) {
+            // Ne devrait pas survenir
+            throw new InternalError(e.getMessage());
+        }
+        scheduleFlush();
+    }
+
+    /**
+     * Journalise la suppression des length caractères situés en offset.
+     * @pre <pre>
+     *     offset >= 0 && length >= 0 </pre>
+     */
+    public synchronized void remove(int offset, int length) {
+        Contract.checkCondition(offset >= 0 && length >= 0);
+
+        try {
+            out.writeByte(REMOVE);
+            out.writeInt(offset);
+            out.writeInt(length);
+        } catch (IOException e) {
+            // Ne devrait pas survenir
+            throw new InternalError(e.getMessage());
+        }
+        scheduleFlush();
+    }
+
+    /**
+     * Abandonne le journal : le lot en cours est oublié, puis le fichier du
+     *  journal et son recensement sont supprimés.
+     * Attend que la suppression ait eu lieu.
+     */
+    public void discard() {
+        synchronized (this) {
+            pending.reset();
+        }
+        Future<?> f = ExecutorHolder.EXECUTOR.submit(new Runnable() {
+            @Override
+            public void run() {
+                closeChannel();
+                delete(file);
+            }
+        });
+        try {
+            f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // Ne devrait pas survenir
+            throw new InternalError(e.getMessage());
+        }
+    }
+
+    // OUTILS
+
+    /**
+     * Programme l'écriture du lot en cours : immédiatement s'il est assez
+     *  gros, sinon au bout de BATCH_MILLIS si elle n'est pas déjà prévue.
+     * Doit être appelée sous verrou du journal.
+     */
+    private void scheduleFlush() {
+        Runnable flush = new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        };
+        if (pending.size() >= MAX_BATCH_BYTES) {
+            flushScheduled = true;
+            execute(flush);
+        } else if (!flushScheduled) {
+            flushScheduled = true;
+            ExecutorHolder.EXECUTOR.schedule(flush, BATCH_MILLIS,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Crée le fichier du journal, le verrouille, y écrit l'en-tête et le
+     *  recense.
+     * S'exécute sur le thread du journal.
+     */
+    private void open() {
+        try {
+            channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            lock = channel.tryLock();
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            DataOutputStream h = new DataOutputStream(header);
+            h.writeInt(MAGIC);
+            h.writeInt(VERSION);
+            h.writeLong(baseSize);
+            h.writeLong(baseModified);
+            h.writeUTF(base.getPath());
+            writeFully(ByteBuffer.wrap(header.toByteArray()));
+            INDEX_DIR.mkdirs();
+            Files.write(refOf(file).toPath(),
+                    file.getPath().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            // le journal est abandonné
+            closeChannel();
+            delete(file);
+        }
+    }
+
+    /**
+     * Écrit le lot en cours, précédé de sa longueur et de sa somme de
+     *  contrôle.
+     * S'exécute sur le thread du journal.
+     */
+    private void flush() {
+        byte[] batch;
+        synchronized (this) {
+            flushScheduled = false;
+            batch = pending.toByteArray();
+            pending.reset();
+        }
+        if (channel == null || batch.length == 0) {
+            return;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(batch, 0, batch.length);
+        ByteBuffer frame = ByteBuffer.allocate(8 + batch.length);
+        frame.putInt(batch.length);
+        frame.putInt((int) crc.getValue());
+        frame.put(batch);
+        frame.flip();
+        try {
+            writeFully(frame);
+            if (force) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            // le journal est abandonné
+            closeChannel();
+            delete(file);
+        }
+    }
+
+    private void writeFully(ByteBuffer b) throws IOException {
+        while (b.hasRemaining()) {
+            channel.write(b);
+        }
+    }
+
+    /**
+     * Ferme le fichier du journal (s'il est ouvert), ce qui le déverrouille.
+     * S'exécute sur le thread du journal.
+     */
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // rien à faire de plus
+            }
+            channel = null;
+            lock = null;
+        }
+    }
+
+    /**
+     * Lit un lot de in et ajoute ses modifications à edits.
+     * Retourne false, sans rien ajouter, si in est épuisé ou si le lot est
+     *  incomplet ou altéré.
+     */
+    private static boolean readBatch(DataInputStream in, CRC32 crc,
+            List<Edit> edits) throws IOException {
+        byte[] batch;
+        try {
+            int len = in.readInt();
+            int sum = in.readInt();
+            if (len <= 0) {
+                return false;
+            }
+            batch = new byte[len];
+            in.readFully(batch);
+            crc.reset();
+            crc.update(batch, 0, len);
+            if ((int) crc.getValue() != sum) {
+                return false;
+            }
+        } catch (EOFException e) {
+            return false;
+        } catch (OutOfMemoryError e) {
+            // longueur altérée
+            return false;
+        }
+        List<Edit> result = new ArrayList<Edit>();
+        DataInputStream b = new DataInputStream(new ByteArrayInputStream(batch));
+        try {
+            while (b.available() > 0) {
+                byte kind = b.readByte();
+                int offset = b.readInt();
+                int length = b.readInt();
+                if (kind == INSERT) {
+                    StringBuilder text = new StringBuilder(length);
+                    while (text.length() < length) {
+                        text.append(b.readUTF());
+                    }
+                    if (text.length() != length) {
+                        return false;
+                    }
+                    result.add(new Edit(offset, 0, text.toString()));
+                } else if (kind == REMOVE) {
+                    result.add(new Edit(offset, length, null));
+                } else {
+                    return false;
+                }
+            }
+        } catch (EOFException e) {
+            return false;
+        }
+        edits.addAll(result);
+        return true;
+    }
+
+    /**
+     * Le journal du fichier f.
+     */
+    private static File journalOf(File f) {
+        return new File(f.getParentFile(), "." + f.getName() + SUFFIX);
+    }
+
+    /**
+     * Le fichier qui recense le journal j.
+     */
+    private static File refOf(File j) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1").digest(
+                    j.getAbsolutePath().getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            // Ne devrait pas survenir
+            throw new InternalError(e.getMessage());
+        }
+        StringBuilder name = new StringBuilder();
+        for (byte x : digest) {
+            name.append(String.format("%02x", x & 0xFF));
+        }
+        return new File(INDEX_DIR, name + REF_SUFFIX);
+    }
+
+    /**
+     * j est-il verrouillé, c'est-à-dire encore écrit par un processus ?
+     */
+    private static boolean isInUse(File j) {
+        try {
+            FileChannel ch = FileChannel.open(j.toPath(),
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                FileLock l = ch.tryLock();
+                if (l == null) {
+                    return true;
+                }
+                l.release();
+                return false;
+            } catch (OverlappingFileLockException e) {
+                return true;
+            } finally {
+                ch.close();
+            }
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    private static void execute(Runnable r) {
+        ExecutorHolder.EXECUTOR.execute(r);
+    }
+
+    // TYPES IMBRIQUES
+
+    /**
+     * Le contenu d'un journal relu : sa base et les modifications à lui
+     *  reporter, dans l'ordre.
+     */
+    public static final class Recovery {
+        private final File base;
+        private final long baseSize;
+        private final long baseModified;
+        private final List<Edit> edits;
+
+        private Recovery(File base, long baseSize, long baseModified,
+                List<Edit> edits) {
+            this.base = base;
+            this.baseSize = baseSize;
+            this.baseModified = baseModified;
+            this.edits = edits;
+        }
+
+        /**
+         * Le fichier dont les modifications ont été journalisées.
+         */
+        public File getBaseFile() {
+            return base;
+        }
+
+        /**
+         * Le nombre de modifications journalisées.
+         */
+        public int getEditCount() {
+            return edits.size();
+        }
+
+        /**
+         * La base est-elle encore dans l'état où elle était à la création du
+         *  journal (même taille, même date de modification) ?
+         */
+        public boolean isBaseUnchanged() {
+            return base.isFile() && base.length() == baseSize
+                    && base.lastModified() == baseModified;
+        }
+
+        /**
+         * Reporte les modifications sur d, qui doit contenir le texte de la
+         *  base.
+         * @pre <pre>
+         *     d != null </pre>
+         * @throws IOException
+         *     si une modification ne s'applique pas au texte de d (les
+         *      précédentes restent alors appliquées)
+         */
+        public void replay(Document d) throws IOException {
+            Contract.checkCondition(d != null);
+
+            try {
+                for (Edit e : edits) {
+                    if (e.text != null) {
+                        d.insertString(e.offset, e.text, null);
+                    } else {
+                        d.remove(e.offset, e.length);
+                    }
+                }
+            } catch (BadLocationException e) {
+                throw new IOException("Journal incohérent avec "
+                        + base + " : " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Une modification journalisée : insertion de text, ou suppression de
+     *  length caractères si text est null.
+     */
+    private static final class Edit {
+        final int offset;
+        final int length;
+        final String text;
+
+        Edit(int offset, int length, String text) {
+            this.offset = offset;
+            this.length = length;
+            this.text = text;
+        }
+    }
+
+    /**
+     * Le thread (démon) sur lequel sont écrits tous les journaux, créé au
+     *  premier besoin : les écritures d'un même journal restent ordonnées.
+     */
+    private static final class ExecutorHolder {
+        static final ScheduledExecutorService EXECUTOR =
+                Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "pet-journal");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+    }
+}
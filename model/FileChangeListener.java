@@ -0,0 +1,18 @@
+package pet.model;
+
+import java.io.File;
+import java.util.EventListener;
+
+/**
+ * Observateur des modifications d'un fichier surveillé par un FileWatcher.
+ * Il est toujours notifié sur le thread de distribution des événements.
+ */
+public interface FileChangeListener extends EventListener {
+
+    /**
+     * Le fichier f vient d'être créé, modifié ou remplacé.
+     * @pre <pre>
+     *     f != null </pre>
+     */
+    void fileChanged(File f);
+}
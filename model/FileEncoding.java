@@ -0,0 +1,262 @@
+package pet.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+import util.Contract;
+
+/**
+ * L'encodage d'un fichier texte : son jeu de caractères et la présence
+ *  d'une marque d'ordre des octets (BOM) en tête du fichier.
+ * Seuls UTF-8, UTF-16BE et UTF-16LE peuvent porter une BOM.
+ *
+ * @inv <pre>
+ *     getCharset() != null
+ *     hasBom() ==> getCharset() est UTF-8, UTF-16BE ou UTF-16LE </pre>
+ *
+ * @cons <pre>
+ *     $ARGS$ Charset cs, boolean bom
+ *     $PRE$
+ *         cs != null
+ *         bom ==> cs est UTF-8, UTF-16BE ou UTF-16LE
+ *     $POST$
+ *         getCharset() == cs
+ *         hasBom() == bom </pre>
+ */
+public final class FileEncoding {
+
+    // ATTRIBUTS STATIQUES
+
+    /**
+     * Encodage des fichiers dont l'encodage n'est pas connu.
+     */
+    public static final FileEncoding DEFAULT =
+            new FileEncoding(Charset.defaultCharset(), false);
+    /**
+     * Nombre d'octets examinés en tête d'un fichier pour en déterminer
+     *  l'encodage.
+     */
+    private static final int SNIFF_BYTES = 64 * 1024;
+
+    // ATTRIBUTS
+
+    private final Charset charset;
+    private final boolean bom;
+
+    // CONSTRUCTEURS
+
+    public FileEncoding(Charset cs, boolean bom) {
+        Contract.checkCondition(cs != null);
+        Contract.checkCondition(!bom || canHaveBom(cs));
+
+        charset = cs;
+        this.bom = bom;
+    }
+
+    // REQUETES
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * Le fichier commence-t-il par une BOM ?
+     */
+    public boolean hasBom() {
+        return bom;
+    }
+
+    /**
+     * Le nombre d'octets qu'occupe la BOM en tête du fichier.
+     */
+    int getBomLength() {
+        if (!bom) {
+            return 0;
+        }
+        return charset.equals(StandardCharsets.UTF_8) ? 3 : 2;
+    }
+
+    /**
+     * L'encodage de f : celui qu'indique sa BOM s'il en a une, sinon UTF-8
+     *  si ses SNIFF_BYTES premiers octets forment de l'UTF-8 valide, sinon le
+     *  jeu de caractères de la plateforme (ou ISO-8859-1, qui décode tout
+     *  octet, si c'est UTF-8 ou US-ASCII).
+     * Seul le début de f est examiné : s'il s'avère invalide plus loin, il
+     *  doit être relu selon fallback(result).
+     * @pre <pre>
+     *     f != null </pre>
+     * @post <pre>
+     *     result != null </pre>
+     * @throws IOException
+     *     si f ne peut pas être lu
+     */
+    public static FileEncoding detect(File f) throws IOException {
+        Contract.checkCondition(f != null);
+
+        ByteBuffer head = ByteBuffer.allocate(SNIFF_BYTES);
+        boolean complete;
+        FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+        try {
+            int k = 0;
+            while (k >= 0 && head.hasRemaining()) {
+                k = ch.read(head);
+            }
+            complete = k < 0 || ch.position() >= ch.size();
+        } finally {
+            ch.close();
+        }
+        byte[] b = head.array();
+        int n = head.position();
+        if (n >= 3 && (b[0] & 0xFF) == 0xEF && (b[1] & 0xFF) == 0xBB
+                && (b[2] & 0xFF) == 0xBF) {
+            return new FileEncoding(StandardCharsets.UTF_8, true);
+        }
+        if (n >= 2 && (b[0] & 0xFF) == 0xFE && (b[1] & 0xFF) == 0xFF) {
+            return new FileEncoding(StandardCharsets.UTF_16BE, true);
+        }
+        if (n >= 2 && (b[0] & 0xFF) == 0xFF && (b[1] & 0xFF) == 0xFE) {
+            return new FileEncoding(StandardCharsets.UTF_16LE, true);
+        }
+        if (isUtf8(b, n, complete)) {
+            return new FileEncoding(StandardCharsets.UTF_8, false);
+        }
+        return legacy();
+    }
+
+    /**
+     * L'encodage selon lequel relire un fichier qui n'est pas valide selon
+     *  e : celui que detect() attribue aux fichiers qui ne sont pas en
+     *  UTF-8, ou ISO-8859-1 si c'est déjà le jeu de caractères de e.
+     * ISO-8859-1 décode tout octet, et réencode à l'identique le texte
+     *  décodé : un fichier relu selon lui est sauvegardé sans perte.
+     * @pre <pre>
+     *     e != null
+     *     e.getCharset() n'est pas ISO-8859-1 </pre>
+     * @post <pre>
+     *     result != null
+     *     result.getCharset() n'est pas e.getCharset() </pre>
+     */
+    public static FileEncoding fallback(FileEncoding e) {
+        Contract.checkCondition(e != null);
+        Contract.checkCondition(
+                !e.getCharset().equals(StandardCharsets.ISO_8859_1));
+
+        FileEncoding result = legacy();
+        if (result.charset.equals(e.charset)) {
+            result = new FileEncoding(StandardCharsets.ISO_8859_1, false);
+        }
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof FileEncoding)) {
+            return false;
+        }
+        FileEncoding e = (FileEncoding) o;
+        return charset.equals(e.charset) && bom == e.bom;
+    }
+
+    @Override
+    public int hashCode() {
+        return charset.hashCode() ^ (bom ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        return bom ? charset.name() + " (BOM)" : charset.name();
+    }
+
+    // OUTILS
+
+    /**
+     * L'encodage des fichiers qui ne sont pas en UTF-8 : le jeu de
+     *  caractères de la plateforme, ou ISO-8859-1 si c'est UTF-8 ou
+     *  US-ASCII.
+     */
+    private static FileEncoding legacy() {
+        Charset platform = Charset.defaultCharset();
+        if (platform.equals(StandardCharsets.UTF_8)
+                || platform.equals(StandardCharsets.US_ASCII)) {
+            return new FileEncoding(StandardCharsets.ISO_8859_1, false);
+        }
+        return DEFAULT;
+    }
+
+    private static boolean canHaveBom(Charset cs) {
+        return cs.equals(StandardCharsets.UTF_8)
+                || cs.equals(StandardCharsets.UTF_16BE)
+                || cs.equals(StandardCharsets.UTF_16LE);
+    }
+
+    /**
+     * Les n premiers octets de b forment-ils de l'UTF-8 valide ?
+     * Si complete est faux, b n'est que le début du fichier : une séquence
+     *  coupée par la fin de b est alors acceptée.
+     */
+    private static boolean isUtf8(byte[] b, int n, boolean complete) {
+        int i = 0;
+        while (i < n) {
+            int c = b[i] & 0xFF;
+            if (c < 0x80) {
+                i += 1;
+                continue;
+            }
+            int len;
+            int lo = 0x80;
+            int hi = 0xBF;
+            if (c >= 0xC2 && c <= 0xDF) {
+                len = 2;
+            } else if (c >= 0xE0 && c <= 0xEF) {
+                len = 3;
+                if (c == 0xE0) {
+                    lo = 0xA0;
+                } else if (c == 0xED) {
+                    hi = 0x9F;
+                }
+            } else if (c >= 0xF0 && c <= 0xF4) {
+                len = 4;
+                if (c == 0xF0) {
+                    lo = 0x90;
+                } else if (c == 0xF4) {
+                    hi = 0x8F;
+                }
+            } else {
+                return false;
+            }
+            if (i + len > n) {
+                return !complete && isPrefix(b, i + 1, n, lo, hi);
+            }
+            int c1 = b[i + 1] & 0xFF;
+            if (c1 < lo || c1 > hi) {
+                return false;
+            }
+            for (int j = i + 2; j < i + len; j++) {
+                if ((b[j] & 0xC0) != 0x80) {
+                    return false;
+                }
+            }
+            i += len;
+        }
+        return true;
+    }
+
+    /**
+     * Les octets [from, n[ de b peuvent-ils commencer la suite d'une
+     *  séquence UTF-8 dont le deuxième octet est compris entre lo et hi ?
+     */
+    private static boolean isPrefix(byte[] b, int from, int n, int lo, int hi) {
+        for (int j = from; j < n; j++) {
+            int c = b[j] & 0xFF;
+            if (j == from ? c < lo || c > hi : (c & 0xC0) != 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,240 @@
+package pet.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+
+import util.Contract;
+
+/**
+ * Surveillance de fichiers modifiés par d'autres processus, à l'aide d'un
+ *  WatchService : le répertoire de chaque fichier surveillé y est enregistré
+ *  une fois, et un thread (démon) attend les événements du système de
+ *  fichiers.
+ * Les événements qui se suivent à moins de SETTLE_MILLIS d'intervalle sont
+ *  regroupés, un fichier étant souvent écrit en plusieurs fois : chaque
+ *  observateur d'un fichier modifié n'est notifié qu'une fois par groupe.
+ *
+ * Le constructeur lève une IOException si le système de fichiers ne
+ *  permet pas la surveillance.
+ *
+ * @cons <pre>
+ *     $ARGS$ -
+ *     $POST$
+ *         aucun fichier n'est surveillé </pre>
+ */
+public final class FileWatcher {
+
+    // ATTRIBUTS STATIQUES
+
+    private static final long SETTLE_MILLIS = 100;
+    /**
+     * Nombre maximal d'attentes successives de SETTLE_MILLIS avant de
+     *  notifier les modifications déjà regroupées.
+     */
+    private static final int MAX_SETTLE_ROUNDS = 10;
+
+    // ATTRIBUTS
+
+    private final WatchService service;
+    /**
+     * Clé d'enregistrement de chaque répertoire surveillé.
+     */
+    private final Map<Path, WatchKey> keys;
+    /**
+     * Observateurs de chaque fichier surveillé.
+     */
+    private final Map<Path, List<FileChangeListener>> listeners;
+
+    // CONSTRUCTEURS
+
+    public FileWatcher() throws IOException {
+        service = FileSystems.getDefault().newWatchService();
+        keys = new HashMap<Path, WatchKey>();
+        listeners = new HashMap<Path, List<FileChangeListener>>();
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watchLoop();
+            }
+        }, "pet-watch");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    // COMMANDES
+
+    /**
+     * Arrête la surveillance de tous les fichiers.
+     */
+    public void close() {
+        try {
+            service.close();
+        } catch (IOException e) {
+            // le thread de surveillance s'arrête de toute façon
+        }
+        synchronized (this) {
+            keys.clear();
+            listeners.clear();
+        }
+    }
+
+    /**
+     * Notifie désormais listener des modifications de f.
+     * @pre <pre>
+     *     f != null && listener != null </pre>
+     * @throws IOException
+     *     si le répertoire de f ne peut pas être surveillé
+     */
+    public synchronized void watch(File f, FileChangeListener listener)
+            throws IOException {
+        Contract.checkCondition(f != null && listener != null);
+
+        Path p = pathOf(f);
+        Path dir = p.getParent();
+        if (!keys.containsKey(dir)) {
+            keys.put(dir, dir.register(service,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY));
+        }
+        List<FileChangeListener> list = listeners.get(p);
+        if (list == null) {
+            list = new ArrayList<FileChangeListener>();
+            listeners.put(p, list);
+        }
+        list.add(listener);
+    }
+
+    /**
+     * Cesse de notifier listener des modifications de f.
+     * Le répertoire de f n'est plus surveillé s'il ne contient plus de
+     *  fichier surveillé.
+     * @pre <pre>
+     *     f != null && listener != null </pre>
+     */
+    public synchronized void unwatch(File f, FileChangeListener listener) {
+        Contract.checkCondition(f != null && listener != null);
+
+        Path p = pathOf(f);
+        List<FileChangeListener> list = listeners.get(p);
+        if (list == null) {
+            return;
+        }
+        list.remove(listener);
+        if (!list.isEmpty()) {
+            return;
+        }
+        listeners.remove(p);
+        Path dir = p.getParent();
+        for (Path q : listeners.keySet()) {
+            if (q.getParent().equals(dir)) {
+                return;
+            }
+        }
+        WatchKey key = keys.remove(dir);
+        if (key != null) {
+            key.cancel();
+        }
+    }
+
+    // OUTILS
+
+    private static Path pathOf(File f) {
+        return f.getAbsoluteFile().toPath().normalize();
+    }
+
+    /**
+     * Attend les événements du système de fichiers jusqu'à la fermeture du
+     *  service.
+     */
+    private void watchLoop() {
+        try {
+            while (true) {
+                Set<Path> changed = new LinkedHashSet<Path>();
+                collect(service.take(), changed);
+                int rounds = 1;
+                WatchKey key = service.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+                while (key != null && rounds < MAX_SETTLE_ROUNDS) {
+                    collect(key, changed);
+                    rounds += 1;
+                    key = service.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                if (key != null) {
+                    collect(key, changed);
+                }
+                fireFilesChanged(changed);
+            }
+        } catch (InterruptedException e) {
+            // fin de la surveillance
+        } catch (ClosedWatchServiceException e) {
+            // fin de la surveillance
+        }
+    }
+
+    /**
+     * Ajoute à changed les fichiers surveillés concernés par les événements
+     *  de key, puis réarme key.
+     * Si des événements ont été perdus, tous les fichiers surveillés du
+     *  répertoire sont considérés comme modifiés.
+     */
+    private void collect(WatchKey key, Set<Path> changed) {
+        Path dir = (Path) key.watchable();
+        for (WatchEvent<?> e : key.pollEvents()) {
+            synchronized (this) {
+                if (e.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    for (Path p : listeners.keySet()) {
+                        if (p.getParent().equals(dir)) {
+                            changed.add(p);
+                        }
+                    }
+                } else {
+                    Path p = dir.resolve((Path) e.context());
+                    if (listeners.containsKey(p)) {
+                        changed.add(p);
+                    }
+                }
+            }
+        }
+        key.reset();
+    }
+
+    /**
+     * Notifie, sur le thread de distribution des événements, les
+     *  observateurs des fichiers changed.
+     */
+    private void fireFilesChanged(Set<Path> changed) {
+        for (final Path p : changed) {
+            final List<FileChangeListener> list;
+            synchronized (this) {
+                List<FileChangeListener> current = listeners.get(p);
+                if (current == null) {
+                    continue;
+                }
+                list = new ArrayList<FileChangeListener>(current);
+            }
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    for (FileChangeListener l : list) {
+                        l.fileChanged(p.toFile());
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package pet.model;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.Future;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * Suivi d'une opération d'entrée/sortie : transmet son avancement à un
+ *  ProgressListener sur le thread de distribution des événements, et
+ *  l'interrompt lorsque le Future qui la représente a été annulé.
+ * L'avancement n'est transmis que lorsqu'il a changé d'au moins un
+ *  millième, de façon à ne pas submerger la file d'événements.
+ */
+final class IOMonitor {
+
+    // ATTRIBUTS STATIQUES
+
+    /**
+     * Un suivi qui ne notifie rien et n'interrompt jamais l'opération.
+     */
+    static final IOMonitor NONE = new IOMonitor(null, null);
+
+    private static final int STEPS = 1000;
+
+    // ATTRIBUTS
+
+    private final ProgressListener listener;
+    private final Future<?> future;
+    private int lastStep;
+
+    // CONSTRUCTEURS
+
+    /**
+     * @post <pre>
+     *     l'avancement est transmis à listener (s'il n'est pas null)
+     *     l'opération est interrompue si future (s'il n'est pas null)
+     *         est annulé </pre>
+     */
+    IOMonitor(ProgressListener listener, Future<?> future) {
+        this.listener = listener;
+        this.future = future;
+        lastStep = -1;
+    }
+
+    // COMMANDES
+
+    /**
+     * Signale que done unités de travail sur total ont été traitées.
+     * @throws
+     *     InterruptedIOException si l'opération a été annulée
+     */
+    void progress(final long done, final long total)
+            throws InterruptedIOException {
+        checkCancelled();
+        if (listener == null || total <= 0) {
+            return;
+        }
+        int step = (int) (Math.min(done, total) * STEPS / total);
+        if (step != lastStep) {
+            lastStep = step;
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    listener.progressChanged(Math.min(done, total), total);
+                }
+            });
+        }
+    }
+
+    /**
+     * @throws
+     *     InterruptedIOException si l'opération a été annulée
+     */
+    void checkCancelled() throws InterruptedIOException {
+        if (future != null && future.isCancelled()) {
+            throw new InterruptedIOException("Opération annulée");
+        }
+    }
+}
@@ -0,0 +1,412 @@
+package pet.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.SwingUtilities;
+
+import util.Contract;
+
+/**
+ * Un fichier texte consulté en lecture seule sans être chargé : il est
+ *  projeté en mémoire (FileChannel.map) et ses lignes sont décodées à la
+ *  demande, quelques-unes à la fois.
+ * Un thread d'arrière-plan parcourt le fichier à l'ouverture pour en
+ *  construire un index clairsemé : la position du début d'une ligne sur
+ *  stride. Tant que ce parcours n'est pas terminé, le nombre de lignes est
+ *  estimé d'après la partie déjà indexée, et les lignes qui la suivent
+ *  sont localisées à proportion de leur numéro : elles restent
+ *  consultables, mais leur numéro n'est qu'approximatif.
+ * L'index compte au plus MAX_CHECKPOINTS positions : au-delà, stride est
+ *  doublé et une position sur deux oubliée. La place occupée dans le tas
+ *  est ainsi bornée, quelle que soit la taille du fichier.
+ * Les lignes se terminent par "\n", "\r\n" ou "\r". Seuls les jeux de
+ *  caractères où ces fins de ligne occupent un octet sont pris en charge
+ *  (ceux à un octet et UTF-8).
+ *
+ * Le fichier ne doit pas être modifié par un autre processus tant qu'il est
+ *  consulté.
+ *
+ * @inv <pre>
+ *     getFile() != null
+ *     getLineCount() >= 1
+ *     isIndexed() ==> getLineCount() est le nombre exact de lignes </pre>
+ */
+public final class LargeFile {
+
+    // ATTRIBUTS STATIQUES
+
+    private static final long REGION_BYTES = 1L << 30;
+    private static final int INITIAL_STRIDE = 256;
+    private static final int MAX_CHECKPOINTS = 1 << 16;
+    /**
+     * Nombre d'octets parcourus entre deux publications de l'index.
+     */
+    private static final long PUBLISH_BYTES = 4L << 20;
+    /**
+     * Nombre maximal d'octets décodés par ligne : au-delà, la ligne est
+     *  tronquée.
+     */
+    private static final int MAX_LINE_BYTES = 64 * 1024;
+
+    // ATTRIBUTS
+
+    private final File file;
+    private final Charset charset;
+    private final MappedByteBuffer[] regions;
+    /**
+     * Position du début du texte (après la BOM) et taille du fichier.
+     */
+    private final long start;
+    private final long size;
+    private final ProgressListener listener;
+    /**
+     * Dernier état publié de l'index, que le thread d'arrière-plan remplace
+     *  au fil de son parcours.
+     */
+    private volatile Index index;
+    private volatile boolean closed;
+    private volatile boolean notificationPending;
+
+    // CONSTRUCTEURS
+
+    private LargeFile(File f, Charset cs, MappedByteBuffer[] regions,
+            long start, long size, ProgressListener listener) {
+        file = f;
+        charset = cs;
+        this.regions = regions;
+        this.start = start;
+        this.size = size;
+        this.listener = listener;
+        long[] starts = new long[16];
+        starts[0] = start;
+        index = new Index(starts, 1, INITIAL_STRIDE, 0, start, start >= size);
+    }
+
+    // REQUETES
+
+    public File getFile() {
+        return file;
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * La taille du fichier, en octets.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * L'index du fichier est-il complet ?
+     */
+    public boolean isIndexed() {
+        return index.complete;
+    }
+
+    /**
+     * Le nombre d'octets déjà indexés.
+     */
+    public long getIndexedBytes() {
+        return index.bytes;
+    }
+
+    /**
+     * Le nombre de lignes du fichier : exact si l'index est complet, estimé
+     *  d'après la longueur moyenne des lignes déjà indexées sinon.
+     */
+    public long getLineCount() {
+        Index x = index;
+        if (x.complete) {
+            return x.lines + 1;
+        }
+        if (x.lines == 0) {
+            return 1;
+        }
+        double perLine = (double) (x.bytes - start) / x.lines;
+        return x.lines + 1 + (long) ((size - x.bytes) / perLine);
+    }
+
+    /**
+     * Le numéro de la ligne line est-il exact, c'est-à-dire la ligne
+     *  appartient-elle à la partie indexée du fichier ?
+     */
+    public boolean isExact(long line) {
+        Index x = index;
+        return x.complete || line <= x.lines;
+    }
+
+    /**
+     * Les lignes [first, first + count[ du fichier (moins s'il en a moins),
+     *  sans leur fin de ligne ; une ligne de plus de MAX_LINE_BYTES octets
+     *  est tronquée.
+     * @pre <pre>
+     *     first >= 0 && count >= 0 </pre>
+     * @post <pre>
+     *     result != null && result.size() <= count </pre>
+     */
+    public List<String> getLines(long first, int count) {
+        Contract.checkCondition(first >= 0 && count >= 0);
+
+        List<String> result = new ArrayList<String>(count);
+        long pos = lineStart(first);
+        byte[] buffer = new byte[256];
+        while (result.size() < count && pos >= 0) {
+            long end = endOfLine(pos, size);
+            int n = (int) Math.min(end - pos, MAX_LINE_BYTES);
+            if (buffer.length < n) {
+                buffer = new byte[Math.max(n, 2 * buffer.length)];
+            }
+            for (int i = 0; i < n; i++) {
+                buffer[i] = byteAt(pos + i);
+            }
+            result.add(new String(buffer, 0, n, charset));
+            pos = nextLine(end);
+        }
+        return result;
+    }
+
+    // COMMANDES
+
+    /**
+     * Ouvre f en lecture seule et commence son indexation en arrière-plan,
+     *  dont l'avancement (en octets) est transmis à listener s'il n'est pas
+     *  null.
+     * @pre <pre>
+     *     f != null && f.isFile() && f.canRead() </pre>
+     * @post <pre>
+     *     result != null && result.getFile() == f </pre>
+     * @throws IOException
+     *     si f ne peut pas être lu, ou si son encodage n'est pas pris en
+     *      charge
+     */
+    public static LargeFile open(File f, ProgressListener listener)
+            throws IOException {
+        Contract.checkCondition(f != null && f.isFile() && f.canRead());
+
+        FileEncoding enc = FileEncoding.detect(f);
+        if (!MappedCharStore.supports(enc.getCharset())) {
+            throw new IOException("Encodage non pris en charge : " + enc);
+        }
+        MappedByteBuffer[] regions;
+        long size;
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            FileChannel ch = raf.getChannel();
+            size = ch.size();
+            int n = (int) ((size + REGION_BYTES - 1) / REGION_BYTES);
+            regions = new MappedByteBuffer[n];
+            for (int i = 0; i < n; i++) {
+                long from = i * REGION_BYTES;
+                regions[i] = ch.map(FileChannel.MapMode.READ_ONLY, from,
+                        Math.min(REGION_BYTES, size - from));
+            }
+        } finally {
+            raf.close();
+        }
+        final LargeFile result = new LargeFile(f, enc.getCharset(), regions,
+                Math.min(enc.getBomLength(), size), size, listener);
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                result.buildIndex();
+            }
+        }, "pet-index");
+        t.setDaemon(true);
+        t.start();
+        return result;
+    }
+
+    /**
+     * Interrompt l'indexation ; le fichier ne doit plus être consulté.
+     */
+    public void close() {
+        closed = true;
+    }
+
+    // OUTILS
+
+    /**
+     * Parcourt le fichier en relevant le début d'une ligne sur stride, et
+     *  publie régulièrement l'index obtenu.
+     */
+    private void buildIndex() {
+        Index x = index;
+        long[] starts = x.starts;
+        int count = x.count;
+        int stride = x.stride;
+        long lines = 0;
+        long pos = start;
+        long published = pos;
+        while (pos < size && !closed) {
+            long end = endOfLine(pos, Math.min(size, published + PUBLISH_BYTES));
+            if (end < size && end == published + PUBLISH_BYTES) {
+                // ligne inachevée : la publication a lieu au milieu
+                pos = end;
+            } else {
+                pos = nextLine(end);
+                if (pos < 0) {
+                    pos = size;
+                    break;
+                }
+                lines += 1;
+                if (lines % stride == 0) {
+                    if (count == MAX_CHECKPOINTS) {
+                        // les positions conservées vont dans un nouveau
+                        // tableau : l'ancien reste celui de l'index publié
+                        long[] a = new long[starts.length];
+                        for (int i = 0; i < count / 2; i++) {
+                            a[i] = starts[2 * i];
+                        }
+                        starts = a;
+                        count /= 2;
+                        stride *= 2;
+                    }
+                    if (lines % stride == 0) {
+                        if (count == starts.length) {
+                            long[] a = new long[2 * count];
+                            System.arraycopy(starts, 0, a, 0, count);
+                            starts = a;
+                        }
+                        starts[count] = pos;
+                        count += 1;
+                    }
+                }
+            }
+            if (pos - published >= PUBLISH_BYTES) {
+                published = pos;
+                index = new Index(starts, count, stride, lines, pos, false);
+                notifyProgress();
+            }
+        }
+        if (!closed) {
+            index = new Index(starts, count, stride, lines, size, true);
+            notifyProgress();
+        }
+    }
+
+    /**
+     * Transmet l'avancement de l'indexation à listener, sur le thread de
+     *  distribution des événements et sans accumuler de notifications.
+     */
+    private void notifyProgress() {
+        if (listener == null || notificationPending) {
+            return;
+        }
+        notificationPending = true;
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                notificationPending = false;
+                if (!closed) {
+                    listener.progressChanged(index.bytes, size);
+                }
+            }
+        });
+    }
+
+    /**
+     * La position du début de la ligne line, exacte si elle est indexée,
+     *  estimée sinon ; -1 si elle est au-delà de la fin du fichier.
+     */
+    private long lineStart(long line) {
+        Index x = index;
+        long pos;
+        long skip;
+        if (x.complete || line <= x.lines) {
+            int k = (int) Math.min(line / x.stride, x.count - 1);
+            pos = x.starts[k];
+            skip = line - (long) k * x.stride;
+        } else {
+            // au-delà de l'index : à proportion, au début de la ligne
+            // suivante
+            long total = getLineCount();
+            pos = x.bytes + (long) ((double) (line - x.lines)
+                    / Math.max(total - x.lines, 1) * (size - x.bytes));
+            pos = Math.min(pos, size);
+            skip = 0;
+            if (pos > x.bytes && pos < size) {
+                pos = nextLine(endOfLine(pos, size));
+            }
+        }
+        for (long i = 0; i < skip && pos >= 0; i++) {
+            pos = nextLine(endOfLine(pos, size));
+        }
+        return pos;
+    }
+
+    /**
+     * La position de la fin de ligne qui suit pos (limit s'il n'y en a pas
+     *  avant limit).
+     */
+    private long endOfLine(long pos, long limit) {
+        while (pos < limit) {
+            int r = (int) (pos / REGION_BYTES);
+            long base = r * REGION_BYTES;
+            MappedByteBuffer region = regions[r];
+            int end = (int) (Math.min(limit, base + REGION_BYTES) - base);
+            for (int i = (int) (pos - base); i < end; i++) {
+                byte b = region.get(i);
+                if (b == '\n' || b == '\r') {
+                    return base + i;
+                }
+            }
+            pos = base + end;
+        }
+        return limit;
+    }
+
+    /**
+     * La position du début de la ligne dont la précédente se termine en
+     *  end, ou -1 si end est la fin du fichier.
+     */
+    private long nextLine(long end) {
+        if (end >= size) {
+            return -1;
+        }
+        if (byteAt(end) == '\r' && end + 1 < size && byteAt(end + 1) == '\n') {
+            return end + 2;
+        }
+        return end + 1;
+    }
+
+    private byte byteAt(long pos) {
+        int r = (int) (pos / REGION_BYTES);
+        return regions[r].get((int) (pos - r * REGION_BYTES));
+    }
+
+    // TYPES IMBRIQUES
+
+    /**
+     * Un état de l'index : starts[k] est le début de la ligne k * stride,
+     *  pour k < count ; lines lignes se terminent avant la position bytes.
+     * Les count premiers éléments de starts ne sont plus modifiés.
+     */
+    private static final class Index {
+        final long[] starts;
+        final int count;
+        final int stride;
+        final long lines;
+        final long bytes;
+        final boolean complete;
+
+        Index(long[] starts, int count, int stride, long lines, long bytes,
+                boolean complete) {
+            this.starts = starts;
+            this.count = count;
+            this.stride = stride;
+            this.lines = lines;
+            this.bytes = bytes;
+            this.complete = complete;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package pet.model;
+
+import java.util.Arrays;
+
+import util.Contract;
+
+/**
+ * Les différences, ligne à ligne, entre le texte d'un document et celui du
+ *  dernier chargement ou de la dernière sauvegarde de son fichier.
+ * Elles forment des portions séparées par des lignes inchangées et rangées
+ *  dans l'ordre du texte : chacune est une suite de lignes du document
+ *  ajoutées ou modifiées, ou l'emplacement de lignes retirées.
+ * Une instance est immuable : le modèle en fournit une nouvelle après
+ *  chaque modification.
+ *
+ * @inv <pre>
+ *     getLineCount() >= 0
+ *     isEmpty() <==> forall 0 <= i < getLineCount() : getChange(i) == null </pre>
+ */
+public final class LineDiff {
+
+    // ATTRIBUTS STATIQUES
+
+    /**
+     * Aucune différence, pour un document sans texte de référence.
+     */
+    public static final LineDiff NONE = new LineDiff(0, new int[0],
+            new int[0], new int[0]);
+
+    // ATTRIBUTS
+
+    private final int lineCount;
+    /**
+     * La portion k occupe les lignes [starts[k], ends[k][ du document, et
+     *  remplace removed[k] lignes du texte de référence.
+     */
+    private final int[] starts;
+    private final int[] ends;
+    private final int[] removed;
+
+    // CONSTRUCTEURS
+
+    LineDiff(int lineCount, int[] starts, int[] ends, int[] removed) {
+        assert lineCount >= 0;
+        assert starts.length == ends.length && ends.length == removed.length;
+
+        this.lineCount = lineCount;
+        this.starts = starts;
+        this.ends = ends;
+        this.removed = removed;
+    }
+
+    // REQUETES
+
+    /**
+     * Le nombre de lignes du document comparé.
+     */
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * Le texte du document est-il celui de référence ?
+     */
+    public boolean isEmpty() {
+        return starts.length == 0;
+    }
+
+    /**
+     * Le changement subi par la ligne line du document : ADDED ou MODIFIED
+     *  si elle a été ajoutée ou modifiée, DELETED si des lignes ont été
+     *  retirées juste avant elle (ou après elle s'il s'agit de la dernière
+     *  ligne), null si elle est inchangée.
+     * @pre <pre>
+     *     0 <= line < getLineCount() </pre>
+     */
+    public Change getChange(int line) {
+        Contract.checkCondition(0 <= line && line < lineCount);
+
+        int n = starts.length;
+        int k = Arrays.binarySearch(starts, line);
+        if (k < 0) {
+            k = -k - 2;
+        }
+        if (k >= 0 && line < ends[k]) {
+            return removed[k] > 0 ? Change.MODIFIED : Change.ADDED;
+        }
+        if (k >= 0 && starts[k] == line
+                || line == lineCount - 1 && n > 0 && starts[n - 1] == lineCount) {
+            return Change.DELETED;
+        }
+        return null;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
+        }
+        if (obj == null || obj.getClass() != getClass()) {
+            return false;
+        }
+        LineDiff d = (LineDiff) obj;
+        return lineCount == d.lineCount && Arrays.equals(starts, d.starts)
+                && Arrays.equals(ends, d.ends)
+                && Arrays.equals(removed, d.removed);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * lineCount + Arrays.hashCode(starts);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder b = new StringBuilder(getClass().getSimpleName());
+        b.append('[');
+        for (int k = 0; k < starts.length; k++) {
+            if (k > 0) {
+                b.append(", ");
+            }
+            b.append(starts[k]).append('-').append(ends[k])
+                    .append('/').append(removed[k]);
+        }
+        return b.append(']').toString();
+    }
+
+    // TYPES IMBRIQUES
+
+    /**
+     * Le changement subi par une ligne.
+     */
+    public enum Change {
+        /**
+         * La ligne a été ajoutée.
+         */
+        ADDED,
+        /**
+         * La ligne remplace une ou plusieurs lignes.
+         */
+        MODIFIED,
+        /**
+         * Des lignes ont été retirées à cet endroit.
+         */
+        DELETED
+    }
+}
@@ -0,0 +1,388 @@
+package pet.model;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.Segment;
+
+/**
+ * Comparaison ligne à ligne d'un document à une image de son texte de
+ *  référence, tenue à jour au fil des modifications du document.
+ * Chaque ligne est résumée par une empreinte de 64 bits (FNV-1a), fin de
+ *  ligne comprise, et deux lignes de même empreinte sont tenues pour
+ *  égales. Les empreintes du texte de référence sont calculées une fois
+ *  pour toutes ; celles du document le sont aussi à la première
+ *  comparaison, puis seules les lignes que touche une modification sont
+ *  réempreintées. Ces calculs initiaux sont répartis sur tous les
+ *  processeurs : le texte est découpé en morceaux d'environ CHUNK_CHARS
+ *  caractères, coupés en fin de ligne, que des tâches d'un ForkJoinPool
+ *  traitent indépendamment.
+ * Une comparaison écarte le préfixe et le suffixe communs des deux suites
+ *  d'empreintes, puis apparie les lignes restantes selon l'algorithme de
+ *  Myers (TextDiff.match) ; elle n'est refaite qu'après une modification.
+ *  Si ces lignes sont trop différentes pour être appariées, elles forment
+ *  une seule portion modifiée.
+ * Ne doit être utilisée que sur le thread de distribution des événements.
+ */
+final class LineDiffer {
+
+    // ATTRIBUTS STATIQUES
+
+    private static final int CHUNK_CHARS = 1 << 20;
+    private static final long FNV_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    // ATTRIBUTS
+
+    private final PieceTableDocument document;
+    private final PieceTableContent.Snapshot saved;
+    /**
+     * Les empreintes des lignes du texte de référence et les count
+     *  premières de hashes, celles des lignes du document (null tant
+     *  qu'elles n'ont pas été calculées).
+     */
+    private long[] savedHashes;
+    private long[] hashes;
+    private int count;
+    /**
+     * Le résultat de la dernière comparaison (null s'il est à refaire).
+     */
+    private LineDiff diff;
+    private final Segment text;
+
+    // CONSTRUCTEURS
+
+    /**
+     * La comparaison de d à saved, une image de son texte.
+     * Si previous, la comparaison qu'elle remplace, portait sur d et que
+     *  saved est l'image du texte courant de d (après une sauvegarde), les
+     *  empreintes de d qu'elle a calculées sont reprises plutôt que
+     *  recalculées.
+     * @pre <pre>
+     *     d != null && saved != null </pre>
+     */
+    LineDiffer(PieceTableDocument d, PieceTableContent.Snapshot saved,
+            LineDiffer previous) {
+        assert d != null && saved != null;
+
+        document = d;
+        this.saved = saved;
+        text = new Segment();
+        text.setPartialReturn(true);
+        if (previous != null && previous.document == d
+                && previous.savedHashes != null && d.hasText(saved)) {
+            savedHashes = new long[previous.count];
+            System.arraycopy(previous.hashes, 0, savedHashes, 0,
+                    previous.count);
+            hashes = savedHashes.clone();
+            count = hashes.length;
+        }
+    }
+
+    // REQUETES
+
+    /**
+     * Les différences entre le texte courant du document et celui de
+     *  référence.
+     * @post <pre>
+     *     result != null </pre>
+     */
+    LineDiff getDiff() {
+        if (savedHashes == null) {
+            savedHashes = hashLines(saved);
+            hashes = document.hasText(saved) ? savedHashes.clone()
+                    : hashLines(document.snapshot());
+            count = hashes.length;
+        }
+        if (diff == null) {
+            diff = compare();
+        }
+        return diff;
+    }
+
+    // COMMANDES
+
+    /**
+     * Reporte la modification e du document : les empreintes des lignes
+     *  qu'elle a touchées sont recalculées.
+     * Doit être appelée par un observateur du document.
+     */
+    void update(DocumentEvent e) {
+        if (savedHashes == null) {
+            return;
+        }
+        Element root = document.getDefaultRootElement();
+        DocumentEvent.ElementChange c = e.getChange(root);
+        if (c == null) {
+            int line = root.getElementIndex(e.getOffset());
+            hashes[line] = hash(root.getElement(line));
+        } else {
+            int index = c.getIndex();
+            Element[] added = c.getChildrenAdded();
+            splice(index, c.getChildrenRemoved().length, added.length);
+            for (int i = 0; i < added.length; i++) {
+                hashes[index + i] = hash(added[i]);
+            }
+        }
+        diff = null;
+    }
+
+    // OUTILS
+
+    private LineDiff compare() {
+        final long[] a = savedHashes;
+        final long[] b = hashes;
+        int n = a.length;
+        int m = count;
+        int limit = Math.min(n, m);
+        int p = 0;
+        while (p < limit && a[p] == b[p]) {
+            p += 1;
+        }
+        int s = 0;
+        while (s < limit - p && a[n - 1 - s] == b[m - 1 - s]) {
+            s += 1;
+        }
+        final int from = p;
+        int na = n - s - p;
+        int nb = m - s - p;
+        Hunks result = new Hunks();
+        if (na == 0 && nb == 0) {
+            return result.toDiff(m);
+        }
+        int[] pairs = TextDiff.match(na, nb, new TextDiff.Lines() {
+            @Override
+            public boolean same(int i, int j) {
+                return a[from + i] == b[from + j];
+            }
+        });
+        if (pairs == null) {
+            result.add(from, from + nb, na);
+            return result.toDiff(m);
+        }
+        int i = 0;
+        int j = 0;
+        while (i < na || j < nb) {
+            if (i < na && pairs[i] == j) {
+                i += 1;
+                j += 1;
+            } else {
+                int si = i;
+                int sj = j;
+                while (i < na && pairs[i] < 0) {
+                    i += 1;
+                }
+                j = i < na ? pairs[i] : nb;
+                result.add(from + sj, from + j, i - si);
+            }
+        }
+        return result.toDiff(m);
+    }
+
+    /**
+     * Remplace les removed empreintes de hashes qui commencent à index par
+     *  added empreintes, à calculer.
+     */
+    private void splice(int index, int removed, int added) {
+        int delta = added - removed;
+        if (delta == 0) {
+            return;
+        }
+        if (count + delta > hashes.length) {
+            long[] h = new long[Math.max(2 * hashes.length, count + delta)];
+            System.arraycopy(hashes, 0, h, 0, count);
+            hashes = h;
+        }
+        System.arraycopy(hashes, index + removed, hashes, index + added,
+                count - index - removed);
+        count += delta;
+    }
+
+    /**
+     * L'empreinte de la ligne e du document, qui doit être sous verrou.
+     */
+    private long hash(Element e) {
+        int p = e.getStartOffset();
+        int end = e.getEndOffset();
+        long h = FNV_BASIS;
+        try {
+            while (p < end) {
+                document.getText(p, end - p, text);
+                for (int i = text.offset; i < text.offset + text.count; i++) {
+                    h = (h ^ text.array[i]) * FNV_PRIME;
+                }
+                p += text.count;
+            }
+        } catch (BadLocationException x) {
+            // Ne devrait pas survenir
+            throw new InternalError(x.getMessage());
+        }
+        return h;
+    }
+
+    /**
+     * Les empreintes des lignes du texte de s, calculées en parallèle.
+     */
+    private static long[] hashLines(PieceTableContent.Snapshot s) {
+        int[] bounds = chunkBounds(s);
+        long[][] parts = new long[bounds.length - 1][];
+        ForkJoinPool.commonPool().invoke(
+                new Hashing(s, bounds, parts, 0, parts.length));
+        int total = 0;
+        for (long[] part : parts) {
+            total += (int) part[0];
+        }
+        long[] result = new long[total];
+        int done = 0;
+        for (long[] part : parts) {
+            int n = (int) part[0];
+            System.arraycopy(part, 1, result, done, n);
+            done += n;
+        }
+        return result;
+    }
+
+    /**
+     * Les limites des morceaux du texte de s : le morceau i va de result[i]
+     *  à result[i + 1], et chacun se termine par une fin de ligne (le texte
+     *  d'un PieceTableContent se termine toujours par '\n').
+     */
+    private static int[] chunkBounds(PieceTableContent.Snapshot s) {
+        int n = s.length();
+        int[] bounds = new int[n / CHUNK_CHARS + 2];
+        int count = 1;
+        Segment seg = new Segment();
+        int target = CHUNK_CHARS;
+        while (target < n) {
+            int b = n;
+            int i = target;
+            while (i < n && b == n) {
+                s.segment(i, n - i, seg);
+                for (int j = 0; j < seg.count; j++) {
+                    if (seg.array[seg.offset + j] == '\n') {
+                        b = i + j + 1;
+                        break;
+                    }
+                }
+                i += seg.count;
+            }
+            if (b == n) {
+                break;
+            }
+            bounds[count] = b;
+            count += 1;
+            target = b + CHUNK_CHARS;
+        }
+        bounds[count] = n;
+        int[] result = new int[count + 1];
+        System.arraycopy(bounds, 0, result, 0, count + 1);
+        return result;
+    }
+
+    // TYPES IMBRIQUES
+
+    /**
+     * Le calcul des empreintes des morceaux [lo, hi[, partagé en deux tant
+     *  qu'il en compte plusieurs.
+     * Les empreintes du morceau i sont rangées dans parts[i], précédées de
+     *  leur nombre.
+     */
+    private static final class Hashing extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final PieceTableContent.Snapshot snapshot;
+        private final int[] bounds;
+        private final long[][] parts;
+        private final int lo;
+        private final int hi;
+
+        Hashing(PieceTableContent.Snapshot s, int[] bounds, long[][] parts,
+                int lo, int hi) {
+            snapshot = s;
+            this.bounds = bounds;
+            this.parts = parts;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo > 1) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new Hashing(snapshot, bounds, parts, lo, mid),
+                        new Hashing(snapshot, bounds, parts, mid, hi));
+                return;
+            }
+            int from = bounds[lo];
+            int to = bounds[lo + 1];
+            long[] result = new long[(to - from) / 32 + 16];
+            int n = 0;
+            Segment seg = new Segment();
+            long h = FNV_BASIS;
+            int i = from;
+            while (i < to) {
+                snapshot.segment(i, to - i, seg);
+                char[] a = seg.array;
+                for (int j = seg.offset; j < seg.offset + seg.count; j++) {
+                    char c = a[j];
+                    h = (h ^ c) * FNV_PRIME;
+                    if (c == '\n') {
+                        if (n + 1 == result.length) {
+                            long[] r = new long[2 * result.length];
+                            System.arraycopy(result, 0, r, 0, result.length);
+                            result = r;
+                        }
+                        n += 1;
+                        result[n] = h;
+                        h = FNV_BASIS;
+                    }
+                }
+                i += seg.count;
+            }
+            result[0] = n;
+            parts[lo] = result;
+        }
+    }
+
+    /**
+     * Les portions d'une comparaison, accumulées dans l'ordre du texte.
+     */
+    private static final class Hunks {
+        private int[] starts = new int[16];
+        private int[] ends = new int[16];
+        private int[] removed = new int[16];
+        private int n;
+
+        void add(int start, int end, int lines) {
+            if (n == starts.length) {
+                starts = grow(starts);
+                ends = grow(ends);
+                removed = grow(removed);
+            }
+            starts[n] = start;
+            ends[n] = end;
+            removed[n] = lines;
+            n += 1;
+        }
+
+        LineDiff toDiff(int lineCount) {
+            return new LineDiff(lineCount, trim(starts), trim(ends),
+                    trim(removed));
+        }
+
+        private int[] grow(int[] a) {
+            int[] r = new int[2 * a.length];
+            System.arraycopy(a, 0, r, 0, n);
+            return r;
+        }
+
+        private int[] trim(int[] a) {
+            int[] r = new int[n];
+            System.arraycopy(a, 0, r, 0, n);
+            return r;
+        }
+    }
+}
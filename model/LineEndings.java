@@ -0,0 +1,285 @@
+package pet.model;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.Element;
+
+/**
+ * Les fins de ligne d'un fichier texte, que le document ramène toutes à
+ *  '\n' : un séparateur dominant ("\n", "\r\n" ou "\r") et, pour les fichiers
+ *  mixtes, la liste des lignes qui se terminent autrement.
+ * Les lignes sont désignées par leur numéro dans le document (à partir de
+ *  0) : la fin de la ligne n est celle qui remplace le n-ième '\n' du
+ *  document, y compris un éventuel '\n' final.
+ * Tenue à jour par update() à chaque modification du document, elle permet
+ *  de réécrire le fichier octet pour octet, sans le découper en lignes.
+ *
+ * @inv <pre>
+ *     getSeparator() est "\n", "\r\n" ou "\r"
+ *     isMixed() <==> une ligne se termine par un autre séparateur </pre>
+ */
+public final class LineEndings {
+
+    // ATTRIBUTS STATIQUES
+
+    static final int LF = 0;
+    static final int CRLF = 1;
+    static final int CR = 2;
+    private static final String[] SEPARATORS = { "\n", "\r\n", "\r" };
+    private static final String[] NAMES = { "LF", "CRLF", "CR" };
+
+    // ATTRIBUTS
+
+    private final int kind;
+    /**
+     * Numéros croissants des lignes qui ne se terminent pas par le
+     *  séparateur dominant, et séparateur de chacune : seuls les size
+     *  premiers éléments sont significatifs.
+     */
+    private int[] lines;
+    private byte[] kinds;
+    private int size;
+
+    // CONSTRUCTEURS
+
+    /**
+     * Les fins de ligne d'un nouveau document : toutes celles de la
+     *  plateforme.
+     */
+    public LineEndings() {
+        this(System.lineSeparator().equals("\r\n") ? CRLF
+                : System.lineSeparator().equals("\r") ? CR : LF,
+                new int[0], new byte[0], 0);
+    }
+
+    private LineEndings(int kind, int[] lines, byte[] kinds, int size) {
+        this.kind = kind;
+        this.lines = lines;
+        this.kinds = kinds;
+        this.size = size;
+    }
+
+    // REQUETES
+
+    /**
+     * Le séparateur dominant, celui des nouvelles lignes.
+     */
+    public String getSeparator() {
+        return SEPARATORS[kind];
+    }
+
+    /**
+     * Certaines lignes se terminent-elles par un autre séparateur ?
+     */
+    public boolean isMixed() {
+        return size > 0;
+    }
+
+    @Override
+    public String toString() {
+        return size > 0 ? NAMES[kind] + " (mixte)" : NAMES[kind];
+    }
+
+    /**
+     * Un parcours des fins de ligne, de la première à la dernière.
+     */
+    Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Une copie de ces fins de ligne, que update() ne modifie pas : elle
+     *  peut être parcourue sur un autre thread pendant que le document
+     *  continue d'être modifié.
+     */
+    LineEndings copy() {
+        return new LineEndings(kind, Builder.trim(lines, size),
+                Builder.trim(kinds, size), size);
+    }
+
+    // COMMANDES
+
+    /**
+     * Reporte la modification e du document : les lignes qui suivent celles
+     *  qu'elle a insérées ou retirées sont renumérotées, les nouvelles
+     *  lignes se terminent par le séparateur dominant.
+     * Doit être appelée après que la structure des lignes du document a été
+     *  mise à jour, par exemple depuis un DocumentListener.
+     */
+    void update(DocumentEvent e) {
+        if (size == 0) {
+            return;
+        }
+        Element root = e.getDocument().getDefaultRootElement();
+        DocumentEvent.ElementChange change = e.getChange(root);
+        if (change == null) {
+            return;
+        }
+        int delta = change.getChildrenAdded().length
+                - change.getChildrenRemoved().length;
+        int line = root.getElementIndex(e.getOffset());
+        if (delta > 0) {
+            for (int i = firstAtLeast(line); i < size; i++) {
+                lines[i] += delta;
+            }
+        } else if (delta < 0) {
+            int from = firstAtLeast(line);
+            int to = firstAtLeast(line - delta);
+            int removed = to - from;
+            System.arraycopy(lines, to, lines, from, size - to);
+            System.arraycopy(kinds, to, kinds, from, size - to);
+            size -= removed;
+            for (int i = from; i < size; i++) {
+                lines[i] += delta;
+            }
+        }
+    }
+
+    // OUTILS
+
+    /**
+     * L'indice de la première ligne de la liste dont le numéro est au moins
+     *  line (size s'il n'y en a pas).
+     */
+    private int firstAtLeast(int line) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (lines[mid] < line) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // TYPES IMBRIQUES
+
+    /**
+     * Parcours des fins de ligne dans l'ordre des lignes, pour les écrire :
+     *  la liste des exceptions est parcourue en même temps, sans recherche.
+     * Les fins de ligne ne doivent pas être modifiées pendant le parcours.
+     */
+    final class Cursor {
+        private final char[][] separators;
+        private int line;
+        private int next;
+
+        private Cursor() {
+            separators = new char[SEPARATORS.length][];
+            for (int k = 0; k < SEPARATORS.length; k++) {
+                separators[k] = SEPARATORS[k].toCharArray();
+            }
+        }
+
+        /**
+         * Les caractères de la fin de la ligne suivante.
+         */
+        char[] next() {
+            int k = kind;
+            if (next < size && lines[next] == line) {
+                k = kinds[next];
+                next += 1;
+            }
+            line += 1;
+            return separators[k];
+        }
+    }
+
+    /**
+     * Relève, lors de la lecture d'un fichier, le séparateur de chacune de
+     *  ses lignes dans l'ordre, puis en déduit ses fins de ligne : le
+     *  séparateur dominant est le plus fréquent.
+     */
+    static final class Builder {
+        private final int[] counts;
+        private int first;
+        private int count;
+        /**
+         * Lignes qui ne se terminent pas par le séparateur de la première.
+         */
+        private int[] lines;
+        private byte[] kinds;
+        private int size;
+
+        Builder() {
+            counts = new int[SEPARATORS.length];
+            first = -1;
+            lines = new int[16];
+            kinds = new byte[16];
+        }
+
+        /**
+         * Relève que la ligne suivante se termine par le séparateur kind.
+         */
+        void add(int kind) {
+            counts[kind] += 1;
+            if (first < 0) {
+                first = kind;
+            } else if (kind != first) {
+                if (size == lines.length) {
+                    int[] a = new int[2 * size];
+                    System.arraycopy(lines, 0, a, 0, size);
+                    lines = a;
+                    byte[] b = new byte[2 * size];
+                    System.arraycopy(kinds, 0, b, 0, size);
+                    kinds = b;
+                }
+                lines[size] = count;
+                kinds[size] = (byte) kind;
+                size += 1;
+            }
+            count += 1;
+        }
+
+        LineEndings build() {
+            if (first < 0) {
+                return new LineEndings();
+            }
+            int dominant = first;
+            for (int k = 0; k < counts.length; k++) {
+                if (counts[k] > counts[dominant]) {
+                    dominant = k;
+                }
+            }
+            if (dominant == first) {
+                return new LineEndings(first, trim(lines, size),
+                        trim(kinds, size), size);
+            }
+            // Les exceptions sont les lignes qui ne se terminent pas par
+            // dominant : celles de first, absentes de la liste, et celles
+            // de la liste d'un troisième séparateur.
+            int n = count - counts[dominant];
+            int[] l = new int[n];
+            byte[] k = new byte[n];
+            int j = 0;
+            int w = 0;
+            for (int line = 0; line < count; line++) {
+                int kind = first;
+                if (j < size && lines[j] == line) {
+                    kind = kinds[j];
+                    j += 1;
+                }
+                if (kind != dominant) {
+                    l[w] = line;
+                    k[w] = (byte) kind;
+                    w += 1;
+                }
+            }
+            return new LineEndings(dominant, l, k, n);
+        }
+
+        private static int[] trim(int[] a, int n) {
+            int[] r = new int[n];
+            System.arraycopy(a, 0, r, 0, n);
+            return r;
+        }
+
+        private static byte[] trim(byte[] a, int n) {
+            byte[] r = new byte[n];
+            System.arraycopy(a, 0, r, 0, n);
+            return r;
+        }
+    }
+}
@@ -0,0 +1,457 @@
+package pet.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.Segment;
+
+import util.Contract;
+
+/**
+ * Index des lignes d'un document, qui donne en temps logarithmique la ligne
+ *  d'une position et la position d'une ligne.
+ * Les longueurs des lignes (fin de ligne comprise, la dernière ligne étant
+ *  terminée par la fin de ligne implicite du document) sont rangées par
+ *  blocs ; un arbre de Fenwick cumule, bloc par bloc, le nombre de lignes et
+ *  de caractères. Un DocumentListener tient l'index à jour : une édition ne
+ *  touche que les blocs des lignes qu'elle modifie, et l'arbre n'est
+ *  reconstruit que lorsque des blocs sont créés ou supprimés.
+ *
+ * Les requêtes ne doivent être faites qu'une fois la notification de la
+ *  dernière édition du document terminée (typiquement, depuis le thread de
+ *  distribution des événements en dehors de toute notification).
+ *
+ * @inv <pre>
+ *     getDocument() != null
+ *     getLineCount() >= 1 </pre>
+ *
+ * @cons <pre>
+ *     $ARGS$ Document d
+ *     $PRE$
+ *         d != null
+ *     $POST$
+ *         getDocument() == d
+ *         l'index décrit les lignes de d et suit ses modifications </pre>
+ */
+public final class LineIndex {
+
+    // ATTRIBUTS STATIQUES
+
+    private static final int BLOCK_SIZE = 1024;
+
+    // ATTRIBUTS
+
+    private final Document document;
+    private final DocumentListener listener;
+    private final List<LineBlock> blocks;
+    /**
+     * Arbres de Fenwick des nombres de lignes et de caractères des blocs.
+     */
+    private int[] lineTree;
+    private int[] charTree;
+
+    // CONSTRUCTEURS
+
+    public LineIndex(Document d) {
+        Contract.checkCondition(d != null);
+
+        document = d;
+        blocks = new ArrayList<LineBlock>();
+        d.render(new Runnable() {
+            @Override
+            public void run() {
+                Element root = document.getDefaultRootElement();
+                int n = root.getElementCount();
+                LineBlock b = null;
+                for (int i = 0; i < n; i++) {
+                    if (b == null || b.count == BLOCK_SIZE) {
+                        b = new LineBlock(BLOCK_SIZE);
+                        blocks.add(b);
+                    }
+                    Element e = root.getElement(i);
+                    b.append(e.getEndOffset() - e.getStartOffset());
+                }
+            }
+        });
+        rebuildTrees();
+        listener = new DocumentListener() {
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                // rien ici
+            }
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                insert(e.getOffset(), e.getLength());
+            }
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                remove(e.getOffset(), e.getLength());
+            }
+        };
+        d.addDocumentListener(listener);
+    }
+
+    // REQUETES
+
+    /**
+     * Le document indexé.
+     */
+    public Document getDocument() {
+        return document;
+    }
+
+    /**
+     * Le nombre de lignes du document.
+     */
+    public int getLineCount() {
+        return prefix(lineTree, blocks.size());
+    }
+
+    /**
+     * Le numéro (à partir de 0) de la ligne qui contient offset.
+     * @pre <pre>
+     *     0 <= offset <= getDocument().getLength() </pre>
+     */
+    public int getLineOfOffset(int offset) {
+        Contract.checkCondition(0 <= offset
+                && offset <= document.getLength());
+
+        return lineOf(offset);
+    }
+
+    /**
+     * La position du premier caractère de la ligne line.
+     * @pre <pre>
+     *     0 <= line < getLineCount() </pre>
+     */
+    public int getLineStartOffset(int line) {
+        Contract.checkCondition(0 <= line && line < getLineCount());
+
+        long loc = find(lineTree, line);
+        int b = blockOf(loc);
+        int k = rest(loc);
+        LineBlock block = blocks.get(b);
+        int offset = prefix(charTree, b);
+        for (int i = 0; i < k; i++) {
+            offset += block.lengths[i];
+        }
+        return offset;
+    }
+
+    // COMMANDES
+
+    /**
+     * Cesse de suivre les modifications du document ; l'index ne doit plus
+     *  être utilisé.
+     */
+    public void dispose() {
+        document.removeDocumentListener(listener);
+    }
+
+    // OUTILS
+
+    /**
+     * Met l'index à jour après l'insertion de len caractères en offset.
+     */
+    private void insert(int offset, int len) {
+        int[] breaks = new int[16];
+        int count = 0;
+        Segment s = new Segment();
+        s.setPartialReturn(true);
+        int done = 0;
+        try {
+            while (done < len) {
+                document.getText(offset + done, len - done, s);
+                for (int i = 0; i < s.count; i++) {
+                    if (s.array[s.offset + i] == '\n') {
+                        if (count == breaks.length) {
+                            int[] a = new int[count * 2];
+                            System.arraycopy(breaks, 0, a, 0, count);
+                            breaks = a;
+                        }
+                        breaks[count] = done + i + 1;
+                        count += 1;
+                    }
+                }
+                done += s.count;
+            }
+        } catch (BadLocationException e) {
+            // Ne devrait pas survenir
+            throw new InternalError(e.getMessage());
+        }
+        int line = lineOf(offset);
+        int c = offset - getLineStartOffset(line);
+        int l = lengthOf(line);
+        if (count == 0) {
+            setLength(line, l + len);
+            return;
+        }
+        int[] added = new int[count];
+        for (int i = 1; i < count; i++) {
+            added[i - 1] = breaks[i] - breaks[i - 1];
+        }
+        added[count - 1] = len - breaks[count - 1] + l - c;
+        setLength(line, c + breaks[0]);
+        insertLines(line + 1, added);
+    }
+
+    /**
+     * Met l'index à jour après la suppression de len caractères en offset.
+     * L'index décrit encore le texte d'avant la suppression.
+     */
+    private void remove(int offset, int len) {
+        int first = lineOf(offset);
+        int last = lineOf(offset + len);
+        int c1 = offset - getLineStartOffset(first);
+        int c2 = offset + len - getLineStartOffset(last);
+        int l2 = lengthOf(last);
+        if (last > first) {
+            removeLines(first + 1, last - first);
+            setLength(first, c1 + l2 - c2);
+        } else {
+            setLength(first, lengthOf(first) - len);
+        }
+    }
+
+    /**
+     * La ligne qui contient offset, d'après l'index seul (le document peut
+     *  déjà avoir été modifié).
+     */
+    private int lineOf(int offset) {
+        long loc = find(charTree, offset);
+        int b = blockOf(loc);
+        int k = rest(loc);
+        LineBlock block = blocks.get(b);
+        int line = 0;
+        while (k >= block.lengths[line]) {
+            k -= block.lengths[line];
+            line += 1;
+        }
+        return prefix(lineTree, b) + line;
+    }
+
+    private int lengthOf(int line) {
+        long loc = find(lineTree, line);
+        return blocks.get(blockOf(loc)).lengths[rest(loc)];
+    }
+
+    private void setLength(int line, int len) {
+        long loc = find(lineTree, line);
+        int b = blockOf(loc);
+        LineBlock block = blocks.get(b);
+        int delta = len - block.lengths[rest(loc)];
+        block.lengths[rest(loc)] = len;
+        block.chars += delta;
+        add(charTree, b, delta);
+    }
+
+    /**
+     * Insère avant la ligne line (ou après la dernière ligne) des lignes de
+     *  longueurs lengths.
+     * @pre <pre>
+     *     0 < line <= getLineCount() </pre>
+     */
+    private void insertLines(int line, int[] lengths) {
+        int b;
+        int k;
+        if (line == getLineCount()) {
+            b = blocks.size() - 1;
+            k = blocks.get(b).count;
+        } else {
+            long loc = find(lineTree, line);
+            b = blockOf(loc);
+            k = rest(loc);
+        }
+        LineBlock block = blocks.get(b);
+        block.insert(k, lengths);
+        if (block.count <= 2 * BLOCK_SIZE) {
+            add(lineTree, b, lengths.length);
+            int sum = 0;
+            for (int len : lengths) {
+                sum += len;
+            }
+            add(charTree, b, sum);
+            return;
+        }
+        blocks.remove(b);
+        blocks.addAll(b, block.split(BLOCK_SIZE));
+        rebuildTrees();
+    }
+
+    /**
+     * Retire les n lignes commençant à la ligne line.
+     * @pre <pre>
+     *     0 < line && n > 0 && line + n <= getLineCount() </pre>
+     */
+    private void removeLines(int line, int n) {
+        long loc = find(lineTree, line);
+        int b = blockOf(loc);
+        int k = rest(loc);
+        boolean structural = false;
+        int remaining = n;
+        while (remaining > 0) {
+            LineBlock block = blocks.get(b);
+            int m = Math.min(remaining, block.count - k);
+            int chars = block.remove(k, m);
+            remaining -= m;
+            if (block.count == 0) {
+                blocks.remove(b);
+                structural = true;
+            } else {
+                if (!structural) {
+                    add(lineTree, b, -m);
+                    add(charTree, b, -chars);
+                }
+                b += 1;
+            }
+            k = 0;
+        }
+        if (structural) {
+            rebuildTrees();
+        }
+    }
+
+    private void rebuildTrees() {
+        int n = blocks.size();
+        lineTree = new int[n + 1];
+        charTree = new int[n + 1];
+        for (int i = 1; i <= n; i++) {
+            lineTree[i] += blocks.get(i - 1).count;
+            charTree[i] += blocks.get(i - 1).chars;
+            int parent = i + (i & -i);
+            if (parent <= n) {
+                lineTree[parent] += lineTree[i];
+                charTree[parent] += charTree[i];
+            }
+        }
+    }
+
+    /**
+     * Ajoute delta à la valeur du bloc b dans tree.
+     */
+    private void add(int[] tree, int b, int delta) {
+        for (int i = b + 1; i < tree.length; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+
+    /**
+     * La somme des valeurs des n premiers blocs dans tree.
+     */
+    private static int prefix(int[] tree, int n) {
+        int sum = 0;
+        for (int i = n; i > 0; i -= i & -i) {
+            sum += tree[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Le bloc b dont les valeurs cumulées dans tree encadrent target,
+     *  et l'écart r entre target et la somme des valeurs des blocs qui le
+     *  précèdent, regroupés en un long (b dans les 32 bits de poids fort).
+     * @pre <pre>
+     *     0 <= target < prefix(tree, blocks.size()) </pre>
+     */
+    private long find(int[] tree, int target) {
+        int pos = 0;
+        int rem = target;
+        for (int step = Integer.highestOneBit(tree.length - 1); step > 0;
+                step >>= 1) {
+            int next = pos + step;
+            if (next < tree.length && tree[next] <= rem) {
+                pos = next;
+                rem -= tree[next];
+            }
+        }
+        return ((long) pos << 32) | (rem & 0xFFFFFFFFL);
+    }
+
+    private static int blockOf(long location) {
+        return (int) (location >>> 32);
+    }
+
+    private static int rest(long location) {
+        return (int) location;
+    }
+
+    // TYPES IMBRIQUES
+
+    /**
+     * Les longueurs d'une suite de lignes consécutives.
+     */
+    private static final class LineBlock {
+        int[] lengths;
+        int count;
+        int chars;
+
+        LineBlock(int capacity) {
+            lengths = new int[capacity];
+            count = 0;
+            chars = 0;
+        }
+
+        void append(int len) {
+            ensureCapacity(count + 1);
+            lengths[count] = len;
+            count += 1;
+            chars += len;
+        }
+
+        void insert(int k, int[] ls) {
+            ensureCapacity(count + ls.length);
+            System.arraycopy(lengths, k, lengths, k + ls.length, count - k);
+            System.arraycopy(ls, 0, lengths, k, ls.length);
+            count += ls.length;
+            for (int len : ls) {
+                chars += len;
+            }
+        }
+
+        /**
+         * Retire les m lignes commençant en k et retourne leur nombre total
+         *  de caractères.
+         */
+        int remove(int k, int m) {
+            int removed = 0;
+            for (int i = k; i < k + m; i++) {
+                removed += lengths[i];
+            }
+            System.arraycopy(lengths, k + m, lengths, k, count - k - m);
+            count -= m;
+            chars -= removed;
+            return removed;
+        }
+
+        /**
+         * Ce bloc découpé en blocs d'au plus size lignes.
+         */
+        List<LineBlock> split(int size) {
+            List<LineBlock> result = new ArrayList<LineBlock>();
+            for (int i = 0; i < count; i += size) {
+                LineBlock b = new LineBlock(size);
+                int n = Math.min(size, count - i);
+                System.arraycopy(lengths, i, b.lengths, 0, n);
+                b.count = n;
+                for (int j = 0; j < n; j++) {
+                    b.chars += b.lengths[j];
+                }
+                result.add(b);
+            }
+            return result;
+        }
+
+        private void ensureCapacity(int n) {
+            if (n > lengths.length) {
+                int[] a = new int[Math.max(n, lengths.length * 2)];
+                System.arraycopy(lengths, 0, a, 0, count);
+                lengths = a;
+            }
+        }
+    }
+}
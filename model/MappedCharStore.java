@@ -0,0 +1,387 @@
+package pet.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.swing.text.Segment;
+
+/**
+ * Un CharStore dont les caractères sont décodés à la demande depuis une
+ *  projection en mémoire (FileChannel.map) d'un fichier.
+ * Le fichier est découpé en blocs d'environ BLOCK_BYTES octets ; un unique
+ *  parcours à l'ouverture calcule la position en caractères du début de
+ *  chaque bloc, puis seuls les blocs effectivement consultés sont décodés et
+ *  conservés dans un petit cache LRU.
+ * Les octets du fichier restent hors du tas ; la mémoire occupée dans le tas
+ *  est bornée par la taille du cache, quelle que soit celle du fichier.
+ * Comme pour le chargement classique, les fins de ligne sont ramenées à
+ *  '\n', dernière comprise.
+ *
+ * Le fichier ne devrait pas être modifié sur place par un autre processus
+ *  tant que la séquence est utilisée : ses pages projetées ne
+ *  correspondraient plus à l'index des blocs, voire n'existeraient plus
+ *  s'il était tronqué. Une telle modification est détectée avant le
+ *  décodage de chaque bloc qui n'est pas en cache ; les blocs qui ne
+ *  peuvent plus être lus sont alors remplacés par des espaces, en
+ *  attendant que le document soit relu.
+ */
+final class MappedCharStore implements CharStore {
+
+    // ATTRIBUTS STATIQUES
+
+    private static final int BLOCK_BYTES = 1 << 16;
+    /**
+     * Taille maximale d'un bloc après alignement sur un début de caractère.
+     */
+    private static final int MAX_BLOCK_BYTES = BLOCK_BYTES + 8;
+    private static final long REGION_BYTES = 1L << 30;
+    private static final int CACHE_BLOCKS = 64;
+
+    // ATTRIBUTS
+
+    private final MappedByteBuffer[] regions;
+    private final long[] blockStarts;
+    private final int[] charStarts;
+    private final int length;
+    private final CharsetDecoder decoder;
+    private final CharBuffer decodeBuffer;
+    private final Map<Integer, char[]> cache;
+    /**
+     * Le fichier et son état lors de sa projection.
+     */
+    private final Path path;
+    private final BasicFileAttributes stamp;
+    /**
+     * Le fichier a-t-il été modifié sur place depuis ?
+     */
+    private boolean stale;
+
+    // CONSTRUCTEURS
+
+    private MappedCharStore(Charset cs, MappedByteBuffer[] regions,
+            long[] blockStarts, int[] charStarts, int length, Path path,
+            BasicFileAttributes stamp) {
+        this.regions = regions;
+        this.blockStarts = blockStarts;
+        this.charStarts = charStarts;
+        this.length = length;
+        decoder = newDecoder(cs, CodingErrorAction.REPLACE);
+        decodeBuffer = CharBuffer.allocate(MAX_BLOCK_BYTES);
+        cache = new LinkedHashMap<Integer, char[]>(CACHE_BLOCKS, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, char[]> e) {
+                return size() > CACHE_BLOCKS;
+            }
+        };
+        this.path = path;
+        this.stamp = stamp;
+        stale = false;
+    }
+
+    // REQUETES
+
+    /**
+     * Le décodage à la demande est-il possible pour le jeu de caractères cs ?
+     * Il faut pouvoir couper le fichier en blocs sans couper de caractère :
+     *  c'est le cas des jeux de caractères à un octet et d'UTF-8.
+     */
+    static boolean supports(Charset cs) {
+        return cs.equals(StandardCharsets.UTF_8)
+                || cs.newEncoder().maxBytesPerChar() == 1.0f;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    /**
+     * La place (en octets) qu'occupent dans le tas l'index des blocs et les
+     *  blocs décodés du cache ; les octets du fichier n'y sont pas comptés.
+     */
+    synchronized long heapSize() {
+        long size = 8L * blockStarts.length + 4L * charStarts.length
+                + 2L * decodeBuffer.capacity();
+        for (char[] chars : cache.values()) {
+            size += 2L * chars.length;
+        }
+        return size;
+    }
+
+    // COMMANDES
+
+    /**
+     * Projette f en mémoire et calcule l'index de ses blocs, en transmettant
+     *  l'avancement de ce calcul à monitor. Les skip premiers octets de f
+     *  (sa BOM) n'appartiennent pas au texte. Les fins de ligne du fichier
+     *  sont relevées dans endings au cours de ce calcul.
+     * @pre <pre>
+     *     f != null && skip >= 0
+     *     cs != null && supports(cs) && endings != null && monitor != null
+     *     </pre>
+     * @post <pre>
+     *     result est le contenu de f, privé de ses skip premiers octets,
+     *      décodé selon cs </pre>
+     * @throws
+     *     CharacterCodingException si f n'est pas valide dans cs
+     * @throws
+     *     IOException si erreur de lecture dans f, si le texte dépasse
+     *      la taille maximale d'un document ou si l'opération a été annulée
+     */
+    static MappedCharStore open(File f, long skip, Charset cs,
+            LineEndings.Builder endings, IOMonitor monitor)
+            throws IOException {
+        assert f != null && skip >= 0;
+        assert cs != null && supports(cs) && endings != null && monitor != null;
+
+        Path path = f.toPath();
+        BasicFileAttributes stamp =
+                Files.readAttributes(path, BasicFileAttributes.class);
+        MappedByteBuffer[] regions;
+        long size;
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            FileChannel ch = raf.getChannel();
+            size = ch.size();
+            int n = (int) ((size + REGION_BYTES - 1) / REGION_BYTES);
+            regions = new MappedByteBuffer[n];
+            for (int i = 0; i < n; i++) {
+                long start = i * REGION_BYTES;
+                long len = Math.min(REGION_BYTES + MAX_BLOCK_BYTES, size - start);
+                regions[i] = ch.map(FileChannel.MapMode.READ_ONLY, start, len);
+            }
+        } finally {
+            raf.close();
+        }
+
+        // Découpage en blocs et comptage des caractères de chacun
+        boolean utf8 = cs.equals(StandardCharsets.UTF_8);
+        int capacity = (int) (size / BLOCK_BYTES) + 2;
+        long[] blockStarts = new long[capacity];
+        int[] charStarts = new int[capacity];
+        // le fichier est entièrement validé ici : les blocs pourront ensuite
+        // être décodés sans erreur
+        CharsetDecoder dec = newDecoder(cs, CodingErrorAction.REPORT);
+        CharBuffer out = CharBuffer.allocate(MAX_BLOCK_BYTES);
+        int count = 0;
+        long chars = 0;
+        long start = Math.min(skip, size);
+        while (start < size) {
+            long end = Math.min(start + BLOCK_BYTES, size);
+            while (end < size && (utf8 && isContinuation(byteAt(regions, end))
+                    || byteAt(regions, end - 1) == '\r'
+                            && byteAt(regions, end) == '\n')) {
+                end += 1;
+            }
+            blockStarts[count] = start;
+            charStarts[count] = (int) chars;
+            count += 1;
+            int n = decode(dec, slice(regions, start, end), out, endings);
+            chars += n;
+            if (chars >= Integer.MAX_VALUE) {
+                throw new IOException("Fichier trop volumineux : " + f);
+            }
+            start = end;
+            monitor.progress(start, size);
+        }
+        blockStarts[count] = size;
+        charStarts[count] = (int) chars;
+        long[] bs = new long[count + 1];
+        int[] cs2 = new int[count + 1];
+        System.arraycopy(blockStarts, 0, bs, 0, count + 1);
+        System.arraycopy(charStarts, 0, cs2, 0, count + 1);
+        return new MappedCharStore(cs, regions, bs, cs2, (int) chars, path,
+                stamp);
+    }
+
+    @Override
+    public void segment(int where, int len, Segment s) {
+        assert 0 <= where && len > 0 && where + len <= length;
+
+        int b = blockOf(where);
+        char[] chars = block(b);
+        int k = where - charStarts[b];
+        s.array = chars;
+        s.offset = k;
+        s.count = Math.min(len, chars.length - k);
+    }
+
+    // OUTILS
+
+    private static CharsetDecoder newDecoder(Charset cs,
+            CodingErrorAction onError) {
+        return cs.newDecoder()
+                .onMalformedInput(onError)
+                .onUnmappableCharacter(onError);
+    }
+
+    private static boolean isContinuation(byte b) {
+        return (b & 0xC0) == 0x80;
+    }
+
+    private static byte byteAt(MappedByteBuffer[] regions, long pos) {
+        int r = (int) (pos / REGION_BYTES);
+        return regions[r].get((int) (pos - r * REGION_BYTES));
+    }
+
+    /**
+     * Les octets [start, end[ du fichier, sans recopie : un bloc tient
+     *  toujours entièrement dans la région où il commence.
+     */
+    private static ByteBuffer slice(MappedByteBuffer[] regions,
+            long start, long end) {
+        int r = (int) (start / REGION_BYTES);
+        ByteBuffer bb = regions[r].duplicate();
+        int from = (int) (start - r * REGION_BYTES);
+        bb.limit(from + (int) (end - start));
+        bb.position(from);
+        return bb;
+    }
+
+    /**
+     * Décode in dans out et y ramène les fins de ligne à '\n', en les
+     *  relevant dans endings s'il n'est pas null.
+     * @post <pre>
+     *     result est le nombre de caractères rangés au début de out </pre>
+     * @throws
+     *     CharacterCodingException si in n'est pas valide et que dec
+     *      signale les erreurs
+     */
+    private static int decode(CharsetDecoder dec, ByteBuffer in, CharBuffer out,
+            LineEndings.Builder endings) throws CharacterCodingException {
+        dec.reset();
+        out.clear();
+        CoderResult cr = dec.decode(in, out, true);
+        if (cr.isError()) {
+            cr.throwException();
+        }
+        if (!cr.isUnderflow()) {
+            throw new InternalError(cr.toString());
+        }
+        dec.flush(out);
+        char[] a = out.array();
+        int n = out.position();
+        int w = 0;
+        for (int i = 0; i < n; i++) {
+            char c = a[i];
+            if (c == '\r') {
+                a[w] = '\n';
+                w += 1;
+                boolean crlf = i + 1 < n && a[i + 1] == '\n';
+                if (crlf) {
+                    i += 1;
+                }
+                if (endings != null) {
+                    endings.add(crlf ? LineEndings.CRLF : LineEndings.CR);
+                }
+            } else {
+                if (c == '\n' && endings != null) {
+                    endings.add(LineEndings.LF);
+                }
+                a[w] = c;
+                w += 1;
+            }
+        }
+        return w;
+    }
+
+    private int blockOf(int where) {
+        int lo = 0;
+        int hi = charStarts.length - 1;
+        while (hi - lo > 1) {
+            int mid = (lo + hi) >>> 1;
+            if (charStarts[mid] <= where) {
+                lo = mid;
+            } else {
+                hi = mid;
+            }
+        }
+        // on saute les blocs vides
+        while (charStarts[lo + 1] <= where) {
+            lo += 1;
+        }
+        return lo;
+    }
+
+    /**
+     * Le fichier a-t-il été modifié sur place depuis sa projection ?
+     * Un fichier remplacé par un autre ou supprimé laisse intactes les pages
+     *  projetées de l'ancien.
+     */
+    private boolean isRewritten() {
+        BasicFileAttributes now;
+        try {
+            now = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return false;
+        }
+        Object key = stamp.fileKey();
+        if (key != null && now.fileKey() != null
+                && !key.equals(now.fileKey())) {
+            return false;
+        }
+        return now.size() != stamp.size()
+                || !now.lastModifiedTime().equals(stamp.lastModifiedTime());
+    }
+
+    /**
+     * Les caractères décodés du bloc b, ou autant d'espaces si le fichier a
+     *  été modifié sur place et que b n'est pas en cache.
+     */
+    private synchronized char[] block(int b) {
+        char[] chars = cache.get(b);
+        if (chars == null) {
+            int expected = charStarts[b + 1] - charStarts[b];
+            if (stale || isRewritten()) {
+                stale = true;
+                return blank(expected);
+            }
+            int n;
+            try {
+                n = decode(decoder,
+                        slice(regions, blockStarts[b], blockStarts[b + 1]),
+                        decodeBuffer, null);
+            } catch (CharacterCodingException e) {
+                // Ne devrait pas survenir
+                throw new InternalError(e.getMessage());
+            } catch (InternalError e) {
+                // page disparue : le fichier vient d'être tronqué
+                stale = true;
+                return blank(expected);
+            }
+            if (n != expected) {
+                // le fichier vient d'être modifié
+                stale = true;
+                return blank(expected);
+            }
+            chars = new char[n];
+            decodeBuffer.flip();
+            decodeBuffer.get(chars, 0, n);
+            cache.put(b, chars);
+        }
+        return chars;
+    }
+
+    private static char[] blank(int n) {
+        char[] chars = new char[n];
+        Arrays.fill(chars, ' ');
+        return chars;
+    }
+}
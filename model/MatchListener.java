@@ -0,0 +1,20 @@
+package pet.model;
+
+import java.util.EventListener;
+import java.util.List;
+
+/**
+ * Observateur d'une recherche exhaustive : il reçoit les occurrences au fur
+ *  et à mesure qu'elles sont trouvées, par lots dont l'ordre d'arrivée n'est
+ *  pas celui du texte.
+ * Il est toujours notifié sur le thread de distribution des événements.
+ */
+public interface MatchListener extends EventListener {
+
+    /**
+     * Les occurrences ranges, triées, viennent d'être trouvées.
+     * @pre <pre>
+     *     ranges != null && !ranges.isEmpty() </pre>
+     */
+    void matchesFound(List<TextRange> ranges);
+}
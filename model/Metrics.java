@@ -0,0 +1,263 @@
+package pet.model;
+
+import java.beans.ConstructorProperties;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import util.Contract;
+
+/**
+ * Registre des mesures de l'éditeur : des compteurs et des histogrammes de
+ *  durées, désignés par leur nom et créés à leur premier usage.
+ * Les mesures sont enregistrées sans verrou, depuis n'importe quel thread ;
+ *  une fois register() appelée, elles sont consultables par JMX sous le nom
+ *  OBJECT_NAME (avec jconsole ou jcmd, par exemple).
+ * Les histogrammes répartissent les durées en tranches de puissances de 2
+ *  nanosecondes : les quantiles qu'ils donnent sont des majorants à un
+ *  facteur 2 près.
+ */
+public final class Metrics {
+
+    // ATTRIBUTS STATIQUES
+
+    public static final String OBJECT_NAME = "pet:type=Metrics";
+
+    /**
+     * Noms des mesures de l'éditeur.
+     */
+    public static final String LOAD = "model.load";
+    public static final String LOADED_BYTES = "model.load.bytes";
+    public static final String SAVE = "model.save";
+    public static final String SAVED_BYTES = "model.save.bytes";
+    public static final String DISPATCH = "model.dispatch";
+    public static final String STATUS_BAR = "gui.statusBar";
+    public static final String MENU_STATE = "gui.menuState";
+    public static final String EDT_LATENCY = "gui.edt.latency";
+    public static final String EDT_STALLS = "gui.edt.stalls";
+    public static final String FILE_CHOOSER = "gui.fileChooser";
+    public static final String STARTUP_FIRST_PAINT = "startup.firstPaint";
+    public static final String STARTUP_DOCUMENT = "startup.document";
+    public static final String STARTUP_EXCLUDED = "startup.excluded";
+
+    private static final ConcurrentMap<String, AtomicLong> COUNTERS =
+            new ConcurrentHashMap<String, AtomicLong>();
+    private static final ConcurrentMap<String, Histogram> HISTOGRAMS =
+            new ConcurrentHashMap<String, Histogram>();
+
+    // CONSTRUCTEURS
+
+    private Metrics() {
+        // rien
+    }
+
+    // COMMANDES
+
+    /**
+     * Ajoute n au compteur name.
+     * @pre <pre>
+     *     name != null </pre>
+     */
+    public static void add(String name, long n) {
+        Contract.checkCondition(name != null);
+
+        AtomicLong c = COUNTERS.get(name);
+        if (c == null) {
+            AtomicLong a = new AtomicLong();
+            c = COUNTERS.putIfAbsent(name, a);
+            if (c == null) {
+                c = a;
+            }
+        }
+        c.addAndGet(n);
+    }
+
+    /**
+     * Enregistre dans l'histogramme name une durée de nanos nanosecondes.
+     * @pre <pre>
+     *     name != null </pre>
+     */
+    public static void record(String name, long nanos) {
+        Contract.checkCondition(name != null);
+
+        Histogram h = HISTOGRAMS.get(name);
+        if (h == null) {
+            Histogram a = new Histogram();
+            h = HISTOGRAMS.putIfAbsent(name, a);
+            if (h == null) {
+                h = a;
+            }
+        }
+        h.record(Math.max(nanos, 0));
+    }
+
+    /**
+     * Enregistre le registre auprès du serveur JMX de la plateforme, s'il ne
+     *  l'est pas déjà.
+     * Le démarrage du serveur JMX prend un peu de temps : cette commande
+     *  n'a pas à être appelée depuis le thread de distribution des
+     *  événements.
+     */
+    public static synchronized void register() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new View(), name);
+            }
+        } catch (JMException e) {
+            // Ne devrait pas survenir
+            throw new InternalError(e.getMessage());
+        }
+    }
+
+    // TYPES IMBRIQUES
+
+    /**
+     * Le registre vu par JMX.
+     */
+    public interface MetricsMXBean {
+        /**
+         * La valeur de chaque compteur.
+         */
+        Map<String, Long> getCounters();
+        /**
+         * Le résumé de chaque histogramme.
+         */
+        Map<String, Latency> getLatencies();
+        /**
+         * Remet à zéro toutes les mesures.
+         */
+        void reset();
+    }
+
+    /**
+     * Résumé d'un histogramme de durées, exprimées en millisecondes.
+     */
+    public static final class Latency {
+        private final long count;
+        private final double mean;
+        private final double p50;
+        private final double p99;
+        private final double max;
+
+        @ConstructorProperties({ "count", "meanMillis", "p50Millis",
+                "p99Millis", "maxMillis" })
+        public Latency(long count, double mean, double p50, double p99,
+                double max) {
+            this.count = count;
+            this.mean = mean;
+            this.p50 = p50;
+            this.p99 = p99;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMeanMillis() {
+            return mean;
+        }
+
+        public double getP50Millis() {
+            return p50;
+        }
+
+        public double getP99Millis() {
+            return p99;
+        }
+
+        public double getMaxMillis() {
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("n=%d moy=%.2fms p50<%.2fms p99<%.2fms"
+                    + " max=%.2fms", count, mean, p50, p99, max);
+        }
+    }
+
+    private static final class View implements MetricsMXBean {
+        @Override
+        public Map<String, Long> getCounters() {
+            Map<String, Long> r = new TreeMap<String, Long>();
+            for (Map.Entry<String, AtomicLong> e : COUNTERS.entrySet()) {
+                r.put(e.getKey(), e.getValue().get());
+            }
+            return r;
+        }
+
+        @Override
+        public Map<String, Latency> getLatencies() {
+            Map<String, Latency> r = new TreeMap<String, Latency>();
+            for (Map.Entry<String, Histogram> e : HISTOGRAMS.entrySet()) {
+                r.put(e.getKey(), e.getValue().summary());
+            }
+            return r;
+        }
+
+        @Override
+        public void reset() {
+            COUNTERS.clear();
+            HISTOGRAMS.clear();
+        }
+    }
+
+    /**
+     * Histogramme de durées : la tranche i compte les durées d dont le bit
+     *  de poids fort est le bit i - 1 (2^(i-1) <= d < 2^i, et d == 0 pour la
+     *  tranche 0).
+     */
+    private static final class Histogram {
+        private static final double NANOS_PER_MILLI = 1e6;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long nanos) {
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos));
+            count.incrementAndGet();
+            total.addAndGet(nanos);
+            long m = max.get();
+            while (nanos > m && !max.compareAndSet(m, nanos)) {
+                m = max.get();
+            }
+        }
+
+        Latency summary() {
+            long n = count.get();
+            double mean = n == 0 ? 0 : total.get() / NANOS_PER_MILLI / n;
+            return new Latency(n, mean, quantile(n, 0.5), quantile(n, 0.99),
+                    max.get() / NANOS_PER_MILLI);
+        }
+
+        /**
+         * Un majorant, en millisecondes, du quantile q des n durées
+         *  enregistrées : la borne supérieure de la tranche qui le contient.
+         */
+        private double quantile(long n, double q) {
+            long rank = (long) Math.ceil(q * n);
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= rank && seen > 0) {
+                    return Math.min(1L << Math.min(i, 62), max.get())
+                            / NANOS_PER_MILLI;
+                }
+            }
+            return 0;
+        }
+    }
+}
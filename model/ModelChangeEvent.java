@@ -0,0 +1,112 @@
+package pet.model;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+import javax.swing.event.ChangeEvent;
+
+import util.Contract;
+
+/**
+ * Notification d'un changement d'état d'un modèle : elle indique lesquelles
+ *  de ses propriétés ont changé depuis la notification précédente.
+ * Un modèle ne notifie ses observateurs que si l'une d'elles au moins a
+ *  changé.
+ *
+ * @inv <pre>
+ *     getSource() est le modèle qui a changé
+ *     !getChanges().isEmpty() </pre>
+ *
+ * @cons <pre>
+ *     $ARGS$ PetModel source, Set<Property> changes
+ *     $PRE$
+ *         source != null
+ *         changes != null && !changes.isEmpty()
+ *     $POST$
+ *         getSource() == source
+ *         getChanges().equals(changes) </pre>
+ */
+public class ModelChangeEvent extends ChangeEvent {
+
+    // ATTRIBUTS STATIQUES
+
+    private static final long serialVersionUID = 1L;
+
+    // ATTRIBUTS
+
+    private final Set<Property> changes;
+
+    // CONSTRUCTEURS
+
+    public ModelChangeEvent(PetModel source, Set<Property> changes) {
+        super(source);
+        Contract.checkCondition(changes != null && !changes.isEmpty());
+
+        this.changes = Collections.unmodifiableSet(EnumSet.copyOf(changes));
+    }
+
+    // REQUETES
+
+    /**
+     * Les propriétés qui ont changé.
+     */
+    public Set<Property> getChanges() {
+        return changes;
+    }
+
+    /**
+     * La propriété p a-t-elle changé ?
+     */
+    public boolean hasChanged(Property p) {
+        return changes.contains(p);
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + changes;
+    }
+
+    // TYPES IMBRIQUES
+
+    /**
+     * Les propriétés observables d'un modèle.
+     */
+    public enum Property {
+        /**
+         * Le document (getDocument()), qui change aussi lors de la mise en
+         *  sommeil et du réveil.
+         */
+        DOCUMENT,
+        /**
+         * Le fichier (getFile()).
+         */
+        FILE,
+        /**
+         * La synchronisation du document et du fichier (isSynchronized()).
+         */
+        SYNC,
+        /**
+         * La possibilité d'annuler ou de rétablir une modification
+         *  (canUndo(), canRedo()).
+         */
+        HISTORY,
+        /**
+         * La vacuité du document.
+         */
+        EMPTY,
+        /**
+         * L'encodage ou les fins de ligne du fichier.
+         */
+        FORMAT,
+        /**
+         * La mise en sommeil du document.
+         */
+        HIBERNATION,
+        /**
+         * Les différences entre le document et le texte du dernier
+         *  chargement ou de la dernière sauvegarde (getLineDiff()).
+         */
+        DIFF
+    }
+}
@@ -0,0 +1,65 @@
+package pet.model;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Les événements JDK Flight Recorder du modèle : ils ne coûtent qu'un test
+ *  lorsqu'aucun enregistrement n'est en cours, et peuvent être activés en
+ *  production (java -XX:StartFlightRecording, ou jcmd <pid> JFR.start).
+ */
+final class ModelEvents {
+
+    // CONSTRUCTEURS
+
+    private ModelEvents() {
+        // rien
+    }
+
+    // TYPES IMBRIQUES
+
+    @Name("pet.Load")
+    @Label("Chargement d'un fichier")
+    @Category({ "Pet", "Modèle" })
+    static final class Load extends Event {
+        @Label("Fichier")
+        String path;
+        @Label("Taille")
+        @DataAmount
+        long bytes;
+        @Label("Encodage")
+        String charset;
+        @Label("Projeté en mémoire")
+        boolean mapped;
+    }
+
+    @Name("pet.Save")
+    @Label("Sauvegarde d'un fichier")
+    @Category({ "Pet", "Modèle" })
+    static final class Save extends Event {
+        @Label("Fichier")
+        String path;
+        @Label("Taille")
+        @DataAmount
+        long bytes;
+        @Label("Encodage")
+        String charset;
+        @Label("Durabilité")
+        String durability;
+    }
+
+    @Name("pet.Dispatch")
+    @Label("Notification des observateurs")
+    @Description("Appel des ChangeListener d'un modèle par fireStateChanged")
+    @Category({ "Pet", "Modèle" })
+    static final class Dispatch extends Event {
+        @Label("Observateurs")
+        int listeners;
+        @Label("Propriétés modifiées")
+        String changes;
+    }
+}
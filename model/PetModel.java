@@ -2,6 +2,7 @@ package pet.model;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 
 import javax.swing.event.ChangeListener;
 import javax.swing.text.Document;
@@ -17,6 +18,17 @@ import javax.swing.text.Document;
  *  en phase (boolean isSynchronized()).
  * Notez que le modèle n'a une chance d'être synchronisé que s'il contient
  *  un document et un chemin.
+ * Les commandes d'entrée/sortie existent aussi en version asynchrone (suffixe
+ *  Async) : la lecture ou l'écriture a lieu sur un thread d'arrière-plan et
+ *  le modèle n'est modifié, puis ses observateurs notifiés, que sur le
+ *  thread de distribution des événements, une fois l'opération terminée.
+ *  Ces commandes retournent un CompletableFuture, lui aussi complété sur ce
+ *  thread ; l'annuler avant la fin de l'opération laisse le modèle
+ *  inchangé.
+ * Les observateurs ne sont notifiés que lorsqu'une propriété du modèle
+ *  change réellement, par un ModelChangeEvent qui indique lesquelles ; les
+ *  modifications du document sont coalescées en une seule notification
+ *  par cycle du thread de distribution des événements.
  * 
  * @inv <pre>
  *     getFile() != null
@@ -26,12 +38,14 @@ import javax.swing.text.Document;
  *     isSynchronized() <==>
  *         getDocument != null
  *         getFile() != null
- *         la séquence de caractères du document n'a pas évolué depuis
- *             le dernier chargement ou la dernière sauvegarde </pre>
+ *         la séquence de caractères du document est celle du dernier
+ *             chargement ou de la dernière sauvegarde
+ *     getDocument() == null ==> !canUndo() && !canRedo() </pre>
  * 
  * @cons <pre>
  *     $ARGS$ -
  *     $POST$
+ *         getDocumentFactory() != null
  *         getDocument() == null
  *         getFile() == null
  *         !isSynchronized() </pre>
@@ -40,6 +54,18 @@ public interface PetModel {
     
     // REQUETES
 
+    /**
+     * Existe-t-il une modification annulée du document à rétablir ?
+     */
+    boolean canRedo();
+
+    /**
+     * Existe-t-il une modification du document à annuler ?
+     * Les modifications sont oubliées à chaque changement de document, ainsi
+     *  que lorsque son texte est effacé ou rechargé.
+     */
+    boolean canUndo();
+
     /**
      * Les observateurs du modèle.
      */
@@ -49,24 +75,46 @@ public interface PetModel {
      * Le document associé à ce modèle.
      */
     Document getDocument();
+
+    /**
+     * La fabrique utilisée pour créer les nouveaux documents du modèle.
+     */
+    DocumentFactory getDocumentFactory();
     
     /**
      * Le chemin d'accès à un fichier, associé à ce modèle.
      */
     File getFile();
 
+    /**
+     * Les différences, ligne à ligne, entre le document et le texte du
+     *  dernier chargement ou de la dernière sauvegarde.
+     * Vaut LineDiff.NONE s'il n'y a pas de document, ou si ce texte n'est
+     *  pas connu.
+     * @post <pre>
+     *     result != null
+     *     getDocument() != null && result != LineDiff.NONE
+     *         ==> result.getLineCount() est le nombre de lignes du document
+     *     isSynchronized() ==> result.isEmpty() </pre>
+     */
+    LineDiff getLineDiff();
+
     /**
      * Le modèle est-il synchronisé ?
      * La réponse vaut true ssi il existe un document et un chemin et qu'alors
-     *  la séquence de caractères du document n'a pas évolué depuis le dernier
-     *  chargement ou la dernière sauvegarde.
+     *  la séquence de caractères du document est celle du dernier chargement
+     *  ou de la dernière sauvegarde.
+     * Selon le type de document, une modification annulée par une autre (une
+     *  frappe suivie de son effacement, par exemple) peut ainsi rendre le
+     *  modèle de nouveau synchronisé.
      */
     boolean isSynchronized();
     
     // COMMANDES
     
     /**
-     * Ajoute un ChangeListener au modèle.
+     * Ajoute un ChangeListener au modèle : l'événement qu'il reçoit est un
+     *  ModelChangeEvent.
      * @pre
      *     listener != null
      * @post <pre>
@@ -85,6 +133,17 @@ public interface PetModel {
      */
     void clearDocument();
 
+    /**
+     * Rétablit la dernière modification annulée du document.
+     * @pre <pre>
+     *     canRedo() </pre>
+     * @post <pre>
+     *     getDocument() == old getDocument()
+     *     le texte du document est celui d'avant l'annulation
+     *     canUndo() </pre>
+     */
+    void redo();
+
     /**
      * Retire un ChangeListener du modèle.
      * @pre
@@ -103,6 +162,17 @@ public interface PetModel {
      */
     void removeDocAndFile(); 
 
+    /**
+     * Fixe la fabrique utilisée pour créer les prochains documents du modèle.
+     * Le document courant n'est pas affecté.
+     * @pre
+     *     factory != null
+     * @post <pre>
+     *     getDocumentFactory() == factory
+     *     getDocument() == old getDocument() </pre>
+     */
+    void setDocumentFactory(DocumentFactory factory);
+
     /**
      * Recharge le contenu du fichier courant dans le document courant.
      * @pre <pre>
@@ -118,6 +188,23 @@ public interface PetModel {
      */
     void resetCurrentDocWithCurrentFile() throws IOException; 
 
+    /**
+     * Version asynchrone de resetCurrentDocWithCurrentFile().
+     * @pre <pre>
+     *     getFile() != null
+     *     getDocument() != null </pre>
+     * @post <pre>
+     *     result != null
+     *     l'avancement de la lecture est transmis à listener
+     *         (s'il n'est pas null)
+     *     si result se termine normalement, la postcondition de
+     *         resetCurrentDocWithCurrentFile() est établie
+     *     sinon le modèle est inchangé et result se termine sur
+     *         l'IOException survenue, ou est annulé </pre>
+     */
+    CompletableFuture<Void> resetCurrentDocWithCurrentFileAsync(
+            ProgressListener listener);
+
     /**
      * Sauvegarde le contenu du document courant dans le fichier courant.
      * @pre <pre>
@@ -135,6 +222,24 @@ public interface PetModel {
      */
     void saveCurrentDocIntoCurrentFile() throws IOException;
 
+    /**
+     * Version asynchrone de saveCurrentDocIntoCurrentFile().
+     * Le document est verrouillé en lecture pendant l'écriture.
+     * @pre <pre>
+     *     getFile() != null
+     *     getDocument() != null </pre>
+     * @post <pre>
+     *     result != null
+     *     l'avancement de l'écriture est transmis à listener
+     *         (s'il n'est pas null)
+     *     si result se termine normalement, la postcondition de
+     *         saveCurrentDocIntoCurrentFile() est établie
+     *     sinon le modèle est inchangé et result se termine sur
+     *         l'IOException survenue, ou est annulé </pre>
+     */
+    CompletableFuture<Void> saveCurrentDocIntoCurrentFileAsync(
+            ProgressListener listener);
+
     /**
      * Sauvegarde le contenu du document courant dans le fichier associé au
      *  chemin f, qui devient ensuite le chemin courant.
@@ -153,6 +258,24 @@ public interface PetModel {
      */
     void saveCurrentDocIntoFile(File f) throws IOException;
 
+    /**
+     * Version asynchrone de saveCurrentDocIntoFile(f).
+     * Le document est verrouillé en lecture pendant l'écriture.
+     * @pre <pre>
+     *     getDocument() != null
+     *     f != null && f.isFile() && f.canRead() && f.canWrite() </pre>
+     * @post <pre>
+     *     result != null
+     *     l'avancement de l'écriture est transmis à listener
+     *         (s'il n'est pas null)
+     *     si result se termine normalement, la postcondition de
+     *         saveCurrentDocIntoFile(f) est établie
+     *     sinon le modèle est inchangé et result se termine sur
+     *         l'IOException survenue, ou est annulé </pre>
+     */
+    CompletableFuture<Void> saveCurrentDocIntoFileAsync(File f,
+            ProgressListener listener);
+
     /**
      * Crée un nouveau document à partir du texte contenu dans le fichier
      *  associé à f, puis mémorise ce dernier comme chemin courant.
@@ -170,6 +293,22 @@ public interface PetModel {
      */
     void setNewDocAndNewFile(File f) throws IOException;
 
+    /**
+     * Version asynchrone de setNewDocAndNewFile(f).
+     * @pre <pre>
+     *     f != null && f.isFile() && f.canRead() && f.canWrite() </pre>
+     * @post <pre>
+     *     result != null
+     *     l'avancement de la lecture est transmis à listener
+     *         (s'il n'est pas null)
+     *     si result se termine normalement, la postcondition de
+     *         setNewDocAndNewFile(f) est établie
+     *     sinon le modèle est inchangé et result se termine sur
+     *         l'IOException survenue, ou est annulé </pre>
+     */
+    CompletableFuture<Void> setNewDocAndNewFileAsync(File f,
+            ProgressListener listener);
+
     /**
      * Crée un nouveau document à partir du texte contenu dans le fichier
      *  associé à f, et supprime le chemin courant du modèle.
@@ -187,6 +326,22 @@ public interface PetModel {
      */
     void setNewDocFromFile(File f) throws IOException;
 
+    /**
+     * Version asynchrone de setNewDocFromFile(f).
+     * @pre <pre>
+     *     f != null && f.isFile() && f.canRead() </pre>
+     * @post <pre>
+     *     result != null
+     *     l'avancement de la lecture est transmis à listener
+     *         (s'il n'est pas null)
+     *     si result se termine normalement, la postcondition de
+     *         setNewDocFromFile(f) est établie
+     *     sinon le modèle est inchangé et result se termine sur
+     *         l'IOException survenue, ou est annulé </pre>
+     */
+    CompletableFuture<Void> setNewDocFromFileAsync(File f,
+            ProgressListener listener);
+
     /**
      * Crée un nouveau document vide et supprime le chemin courant du modèle.
      * @post <pre>
@@ -196,4 +351,17 @@ public interface PetModel {
      *     !isSynchronized() </pre>
      */
     void setNewDocWithoutFile();
+
+    /**
+     * Annule la dernière modification non annulée du document.
+     * Les frappes successives d'une même saisie, ou d'un même effacement,
+     *  forment une seule modification.
+     * @pre <pre>
+     *     canUndo() </pre>
+     * @post <pre>
+     *     getDocument() == old getDocument()
+     *     le texte du document est celui d'avant la modification
+     *     canRedo() </pre>
+     */
+    void undo();
 }
@@ -0,0 +1,993 @@
+package pet.model;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.undo.AbstractUndoableEdit;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+import javax.swing.undo.UndoableEdit;
+
+/**
+ * Contenu de document organisé en table de pièces.
+ * Le texte est décrit par une suite de pièces, chacune désignant une portion
+ *  soit du tampon d'origine (immuable), soit du tampon d'ajout (dans lequel
+ *  on ne fait qu'ajouter des caractères en fin).
+ * Une insertion ajoute ses caractères en fin de tampon d'ajout et découpe au
+ *  plus une pièce ; une suppression ne fait que retirer ou raccourcir des
+ *  pièces : aucune ne recopie le texte qui l'entoure.
+ *
+ * Les positions sont rangées par blocs munis d'un décalage commun, si bien
+ *  qu'une édition ne met à jour individuellement que les marques du bloc où
+ *  elle a lieu.
+ *
+ * @inv <pre>
+ *     length() == somme des longueurs des pièces
+ *     length() >= 1 (le contenu se termine toujours par '\n') </pre>
+ */
+final class PieceTableContent implements AbstractDocument.Content {
+
+    // ATTRIBUTS STATIQUES
+
+    private static final int INITIAL_ADD_CAPACITY = 1024;
+    private static final char[] EMPTY = new char[0];
+    /**
+     * Place approximative (en octets) d'une pièce et de sa référence.
+     */
+    private static final int PIECE_BYTES = 32;
+
+    // ATTRIBUTS
+
+    /**
+     * Le tampon d'origine, que setOriginal() peut remplacer par une autre
+     *  forme des mêmes caractères pendant que d'autres threads le lisent.
+     */
+    private volatile CharStore original;
+    private char[] added;
+    private int addedLength;
+    private final List<Piece> pieces;
+    private int length;
+    /**
+     * Dernière pièce localisée : indice dans les 32 bits de poids fort,
+     *  position de son premier caractère dans les 32 bits de poids faible.
+     */
+    private volatile long cursor;
+    private final MarkTable marks;
+
+    // CONSTRUCTEURS
+
+    /**
+     * @pre <pre>
+     *     original != null </pre>
+     * @post <pre>
+     *     le contenu est celui de original suivi de '\n'
+     *     length() == original.length() + 1 </pre>
+     */
+    PieceTableContent(CharStore original) {
+        assert original != null;
+
+        this.original = original;
+        added = new char[INITIAL_ADD_CAPACITY];
+        added[0] = '\n';
+        addedLength = 1;
+        pieces = new ArrayList<Piece>();
+        if (original.length() > 0) {
+            pieces.add(new Piece(false, 0, original.length()));
+        }
+        pieces.add(new Piece(true, 0, 1));
+        length = original.length() + 1;
+        cursor = 0L;
+        marks = new MarkTable();
+    }
+
+    // REQUETES
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public void getChars(int where, int len, Segment txt)
+            throws BadLocationException {
+        checkRange(where, len);
+
+        if (len == 0) {
+            txt.array = EMPTY;
+            txt.offset = 0;
+            txt.count = 0;
+            return;
+        }
+        long loc = findPiece(where);
+        int index = indexOf(loc);
+        int start = startOf(loc);
+        Piece p = pieces.get(index);
+        int k = where - start;
+        view(p, k, Math.min(p.length - k, len), txt);
+        if (txt.count == len || txt.isPartialReturn()) {
+            return;
+        }
+        char[] buf = new char[len];
+        copyChars(where, len, buf);
+        txt.array = buf;
+        txt.offset = 0;
+        txt.count = len;
+    }
+
+    @Override
+    public String getString(int where, int len) throws BadLocationException {
+        checkRange(where, len);
+
+        char[] buf = new char[len];
+        copyChars(where, len, buf);
+        return new String(buf);
+    }
+
+    /**
+     * Le tampon d'origine.
+     */
+    CharStore getOriginal() {
+        return original;
+    }
+
+    /**
+     * Le tampon d'origine est-il projeté en mémoire depuis un fichier ?
+     */
+    boolean isMapped() {
+        return original instanceof MappedCharStore;
+    }
+
+    /**
+     * La place approximative (en octets) qu'occupe le contenu dans le tas :
+     *  tampon d'origine (ou ce qui en est décodé), tampon d'ajout et pièces.
+     */
+    long heapSize() {
+        long size;
+        if (original instanceof ArrayCharStore) {
+            size = ((ArrayCharStore) original).heapSize();
+        } else if (original instanceof MappedCharStore) {
+            size = ((MappedCharStore) original).heapSize();
+        } else if (original instanceof CompressedCharStore) {
+            size = ((CompressedCharStore) original).heapSize();
+        } else {
+            size = 2L * original.length();
+        }
+        return size + 2L * added.length + (long) PIECE_BYTES * pieces.size();
+    }
+
+    /**
+     * Une image du contenu courant.
+     * Les tampons n'étant jamais modifiés, il suffit pour cela de recopier la
+     *  liste des pièces.
+     * @post <pre>
+     *     hasText(result) </pre>
+     */
+    Snapshot snapshot() {
+        return new Snapshot(this, pieces.toArray(new Piece[pieces.size()]),
+                length, added);
+    }
+
+    /**
+     * Le contenu est-il identique à celui dont snap est l'image ?
+     * Les portions désignant le même emplacement d'un même tampon sont
+     *  égales sans avoir à être lues : seul le texte des portions qui
+     *  diffèrent est comparé caractère à caractère.
+     * @pre <pre>
+     *     snap != null </pre>
+     */
+    boolean hasText(Snapshot snap) {
+        assert snap != null;
+
+        if (snap.owner != this || snap.length != length) {
+            return false;
+        }
+        Segment s1 = new Segment();
+        Segment s2 = new Segment();
+        int i = 0;
+        int j = 0;
+        int k1 = 0;
+        int k2 = 0;
+        int done = 0;
+        while (done < length) {
+            Piece p = pieces.get(i);
+            Piece q = snap.pieces[j];
+            int n = Math.min(p.length - k1, q.length - k2);
+            if ((p.added != q.added || p.start + k1 != q.start + k2)
+                    && !sameChars(p, k1, q, k2, n, s1, s2)) {
+                return false;
+            }
+            done += n;
+            k1 += n;
+            k2 += n;
+            if (k1 == p.length) {
+                i += 1;
+                k1 = 0;
+            }
+            if (k2 == q.length) {
+                j += 1;
+                k2 = 0;
+            }
+        }
+        return true;
+    }
+
+    // COMMANDES
+
+    /**
+     * Remplace le tampon d'origine par s, formé des mêmes caractères : les
+     *  pièces, les positions et les images restent valides, et les lectures
+     *  en cours peuvent se poursuivre dans l'ancien tampon.
+     * @pre <pre>
+     *     s != null && s.length() == getOriginal().length()
+     *     s et getOriginal() sont formés des mêmes caractères </pre>
+     */
+    void setOriginal(CharStore s) {
+        assert s != null && s.length() == original.length();
+
+        original = s;
+    }
+
+    @Override
+    public Position createPosition(int offset) throws BadLocationException {
+        if (offset < 0 || offset > length) {
+            throw new BadLocationException("Position invalide", offset);
+        }
+        return marks.create(offset);
+    }
+
+    @Override
+    public UndoableEdit insertString(int where, String str)
+            throws BadLocationException {
+        if (where < 0 || where >= length) {
+            throw new BadLocationException("Insertion invalide", where);
+        }
+        if (str == null) {
+            throw new BadLocationException("Texte invalide", where);
+        }
+
+        int n = str.length();
+        int start = append(str);
+        insertPieces(where, Collections.singletonList(new Piece(true, start, n)), n);
+        return new InsertEdit(where, n);
+    }
+
+    @Override
+    public UndoableEdit remove(int where, int nitems)
+            throws BadLocationException {
+        if (where < 0 || nitems < 0 || where + nitems >= length) {
+            throw new BadLocationException("Suppression invalide", where);
+        }
+
+        List<MarkRef> refs = marks.inRange(where, where + nitems);
+        List<Piece> removed = removePieces(where, nitems);
+        return new RemoveEdit(where, nitems, removed, refs);
+    }
+
+    // OUTILS
+
+    private void checkRange(int where, int len) throws BadLocationException {
+        if (where < 0 || len < 0 || where + len > length) {
+            throw new BadLocationException("Intervalle invalide", where);
+        }
+    }
+
+    private static long location(int index, int offset) {
+        return ((long) index << 32) | (offset & 0xFFFFFFFFL);
+    }
+
+    private static int indexOf(long location) {
+        return (int) (location >>> 32);
+    }
+
+    private static int startOf(long location) {
+        return (int) location;
+    }
+
+    private void setCursor(int index, int offset) {
+        cursor = location(index, offset);
+    }
+
+    /**
+     * Localise la pièce contenant le caractère d'indice offset, en partant de
+     *  la dernière pièce localisée (les éditions sont le plus souvent proches
+     *  les unes des autres).
+     * Le résultat est retourné plutôt que relu dans cursor, que d'autres
+     *  lecteurs peuvent modifier simultanément.
+     * @pre <pre>
+     *     0 <= offset <= length() </pre>
+     * @post <pre>
+     *     indexOf(result) est l'indice de la pièce contenant offset, ou
+     *         pieces.size() si offset == length()
+     *     startOf(result) est la position du début de cette pièce </pre>
+     */
+    private long findPiece(int offset) {
+        long c = cursor;
+        int index = indexOf(c);
+        int start = startOf(c);
+        if (index > pieces.size()) {
+            index = 0;
+            start = 0;
+        }
+        while (offset < start) {
+            index -= 1;
+            start -= pieces.get(index).length;
+        }
+        while (index < pieces.size()
+                && offset >= start + pieces.get(index).length) {
+            start += pieces.get(index).length;
+            index += 1;
+        }
+        long result = location(index, start);
+        cursor = result;
+        return result;
+    }
+
+    /**
+     * Fait désigner à s les n caractères de p commençant en k.
+     */
+    private void view(Piece p, int k, int n, Segment s) {
+        if (p.added) {
+            s.array = added;
+            s.offset = p.start + k;
+            s.count = n;
+        } else {
+            original.segment(p.start + k, n, s);
+        }
+    }
+
+    /**
+     * Recopie dans dst les len caractères commençant en where.
+     */
+    private void copyChars(int where, int len, char[] dst) {
+        Segment s = new Segment();
+        long loc = findPiece(where);
+        int index = indexOf(loc);
+        int k = where - startOf(loc);
+        int done = 0;
+        while (done < len) {
+            Piece p = pieces.get(index);
+            int n = Math.min(p.length - k, len - done);
+            int copied = 0;
+            while (copied < n) {
+                view(p, k + copied, n - copied, s);
+                System.arraycopy(s.array, s.offset, dst, done + copied, s.count);
+                copied += s.count;
+            }
+            done += n;
+            k = 0;
+            index += 1;
+        }
+    }
+
+    /**
+     * Les n caractères de p commençant en k1 sont-ils ceux de q commençant
+     *  en k2 ?
+     */
+    private boolean sameChars(Piece p, int k1, Piece q, int k2, int n,
+            Segment s1, Segment s2) {
+        int done = 0;
+        while (done < n) {
+            view(p, k1 + done, n - done, s1);
+            int m = s1.count;
+            int compared = 0;
+            while (compared < m) {
+                view(q, k2 + done + compared, m - compared, s2);
+                for (int x = 0; x < s2.count; x++) {
+                    if (s1.array[s1.offset + compared + x]
+                            != s2.array[s2.offset + x]) {
+                        return false;
+                    }
+                }
+                compared += s2.count;
+            }
+            done += m;
+        }
+        return true;
+    }
+
+    /**
+     * Ajoute str en fin de tampon d'ajout et retourne la position à laquelle
+     *  elle y a été rangée.
+     */
+    private int append(String str) {
+        int n = str.length();
+        if (addedLength + n > added.length) {
+            int capacity = Math.max(added.length * 2, addedLength + n);
+            char[] a = new char[capacity];
+            System.arraycopy(added, 0, a, 0, addedLength);
+            added = a;
+        }
+        str.getChars(0, n, added, addedLength);
+        int start = addedLength;
+        addedLength += n;
+        return start;
+    }
+
+    /**
+     * Insère en where la suite de pièces ps, de longueur totale n.
+     * Une pièce qui prolonge exactement sa voisine dans le même tampon est
+     *  fusionnée avec elle, ce qui évite de multiplier les pièces lors d'une
+     *  frappe continue.
+     */
+    private void insertPieces(int where, List<Piece> ps, int n) {
+        if (n == 0) {
+            return;
+        }
+        long loc = findPiece(where);
+        int index = indexOf(loc);
+        int start = startOf(loc);
+        if (where > start) {
+            Piece p = pieces.get(index);
+            int k = where - start;
+            pieces.set(index, p.head(k));
+            pieces.add(index + 1, p.tail(k));
+            index += 1;
+            start = where;
+        }
+        pieces.addAll(index, ps);
+        int last = index + ps.size() - 1;
+        if (last + 1 < pieces.size()
+                && pieces.get(last).precedes(pieces.get(last + 1))) {
+            pieces.set(last, pieces.get(last).join(pieces.get(last + 1)));
+            pieces.remove(last + 1);
+        }
+        if (index > 0 && pieces.get(index - 1).precedes(pieces.get(index))) {
+            Piece prev = pieces.get(index - 1);
+            pieces.set(index - 1, prev.join(pieces.get(index)));
+            pieces.remove(index);
+            index -= 1;
+            start -= prev.length;
+        }
+        setCursor(index, start);
+        length += n;
+        marks.insertUpdate(where, n);
+    }
+
+    /**
+     * Retire les n caractères commençant en where et retourne les pièces qui
+     *  les décrivaient.
+     */
+    private List<Piece> removePieces(int where, int n) {
+        List<Piece> removed = new ArrayList<Piece>();
+        if (n == 0) {
+            return removed;
+        }
+        long loc = findPiece(where);
+        int index = indexOf(loc);
+        int start = startOf(loc);
+        if (where > start) {
+            Piece p = pieces.get(index);
+            int k = where - start;
+            pieces.set(index, p.head(k));
+            pieces.add(index + 1, p.tail(k));
+            index += 1;
+        }
+        int end = index;
+        int remaining = n;
+        while (remaining > 0 && pieces.get(end).length <= remaining) {
+            removed.add(pieces.get(end));
+            remaining -= pieces.get(end).length;
+            end += 1;
+        }
+        if (remaining > 0) {
+            Piece p = pieces.get(end);
+            removed.add(p.head(remaining));
+            pieces.set(end, p.tail(remaining));
+        }
+        pieces.subList(index, end).clear();
+        start = where;
+        if (index > 0 && index < pieces.size()
+                && pieces.get(index - 1).precedes(pieces.get(index))) {
+            Piece prev = pieces.get(index - 1);
+            pieces.set(index - 1, prev.join(pieces.get(index)));
+            pieces.remove(index);
+            index -= 1;
+            start -= prev.length;
+        }
+        setCursor(index, start);
+        length -= n;
+        marks.removeUpdate(where, n);
+        return removed;
+    }
+
+    // TYPES IMBRIQUES
+
+    /**
+     * Image du contenu à un instant donné, obtenue par snapshot().
+     * Son texte peut être lu depuis n'importe quel thread : les emplacements
+     *  des tampons que désignent ses pièces ne sont plus jamais modifiés, et
+     *  elle retient le tampon d'ajout tel qu'il était lors de sa création.
+     */
+    static final class Snapshot {
+        private final PieceTableContent owner;
+        private final Piece[] pieces;
+        private final int length;
+        private final char[] added;
+        /**
+         * starts[i] est la position du début de pieces[i].
+         */
+        private final int[] starts;
+
+        private Snapshot(PieceTableContent owner, Piece[] pieces, int length,
+                char[] added) {
+            this.owner = owner;
+            this.pieces = pieces;
+            this.length = length;
+            this.added = added;
+            starts = new int[pieces.length];
+            int start = 0;
+            for (int i = 0; i < pieces.length; i++) {
+                starts[i] = start;
+                start += pieces[i].length;
+            }
+        }
+
+        /**
+         * Le nombre de caractères du texte.
+         */
+        int length() {
+            return length;
+        }
+
+        /**
+         * Fait désigner à s une portion contiguë du texte commençant en
+         *  where, de longueur au plus len.
+         * @pre <pre>
+         *     0 <= where && len > 0 && where + len <= length()
+         *     s != null </pre>
+         * @post <pre>
+         *     0 < s.count <= len
+         *     s désigne les caractères d'indices where à where + s.count - 1 </pre>
+         */
+        void segment(int where, int len, Segment s) {
+            assert 0 <= where && len > 0 && where + len <= length;
+            assert s != null;
+
+            int lo = 0;
+            int hi = pieces.length - 1;
+            while (lo < hi) {
+                int mid = (lo + hi + 1) >>> 1;
+                if (starts[mid] <= where) {
+                    lo = mid;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            Piece p = pieces[lo];
+            int k = where - starts[lo];
+            int n = Math.min(p.length - k, len);
+            if (p.added) {
+                s.array = added;
+                s.offset = p.start + k;
+                s.count = n;
+            } else {
+                owner.original.segment(p.start + k, n, s);
+            }
+        }
+    }
+
+    /**
+     * Une portion [start, start + length[ de l'un des deux tampons.
+     */
+    private static final class Piece {
+        final boolean added;
+        final int start;
+        final int length;
+
+        Piece(boolean added, int start, int length) {
+            this.added = added;
+            this.start = start;
+            this.length = length;
+        }
+
+        Piece head(int k) {
+            return new Piece(added, start, k);
+        }
+
+        Piece tail(int k) {
+            return new Piece(added, start + k, length - k);
+        }
+
+        boolean precedes(Piece p) {
+            return added == p.added && start + length == p.start;
+        }
+
+        Piece join(Piece p) {
+            return new Piece(added, start, length + p.length);
+        }
+    }
+
+    /**
+     * Annulation d'une insertion : les pièces retirées sont conservées pour
+     *  pouvoir être réinsérées sans recopier de texte.
+     */
+    private final class InsertEdit extends AbstractUndoableEdit {
+        private static final long serialVersionUID = 1L;
+
+        private final int where;
+        private final int length;
+        private List<Piece> pieces;
+        private List<MarkRef> refs;
+
+        InsertEdit(int where, int length) {
+            this.where = where;
+            this.length = length;
+        }
+
+        @Override
+        public void undo() throws CannotUndoException {
+            super.undo();
+            refs = marks.inRange(where, where + length);
+            pieces = removePieces(where, length);
+        }
+
+        @Override
+        public void redo() throws CannotRedoException {
+            super.redo();
+            insertPieces(where, pieces, length);
+            marks.restore(refs, where, where + length);
+            pieces = null;
+            refs = null;
+        }
+    }
+
+    /**
+     * Annulation d'une suppression : les marques qui se trouvaient dans
+     *  l'intervalle supprimé retrouvent leur position d'origine.
+     */
+    private final class RemoveEdit extends AbstractUndoableEdit {
+        private static final long serialVersionUID = 1L;
+
+        private final int where;
+        private final int length;
+        private List<Piece> pieces;
+        private List<MarkRef> refs;
+
+        RemoveEdit(int where, int length, List<Piece> pieces,
+                List<MarkRef> refs) {
+            this.where = where;
+            this.length = length;
+            this.pieces = pieces;
+            this.refs = refs;
+        }
+
+        @Override
+        public void undo() throws CannotUndoException {
+            super.undo();
+            insertPieces(where, pieces, length);
+            marks.restore(refs, where, where + length);
+            pieces = null;
+            refs = null;
+        }
+
+        @Override
+        public void redo() throws CannotRedoException {
+            super.redo();
+            refs = marks.inRange(where, where + length);
+            pieces = removePieces(where, length);
+        }
+    }
+
+    /**
+     * Les marques associées aux positions, triées par position et réparties
+     *  en blocs consécutifs.
+     * Chaque bloc porte un décalage commun à toutes ses marques : une édition
+     *  ne met à jour individuellement que les marques du bloc où elle a lieu,
+     *  et se contente de modifier le décalage des blocs suivants.
+     * Une marque en position 0 ne bouge jamais lors d'une insertion.
+     */
+    private final class MarkTable {
+        private static final int BLOCK_SIZE = 2048;
+
+        private final List<MarkBlock> blocks;
+        private final ReferenceQueue<MarkPosition> queue;
+
+        MarkTable() {
+            blocks = new ArrayList<MarkBlock>();
+            queue = new ReferenceQueue<MarkPosition>();
+        }
+
+        Position create(int offset) {
+            purge();
+            MarkPosition pos = new MarkPosition();
+            Mark m = new Mark(pos, queue);
+            pos.mark = m;
+            if (blocks.isEmpty()) {
+                MarkBlock block = new MarkBlock();
+                block.add(m, offset);
+                blocks.add(block);
+                return pos;
+            }
+            int b = lastBlockStartingAtMost(offset);
+            MarkBlock block = blocks.get(b);
+            block.add(m, offset);
+            if (block.marks.size() > 2 * BLOCK_SIZE) {
+                MarkBlock next = block.split(BLOCK_SIZE);
+                blocks.add(b + 1, next);
+            }
+            return pos;
+        }
+
+        void insertUpdate(int where, int n) {
+            purge();
+            int t = Math.max(where, 1);
+            int b = firstBlockEndingAtLeast(t);
+            if (b == blocks.size()) {
+                return;
+            }
+            MarkBlock block = blocks.get(b);
+            for (int i = block.marks.size() - 1;
+                    i >= 0 && block.offset(i) >= t; i--) {
+                block.marks.get(i).raw += n;
+            }
+            for (int i = b + 1; i < blocks.size(); i++) {
+                blocks.get(i).delta += n;
+            }
+        }
+
+        void removeUpdate(int where, int n) {
+            purge();
+            int end = where + n;
+            int b = firstBlockEndingAtLeast(where + 1);
+            while (b < blocks.size() && blocks.get(b).offset(0) < end) {
+                MarkBlock block = blocks.get(b);
+                for (int i = 0; i < block.marks.size(); i++) {
+                    int offset = block.offset(i);
+                    if (offset > where) {
+                        int o = offset >= end ? offset - n : where;
+                        block.marks.get(i).raw = o - block.delta;
+                    }
+                }
+                b += 1;
+            }
+            while (b < blocks.size()) {
+                blocks.get(b).delta -= n;
+                b += 1;
+            }
+        }
+
+        /**
+         * Les marques dont la position est dans [from, to], avec cette
+         *  position.
+         */
+        List<MarkRef> inRange(int from, int to) {
+            purge();
+            List<MarkRef> refs = new ArrayList<MarkRef>();
+            int b = firstBlockEndingAtLeast(from);
+            while (b < blocks.size() && blocks.get(b).offset(0) <= to) {
+                MarkBlock block = blocks.get(b);
+                for (int i = 0; i < block.marks.size(); i++) {
+                    int offset = block.offset(i);
+                    if (from <= offset && offset <= to) {
+                        refs.add(new MarkRef(block.marks.get(i), offset));
+                    }
+                }
+                b += 1;
+            }
+            return refs;
+        }
+
+        /**
+         * Redonne aux marques de refs la position qu'elles avaient lorsque
+         *  refs a été calculé.
+         * @pre <pre>
+         *     les marques de refs ont une position dans [from, to]
+         *     les positions mémorisées dans refs sont dans [from, to] </pre>
+         */
+        void restore(List<MarkRef> refs, int from, int to) {
+            purge();
+            if (refs.isEmpty()) {
+                return;
+            }
+            // les emplacements occupés par les marques de [from, to]
+            List<MarkBlock> slotBlocks = new ArrayList<MarkBlock>();
+            List<Integer> slotIndexes = new ArrayList<Integer>();
+            List<Mark> affected = new ArrayList<Mark>();
+            int b = firstBlockEndingAtLeast(from);
+            while (b < blocks.size() && blocks.get(b).offset(0) <= to) {
+                MarkBlock block = blocks.get(b);
+                for (int i = 0; i < block.marks.size(); i++) {
+                    int offset = block.offset(i);
+                    if (from <= offset && offset <= to) {
+                        slotBlocks.add(block);
+                        slotIndexes.add(i);
+                        affected.add(block.marks.get(i));
+                    }
+                }
+                b += 1;
+            }
+            for (MarkRef r : refs) {
+                if (r.mark.block != null) {
+                    r.mark.raw = r.offset - r.mark.block.delta;
+                }
+            }
+            final int[] offsets = new int[affected.size()];
+            List<Integer> order = new ArrayList<Integer>();
+            for (int i = 0; i < affected.size(); i++) {
+                Mark m = affected.get(i);
+                offsets[i] = m.raw + m.block.delta;
+                order.add(i);
+            }
+            Collections.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer i1, Integer i2) {
+                    return Integer.compare(offsets[i1], offsets[i2]);
+                }
+            });
+            for (int k = 0; k < order.size(); k++) {
+                Mark m = affected.get(order.get(k));
+                MarkBlock block = slotBlocks.get(k);
+                block.marks.set(slotIndexes.get(k), m);
+                m.block = block;
+                m.raw = offsets[order.get(k)] - block.delta;
+            }
+        }
+
+        /**
+         * L'indice du dernier bloc dont la première marque est en position
+         *  au plus offset (0 s'il n'y en a pas).
+         */
+        private int lastBlockStartingAtMost(int offset) {
+            int lo = 0;
+            int hi = blocks.size();
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (blocks.get(mid).offset(0) <= offset) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return Math.max(lo - 1, 0);
+        }
+
+        /**
+         * L'indice du premier bloc dont la dernière marque est en position
+         *  au moins offset (blocks.size() s'il n'y en a pas).
+         */
+        private int firstBlockEndingAtLeast(int offset) {
+            int lo = 0;
+            int hi = blocks.size();
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                MarkBlock block = blocks.get(mid);
+                if (block.offset(block.marks.size() - 1) >= offset) {
+                    hi = mid;
+                } else {
+                    lo = mid + 1;
+                }
+            }
+            return lo;
+        }
+
+        /**
+         * Retire les marques dont la position n'est plus référencée.
+         */
+        private void purge() {
+            if (queue.poll() == null) {
+                return;
+            }
+            while (queue.poll() != null) {
+                // on vide la file
+            }
+            int k = 0;
+            for (MarkBlock block : blocks) {
+                block.purge();
+                if (!block.marks.isEmpty()) {
+                    blocks.set(k, block);
+                    k += 1;
+                }
+            }
+            blocks.subList(k, blocks.size()).clear();
+        }
+    }
+
+    /**
+     * Une suite de marques consécutives partageant un même décalage.
+     * @inv <pre>
+     *     la position de marks.get(i) est marks.get(i).raw + delta
+     *     les marques sont triées par position </pre>
+     */
+    private static final class MarkBlock {
+        final List<Mark> marks;
+        int delta;
+
+        MarkBlock() {
+            marks = new ArrayList<Mark>();
+            delta = 0;
+        }
+
+        int offset(int i) {
+            return marks.get(i).raw + delta;
+        }
+
+        void add(Mark m, int offset) {
+            int lo = 0;
+            int hi = marks.size();
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (offset(mid) > offset) {
+                    hi = mid;
+                } else {
+                    lo = mid + 1;
+                }
+            }
+            m.block = this;
+            m.raw = offset - delta;
+            marks.add(lo, m);
+        }
+
+        /**
+         * Transfère dans un nouveau bloc les marques d'indice au moins k.
+         */
+        MarkBlock split(int k) {
+            MarkBlock next = new MarkBlock();
+            next.delta = delta;
+            List<Mark> tail = marks.subList(k, marks.size());
+            for (Mark m : tail) {
+                m.block = next;
+            }
+            next.marks.addAll(tail);
+            tail.clear();
+            return next;
+        }
+
+        void purge() {
+            int j = 0;
+            for (int i = 0; i < marks.size(); i++) {
+                Mark m = marks.get(i);
+                if (m.get() != null) {
+                    marks.set(j, m);
+                    j += 1;
+                } else {
+                    m.block = null;
+                }
+            }
+            marks.subList(j, marks.size()).clear();
+        }
+    }
+
+    private static final class Mark extends WeakReference<MarkPosition> {
+        MarkBlock block;
+        int raw;
+
+        Mark(MarkPosition pos, ReferenceQueue<MarkPosition> q) {
+            super(pos, q);
+        }
+    }
+
+    /**
+     * Une marque et la position qu'elle occupait à un instant donné.
+     */
+    private static final class MarkRef {
+        final Mark mark;
+        final int offset;
+
+        MarkRef(Mark mark, int offset) {
+            this.mark = mark;
+            this.offset = offset;
+        }
+    }
+
+    private static final class MarkPosition implements Position {
+        Mark mark;
+
+        @Override
+        public int getOffset() {
+            return mark.raw + mark.block.delta;
+        }
+
+        @Override
+        public String toString() {
+            return Integer.toString(getOffset());
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package pet.model;
+
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.PlainDocument;
+import javax.swing.text.Segment;
+
+/**
+ * Un document texte dont le contenu est une table de pièces.
+ * Le texte initial n'est jamais recopié : il constitue le tampon d'origine
+ *  de la table, et les éditions ne font qu'ajouter des pièces.
+ */
+public class PieceTableDocument extends PlainDocument {
+
+    // ATTRIBUTS STATIQUES
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Place approximative (en octets) de l'élément qui décrit une ligne et
+     *  de ses deux positions.
+     */
+    private static final int LINE_BYTES = 96;
+
+    // CONSTRUCTEURS
+
+    /**
+     * @post <pre>
+     *     getLength() == 0 </pre>
+     */
+    public PieceTableDocument() {
+        this(new ArrayCharStore(new char[0], 0));
+    }
+
+    /**
+     * @pre <pre>
+     *     original != null </pre>
+     * @post <pre>
+     *     le texte du document est celui de original </pre>
+     */
+    public PieceTableDocument(CharStore original) {
+        super(new PieceTableContent(original));
+    }
+
+    // REQUETES
+
+    /**
+     * La place approximative (en octets) qu'occupe le document dans le tas,
+     *  éléments des lignes compris.
+     * Doit être appelée sous verrou de lecture du document.
+     */
+    long heapSize() {
+        return ((PieceTableContent) getContent()).heapSize()
+                + (long) LINE_BYTES * getDefaultRootElement().getElementCount();
+    }
+
+    /**
+     * Le tampon d'origine du texte : le texte initial du document.
+     */
+    CharStore getOriginal() {
+        return ((PieceTableContent) getContent()).getOriginal();
+    }
+
+    /**
+     * Le texte initial est-il projeté en mémoire depuis un fichier ?
+     */
+    boolean isMapped() {
+        return ((PieceTableContent) getContent()).isMapped();
+    }
+
+    /**
+     * Une image du texte courant, à laquelle il pourra ensuite être comparé
+     *  sans être relu en entier.
+     * Doit être appelée sous verrou de lecture du document.
+     */
+    PieceTableContent.Snapshot snapshot() {
+        return ((PieceTableContent) getContent()).snapshot();
+    }
+
+    /**
+     * Le texte est-il identique à celui dont snap est l'image ?
+     * Doit être appelée sous verrou de lecture du document.
+     * @pre <pre>
+     *     snap != null </pre>
+     */
+    boolean hasText(PieceTableContent.Snapshot snap) {
+        return ((PieceTableContent) getContent()).hasText(snap);
+    }
+
+    // COMMANDES
+
+    /**
+     * Remplace le tampon d'origine par s, formé des mêmes caractères sous une
+     *  autre forme.
+     * @pre <pre>
+     *     s != null
+     *     s et getOriginal() sont formés des mêmes caractères </pre>
+     */
+    void setOriginal(CharStore s) {
+        ((PieceTableContent) getContent()).setOriginal(s);
+    }
+
+    // OUTILS
+
+    /**
+     * Construit une ligne par fin de ligne présente dans le texte initial
+     *  (PlainDocument ne le fait que pour le texte inséré).
+     */
+    @Override
+    protected AbstractDocument.AbstractElement createDefaultRoot() {
+        BranchElement map = (BranchElement) createBranchElement(null, null);
+        AbstractDocument.Content c = getContent();
+        int n = c.length();
+        int lineCount = 0;
+        Element[] lines = new Element[16];
+        Segment s = new Segment();
+        s.setPartialReturn(true);
+        int lineStart = 0;
+        int offset = 0;
+        try {
+            while (offset < n) {
+                c.getChars(offset, n - offset, s);
+                for (int i = 0; i < s.count; i++) {
+                    if (s.array[s.offset + i] == '\n') {
+                        int lineEnd = offset + i + 1;
+                        if (lineCount == lines.length) {
+                            Element[] a = new Element[lineCount * 2];
+                            System.arraycopy(lines, 0, a, 0, lineCount);
+                            lines = a;
+                        }
+                        lines[lineCount] =
+                                createLeafElement(map, null, lineStart, lineEnd);
+                        lineCount += 1;
+                        lineStart = lineEnd;
+                    }
+                }
+                offset += s.count;
+            }
+        } catch (BadLocationException e) {
+            // Ne devrait pas survenir
+            throw new InternalError(e.getMessage());
+        }
+        Element[] result = new Element[lineCount];
+        System.arraycopy(lines, 0, result, 0, lineCount);
+        map.replace(0, 0, result);
+        return map;
+    }
+}
@@ -0,0 +1,26 @@
+package pet.model;
+
+import javax.swing.text.Document;
+
+import util.Contract;
+
+/**
+ * Fabrique de documents à table de pièces : le texte chargé sert directement
+ *  de tampon d'origine, et le coût d'une édition ne dépend que de sa taille.
+ */
+public class PieceTableDocumentFactory implements DocumentFactory {
+
+    // REQUETES
+
+    @Override
+    public Document createDocument() {
+        return new PieceTableDocument();
+    }
+
+    @Override
+    public Document createDocument(CharStore text) {
+        Contract.checkCondition(text != null);
+
+        return new PieceTableDocument(text);
+    }
+}
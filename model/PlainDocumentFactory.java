@@ -0,0 +1,44 @@
+package pet.model;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.PlainDocument;
+import javax.swing.text.Segment;
+
+import util.Contract;
+
+/**
+ * Fabrique de documents Swing standards (PlainDocument), dont le texte est
+ *  recopié dans un tampon à trou.
+ */
+public class PlainDocumentFactory implements DocumentFactory {
+
+    // REQUETES
+
+    @Override
+    public Document createDocument() {
+        return new PlainDocument();
+    }
+
+    @Override
+    public Document createDocument(CharStore text) {
+        Contract.checkCondition(text != null);
+
+        StringBuilder sb = new StringBuilder(text.length());
+        Segment s = new Segment();
+        int offset = 0;
+        while (offset < text.length()) {
+            text.segment(offset, text.length() - offset, s);
+            sb.append(s.array, s.offset, s.count);
+            offset += s.count;
+        }
+        Document d = new PlainDocument();
+        try {
+            d.insertString(0, sb.toString(), null);
+        } catch (BadLocationException e) {
+            // Ne devrait pas survenir
+            throw new InternalError(e.getMessage());
+        }
+        return d;
+    }
+}
@@ -0,0 +1,18 @@
+package pet.model;
+
+import java.util.EventListener;
+
+/**
+ * Observateur de l'avancement d'une opération d'entrée/sortie asynchrone
+ *  du modèle.
+ * Il est toujours notifié sur le thread de distribution des événements.
+ */
+public interface ProgressListener extends EventListener {
+
+    /**
+     * L'opération a traité done unités de travail sur total.
+     * @pre <pre>
+     *     0 <= done <= total </pre>
+     */
+    void progressChanged(long done, long total);
+}
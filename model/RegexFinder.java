@@ -0,0 +1,397 @@
+package pet.model;
+
+import java.io.InterruptedIOException;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.swing.SwingUtilities;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.Segment;
+
+import util.Contract;
+
+/**
+ * Recherche de toutes les occurrences d'une expression régulière dans un
+ *  document, répartie sur tous les processeurs.
+ * Le document est découpé en morceaux d'environ CHUNK_CHARS caractères,
+ *  coupés en début de ligne lorsque c'est possible, que des tâches d'un
+ *  ForkJoinPool fouillent indépendamment. Chaque morceau est recopié avec
+ *  CONTEXT_CHARS caractères de part et d'autre, visibles des assertions
+ *  (^, $, \b, regards arrière et avant) sans qu'une occurrence puisse y
+ *  commencer : une occurrence qui déborde du morceau de plus de
+ *  CONTEXT_CHARS caractères est donc tronquée.
+ *
+ * @inv <pre>
+ *     getPattern() != null </pre>
+ *
+ * @cons <pre>
+ *     $ARGS$ Pattern pattern
+ *     $PRE$
+ *         pattern != null
+ *     $POST$
+ *         getPattern() == pattern </pre>
+ */
+public final class RegexFinder {
+
+    // ATTRIBUTS STATIQUES
+
+    private static final int CHUNK_CHARS = 1 << 20;
+    private static final int CONTEXT_CHARS = 1 << 12;
+
+    // ATTRIBUTS
+
+    private final Pattern pattern;
+
+    // CONSTRUCTEURS
+
+    public RegexFinder(Pattern pattern) {
+        Contract.checkCondition(pattern != null);
+
+        this.pattern = pattern;
+    }
+
+    // REQUETES
+
+    /**
+     * L'expression recherchée.
+     */
+    public Pattern getPattern() {
+        return pattern;
+    }
+
+    // COMMANDES
+
+    /**
+     * Lance en arrière-plan la recherche de toutes les occurrences de
+     *  l'expression dans d.
+     * Les occurrences de chaque morceau sont transmises à listener dès que
+     *  celui-ci a été fouillé ; result est complété, sur le thread de
+     *  distribution des événements, par la liste triée de toutes les
+     *  occurrences, prises de gauche à droite sans se chevaucher.
+     * d ne doit pas être modifié avant la fin de la recherche.
+     * @pre <pre>
+     *     d != null && listener != null </pre>
+     * @post <pre>
+     *     result != null
+     *     l'avancement de la recherche (en morceaux) est transmis à progress
+     *         (s'il n'est pas null)
+     *     annuler result interrompt la recherche, après quoi listener n'est
+     *         plus notifié </pre>
+     */
+    public CompletableFuture<List<TextRange>> findAll(final Document d,
+            final MatchListener listener, ProgressListener progress) {
+        Contract.checkCondition(d != null && listener != null);
+
+        final CompletableFuture<List<TextRange>> result =
+                new CompletableFuture<List<TextRange>>();
+        final IOMonitor monitor = new IOMonitor(progress, result);
+        final int[][] bounds = new int[1][];
+        d.render(new Runnable() {
+            @Override
+            public void run() {
+                bounds[0] = chunkBounds(d);
+            }
+        });
+        final Search search = new Search(d, bounds[0], listener, monitor,
+                result);
+        ForkJoinPool.commonPool().execute(new Runnable() {
+            @Override
+            public void run() {
+                List<TextRange> all = null;
+                Exception failure = null;
+                try {
+                    search.invoke();
+                    if (result.isCancelled()) {
+                        return;
+                    }
+                    all = search.merge();
+                } catch (RuntimeException e) {
+                    failure = e;
+                }
+                final List<TextRange> ranges = all;
+                final Exception error = failure;
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (result.isCancelled()) {
+                            return;
+                        }
+                        if (error != null) {
+                            result.completeExceptionally(error);
+                        } else {
+                            result.complete(ranges);
+                        }
+                    }
+                });
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Remplace dans d les occurrences de l'expression, prises de gauche à
+     *  droite sans se chevaucher, et retourne leur nombre : toutes si
+     *  global, sinon la première de chaque ligne. Dans replacement, $n
+     *  désigne le texte du n-ième groupe (comme pour
+     *  Matcher.appendReplacement).
+     * Le texte de d est recopié pour être fouillé d'un seul tenant. Le
+     *  remplacement forme une seule modification du document : la portion
+     *  qui va de la première à la dernière occurrence est remplacée d'un
+     *  coup par son nouveau texte.
+     * Lève IllegalArgumentException si replacement désigne un groupe
+     *  inexistant (d reste alors inchangé).
+     * @pre <pre>
+     *     d != null && replacement != null </pre>
+     * @post <pre>
+     *     result >= 0
+     *     les result occurrences ont été remplacées </pre>
+     */
+    public int replace(final Document d, String replacement, boolean global) {
+        Contract.checkCondition(d != null && replacement != null);
+
+        final String[] text = new String[1];
+        d.render(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    text[0] = d.getText(0, d.getLength());
+                } catch (BadLocationException e) {
+                    // Ne devrait pas survenir
+                    throw new InternalError(e.getMessage());
+                }
+            }
+        });
+        String t = text[0];
+        Matcher m = pattern.matcher(t);
+        StringBuffer result = new StringBuffer();
+        int count = 0;
+        int start = -1;
+        int end = -1;
+        int lineEnd = -1;
+        while (m.find()) {
+            if (!global && m.start() <= lineEnd) {
+                continue;
+            }
+            if (start < 0) {
+                start = m.start();
+            }
+            m.appendReplacement(result, replacement);
+            end = m.end();
+            count += 1;
+            if (!global) {
+                lineEnd = t.indexOf('\n', m.start());
+                if (lineEnd < 0) {
+                    lineEnd = t.length();
+                }
+            }
+        }
+        if (count == 0) {
+            return 0;
+        }
+        String span = result.substring(start);
+        try {
+            if (d instanceof AbstractDocument) {
+                ((AbstractDocument) d).replace(start, end - start, span, null);
+            } else {
+                d.remove(start, end - start);
+                d.insertString(start, span, null);
+            }
+        } catch (BadLocationException e) {
+            // Ne devrait pas survenir
+            throw new InternalError(e.getMessage());
+        }
+        return count;
+    }
+
+    // OUTILS
+
+    /**
+     * Les limites des morceaux de d : le morceau i va de result[i] à
+     *  result[i + 1]. Une limite est placée au début de la ligne qui contient
+     *  la position visée, sauf si cette ligne commence dans le morceau
+     *  précédent.
+     * Doit être appelée sous verrou de lecture de d.
+     */
+    private static int[] chunkBounds(Document d) {
+        Element root = d.getDefaultRootElement();
+        int n = d.getLength();
+        int[] bounds = new int[n / CHUNK_CHARS + 2];
+        int count = 1;
+        bounds[0] = 0;
+        int target = CHUNK_CHARS;
+        while (target < n) {
+            int start = root.getElement(root.getElementIndex(target))
+                    .getStartOffset();
+            int b = start > bounds[count - 1] ? start : target;
+            if (count == bounds.length) {
+                int[] a = new int[count * 2];
+                System.arraycopy(bounds, 0, a, 0, count);
+                bounds = a;
+            }
+            bounds[count] = b;
+            count += 1;
+            target = b + CHUNK_CHARS;
+        }
+        if (count == bounds.length) {
+            int[] a = new int[count + 1];
+            System.arraycopy(bounds, 0, a, 0, count);
+            bounds = a;
+        }
+        bounds[count] = n;
+        int[] result = new int[count + 1];
+        System.arraycopy(bounds, 0, result, 0, count + 1);
+        return result;
+    }
+
+    // TYPES IMBRIQUES
+
+    /**
+     * La fouille des morceaux [lo, hi[, partagée en deux tant qu'elle en
+     *  compte plusieurs.
+     * Les occurrences du morceau i sont rangées dans parts.get(i).
+     */
+    private final class Search extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Document document;
+        private final int[] bounds;
+        private final MatchListener listener;
+        private final IOMonitor monitor;
+        private final CompletableFuture<?> result;
+        private final List<List<TextRange>> parts;
+        private final AtomicInteger done;
+        private final int lo;
+        private final int hi;
+
+        Search(Document d, int[] bounds, MatchListener listener,
+                IOMonitor monitor, CompletableFuture<?> result) {
+            document = d;
+            this.bounds = bounds;
+            this.listener = listener;
+            this.monitor = monitor;
+            this.result = result;
+            int n = bounds.length - 1;
+            parts = new ArrayList<List<TextRange>>(
+                    Collections.nCopies(n, (List<TextRange>) null));
+            done = new AtomicInteger();
+            lo = 0;
+            hi = n;
+        }
+
+        private Search(Search parent, int lo, int hi) {
+            document = parent.document;
+            bounds = parent.bounds;
+            listener = parent.listener;
+            monitor = parent.monitor;
+            result = parent.result;
+            parts = parent.parts;
+            done = parent.done;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (result.isCancelled()) {
+                return;
+            }
+            if (hi - lo > 1) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new Search(this, lo, mid), new Search(this, mid, hi));
+                return;
+            }
+            final List<TextRange> found = scan(lo);
+            synchronized (parts) {
+                parts.set(lo, found);
+            }
+            try {
+                monitor.progress(done.incrementAndGet(), parts.size());
+            } catch (InterruptedIOException e) {
+                return;
+            }
+            if (!found.isEmpty()) {
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!result.isCancelled()) {
+                            listener.matchesFound(found);
+                        }
+                    }
+                });
+            }
+        }
+
+        /**
+         * Les occurrences qui commencent dans le morceau i.
+         */
+        private List<TextRange> scan(int i) {
+            final int from = bounds[i];
+            final int to = bounds[i + 1];
+            final int n = bounds[bounds.length - 1];
+            final int start = Math.max(0, from - CONTEXT_CHARS);
+            final char[] text = new char[Math.min(n, to + CONTEXT_CHARS) - start];
+            document.render(new Runnable() {
+                @Override
+                public void run() {
+                    Segment s = new Segment();
+                    s.setPartialReturn(true);
+                    int copied = 0;
+                    try {
+                        while (copied < text.length) {
+                            document.getText(start + copied,
+                                    text.length - copied, s);
+                            System.arraycopy(s.array, s.offset, text, copied,
+                                    s.count);
+                            copied += s.count;
+                        }
+                    } catch (BadLocationException e) {
+                        throw new IllegalStateException(
+                                "Document modifié pendant la recherche", e);
+                    }
+                }
+            });
+            List<TextRange> found = new ArrayList<TextRange>();
+            Matcher m = pattern.matcher(CharBuffer.wrap(text));
+            m.useTransparentBounds(true);
+            m.useAnchoringBounds(false);
+            m.region(from - start, text.length);
+            // seul le dernier morceau contient la fin du texte
+            int limit = to == n ? to + 1 : to;
+            while (m.find() && m.start() + start < limit) {
+                found.add(new TextRange(m.start() + start, m.end() + start));
+            }
+            return found;
+        }
+
+        /**
+         * Toutes les occurrences, triées, sans celles qui chevauchent la
+         *  dernière occurrence d'un morceau précédent.
+         */
+        List<TextRange> merge() {
+            List<TextRange> all = new ArrayList<TextRange>();
+            int end = 0;
+            synchronized (parts) {
+                for (List<TextRange> part : parts) {
+                    for (TextRange r : part) {
+                        if (r.getStart() >= end) {
+                            all.add(r);
+                            end = r.getEnd();
+                        }
+                    }
+                }
+            }
+            return all;
+        }
+    }
+}
@@ -1,20 +1,42 @@
 package pet.model;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.swing.SwingUtilities;
 
-import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 import javax.swing.event.EventListenerList;
+import javax.swing.text.AbstractDocument;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.Document;
-import javax.swing.text.PlainDocument;
+import javax.swing.text.Segment;
 
 import util.Contract;
 
@@ -22,21 +44,120 @@ public class StdPetModel implements PetModel {
     
     // ATTRIBUTS
     
+    private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+    private static final long DEFAULT_MAPPING_THRESHOLD = 32L << 20;
+    private static final long DEFAULT_COMPRESSION_THRESHOLD = 1L << 20;
+    private static final int IO_BUFFER_SIZE = 64 * 1024;
+    private static final char BOM = '\uFEFF';
+    private static final long UNDO_BUDGET = 16L << 20;
+
+    private DocumentFactory factory;
+    private long mappingThreshold;
+    private long compressionThreshold;
+    private Durability durability;
     private Document document;
     private File file;
+    /**
+     * Encodage du fichier dont provient le document, dans lequel il est
+     *  sauvegardé.
+     */
+    private FileEncoding encoding;
+    /**
+     * Fins de ligne de ce fichier, tenues à jour au fil des modifications
+     *  du document et restituées lors de sa sauvegarde.
+     */
+    private LineEndings lineEndings;
     private boolean sync;
+    /**
+     * Image du texte lors du dernier chargement ou de la dernière sauvegarde
+     *  (null si le document n'en fournit pas).
+     */
+    private PieceTableContent.Snapshot savedText;
+    /**
+     * Comparaison ligne à ligne du document à savedText (null si savedText
+     *  l'est).
+     */
+    private LineDiffer differ;
+    /**
+     * Nombre de modifications reçues du document, pour reconnaître celles
+     *  apportées pendant une opération en arrière-plan.
+     */
+    private long editCount;
     private DocumentListener docListener;
+    private final UndoHistory history;
+    private boolean hibernating;
+    /**
+     * Fichier temporaire où a été déporté le texte du document en sommeil,
+     *  ou null si ce texte sera relu depuis file.
+     */
+    private File spillFile;
+    /**
+     * État de file lors du dernier chargement ou de la dernière sauvegarde
+     *  (null s'il n'est pas connu).
+     */
+    private FileStamp fileStamp;
+    /**
+     * Journal des modifications du document depuis l'état fileStamp de
+     *  file, créé à la première d'entre elles (null sinon).
+     */
+    private EditJournal journal;
+    private boolean journaling;
+    private boolean headless;
     private final EventListenerList eventListeners;
-    private final ChangeEvent event;
+    /**
+     * Une notification coalescée est-elle déjà postée sur le thread de
+     *  distribution des événements ?
+     */
+    private boolean notificationPending;
+    /**
+     * État du modèle lors de la dernière notification, auquel l'état
+     *  courant est comparé pour en déduire les propriétés qui ont changé.
+     */
+    private Document notifiedDocument;
+    private File notifiedFile;
+    private boolean notifiedSync;
+    private boolean notifiedUndo;
+    private boolean notifiedRedo;
+    private boolean notifiedEmpty;
+    private FileEncoding notifiedEncoding;
+    private String notifiedEndings;
+    private boolean notifiedHibernating;
+    private LineDiff notifiedDiff;
 
     // CONSTRUCTEURS
     
     public StdPetModel() {
         this.eventListeners = new EventListenerList();
-		this.event = null;
+		factory = new PieceTableDocumentFactory();
+		mappingThreshold = DEFAULT_MAPPING_THRESHOLD;
+		compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+		durability = Durability.FILE;
 		document = null;
         file = null;
+        encoding = FileEncoding.DEFAULT;
+        lineEndings = new LineEndings();
         sync = false;
+        savedText = null;
+        editCount = 0;
+        differ = null;
+        history = new UndoHistory(UNDO_BUDGET);
+        hibernating = false;
+        spillFile = null;
+        fileStamp = null;
+        journal = null;
+        journaling = true;
+        headless = false;
+        notificationPending = false;
+        notifiedDocument = null;
+        notifiedFile = null;
+        notifiedSync = false;
+        notifiedUndo = false;
+        notifiedRedo = false;
+        notifiedEmpty = false;
+        notifiedEncoding = encoding;
+        notifiedEndings = lineEndings.toString();
+        notifiedHibernating = false;
+        notifiedDiff = LineDiff.NONE;
         docListener = new DocumentListener() {
             @Override
             public void changedUpdate(DocumentEvent e) {
@@ -44,27 +165,180 @@ public class StdPetModel implements PetModel {
             }
             @Override
             public void insertUpdate(DocumentEvent e) {
-                setSyncAndNotify(false);
+                editCount += 1;
+                lineEndings.update(e);
+                EditJournal j = journal();
+                if (j != null) {
+                    try {
+                        j.insert(e.getOffset(), e.getDocument().getText(
+                                e.getOffset(), e.getLength()));
+                    } catch (BadLocationException x) {
+                        // Ne devrait pas survenir
+                        throw new InternalError(x.getMessage());
+                    }
+                }
+                if (differ != null) {
+                    differ.update(e);
+                }
+                sync = hasSavedText();
+                scheduleStateChanged();
             }
             @Override
             public void removeUpdate(DocumentEvent e) {
-                setSyncAndNotify(false);
+                editCount += 1;
+                lineEndings.update(e);
+                EditJournal j = journal();
+                if (j != null) {
+                    j.remove(e.getOffset(), e.getLength());
+                }
+                if (differ != null) {
+                    differ.update(e);
+                }
+                sync = hasSavedText();
+                scheduleStateChanged();
             }
         };
     }
     
     // REQUETES
 
+    @Override
+    public boolean canRedo() {
+        return history.canRedo();
+    }
+    
+    @Override
+    public boolean canUndo() {
+        return history.canUndo();
+    }
+    
     @Override
     public Document getDocument() {
         return document;
     }
     
+    @Override
+    public DocumentFactory getDocumentFactory() {
+        return factory;
+    }
+    
+    /**
+     * Les synchronisations sur le disque effectuées à chaque sauvegarde.
+     */
+    public Durability getDurability() {
+        return durability;
+    }
+    
+    /**
+     * L'encodage dans lequel le document est sauvegardé : celui du fichier
+     *  dont il a été lu, FileEncoding.DEFAULT pour un nouveau document.
+     */
+    public FileEncoding getEncoding() {
+        return encoding;
+    }
+    
     @Override
     public File getFile() {
         return file;
     }
     
+    /**
+     * Les différences sont calculées à la demande, sur le thread de
+     *  distribution des événements, par un LineDiffer.
+     */
+    @Override
+    public LineDiff getLineDiff() {
+        return differ == null ? LineDiff.NONE : differ.getDiff();
+    }
+
+    /**
+     * Les fins de ligne avec lesquelles le document est sauvegardé : celles
+     *  du fichier dont il a été lu, celles de la plateforme pour un nouveau
+     *  document.
+     */
+    public LineEndings getLineEndings() {
+        return lineEndings;
+    }
+    
+    /**
+     * La place approximative (en octets) qu'occupe le document dans le tas :
+     *  0 s'il n'y a pas de document, la taille de son texte s'il n'est pas
+     *  un PieceTableDocument.
+     */
+    public long getHeapSize() {
+        final Document d = document;
+        if (d == null) {
+            return 0;
+        }
+        if (!(d instanceof PieceTableDocument)) {
+            return 2L * d.getLength();
+        }
+        final long[] size = new long[1];
+        d.render(new Runnable() {
+            @Override
+            public void run() {
+                size[0] = ((PieceTableDocument) d).heapSize();
+            }
+        });
+        return size[0];
+    }
+    
+    /**
+     * Le nombre de caractères à partir duquel le texte lu d'un fichier est
+     *  compressé dans le tas (CompressedCharStore), une fois le document
+     *  installé.
+     */
+    public long getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * La taille (en octets) à partir de laquelle un fichier est projeté en
+     *  mémoire et décodé à la demande plutôt que lu entièrement.
+     */
+    public long getMappingThreshold() {
+        return mappingThreshold;
+    }
+    
+    /**
+     * Le fichier a-t-il été modifié, par exemple par un autre processus,
+     *  depuis le dernier chargement ou la dernière sauvegarde ?
+     * Un fichier devenu illisible n'est pas considéré comme modifié.
+     */
+    public boolean hasFileChanged() {
+        if (file == null || fileStamp == null) {
+            return false;
+        }
+        try {
+            return !fileStamp.equals(FileStamp.of(file));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+    
+    /**
+     * Les modifications du document sont-elles consignées dans un journal
+     *  (EditJournal), pour pouvoir être rétablies après un arrêt brutal ?
+     */
+    public boolean isJournaling() {
+        return journaling;
+    }
+    
+    /**
+     * Le modèle est-il utilisé hors de toute interface, sur un thread
+     *  quelconque ?
+     */
+    public boolean isHeadless() {
+        return headless;
+    }
+    
+    /**
+     * Le document a-t-il été mis en sommeil par hibernate() ?
+     */
+    public boolean isHibernating() {
+        return hibernating;
+    }
+    
     @Override
     public boolean isSynchronized() {
         return sync;
@@ -76,25 +350,169 @@ public class StdPetModel implements PetModel {
     public void clearDocument() {
         Contract.checkCondition(document != null);
         
-        setText("", document);
+        resetText("", document);
+        setSyncAndNotify(false);
+    }
+    
+    /**
+     * Met le document en sommeil pour rendre au tas la place qu'il occupe :
+     *  un document synchronisé est simplement abandonné, puisqu'il pourra
+     *  être relu depuis son fichier ; le texte d'un document modifié est
+     *  d'abord déporté dans un fichier temporaire.
+     * Les modifications enregistrées sont conservées pour le réveil.
+     * @pre <pre>
+     *     getDocument() != null && !isHibernating() </pre>
+     * @post <pre>
+     *     isHibernating()
+     *     getDocument() == null
+     *     getFile() == old getFile()
+     *     !isSynchronized() </pre>
+     * @throws IOException
+     *     si le texte n'a pas pu être déporté (le modèle reste alors
+     *      inchangé)
+     */
+    public void hibernate() throws IOException {
+        Contract.checkCondition(document != null && !hibernating);
+        
+        if (!sync) {
+            File tmp = File.createTempFile("pet-spill", ".bin");
+            tmp.deleteOnExit();
+            try {
+                spill(document, tmp);
+            } catch (IOException e) {
+                tmp.delete();
+                throw e;
+            }
+            spillFile = tmp;
+        }
+        history.suspend();
+        transferDocumentListener(document, null);
+        document = null;
+        setSavedText(null);
+        hibernating = true;
         setSyncAndNotify(false);
     }
     
+    @Override
+    public void redo() {
+        Contract.checkCondition(canRedo());
+
+        history.redo();
+        fireStateChanged();
+    }
+    
     @Override
     public void removeDocAndFile() {
+        discardJournal();
+        forgetHibernation();
+        history.setDocument(null);
         transferDocumentListener(document, null);
         document = null;
         file = null;
+        fileStamp = null;
+        setSavedText(null);
         setSyncAndNotify(false);
     }
     
+    @Override
+    public void setDocumentFactory(DocumentFactory factory) {
+        Contract.checkCondition(factory != null);
+
+        this.factory = factory;
+    }
+    
+    /**
+     * Fixe le nombre de caractères à partir duquel le texte lu d'un fichier
+     *  est compressé dans le tas (Long.MAX_VALUE pour ne jamais le faire).
+     * @pre <pre>
+     *     threshold >= 0 </pre>
+     * @post <pre>
+     *     getCompressionThreshold() == threshold </pre>
+     */
+    public void setCompressionThreshold(long threshold) {
+        Contract.checkCondition(threshold >= 0);
+
+        compressionThreshold = threshold;
+    }
+
+    /**
+     * Fixe les synchronisations sur le disque effectuées à chaque sauvegarde.
+     * @pre <pre>
+     *     durability != null </pre>
+     * @post <pre>
+     *     getDurability() == durability </pre>
+     */
+    public void setDurability(Durability durability) {
+        Contract.checkCondition(durability != null);
+
+        this.durability = durability;
+    }
+    
+    /**
+     * Fixe si les modifications du document sont consignées dans un
+     *  journal ; le journal en cours est abandonné si elles ne le sont plus.
+     * @post <pre>
+     *     isJournaling() == on </pre>
+     */
+    public void setJournaling(boolean on) {
+        journaling = on;
+        if (!on) {
+            discardJournal();
+        }
+    }
+    
+    /**
+     * Fixe si le modèle est utilisé hors de toute interface : il peut alors
+     *  l'être sur un thread quelconque (mais un seul à la fois), ne notifie
+     *  plus ses observateurs et n'enregistre plus les modifications de son
+     *  document, dont l'historique en cours est oublié.
+     * Un modèle qui ne l'est pas ne doit être utilisé que sur le thread de
+     *  distribution des événements.
+     * @post <pre>
+     *     isHeadless() == on
+     *     on ==> !canUndo() && !canRedo() </pre>
+     */
+    public void setHeadless(boolean on) {
+        headless = on;
+        history.setDocument(on || hibernating ? null : document);
+    }
+    
+    /**
+     * Fixe la taille à partir de laquelle les fichiers sont projetés en
+     *  mémoire lors de leur chargement (Long.MAX_VALUE pour ne jamais le
+     *  faire).
+     * @pre <pre>
+     *     threshold >= 0 </pre>
+     * @post <pre>
+     *     getMappingThreshold() == threshold </pre>
+     */
+    public void setMappingThreshold(long threshold) {
+        Contract.checkCondition(threshold >= 0);
+
+        mappingThreshold = threshold;
+    }
+    
+    /**
+     * Le fichier est comparé ligne à ligne au document, dont seules les
+     *  portions qui diffèrent sont remplacées : le curseur et les positions
+     *  situées hors de ces portions sont conservés.
+     */
     @Override
     public void resetCurrentDocWithCurrentFile() throws IOException {
         Contract.checkCondition(document != null);
         Contract.checkCondition(file != null);
         
-        load(file, document);
-        setSyncAndNotify(true);
+        reloadTask(IOMonitor.NONE).call().run();
+    }
+    
+    @Override
+    public CompletableFuture<Void> resetCurrentDocWithCurrentFileAsync(
+            ProgressListener listener) {
+        Contract.checkCondition(document != null);
+        Contract.checkCondition(file != null);
+        
+        CompletableFuture<Void> result = new CompletableFuture<Void>();
+        return runAsync(result, reloadTask(new IOMonitor(listener, result)));
     }
     
     @Override
@@ -102,32 +520,66 @@ public class StdPetModel implements PetModel {
         Contract.checkCondition(document != null);
         Contract.checkCondition(file != null);
         
-        save(document, file);
+        save(textOf(document), file, encoding, lineEndings, IOMonitor.NONE,
+                durability);
+        discardJournal();
+        fileStamp = FileStamp.of(file);
+        setSavedText(snapshot(document));
         setSyncAndNotify(true);
     }
     
+    @Override
+    public CompletableFuture<Void> saveCurrentDocIntoCurrentFileAsync(
+            ProgressListener listener) {
+        Contract.checkCondition(document != null);
+        Contract.checkCondition(file != null);
+        
+        return saveAsync(file, listener);
+    }
+    
     @Override
     public void saveCurrentDocIntoFile(File f) throws IOException {
         Contract.checkCondition(document != null);
         Contract.checkCondition(f != null && f.isFile());
         Contract.checkCondition(f.canRead() && f.canWrite());
 
-        save(document, f);
+        save(textOf(document), f, encoding, lineEndings, IOMonitor.NONE,
+                durability);
+        discardJournal();
         file = f;
+        fileStamp = FileStamp.of(f);
+        setSavedText(snapshot(document));
         setSyncAndNotify(true);
     }
     
+    @Override
+    public CompletableFuture<Void> saveCurrentDocIntoFileAsync(File f,
+            ProgressListener listener) {
+        Contract.checkCondition(document != null);
+        Contract.checkCondition(f != null && f.isFile());
+        Contract.checkCondition(f.canRead() && f.canWrite());
+
+        return saveAsync(f, listener);
+    }
+    
     @Override
     public void setNewDocAndNewFile(File f) throws IOException {
         Contract.checkCondition(f != null && f.isFile());
         Contract.checkCondition(f.canRead() && f.canWrite());
 
-        Document newDoc = new PlainDocument();
-        load(f, newDoc);
-        transferDocumentListener(document, newDoc);
-        document = newDoc;
-        file = f;
-        setSyncAndNotify(true);
+        FileStamp stamp = FileStamp.of(f);
+        LoadedText t = load(f, mappingThreshold, IOMonitor.NONE);
+        Document newDoc = factory.createDocument(t.text);
+        installDocument(newDoc, f, true, stamp, t.encoding, t.endings);
+    }
+    
+    @Override
+    public CompletableFuture<Void> setNewDocAndNewFileAsync(File f,
+            ProgressListener listener) {
+        Contract.checkCondition(f != null && f.isFile());
+        Contract.checkCondition(f.canRead() && f.canWrite());
+
+        return loadAsync(f, f, listener);
     }
     
     @Override
@@ -135,42 +587,595 @@ public class StdPetModel implements PetModel {
         Contract.checkCondition(f != null && f.isFile());
         Contract.checkCondition(f.canRead());
 
-        Document newDoc = new PlainDocument();
-        load(f, newDoc);
-        transferDocumentListener(document, newDoc);
-        document = newDoc;
-        file = null;
-        setSyncAndNotify(false);
+        LoadedText t = load(f, mappingThreshold, IOMonitor.NONE);
+        Document newDoc = factory.createDocument(t.text);
+        installDocument(newDoc, null, false, null, t.encoding, t.endings);
+    }
+    
+    @Override
+    public CompletableFuture<Void> setNewDocFromFileAsync(File f,
+            ProgressListener listener) {
+        Contract.checkCondition(f != null && f.isFile());
+        Contract.checkCondition(f.canRead());
+
+        return loadAsync(f, null, listener);
     }
     
     @Override
     public void setNewDocWithoutFile() {
-        Document newDoc = new PlainDocument();
-        transferDocumentListener(document, newDoc);
-        document = newDoc;
-        file = null;
-        setSyncAndNotify(false);
+        installDocument(factory.createDocument(), null, false, null,
+                FileEncoding.DEFAULT, new LineEndings());
     }
+    
+    /**
+     * Rétablit les modifications non sauvegardées consignées dans le journal
+     *  j : sa base est chargée dans un nouveau document, sur lequel elles
+     *  sont ensuite reportées (et peuvent être annulées).
+     * Le journal j est remplacé par celui du nouveau document.
+     * @pre <pre>
+     *     j != null </pre>
+     * @post <pre>
+     *     getDocument() != null
+     *     getFile() est la base de j
+     *     le texte du document est celui de la base modifiée selon j </pre>
+     * @throws IOException
+     *     si j ne peut pas être lu, si sa base n'est plus accessible ou a
+     *      changé depuis la création de j (le modèle reste alors inchangé),
+     *      ou si une modification ne peut pas être reportée (les
+     *      précédentes restent alors reportées)
+     */
+    public void recoverJournal(File j) throws IOException {
+        Contract.checkCondition(j != null);
 
-    // OUTILS
+        EditJournal.Recovery r = EditJournal.read(j);
+        File f = r.getBaseFile();
+        if (!r.isBaseUnchanged()) {
+            throw new IOException("Le fichier a changé depuis la création"
+                    + " du journal : " + f);
+        }
+        if (!f.canRead() || !f.canWrite()) {
+            throw new IOException("Fichier inaccessible : " + f);
+        }
+        FileStamp stamp = FileStamp.of(f);
+        LoadedText t = load(f, mappingThreshold, IOMonitor.NONE);
+        Document newDoc = factory.createDocument(t.text);
+        installDocument(newDoc, f, true, stamp, t.encoding, t.endings);
+        EditJournal.delete(j);
+        r.replay(newDoc);
+    }
+    
+    @Override
+    public void undo() {
+        Contract.checkCondition(canUndo());
+
+        history.undo();
+        fireStateChanged();
+    }
     
     /**
+     * Réveille le document mis en sommeil : son texte est relu depuis le
+     *  fichier temporaire où il avait été déporté, ou sinon depuis son
+     *  fichier, et ses modifications enregistrées peuvent de nouveau être
+     *  annulées si ce dernier n'a pas changé entre-temps.
      * @pre <pre>
-     *     d != null </pre>
+     *     isHibernating() </pre>
      * @post <pre>
-     *     result est le contenu de d </pre>
+     *     !isHibernating()
+     *     getDocument() != null
+     *     getFile() == old getFile()
+     *     isSynchronized() <==> le document n'avait pas été déporté </pre>
+     * @throws IOException
+     *     si le texte n'a pas pu être relu (le document reste alors en
+     *      sommeil)
      */
-    private static String getText(Document d) {
-        assert d != null;
-        
-        String content;
+    public void wake() throws IOException {
+        Contract.checkCondition(hibernating);
+
+        if (spillFile != null) {
+            awaken(factory.createDocument(unspill(spillFile, IOMonitor.NONE)),
+                    null, encoding, lineEndings);
+            return;
+        }
+        FileStamp stamp = FileStamp.of(file);
+        LoadedText t = load(file, mappingThreshold, IOMonitor.NONE);
+        awaken(factory.createDocument(t.text), stamp, t.encoding, t.endings);
+    }
+    
+    /**
+     * Réveille en arrière-plan le document mis en sommeil, comme wake().
+     * @pre <pre>
+     *     isHibernating() </pre>
+     * @post <pre>
+     *     result != null
+     *     l'avancement de la lecture est transmis à listener (s'il n'est
+     *         pas null) </pre>
+     */
+    public CompletableFuture<Void> wakeAsync(ProgressListener listener) {
+        Contract.checkCondition(hibernating);
+
+        final CompletableFuture<Void> result = new CompletableFuture<Void>();
+        final IOMonitor monitor = new IOMonitor(listener, result);
+        final DocumentFactory fact = factory;
+        final File f = spillFile != null ? spillFile : file;
+        final long threshold = mappingThreshold;
+        final boolean spilled = spillFile != null;
+        return runAsync(result, new BackgroundIO() {
+            @Override
+            public Runnable call() throws IOException {
+                if (spilled) {
+                    final Document newDoc =
+                            fact.createDocument(unspill(f, monitor));
+                    monitor.checkCancelled();
+                    return new Runnable() {
+                        @Override
+                        public void run() {
+                            if (hibernating) {
+                                awaken(newDoc, null, encoding, lineEndings);
+                            }
+                        }
+                    };
+                }
+                final FileStamp stamp = FileStamp.of(f);
+                final LoadedText t = load(f, threshold, monitor);
+                final Document newDoc = fact.createDocument(t.text);
+                monitor.checkCancelled();
+                return new Runnable() {
+                    @Override
+                    public void run() {
+                        if (hibernating) {
+                            awaken(newDoc, stamp, t.encoding, t.endings);
+                        }
+                    }
+                };
+            }
+        });
+    }
+
+    // OUTILS
+    
+    /**
+     * Remplace le texte de d par s sans que l'historique ne l'enregistre :
+     *  les modifications antérieures de d ne peuvent plus être annulées.
+     */
+    private void resetText(String s, Document d) {
+        boolean recorded = history.getDocument() == d;
+        if (recorded) {
+            history.setDocument(null);
+        }
+        setText(s, d);
+        if (recorded) {
+            history.setDocument(d);
+        }
+    }
+    
+    /**
+     * Remplace le document et le chemin courants par d et f, fixe l'état de
+     *  synchronisation à on et notifie les observateurs.
+     * stamp est l'état de f lors de sa lecture (null si inconnu), enc et
+     *  endings l'encodage et les fins de ligne avec lesquels d sera
+     *  sauvegardé.
+     */
+    private void installDocument(Document d, File f, boolean on,
+            FileStamp stamp, FileEncoding enc, LineEndings endings) {
+        discardJournal();
+        forgetHibernation();
+        history.setDocument(headless ? null : d);
+        transferDocumentListener(document, d);
+        document = d;
+        file = f;
+        fileStamp = stamp;
+        encoding = enc;
+        lineEndings = endings;
+        setSavedText(on ? snapshot(d) : null);
+        setSyncAndNotify(on);
+        compressLater(d);
+    }
+
+    /**
+     * Remplace dans d, sans que l'historique ne l'enregistre, chaque portion
+     *  de hunks par son nouveau texte : les modifications antérieures de d
+     *  ne peuvent plus être annulées.
+     */
+    private void replaceText(List<TextDiff.Hunk> hunks, Document d) {
+        boolean recorded = history.getDocument() == d;
+        if (recorded) {
+            history.setDocument(null);
+        }
         try {
-            content = d.getText(0, d.getLength());
+            for (int i = hunks.size() - 1; i >= 0; i--) {
+                TextDiff.Hunk h = hunks.get(i);
+                int offset = h.getOldRange().getStart();
+                int len = h.getOldRange().getEnd() - offset;
+                if (d instanceof AbstractDocument) {
+                    ((AbstractDocument) d).replace(offset, len,
+                            h.getNewText(), null);
+                } else {
+                    d.remove(offset, len);
+                    d.insertString(offset, h.getNewText(), null);
+                }
+            }
         } catch (BadLocationException e) {
             // Ne devrait pas survenir
             throw new InternalError(e.getMessage());
         }
-        return content;
+        if (recorded) {
+            history.setDocument(d);
+        }
+    }
+    
+    /**
+     * Installe d, relu lors du réveil du document en sommeil depuis le
+     *  fichier temporaire ou depuis file, qui était alors dans l'état stamp,
+     *  avait l'encodage enc et les fins de ligne endings.
+     * Les modifications enregistrées lui sont reportées si son texte est
+     *  bien celui du document mis en sommeil.
+     */
+    private void awaken(Document d, FileStamp stamp, FileEncoding enc,
+            LineEndings endings) {
+        boolean spilled = spillFile != null;
+        boolean unchanged = spilled
+                || (fileStamp != null && fileStamp.equals(stamp));
+        if (!spilled) {
+            discardJournal();
+            fileStamp = stamp;
+            encoding = enc;
+            lineEndings = endings;
+        }
+        forgetHibernation();
+        if (unchanged && !headless && d instanceof AbstractDocument) {
+            history.resume(d);
+        } else {
+            history.setDocument(headless ? null : d);
+        }
+        transferDocumentListener(null, d);
+        document = d;
+        setSavedText(spilled ? null : snapshot(d));
+        setSyncAndNotify(!spilled);
+        compressLater(d);
+    }
+    
+    /**
+     * Compresse en arrière-plan le texte lu dans d, s'il est tenu dans un
+     *  tableau d'au moins compressionThreshold caractères : le tampon
+     *  d'origine de d est ensuite remplacé par sa copie compressée, sur le
+     *  thread de distribution des événements.
+     * Rien n'est fait si le modèle est headless, ce thread n'ayant alors
+     *  pas accès au document.
+     * Les modifications ne portent que sur le tampon d'ajout, qui n'est pas
+     *  compressé ; le tampon d'origine n'est plus lu que là où le texte
+     *  initial est consulté, bloc par bloc.
+     */
+    private void compressLater(Document d) {
+        if (headless || !(d instanceof PieceTableDocument)) {
+            return;
+        }
+        final PieceTableDocument doc = (PieceTableDocument) d;
+        final CharStore original = doc.getOriginal();
+        if (!(original instanceof ArrayCharStore)
+                || original.length() < compressionThreshold) {
+            return;
+        }
+        IOExecutorHolder.EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final CharStore compressed =
+                        CompressedCharStore.compress(original);
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (doc.getOriginal() == original) {
+                            doc.setOriginal(compressed);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Sort de l'état de sommeil, en supprimant le fichier temporaire où le
+     *  texte avait été déporté.
+     */
+    private void forgetHibernation() {
+        if (spillFile != null) {
+            spillFile.delete();
+            spillFile = null;
+        }
+        hibernating = false;
+    }
+
+    /**
+     * Le journal où consigner une modification du document, créé au besoin,
+     *  ou null si le document n'a pas de base connue ou n'est pas journalisé.
+     */
+    private EditJournal journal() {
+        if (journaling && journal == null && file != null
+                && fileStamp != null) {
+            journal = new EditJournal(file, fileStamp.size,
+                    fileStamp.modified.toMillis(),
+                    durability != Durability.NONE);
+        }
+        return journal;
+    }
+
+    /**
+     * Abandonne le journal : les modifications qu'il consignait ont été
+     *  sauvegardées ou oubliées.
+     */
+    private void discardJournal() {
+        if (journal != null) {
+            journal.discard();
+            journal = null;
+        }
+    }
+
+    /**
+     * Consigne dans le journal, dont la base vient de recevoir le texte de
+     *  snap, les modifications apportées depuis au document : chaque portion
+     *  qui diffère entre ce texte et celui du document y est remplacée.
+     */
+    private void journalChangesSince(final PieceTableContent.Snapshot snap) {
+        assert snap != null;
+
+        final EditJournal j = journal();
+        if (j == null) {
+            return;
+        }
+        final Document d = document;
+        d.render(new Runnable() {
+            @Override
+            public void run() {
+                List<TextDiff.Hunk> hunks =
+                        TextDiff.compute(d, new SnapshotText(snap));
+                try {
+                    for (int i = hunks.size() - 1; i >= 0; i--) {
+                        TextDiff.Hunk h = hunks.get(i);
+                        TextRange saved = h.getNewRange();
+                        TextRange current = h.getOldRange();
+                        j.remove(saved.getStart(),
+                                saved.getEnd() - saved.getStart());
+                        j.insert(saved.getStart(), d.getText(
+                                current.getStart(),
+                                current.getEnd() - current.getStart()));
+                    }
+                } catch (BadLocationException e) {
+                    // Ne devrait pas survenir
+                    throw new InternalError(e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Charge f en arrière-plan dans un nouveau document qui, si l'opération
+     *  n'a pas été annulée, est ensuite installé avec le chemin newFile.
+     */
+    private CompletableFuture<Void> loadAsync(final File f, final File newFile,
+            ProgressListener listener) {
+        final CompletableFuture<Void> result = new CompletableFuture<Void>();
+        final IOMonitor monitor = new IOMonitor(listener, result);
+        final DocumentFactory fact = factory;
+        final long threshold = mappingThreshold;
+        return runAsync(result, new BackgroundIO() {
+            @Override
+            public Runnable call() throws IOException {
+                final FileStamp stamp =
+                        newFile != null ? FileStamp.of(newFile) : null;
+                final LoadedText t = load(f, threshold, monitor);
+                final Document newDoc = fact.createDocument(t.text);
+                monitor.checkCancelled();
+                return new Runnable() {
+                    @Override
+                    public void run() {
+                        installDocument(newDoc, newFile, newFile != null,
+                                stamp, t.encoding, t.endings);
+                    }
+                };
+            }
+        });
+    }
+
+    /**
+     * Sauvegarde en arrière-plan dans f le texte qu'a le document courant
+     *  lors de l'appel : le document reste modifiable pendant l'écriture, qui
+     *  porte sur une image de son texte. Un document qui ne fournit pas
+     *  d'image est écrit sous son verrou de lecture.
+     * Les modifications apportées pendant l'écriture restent journalisées,
+     *  par rapport au fichier sauvegardé.
+     * L'annulation interrompt l'écriture tant que le fichier temporaire n'a
+     *  pas remplacé f, qui reste alors inchangé.
+     */
+    private CompletableFuture<Void> saveAsync(final File f,
+            ProgressListener listener) {
+        final CompletableFuture<Void> result = new CompletableFuture<Void>();
+        final IOMonitor monitor = new IOMonitor(listener, result);
+        final Durability level = durability;
+        final FileEncoding enc = encoding;
+        final LineEndings endings = lineEndings.copy();
+        final Document d = document;
+        final PieceTableContent.Snapshot snap = snapshot(d);
+        return runAsync(result, new BackgroundIO() {
+            @Override
+            public Runnable call() throws IOException {
+                final FileStamp stamp;
+                if (snap != null) {
+                    save(new SnapshotText(snap), f, enc, endings, monitor,
+                            level);
+                    stamp = FileStamp.of(f);
+                } else {
+                    final IOException[] failure = new IOException[1];
+                    final FileStamp[] stamps = new FileStamp[1];
+                    d.render(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                save(textOf(d), f, enc, endings, monitor,
+                                        level);
+                                stamps[0] = FileStamp.of(f);
+                            } catch (IOException e) {
+                                failure[0] = e;
+                            }
+                        }
+                    });
+                    if (failure[0] != null) {
+                        throw failure[0];
+                    }
+                    stamp = stamps[0];
+                }
+                return new Runnable() {
+                    @Override
+                    public void run() {
+                        if (document == d) {
+                            discardJournal();
+                            file = f;
+                            fileStamp = stamp;
+                            setSavedText(snap);
+                            if (snap != null && !hasSavedText()) {
+                                journalChangesSince(snap);
+                            }
+                            setSyncAndNotify(snap == null
+                                    || hasSavedText());
+                        }
+                    }
+                };
+            }
+        });
+    }
+
+    /**
+     * La relecture du fichier courant dans le document courant : le nouveau
+     *  texte est comparé ligne à ligne à celui du document, puis seules les
+     *  portions qui diffèrent y sont remplacées.
+     * Le texte est remplacé en entier si le document a été modifié depuis
+     *  l'appel, les portions calculées ne s'y appliquant plus. Si le
+     *  document est projeté en mémoire depuis un fichier qui a pu être
+     *  réécrit sur place, son texte n'est plus fiable et ne peut pas être
+     *  comparé : le fichier est de nouveau projeté dans un nouveau document,
+     *  qui remplace le document courant sans que le texte soit recopié dans
+     *  le tas.
+     */
+    private BackgroundIO reloadTask(final IOMonitor monitor) {
+        final Document d = document;
+        final File f = file;
+        final FileStamp old = fileStamp;
+        final long edits = editCount;
+        final long threshold = mappingThreshold;
+        final DocumentFactory fact = factory;
+        return new BackgroundIO() {
+            @Override
+            public Runnable call() throws IOException {
+                final FileStamp stamp = FileStamp.of(f);
+                final boolean rewritten = isMapped(d)
+                        && (old == null || old.isSameFile(stamp));
+                final LoadedText loaded = load(f, threshold, monitor);
+                final CharStore text = loaded.text;
+                monitor.checkCancelled();
+                if (rewritten) {
+                    final Document newDoc = fact.createDocument(text);
+                    return new Runnable() {
+                        @Override
+                        public void run() {
+                            if (document == d) {
+                                installDocument(newDoc, f, true, stamp,
+                                        loaded.encoding, loaded.endings);
+                            }
+                        }
+                    };
+                }
+                final List<List<TextDiff.Hunk>> hunks =
+                        new ArrayList<List<TextDiff.Hunk>>(1);
+                d.render(new Runnable() {
+                    @Override
+                    public void run() {
+                        hunks.add(TextDiff.compute(d, text));
+                    }
+                });
+                return new Runnable() {
+                    @Override
+                    public void run() {
+                        if (document != d) {
+                            return;
+                        }
+                        discardJournal();
+                        fileStamp = null;
+                        if (editCount != edits) {
+                            resetText(toText(text), d);
+                        } else {
+                            replaceText(hunks.get(0), d);
+                        }
+                        fileStamp = stamp;
+                        encoding = loaded.encoding;
+                        lineEndings = loaded.endings;
+                        setSavedText(snapshot(d));
+                        setSyncAndNotify(true);
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Exécute io sur un thread d'arrière-plan, puis, sur le thread de
+     *  distribution des événements, applique au modèle la modification
+     *  qu'elle a produite et complète result.
+     * Rien n'est appliqué si result a été annulé entre-temps.
+     */
+    private static CompletableFuture<Void> runAsync(
+            final CompletableFuture<Void> result, final BackgroundIO io) {
+        IOExecutorHolder.EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (result.isCancelled()) {
+                    return;
+                }
+                Runnable apply = null;
+                Exception failure = null;
+                try {
+                    apply = io.call();
+                } catch (IOException e) {
+                    failure = e;
+                } catch (RuntimeException e) {
+                    failure = e;
+                }
+                final Runnable change = apply;
+                final Exception error = failure;
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (result.isCancelled()) {
+                            return;
+                        }
+                        if (error != null) {
+                            result.completeExceptionally(error);
+                        } else {
+                            change.run();
+                            result.complete(null);
+                        }
+                    }
+                });
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @pre <pre>
+     *     s != null </pre>
+     * @post <pre>
+     *     result est la chaîne formée des caractères de s </pre>
+     */
+    private static String toText(CharStore s) {
+        assert s != null;
+
+        StringBuilder sb = new StringBuilder(s.length());
+        Segment seg = new Segment();
+        int offset = 0;
+        while (offset < s.length()) {
+            s.segment(offset, s.length() - offset, seg);
+            sb.append(seg.array, seg.offset, seg.count);
+            offset += seg.count;
+        }
+        return sb.toString();
     }
 
     /**
@@ -192,60 +1197,522 @@ public class StdPetModel implements PetModel {
     }
 
     /**
+     * Le texte de f, décodé selon l'encodage qu'en donne
+     *  FileEncoding.detect(f) ; si le fichier n'est pas valide dans cet
+     *  encodage au-delà des octets examinés par detect, il est relu selon
+     *  FileEncoding.fallback(), autant de fois qu'il le faut.
      * @pre <pre>
-     *     f != null && d != null </pre>
+     *     f != null && threshold >= 0 && monitor != null </pre>
      * @post <pre>
-     *     le contenu de d a été remplacé par celui de f </pre>
+     *     result.text est le contenu de f décodé selon result.encoding,
+     *      aux fins de ligne result.endings </pre>
      * @throws
-     *     IOException si erreur de lecture dans f (et alors d reste inchangé)
+     *     IOException si erreur de lecture dans f ou si l'opération suivie
+     *      par monitor a été annulée
      */
-    private static void load(File f, Document d) throws IOException {
-        assert f != null;
-        assert d != null;
+    private static LoadedText load(File f, long threshold, IOMonitor monitor)
+            throws IOException {
+        assert f != null && threshold >= 0 && monitor != null;
+
+        FileEncoding enc = FileEncoding.detect(f);
+        while (true) {
+            LineEndings.Builder endings = new LineEndings.Builder();
+            try {
+                CharStore text = load(f, enc, endings, threshold, monitor);
+                return new LoadedText(text, enc, endings.build());
+            } catch (CharacterCodingException e) {
+                enc = FileEncoding.fallback(enc);
+            }
+        }
+    }
+
+    /**
+     * Le texte de f, décodé selon enc (BOM exclue) : projeté en mémoire et
+     *  décodé à la demande si f fait au moins threshold octets, lu
+     *  entièrement sinon.
+     * Les fins de ligne du fichier sont relevées dans endings.
+     * L'avancement de la lecture est transmis à monitor ; sa durée est
+     *  mesurée dans Metrics.LOAD et par l'événement JFR pet.Load.
+     * @pre <pre>
+     *     f != null && enc != null && endings != null && threshold >= 0 </pre>
+     * @post <pre>
+     *     result est le contenu de f </pre>
+     * @throws
+     *     CharacterCodingException si f n'est pas valide dans enc
+     * @throws
+     *     IOException si erreur de lecture dans f ou si l'opération suivie
+     *      par monitor a été annulée
+     */
+    private static CharStore load(File f, FileEncoding enc,
+            LineEndings.Builder endings, long threshold, IOMonitor monitor)
+            throws IOException {
+        assert f != null && enc != null && endings != null && threshold >= 0;
         
-        StringBuilder sb = new StringBuilder();
-        BufferedReader source = new BufferedReader(new FileReader(f));
+        long start = System.nanoTime();
+        ModelEvents.Load event = new ModelEvents.Load();
+        event.begin();
+        event.bytes = f.length();
+        event.mapped = event.bytes >= threshold
+                && MappedCharStore.supports(enc.getCharset());
+        CharStore result = event.mapped
+                ? MappedCharStore.open(f, enc.getBomLength(),
+                        enc.getCharset(), endings, monitor)
+                : read(f, enc, endings, monitor);
+        event.end();
+        if (event.shouldCommit()) {
+            event.path = f.getPath();
+            event.charset = enc.toString();
+            event.commit();
+        }
+        Metrics.record(Metrics.LOAD, System.nanoTime() - start);
+        Metrics.add(Metrics.LOADED_BYTES, event.bytes);
+        return result;
+    }
+
+    /**
+     * Lit le texte de f, décodé selon enc, en un seul tableau : les octets
+     *  sont lus dans un tampon direct et décodés par un CharsetDecoder
+     *  directement dans ce tableau, sans passer par un Reader ni par une
+     *  chaîne par ligne. La BOM est sautée, les fins de ligne ("\r\n",
+     *  "\r" ou "\n") sont relevées dans endings puis ramenées à '\n' sur
+     *  place.
+     * @pre <pre>
+     *     f != null && enc != null && endings != null </pre>
+     * @post <pre>
+     *     result est le contenu de f </pre>
+     * @throws
+     *     CharacterCodingException si f n'est pas valide dans enc
+     * @throws
+     *     IOException si erreur de lecture dans f ou si l'opération suivie
+     *      par monitor a été annulée
+     */
+    private static CharStore read(File f, FileEncoding enc,
+            LineEndings.Builder endings, IOMonitor monitor)
+            throws IOException {
+        assert f != null && enc != null && endings != null;
+        
+        CharsetDecoder decoder = enc.getCharset().newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        ByteBuffer in = ByteBuffer.allocateDirect(IO_BUFFER_SIZE);
+        FileChannel channel = FileChannel.open(f.toPath(),
+                StandardOpenOption.READ);
+        char[] buf;
+        int n = 0;
+        boolean afterCR = false;
         try {
-            String line = source.readLine();
-            if (line != null) {
-                sb.append(line);
-                line = source.readLine();
+            long size = channel.size();
+            channel.position(enc.getBomLength());
+            buf = new char[(int) Math.min(size + 1, MAX_ARRAY_LENGTH)];
+            boolean eof = false;
+            boolean done = false;
+            while (!done) {
+                if (!eof) {
+                    eof = channel.read(in) < 0;
+                }
+                in.flip();
+                if (buf.length - n < in.remaining() + 2) {
+                    buf = grow(buf, n, in.remaining() + 2, f);
+                }
+                CharBuffer out = CharBuffer.wrap(buf, n, buf.length - n);
+                CoderResult cr = decoder.decode(in, out, eof);
+                if (cr.isError()) {
+                    cr.throwException();
+                }
+                if (eof && cr.isUnderflow()) {
+                    cr = decoder.flush(out);
+                    done = cr.isUnderflow();
+                }
+                in.compact();
+                int end = out.position();
+                for (int i = n; i < end; i++) {
+                    char c = buf[i];
+                    if (afterCR) {
+                        afterCR = false;
+                        if (c == '\n') {
+                            endings.add(LineEndings.CRLF);
+                            continue;
+                        }
+                        endings.add(LineEndings.CR);
+                    }
+                    if (c == '\r') {
+                        afterCR = true;
+                        c = '\n';
+                    } else if (c == '\n') {
+                        endings.add(LineEndings.LF);
+                    }
+                    buf[n] = c;
+                    n += 1;
+                }
+                monitor.progress(channel.position(), size);
             }
-            while (line != null) {
-                sb.append("\n" + line);
-                line = source.readLine();
+        } finally {
+            channel.close();
+        }
+        if (afterCR) {
+            endings.add(LineEndings.CR);
+        }
+        return new ArrayCharStore(buf, n);
+    }
+
+    /**
+     * Un tableau contenant les n premiers caractères de buf, suivis d'au
+     *  moins need places libres.
+     * @throws
+     *     IOException si le texte de f dépasse la taille maximale d'un
+     *      tableau
+     */
+    private static char[] grow(char[] buf, int n, int need, File f)
+            throws IOException {
+        if ((long) n + need > MAX_ARRAY_LENGTH) {
+            throw new IOException("Fichier trop volumineux : " + f);
+        }
+        long len = Math.max(2L * buf.length, (long) n + need);
+        char[] a = new char[(int) Math.min(len, MAX_ARRAY_LENGTH)];
+        System.arraycopy(buf, 0, a, 0, n);
+        return a;
+    }
+
+    /**
+     * Remplace de façon atomique le contenu de f par text : le texte
+     *  est écrit dans un fichier temporaire du même répertoire, qui est
+     *  ensuite renommé en f. Si f est un lien symbolique, c'est sa cible qui
+     *  est remplacée ; les permissions POSIX de f sont conservées. Le texte
+     *  est encodé selon enc, précédé de sa BOM s'il en a une, avec les fins
+     *  de ligne endings.
+     * Les synchronisations sur le disque sont celles que demande durability.
+     * L'avancement de l'écriture est transmis à monitor ; sa durée est
+     *  mesurée dans Metrics.SAVE et par l'événement JFR pet.Save.
+     * @pre <pre>
+     *     f != null && text != null && enc != null && endings != null
+     *     monitor != null && durability != null </pre>
+     * @post <pre>
+     *     le contenu de f a été remplacé par text </pre>
+     * @throws
+     *     IOException si erreur d'écriture ou si l'opération suivie par
+     *      monitor a été annulée (et alors f reste inchangé)
+     */
+    private static void save(CharStore text, File f, FileEncoding enc,
+            LineEndings endings, IOMonitor monitor, Durability durability)
+            throws IOException {
+        assert f != null && text != null && enc != null && endings != null;
+        assert monitor != null && durability != null;
+        
+        long start = System.nanoTime();
+        ModelEvents.Save event = new ModelEvents.Save();
+        event.begin();
+        Path target = f.toPath().toAbsolutePath();
+        if (Files.exists(target)) {
+            target = target.toRealPath();
+        }
+        Path dir = target.getParent();
+        Path tmp = Files.createTempFile(dir, "." + target.getFileName(), ".tmp");
+        boolean done = false;
+        try {
+            copyPermissions(target, tmp);
+            FileChannel dest = FileChannel.open(tmp, StandardOpenOption.WRITE);
+            try {
+                write(text, dest, enc, endings, monitor);
+                if (durability != Durability.NONE) {
+                    dest.force(true);
+                }
+            } finally {
+                dest.close();
             }
+            try {
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            done = true;
+        } finally {
+            if (!done) {
+                Files.deleteIfExists(tmp);
+            }
+        }
+        if (durability == Durability.FILE_AND_DIRECTORY) {
+            syncDirectory(dir);
+        }
+        event.end();
+        long bytes = Files.size(target);
+        if (event.shouldCommit()) {
+            event.path = target.toString();
+            event.bytes = bytes;
+            event.charset = enc.toString();
+            event.durability = durability.name();
+            event.commit();
+        }
+        Metrics.record(Metrics.SAVE, System.nanoTime() - start);
+        Metrics.add(Metrics.SAVED_BYTES, bytes);
+    }
+
+    /**
+     * Donne à to les permissions POSIX de from, si from existe et que le
+     *  système de fichiers les gère.
+     */
+    private static void copyPermissions(Path from, Path to) throws IOException {
+        if (Files.exists(from) && Files.getFileStore(from)
+                .supportsFileAttributeView(PosixFileAttributeView.class)) {
+            Files.setPosixFilePermissions(to, Files.getPosixFilePermissions(from));
+        }
+    }
+
+    /**
+     * Synchronise sur le disque les entrées du répertoire dir.
+     * Certaines plateformes ne permettent pas d'ouvrir un répertoire : la
+     *  synchronisation n'a alors pas lieu.
+     */
+    private static void syncDirectory(Path dir) throws IOException {
+        FileChannel ch;
+        try {
+            ch = FileChannel.open(dir, StandardOpenOption.READ);
+        } catch (IOException e) {
+            return;
+        }
+        try {
+            ch.force(true);
+        } catch (IOException e) {
+            // répertoire non synchronisable sur cette plateforme
         } finally {
-            source.close();
+            ch.close();
         }
-        setText(sb.toString(), d);
     }
 
     /**
+     * Écrit text dans dest par morceaux : il est lu à travers des Segment
+     *  sans être recopié en chaîne ni découpé en lignes, chaque '\n' est
+     *  remplacé par la fin de sa ligne selon endings (une liste d'exceptions
+     *  parcourue dans l'ordre pour un fichier mixte) et le tout est encodé
+     *  selon enc dans un tampon direct vidé dans dest, après la BOM si enc
+     *  en a une.
+     * L'avancement de l'écriture est transmis à monitor.
      * @pre <pre>
-     *     f != null && d != null </pre>
+     *     text != null && dest != null && enc != null && endings != null
+     *     monitor != null </pre>
      * @post <pre>
-     *     le contenu de f a été remplacé par celui de d </pre>
+     *     text a été écrit dans dest </pre>
      * @throws
-     *     IOException si erreur d'écriture dans f
+     *     IOException si erreur d'écriture dans dest ou si l'opération
+     *      suivie par monitor a été annulée
      */
-    private static void save(Document d, File f) throws IOException {
-        assert f != null;
-        assert d != null;
+    private static void write(CharStore text, FileChannel dest,
+            FileEncoding enc, LineEndings endings, IOMonitor monitor)
+            throws IOException {
+        assert text != null && dest != null && enc != null && endings != null;
+        assert monitor != null;
         
-        String content = getText(d);
-        BufferedWriter dest = new BufferedWriter(new FileWriter(f));
-        String[] lines = content.split("\n", -1);
+        CharsetEncoder encoder = enc.getCharset().newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        LineEndings.Cursor terminators = endings.cursor();
+        CharBuffer in = CharBuffer.allocate(IO_BUFFER_SIZE);
+        ByteBuffer out = ByteBuffer.allocateDirect(IO_BUFFER_SIZE);
+        if (enc.hasBom()) {
+            in.put(BOM);
+        }
+        Segment s = new Segment();
+        int offset = 0;
+        int n = text.length();
+        while (offset < n) {
+            text.segment(offset, n - offset, s);
+            int end = s.offset + s.count;
+            for (int i = s.offset; i < end; i++) {
+                if (in.remaining() < 2) {
+                    encode(encoder, in, out, dest, false);
+                }
+                char c = s.array[i];
+                if (c == '\n') {
+                    in.put(terminators.next());
+                } else {
+                    in.put(c);
+                }
+            }
+            offset += s.count;
+            monitor.progress(offset, n);
+        }
+        encode(encoder, in, out, dest, true);
+        while (encoder.flush(out).isOverflow()) {
+            drain(out, dest);
+        }
+        drain(out, dest);
+    }
+
+    /**
+     * Déporte le texte de d dans f caractère pour caractère, à raison de deux
+     *  octets chacun, sans encodage ni traduction des fins de ligne :
+     *  unspill() en restitue exactement le texte, quels qu'en soient les
+     *  caractères.
+     * @pre <pre>
+     *     d != null && f != null </pre>
+     * @throws
+     *     IOException si erreur d'écriture dans f
+     */
+    private static void spill(Document d, File f) throws IOException {
+        assert d != null && f != null;
+
+        ByteBuffer out = ByteBuffer.allocateDirect(IO_BUFFER_SIZE);
+        CharBuffer chars = out.asCharBuffer();
+        FileChannel dest = FileChannel.open(f.toPath(),
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
         try {
-            for (String line : lines) {
-                dest.write(line);
-                dest.newLine();
+            Segment s = new Segment();
+            s.setPartialReturn(true);
+            int offset = 0;
+            int n = d.getLength();
+            while (offset < n) {
+                try {
+                    d.getText(offset, n - offset, s);
+                } catch (BadLocationException e) {
+                    // Ne devrait pas survenir
+                    throw new InternalError(e.getMessage());
+                }
+                int done = 0;
+                while (done < s.count) {
+                    int k = Math.min(chars.remaining(), s.count - done);
+                    chars.put(s.array, s.offset + done, k);
+                    done += k;
+                    if (!chars.hasRemaining()) {
+                        out.position(2 * chars.position());
+                        drain(out, dest);
+                        chars.clear();
+                    }
+                }
+                offset += s.count;
             }
+            out.position(2 * chars.position());
+            drain(out, dest);
         } finally {
             dest.close();
         }
     }
 
+    /**
+     * Le texte déporté dans f par spill().
+     * @pre <pre>
+     *     f != null && monitor != null </pre>
+     * @throws
+     *     IOException si erreur de lecture dans f ou si l'opération suivie
+     *      par monitor a été annulée
+     */
+    private static CharStore unspill(File f, IOMonitor monitor)
+            throws IOException {
+        assert f != null && monitor != null;
+
+        FileChannel channel = FileChannel.open(f.toPath(),
+                StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size / 2 > MAX_ARRAY_LENGTH - 1) {
+                throw new IOException("Fichier trop volumineux : " + f);
+            }
+            int n = (int) (size / 2);
+            char[] buf = new char[n];
+            ByteBuffer in = ByteBuffer.allocateDirect(IO_BUFFER_SIZE);
+            int done = 0;
+            while (done < n) {
+                if (channel.read(in) < 0) {
+                    throw new IOException("Fichier tronqué : " + f);
+                }
+                in.flip();
+                CharBuffer chars = in.asCharBuffer();
+                int k = chars.remaining();
+                chars.get(buf, done, k);
+                done += k;
+                in.position(2 * k);
+                in.compact();
+                monitor.progress(2L * done, size);
+            }
+            return new ArrayCharStore(buf, n);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Encode les caractères en attente dans in et écrit dans dest les octets
+     *  produits, in étant prêt à recevoir de nouveaux caractères au retour.
+     * Un caractère incomplet (moitié de paire de substitution) reste dans in
+     *  tant que endOfInput est faux.
+     */
+    private static void encode(CharsetEncoder encoder, CharBuffer in,
+            ByteBuffer out, FileChannel dest, boolean endOfInput)
+            throws IOException {
+        in.flip();
+        CoderResult cr = encoder.encode(in, out, endOfInput);
+        while (cr.isOverflow()) {
+            drain(out, dest);
+            cr = encoder.encode(in, out, endOfInput);
+        }
+        if (cr.isError()) {
+            cr.throwException();
+        }
+        in.compact();
+    }
+
+    /**
+     * Écrit dans dest les octets de out et vide out.
+     */
+    private static void drain(ByteBuffer out, FileChannel dest)
+            throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            dest.write(out);
+        }
+        out.clear();
+    }
+
+    /**
+     * L'image de d servant à savoir plus tard s'il a été ramené à son texte
+     *  actuel, ou null si d n'est pas un PieceTableDocument.
+     */
+    private static PieceTableContent.Snapshot snapshot(Document d) {
+        if (d instanceof PieceTableDocument) {
+            return ((PieceTableDocument) d).snapshot();
+        }
+        return null;
+    }
+
+    /**
+     * Le texte de d, lu à travers une image s'il en fournit une, ou
+     *  directement sinon : il ne doit alors pas être modifié tant que le
+     *  résultat est utilisé.
+     */
+    private static CharStore textOf(Document d) {
+        PieceTableContent.Snapshot snap = snapshot(d);
+        return snap != null ? new SnapshotText(snap) : new DocumentText(d);
+    }
+
+    /**
+     * Le texte de d provient-il d'un fichier projeté en mémoire ?
+     */
+    private static boolean isMapped(Document d) {
+        return d instanceof PieceTableDocument
+                && ((PieceTableDocument) d).isMapped();
+    }
+
+    /**
+     * Le texte du document est-il de nouveau celui du dernier chargement ou
+     *  de la dernière sauvegarde ?
+     * Seules les pièces du document sont parcourues, et seulement lorsque
+     *  sa longueur est celle du texte sauvegardé : sans image (document
+     *  d'un autre type), toute modification désynchronise le modèle.
+     */
+    private boolean hasSavedText() {
+        return savedText != null
+                && ((PieceTableDocument) document).hasText(savedText);
+    }
+
+    /**
+     * Fixe l'image du texte de référence du document courant, auquel il est
+     *  désormais comparé ligne à ligne.
+     */
+    private void setSavedText(PieceTableContent.Snapshot snap) {
+        savedText = snap;
+        differ = snap == null ? null
+                : new LineDiffer((PieceTableDocument) document, snap, differ);
+    }
+
     /**
      * Fixe l'état de synchronisation du modèle et notifie les observateurs.
      */
@@ -254,13 +1721,130 @@ public class StdPetModel implements PetModel {
         fireStateChanged();
     }
     
+    /**
+     * Notifie les observateurs des propriétés qui ont changé depuis la
+     *  notification précédente, s'il y en a, sauf si le modèle est headless.
+     * La durée de la notification est mesurée dans Metrics.DISPATCH et par
+     *  l'événement JFR pet.Dispatch.
+     * @throws IllegalStateException
+     *     si le modèle n'est pas headless et que l'appel n'a pas lieu sur le
+     *      thread de distribution des événements : l'état comparé à celui
+     *      de la notification précédente n'y serait pas cohérent
+     */
     protected void fireStateChanged() {
+        if (headless) {
+            return;
+        }
+        checkEventDispatchThread();
+        Set<ModelChangeEvent.Property> changes = takeChanges();
+        if (changes.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        ModelEvents.Dispatch dispatch = new ModelEvents.Dispatch();
+        dispatch.begin();
+        ModelChangeEvent event = new ModelChangeEvent(this, changes);
     	Object[] listeners = eventListeners.getListenerList();
     	for (int i = listeners.length-2; i >= 0; i-=2) {
     		if (listeners[i] == ChangeListener.class) {
     			((ChangeListener) listeners[i+1]).stateChanged(event);
     		}
     	}
+        dispatch.end();
+        if (dispatch.shouldCommit()) {
+            dispatch.listeners = listeners.length / 2;
+            dispatch.changes = changes.toString();
+            dispatch.commit();
+        }
+        Metrics.record(Metrics.DISPATCH, System.nanoTime() - start);
+    }
+
+    /**
+     * Poste sur le thread de distribution des événements une notification,
+     *  si aucune ne l'est déjà : les modifications du document qui ont lieu
+     *  d'ici là, par exemple une rafale de frappes, ne donnent lieu qu'à
+     *  cette seule notification. L'état du modèle n'étant modifié que sur ce
+     *  thread, il y est lu sans concurrence.
+     * @throws IllegalStateException
+     *     dans les mêmes conditions que fireStateChanged()
+     */
+    private void scheduleStateChanged() {
+        if (headless) {
+            return;
+        }
+        checkEventDispatchThread();
+        if (notificationPending) {
+            return;
+        }
+        notificationPending = true;
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                notificationPending = false;
+                fireStateChanged();
+            }
+        });
+    }
+
+    private static void checkEventDispatchThread() {
+        if (!SwingUtilities.isEventDispatchThread()) {
+            throw new IllegalStateException("Modèle utilisé hors du thread"
+                    + " de distribution des événements");
+        }
+    }
+
+    /**
+     * Les propriétés du modèle qui ont changé depuis la notification
+     *  précédente ; l'état courant devient celui de la dernière notification.
+     */
+    private Set<ModelChangeEvent.Property> takeChanges() {
+        Set<ModelChangeEvent.Property> changes =
+                EnumSet.noneOf(ModelChangeEvent.Property.class);
+        if (document != notifiedDocument) {
+            changes.add(ModelChangeEvent.Property.DOCUMENT);
+            notifiedDocument = document;
+        }
+        if (file == null ? notifiedFile != null : !file.equals(notifiedFile)) {
+            changes.add(ModelChangeEvent.Property.FILE);
+            notifiedFile = file;
+        }
+        boolean on = isSynchronized();
+        if (on != notifiedSync) {
+            changes.add(ModelChangeEvent.Property.SYNC);
+            notifiedSync = on;
+        }
+        boolean undo = canUndo();
+        boolean redo = canRedo();
+        if (undo != notifiedUndo || redo != notifiedRedo) {
+            changes.add(ModelChangeEvent.Property.HISTORY);
+            notifiedUndo = undo;
+            notifiedRedo = redo;
+        }
+        boolean empty = document != null && document.getLength() == 0;
+        if (empty != notifiedEmpty) {
+            changes.add(ModelChangeEvent.Property.EMPTY);
+            notifiedEmpty = empty;
+        }
+        String endings = lineEndings.toString();
+        if (!encoding.equals(notifiedEncoding)
+                || !endings.equals(notifiedEndings)) {
+            changes.add(ModelChangeEvent.Property.FORMAT);
+            notifiedEncoding = encoding;
+            notifiedEndings = endings;
+        }
+        if (hibernating != notifiedHibernating) {
+            changes.add(ModelChangeEvent.Property.HIBERNATION);
+            notifiedHibernating = hibernating;
+        }
+        if (eventListeners.getListenerCount() > 0) {
+            // les différences ne sont calculées que si elles sont observées
+            LineDiff diff = getLineDiff();
+            if (!diff.equals(notifiedDiff)) {
+                changes.add(ModelChangeEvent.Property.DIFF);
+                notifiedDiff = diff;
+            }
+        }
+        return changes;
     }
     
     
@@ -288,4 +1872,143 @@ public class StdPetModel implements PetModel {
 		Contract.checkCondition(listener!=null);
 		eventListeners.remove(ChangeListener.class, listener);
 	}
+
+	// TYPES IMBRIQUES
+
+	/**
+	 * La partie d'une opération asynchrone qui s'exécute en arrière-plan :
+	 *  elle effectue les entrées/sorties et retourne la modification à
+	 *  appliquer au modèle sur le thread de distribution des événements.
+	 */
+	private interface BackgroundIO {
+		Runnable call() throws IOException;
+	}
+
+	/**
+	 * L'état d'un fichier à un instant donné : date de modification, taille
+	 *  et identité (null si le système de fichiers n'en fournit pas).
+	 */
+	private static final class FileStamp {
+		private final FileTime modified;
+		private final long size;
+		private final Object key;
+
+		private FileStamp(BasicFileAttributes attrs) {
+			modified = attrs.lastModifiedTime();
+			size = attrs.size();
+			key = attrs.fileKey();
+		}
+
+		static FileStamp of(File f) throws IOException {
+			return new FileStamp(Files.readAttributes(f.toPath(),
+					BasicFileAttributes.class));
+		}
+
+		/**
+		 * stamp peut-il désigner le même fichier que this (et non un
+		 *  fichier qui l'a remplacé) ?
+		 */
+		boolean isSameFile(FileStamp stamp) {
+			return key == null || stamp.key == null || key.equals(stamp.key);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof FileStamp)) {
+				return false;
+			}
+			FileStamp s = (FileStamp) o;
+			return modified.equals(s.modified) && size == s.size
+					&& (key == null ? s.key == null : key.equals(s.key));
+		}
+
+		@Override
+		public int hashCode() {
+			return modified.hashCode() ^ (int) size;
+		}
+	}
+
+	/**
+	 * Le texte d'une image de document, sans la fin de ligne qui termine
+	 *  tout contenu de document : il peut être lu depuis n'importe quel
+	 *  thread.
+	 */
+	private static final class SnapshotText implements CharStore {
+		private final PieceTableContent.Snapshot snap;
+
+		SnapshotText(PieceTableContent.Snapshot snap) {
+			this.snap = snap;
+		}
+
+		@Override
+		public int length() {
+			return snap.length() - 1;
+		}
+
+		@Override
+		public void segment(int where, int len, Segment s) {
+			snap.segment(where, len, s);
+		}
+	}
+
+	/**
+	 * Le texte d'un document quelconque, lu par Document.getText ; il n'est
+	 *  immuable que tant que le document n'est pas modifié.
+	 */
+	private static final class DocumentText implements CharStore {
+		private final Document document;
+
+		DocumentText(Document d) {
+			document = d;
+		}
+
+		@Override
+		public int length() {
+			return document.getLength();
+		}
+
+		@Override
+		public void segment(int where, int len, Segment s) {
+			s.setPartialReturn(true);
+			try {
+				document.getText(where, len, s);
+			} catch (BadLocationException e) {
+				// Ne devrait pas survenir
+				throw new InternalError(e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Le texte d'un fichier, avec l'encodage selon lequel il a été décodé
+	 *  et ses fins de ligne.
+	 */
+	private static final class LoadedText {
+		final CharStore text;
+		final FileEncoding encoding;
+		final LineEndings endings;
+
+		LoadedText(CharStore text, FileEncoding encoding,
+				LineEndings endings) {
+			this.text = text;
+			this.encoding = encoding;
+			this.endings = endings;
+		}
+	}
+
+	/**
+	 * Les threads (démons) sur lesquels s'exécutent les opérations
+	 *  asynchrones, créés au premier besoin.
+	 */
+	private static final class IOExecutorHolder {
+		static final ExecutorService EXECUTOR =
+				Executors.newCachedThreadPool(new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "pet-io");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+	}
 }
@@ -0,0 +1,439 @@
+package pet.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
+
+/**
+ * Différence ligne à ligne entre le texte d'un document et un nouveau texte.
+ * Le préfixe et le suffixe communs aux deux textes sont d'abord écartés en
+ *  comparant leurs caractères à travers des vues Segment ; seules les lignes
+ *  qui restent entre eux sont ensuite comparées une à une, selon
+ *  l'algorithme de Myers, pour n'en retenir que les portions qui diffèrent.
+ * Lorsque ces lignes sont trop longues à recopier ou trop différentes, elles
+ *  forment une seule portion.
+ */
+final class TextDiff {
+
+    // ATTRIBUTS STATIQUES
+
+    /**
+     * Nombre maximal de caractères entre le préfixe et le suffixe communs
+     *  pour que leurs lignes soient comparées une à une.
+     */
+    private static final int MAX_MIDDLE_CHARS = 1 << 24;
+    /**
+     * Nombre maximal de lignes insérées ou retirées au-delà duquel la
+     *  comparaison ligne à ligne est abandonnée.
+     */
+    private static final int MAX_EDIT_DISTANCE = 1000;
+    private static final int BLOCK_CHARS = 1 << 13;
+
+    // CONSTRUCTEURS
+
+    private TextDiff() {
+        // rien
+    }
+
+    // REQUETES
+
+    /**
+     * Les portions qui diffèrent entre le texte de d et text, dans l'ordre du
+     *  texte : remplacer dans d, en partant de la dernière, chaque portion
+     *  getOldRange() par getNewText() donne text.
+     * Doit être appelée sous verrou de lecture de d.
+     * @pre <pre>
+     *     d != null && text != null </pre>
+     * @post <pre>
+     *     result != null
+     *     result.isEmpty() <==> le texte de d est celui de text </pre>
+     */
+    static List<Hunk> compute(Document d, CharStore text) {
+        assert d != null && text != null;
+
+        Source a = new DocumentSource(d);
+        Source b = new StoreSource(text);
+        int na = a.length();
+        int nb = b.length();
+        int p = commonPrefix(a, b, Math.min(na, nb));
+        if (p == na && p == nb) {
+            return Collections.emptyList();
+        }
+        int start = lineStart(a, p);
+        int s = commonSuffix(a, b, Math.min(na, nb) - start);
+        int ea = na - s;
+        int eb = nb - s;
+        if (ea < na && !(ea > 0 && charAt(a, ea - 1) == '\n'
+                && eb > 0 && charAt(b, eb - 1) == '\n')) {
+            int next = nextLineStart(a, ea);
+            eb += next - ea;
+            ea = next;
+        }
+        if (ea - start > MAX_MIDDLE_CHARS || eb - start > MAX_MIDDLE_CHARS) {
+            return Collections.singletonList(
+                    hunk(b, start, ea, start, eb));
+        }
+        final String[] la = lines(a, start, ea);
+        final String[] lb = lines(b, start, eb);
+        int[] pairs = match(la.length, lb.length, new Lines() {
+            @Override
+            public boolean same(int i, int j) {
+                return la[i].equals(lb[j]);
+            }
+        });
+        if (pairs == null) {
+            return Collections.singletonList(
+                    hunk(b, start, ea, start, eb));
+        }
+        return hunks(b, la, lb, pairs, start);
+    }
+
+    /**
+     * Apparie les n lignes d'un texte et les m lignes d'un autre, que lines
+     *  sait comparer, selon un plus court script d'édition (algorithme de
+     *  Myers) : result[i] est l'indice de la ligne du second texte associée
+     *  à la ligne i du premier, ou -1 si celle-ci est retirée.
+     * Retourne null si ce script compte plus de MAX_EDIT_DISTANCE
+     *  insertions et suppressions.
+     * @pre <pre>
+     *     n >= 0 && m >= 0 && lines != null </pre>
+     */
+    static int[] match(int n, int m, Lines lines) {
+        assert n >= 0 && m >= 0 && lines != null;
+
+        int max = Math.min(n + m, MAX_EDIT_DISTANCE);
+        int off = max + 1;
+        int[] v = new int[2 * max + 3];
+        List<int[]> trace = new ArrayList<int[]>();
+        for (int d = 0; d <= max; d++) {
+            trace.add(v.clone());
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || (k != d && v[off + k - 1] < v[off + k + 1])) {
+                    x = v[off + k + 1];
+                } else {
+                    x = v[off + k - 1] + 1;
+                }
+                int y = x - k;
+                while (x < n && y < m && lines.same(x, y)) {
+                    x += 1;
+                    y += 1;
+                }
+                v[off + k] = x;
+                if (x >= n && y >= m) {
+                    return backtrack(trace, d, off, n, m);
+                }
+            }
+        }
+        return null;
+    }
+
+    // OUTILS
+
+    /**
+     * La longueur du plus long préfixe commun à a et b, au plus n.
+     */
+    private static int commonPrefix(Source a, Source b, int n) {
+        Segment sa = new Segment();
+        Segment sb = new Segment();
+        int i = 0;
+        while (i < n) {
+            a.chars(i, n - i, sa);
+            b.chars(i, sa.count, sb);
+            int k = sb.count;
+            for (int j = 0; j < k; j++) {
+                if (sa.array[sa.offset + j] != sb.array[sb.offset + j]) {
+                    return i + j;
+                }
+            }
+            i += k;
+        }
+        return n;
+    }
+
+    /**
+     * La longueur du plus long suffixe commun à a et b, au plus n.
+     */
+    private static int commonSuffix(Source a, Source b, int n) {
+        char[] ba = new char[BLOCK_CHARS];
+        char[] bb = new char[BLOCK_CHARS];
+        int na = a.length();
+        int nb = b.length();
+        int k = 0;
+        while (k < n) {
+            int len = Math.min(BLOCK_CHARS, n - k);
+            copy(a, na - k - len, len, ba);
+            copy(b, nb - k - len, len, bb);
+            for (int j = len - 1; j >= 0; j--) {
+                if (ba[j] != bb[j]) {
+                    return k + len - 1 - j;
+                }
+            }
+            k += len;
+        }
+        return n;
+    }
+
+    /**
+     * La position du début de la ligne qui contient pos dans s.
+     */
+    private static int lineStart(Source s, int pos) {
+        char[] buf = new char[BLOCK_CHARS];
+        int end = pos;
+        while (end > 0) {
+            int len = Math.min(BLOCK_CHARS, end);
+            copy(s, end - len, len, buf);
+            for (int j = len - 1; j >= 0; j--) {
+                if (buf[j] == '\n') {
+                    return end - len + j + 1;
+                }
+            }
+            end -= len;
+        }
+        return 0;
+    }
+
+    /**
+     * La position qui suit la première fin de ligne de s située en pos ou
+     *  après, ou la longueur de s s'il n'y en a pas.
+     */
+    private static int nextLineStart(Source s, int pos) {
+        Segment seg = new Segment();
+        int n = s.length();
+        int i = pos;
+        while (i < n) {
+            s.chars(i, n - i, seg);
+            for (int j = 0; j < seg.count; j++) {
+                if (seg.array[seg.offset + j] == '\n') {
+                    return i + j + 1;
+                }
+            }
+            i += seg.count;
+        }
+        return n;
+    }
+
+    private static char charAt(Source s, int i) {
+        Segment seg = new Segment();
+        s.chars(i, 1, seg);
+        return seg.array[seg.offset];
+    }
+
+    /**
+     * Recopie dans dst les len caractères de s commençant en where.
+     */
+    private static void copy(Source s, int where, int len, char[] dst) {
+        Segment seg = new Segment();
+        int done = 0;
+        while (done < len) {
+            s.chars(where + done, len - done, seg);
+            System.arraycopy(seg.array, seg.offset, dst, done, seg.count);
+            done += seg.count;
+        }
+    }
+
+    /**
+     * Les caractères de s compris entre from et to.
+     */
+    private static String text(Source s, int from, int to) {
+        char[] buf = new char[to - from];
+        copy(s, from, to - from, buf);
+        return new String(buf);
+    }
+
+    /**
+     * Les lignes de s comprises entre from et to, chacune avec sa fin de
+     *  ligne.
+     */
+    private static String[] lines(Source s, int from, int to) {
+        String t = text(s, from, to);
+        List<String> result = new ArrayList<String>();
+        int lineStart = 0;
+        for (int i = 0; i < t.length(); i++) {
+            if (t.charAt(i) == '\n') {
+                result.add(t.substring(lineStart, i + 1));
+                lineStart = i + 1;
+            }
+        }
+        if (lineStart < t.length()) {
+            result.add(t.substring(lineStart));
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    /**
+     * Remonte le chemin de Myers qui atteint (n, m) en dist étapes, trace
+     *  contenant l'état des diagonales avant chaque étape.
+     */
+    private static int[] backtrack(List<int[]> trace, int dist, int off,
+            int n, int m) {
+        int[] pairs = new int[n];
+        for (int i = 0; i < n; i++) {
+            pairs[i] = -1;
+        }
+        int x = n;
+        int y = m;
+        for (int d = dist; d > 0; d--) {
+            int[] v = trace.get(d);
+            int k = x - y;
+            int prevK;
+            if (k == -d || (k != d && v[off + k - 1] < v[off + k + 1])) {
+                prevK = k + 1;
+            } else {
+                prevK = k - 1;
+            }
+            int prevX = v[off + prevK];
+            int startX = prevK == k + 1 ? prevX : prevX + 1;
+            while (x > startX) {
+                x -= 1;
+                y -= 1;
+                pairs[x] = y;
+            }
+            x = prevX;
+            y = prevX - prevK;
+        }
+        while (x > 0) {
+            x -= 1;
+            y -= 1;
+            pairs[x] = y;
+        }
+        return pairs;
+    }
+
+    /**
+     * Les portions formées des lignes non appariées de la et lb, dont la
+     *  première commence en start dans les deux textes.
+     */
+    private static List<Hunk> hunks(Source b, String[] la, String[] lb,
+            int[] pairs, int start) {
+        List<Hunk> result = new ArrayList<Hunk>();
+        int i = 0;
+        int j = 0;
+        int oa = start;
+        int ob = start;
+        while (i < la.length || j < lb.length) {
+            if (i < la.length && pairs[i] == j) {
+                oa += la[i].length();
+                ob += lb[j].length();
+                i += 1;
+                j += 1;
+            } else {
+                int sa = oa;
+                int sb = ob;
+                while (i < la.length && pairs[i] < 0) {
+                    oa += la[i].length();
+                    i += 1;
+                }
+                int next = i < la.length ? pairs[i] : lb.length;
+                while (j < next) {
+                    ob += lb[j].length();
+                    j += 1;
+                }
+                result.add(hunk(b, sa, oa, sb, ob));
+            }
+        }
+        return result;
+    }
+
+    private static Hunk hunk(Source b, int oldStart, int oldEnd,
+            int newStart, int newEnd) {
+        return new Hunk(new TextRange(oldStart, oldEnd),
+                new TextRange(newStart, newEnd), text(b, newStart, newEnd));
+    }
+
+    // TYPES IMBRIQUES
+
+    /**
+     * Une portion qui diffère : les caractères getOldRange() de l'ancien
+     *  texte sont devenus getNewText(), qui occupe getNewRange() dans le
+     *  nouveau.
+     */
+    static final class Hunk {
+        private final TextRange oldRange;
+        private final TextRange newRange;
+        private final String newText;
+
+        Hunk(TextRange oldRange, TextRange newRange, String newText) {
+            this.oldRange = oldRange;
+            this.newRange = newRange;
+            this.newText = newText;
+        }
+
+        TextRange getOldRange() {
+            return oldRange;
+        }
+
+        TextRange getNewRange() {
+            return newRange;
+        }
+
+        String getNewText() {
+            return newText;
+        }
+    }
+
+    /**
+     * Les lignes de deux textes, comparées par match.
+     */
+    interface Lines {
+        /**
+         * La ligne i du premier texte est-elle égale à la ligne j du
+         *  second ?
+         */
+        boolean same(int i, int j);
+    }
+
+    /**
+     * Un texte lu par vues Segment, éventuellement partielles.
+     */
+    private interface Source {
+        int length();
+        void chars(int where, int len, Segment s);
+    }
+
+    private static final class DocumentSource implements Source {
+        private final Document document;
+
+        DocumentSource(Document d) {
+            document = d;
+        }
+
+        @Override
+        public int length() {
+            return document.getLength();
+        }
+
+        @Override
+        public void chars(int where, int len, Segment s) {
+            s.setPartialReturn(true);
+            try {
+                document.getText(where, len, s);
+            } catch (BadLocationException e) {
+                // Ne devrait pas survenir
+                throw new InternalError(e.getMessage());
+            }
+        }
+    }
+
+    private static final class StoreSource implements Source {
+        private final CharStore store;
+
+        StoreSource(CharStore s) {
+            store = s;
+        }
+
+        @Override
+        public int length() {
+            return store.length();
+        }
+
+        @Override
+        public void chars(int where, int len, Segment s) {
+            store.segment(where, len, s);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package pet.model;
+
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
+
+import util.Contract;
+
+/**
+ * Recherche et remplacement d'un motif dans un document.
+ * Le document est parcouru à travers des vues Segment, sans que son texte
+ *  soit jamais recopié en entier : seules les occurrences susceptibles de
+ *  chevaucher deux vues sont vérifiées sur une copie de quelques caractères.
+ * Dans chaque vue, la recherche suit l'algorithme de Boyer-Moore-Horspool,
+ *  qui avance le plus souvent de la longueur du motif à chaque comparaison.
+ *
+ * @inv <pre>
+ *     getPattern() != null && getPattern().length() > 0 </pre>
+ *
+ * @cons <pre>
+ *     $ARGS$ String pattern
+ *     $PRE$
+ *         pattern != null && pattern.length() > 0
+ *     $POST$
+ *         getPattern().equals(pattern) </pre>
+ */
+public final class TextFinder {
+
+    // ATTRIBUTS STATIQUES
+
+    /**
+     * Nombre d'entrées de la table des décalages : un caractère y est rangé
+     *  selon son octet de poids faible, et l'entrée retient le plus petit
+     *  décalage des caractères du motif qui la partagent.
+     */
+    private static final int SHIFT_TABLE_SIZE = 256;
+
+    // ATTRIBUTS
+
+    private final String pattern;
+    private final char[] chars;
+    private final int[] shift;
+
+    // CONSTRUCTEURS
+
+    public TextFinder(String pattern) {
+        Contract.checkCondition(pattern != null && pattern.length() > 0);
+
+        this.pattern = pattern;
+        chars = pattern.toCharArray();
+        int m = chars.length;
+        shift = new int[SHIFT_TABLE_SIZE];
+        for (int i = 0; i < SHIFT_TABLE_SIZE; i++) {
+            shift[i] = m;
+        }
+        for (int j = 0; j < m - 1; j++) {
+            shift[chars[j] & (SHIFT_TABLE_SIZE - 1)] = m - 1 - j;
+        }
+    }
+
+    // REQUETES
+
+    /**
+     * Le motif recherché.
+     */
+    public String getPattern() {
+        return pattern;
+    }
+
+    /**
+     * La position de la première occurrence du motif dans d commençant en
+     *  from ou après, ou -1 s'il n'y en a pas.
+     * @pre <pre>
+     *     d != null
+     *     0 <= from <= d.getLength() </pre>
+     */
+    public int find(final Document d, final int from) {
+        Contract.checkCondition(d != null);
+        Contract.checkCondition(0 <= from && from <= d.getLength());
+
+        final int[] result = new int[1];
+        d.render(new Runnable() {
+            @Override
+            public void run() {
+                result[0] = search(d, from, new Segment(), new Segment());
+            }
+        });
+        return result[0];
+    }
+
+    // COMMANDES
+
+    /**
+     * Remplace par replacement toutes les occurrences du motif dans d, ces
+     *  occurrences étant prises de gauche à droite sans se chevaucher, et
+     *  retourne leur nombre.
+     * Le remplacement forme une seule modification du document : la portion
+     *  qui va de la première à la dernière occurrence est remplacée d'un
+     *  coup par son nouveau texte.
+     * @pre <pre>
+     *     d != null && replacement != null </pre>
+     * @post <pre>
+     *     result >= 0
+     *     les result occurrences du motif ont été remplacées </pre>
+     */
+    public int replaceAll(final Document d, String replacement) {
+        Contract.checkCondition(d != null && replacement != null);
+
+        final int m = chars.length;
+        final int[][] found = new int[1][];
+        final int[] count = new int[1];
+        d.render(new Runnable() {
+            @Override
+            public void run() {
+                int[] positions = new int[16];
+                int n = 0;
+                Segment s = new Segment();
+                Segment tmp = new Segment();
+                int k = search(d, 0, s, tmp);
+                while (k >= 0) {
+                    if (n == positions.length) {
+                        int[] a = new int[n * 2];
+                        System.arraycopy(positions, 0, a, 0, n);
+                        positions = a;
+                    }
+                    positions[n] = k;
+                    n += 1;
+                    k = k + m <= d.getLength() ? search(d, k + m, s, tmp) : -1;
+                }
+                found[0] = positions;
+                count[0] = n;
+            }
+        });
+        int n = count[0];
+        if (n == 0) {
+            return 0;
+        }
+        int[] positions = found[0];
+        int start = positions[0];
+        int end = positions[n - 1] + m;
+        long size = (long) (end - start) + (long) n * (replacement.length() - m);
+        if (size > Integer.MAX_VALUE) {
+            throw new OutOfMemoryError("Texte de remplacement trop long");
+        }
+        StringBuilder text = new StringBuilder((int) size);
+        Segment s = new Segment();
+        s.setPartialReturn(true);
+        try {
+            int offset = start;
+            for (int i = 0; i < n; i++) {
+                appendText(d, offset, positions[i], s, text);
+                text.append(replacement);
+                offset = positions[i] + m;
+            }
+            if (d instanceof AbstractDocument) {
+                ((AbstractDocument) d).replace(start, end - start,
+                        text.toString(), null);
+            } else {
+                d.remove(start, end - start);
+                d.insertString(start, text.toString(), null);
+            }
+        } catch (BadLocationException e) {
+            // Ne devrait pas survenir
+            throw new InternalError(e.getMessage());
+        }
+        return n;
+    }
+
+    // OUTILS
+
+    /**
+     * La position de la première occurrence du motif dans d commençant en
+     *  from ou après, ou -1.
+     * Chaque vue s est d'abord fouillée seule ; les occurrences qui
+     *  débutent dans ses m - 1 derniers caractères sont ensuite cherchées
+     *  dans une copie de ceux-ci prolongée des m - 1 suivants (tmp).
+     * Doit être appelée sous verrou de lecture de d.
+     */
+    private int search(Document d, int from, Segment s, Segment tmp) {
+        int m = chars.length;
+        int n = d.getLength();
+        s.setPartialReturn(true);
+        tmp.setPartialReturn(false);
+        int offset = from;
+        try {
+            while (n - offset >= m) {
+                d.getText(offset, n - offset, s);
+                int i = search(s.array, s.offset, s.offset + s.count);
+                if (i >= 0) {
+                    return offset + i - s.offset;
+                }
+                int next = offset + s.count;
+                if (next < n) {
+                    int lo = Math.max(offset, next - m + 1);
+                    d.getText(lo, Math.min(next - lo + m - 1, n - lo), tmp);
+                    i = search(tmp.array, tmp.offset, tmp.offset + tmp.count);
+                    if (i >= 0) {
+                        return lo + i - tmp.offset;
+                    }
+                }
+                offset = next;
+            }
+        } catch (BadLocationException e) {
+            // Ne devrait pas survenir
+            throw new InternalError(e.getMessage());
+        }
+        return -1;
+    }
+
+    /**
+     * L'indice de la première occurrence du motif dans a[from, to[, ou -1.
+     */
+    private int search(char[] a, int from, int to) {
+        int last = chars.length - 1;
+        char c0 = chars[last];
+        int i = from;
+        while (i + last < to) {
+            char c = a[i + last];
+            if (c == c0) {
+                int j = last - 1;
+                while (j >= 0 && a[i + j] == chars[j]) {
+                    j -= 1;
+                }
+                if (j < 0) {
+                    return i;
+                }
+            }
+            i += shift[c & (SHIFT_TABLE_SIZE - 1)];
+        }
+        return -1;
+    }
+
+    /**
+     * Ajoute à text les caractères de d compris entre from et to.
+     */
+    private static void appendText(Document d, int from, int to, Segment s,
+            StringBuilder text) throws BadLocationException {
+        int offset = from;
+        while (offset < to) {
+            d.getText(offset, to - offset, s);
+            text.append(s.array, s.offset, s.count);
+            offset += s.count;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package pet.model;
+
+import util.Contract;
+
+/**
+ * Une portion [getStart(), getEnd()[ du texte d'un document.
+ *
+ * @inv <pre>
+ *     0 <= getStart() <= getEnd() </pre>
+ *
+ * @cons <pre>
+ *     $ARGS$ int start, int end
+ *     $PRE$
+ *         0 <= start <= end
+ *     $POST$
+ *         getStart() == start
+ *         getEnd() == end </pre>
+ */
+public final class TextRange {
+
+    // ATTRIBUTS
+
+    private final int start;
+    private final int end;
+
+    // CONSTRUCTEURS
+
+    public TextRange(int start, int end) {
+        Contract.checkCondition(0 <= start && start <= end);
+
+        this.start = start;
+        this.end = end;
+    }
+
+    // REQUETES
+
+    /**
+     * La position du premier caractère de la portion.
+     */
+    public int getStart() {
+        return start;
+    }
+
+    /**
+     * La position qui suit le dernier caractère de la portion.
+     */
+    public int getEnd() {
+        return end;
+    }
+}
@@ -0,0 +1,530 @@
+package pet.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
+
+import util.Contract;
+
+/**
+ * Statistiques d'un document : nombres de caractères, de mots et de lignes,
+ *  du texte entier ou d'une portion (typiquement, la sélection).
+ * Un mot est une suite maximale de caractères qui ne sont pas des blancs
+ *  (au sens de Character.isWhitespace) ; une portion compte les lignes dont
+ *  elle contient au moins un caractère, et le texte entier en compte une de
+ *  plus que de fins de ligne.
+ * Le texte est découpé en blocs d'environ BLOCK_CHARS caractères, dont
+ *  chacun retient son nombre de caractères, de fins de ligne et de débuts
+ *  de mot ; des arbres de Fenwick cumulent ces nombres bloc par bloc. Un
+ *  DocumentListener tient les blocs à jour : une édition ne fait relire que
+ *  le texte qu'elle a inséré et celui des blocs qu'elle touche, et les
+ *  arbres ne sont reconstruits que lorsque des blocs sont créés ou
+ *  supprimés. Le nombre de mots ou de lignes d'une portion s'obtient donc
+ *  en temps logarithmique, plus la relecture d'un bloc au plus à chacune
+ *  de ses extrémités.
+ * Le décompte initial d'un PieceTableDocument est réparti sur tous les
+ *  processeurs.
+ *
+ * Les requêtes ne doivent être faites qu'une fois la notification de la
+ *  dernière édition du document terminée (typiquement, depuis le thread de
+ *  distribution des événements en dehors de toute notification).
+ *
+ * @inv <pre>
+ *     getDocument() != null
+ *     getCharCount() == getDocument().getLength()
+ *     getWordCount() >= 0
+ *     getLineCount() >= 1 </pre>
+ *
+ * @cons <pre>
+ *     $ARGS$ Document d
+ *     $PRE$
+ *         d != null
+ *     $POST$
+ *         getDocument() == d
+ *         les statistiques sont celles de d et suivent ses modifications
+ *     </pre>
+ */
+public final class TextStats {
+
+    // ATTRIBUTS STATIQUES
+
+    private static final int BLOCK_CHARS = 1 << 12;
+    /**
+     * Nombre maximal de blocs décomptés par une même tâche.
+     */
+    private static final int TASK_BLOCKS = 256;
+
+    // ATTRIBUTS
+
+    private final Document document;
+    private final DocumentListener listener;
+    private final List<Block> blocks;
+    /**
+     * Arbres de Fenwick des nombres de caractères, de fins de ligne et de
+     *  débuts de mot des blocs.
+     */
+    private int[] charTree;
+    private int[] lineTree;
+    private int[] wordTree;
+    private final Segment text;
+
+    // CONSTRUCTEURS
+
+    public TextStats(Document d) {
+        Contract.checkCondition(d != null);
+
+        document = d;
+        blocks = new ArrayList<Block>();
+        text = new Segment();
+        text.setPartialReturn(true);
+        d.render(new Runnable() {
+            @Override
+            public void run() {
+                countAll();
+            }
+        });
+        rebuildTrees();
+        listener = new DocumentListener() {
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                // rien ici
+            }
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                insert(e.getOffset(), e.getLength());
+            }
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                remove(e.getOffset(), e.getLength());
+            }
+        };
+        d.addDocumentListener(listener);
+    }
+
+    // REQUETES
+
+    /**
+     * Le document décompté.
+     */
+    public Document getDocument() {
+        return document;
+    }
+
+    /**
+     * Le nombre de caractères du document.
+     */
+    public int getCharCount() {
+        return prefix(charTree, blocks.size());
+    }
+
+    /**
+     * Le nombre de mots du document.
+     */
+    public int getWordCount() {
+        return prefix(wordTree, blocks.size());
+    }
+
+    /**
+     * Le nombre de lignes du document.
+     */
+    public int getLineCount() {
+        return prefix(lineTree, blocks.size()) + 1;
+    }
+
+    /**
+     * Le nombre de mots dont la portion [start, end[ du document contient
+     *  au moins un caractère.
+     * @pre <pre>
+     *     0 <= start <= end <= getDocument().getLength() </pre>
+     */
+    public int getWordCount(int start, int end) {
+        Contract.checkCondition(0 <= start && start <= end
+                && end <= document.getLength());
+
+        if (start == end) {
+            return 0;
+        }
+        int n = countBefore(false, end) - countBefore(false, start);
+        if (start > 0 && !isBlank(charAt(start))
+                && !isBlank(charAt(start - 1))) {
+            // le mot qui se poursuit en start
+            n += 1;
+        }
+        return n;
+    }
+
+    /**
+     * Le nombre de lignes dont la portion [start, end[ du document contient
+     *  au moins un caractère.
+     * @pre <pre>
+     *     0 <= start <= end <= getDocument().getLength() </pre>
+     */
+    public int getLineCount(int start, int end) {
+        Contract.checkCondition(0 <= start && start <= end
+                && end <= document.getLength());
+
+        if (start == end) {
+            return 0;
+        }
+        return countBefore(true, end - 1) - countBefore(true, start)
+                + 1;
+    }
+
+    // COMMANDES
+
+    /**
+     * Cesse de suivre les modifications du document ; les statistiques ne
+     *  doivent plus être utilisées.
+     */
+    public void dispose() {
+        document.removeDocumentListener(listener);
+    }
+
+    // OUTILS
+
+    /**
+     * Décompte tout le texte, sous verrou de lecture du document.
+     */
+    private void countAll() {
+        int n = document.getLength();
+        int count = (n + BLOCK_CHARS - 1) / BLOCK_CHARS;
+        Block[] result = new Block[count];
+        if (document instanceof PieceTableDocument) {
+            ForkJoinPool.commonPool().invoke(new Counting(
+                    ((PieceTableDocument) document).snapshot(), n, result,
+                    0, count));
+        } else {
+            for (int i = 0; i < count; i++) {
+                int from = i * BLOCK_CHARS;
+                result[i] = count(from, Math.min(BLOCK_CHARS, n - from));
+            }
+        }
+        for (Block b : result) {
+            blocks.add(b);
+        }
+    }
+
+    /**
+     * Met les blocs à jour après l'insertion de len caractères en offset :
+     *  le bloc qui contient offset (ou qui se termine en offset) est
+     *  relu avec le texte inséré.
+     */
+    private void insert(int offset, int len) {
+        if (blocks.isEmpty()) {
+            replace(0, 0, 0, len);
+            return;
+        }
+        long loc = find(charTree, offset);
+        int b = blockOf(loc);
+        if (rest(loc) == 0 && b > 0) {
+            b -= 1;
+        }
+        int start = prefix(charTree, b);
+        replace(b, 1, start, blocks.get(b).chars + len);
+    }
+
+    /**
+     * Met les blocs à jour après la suppression de len caractères en
+     *  offset : les blocs qui les contenaient sont remplacés par la relecture
+     *  de ce qu'il en reste.
+     * Les blocs décrivent encore le texte d'avant la suppression.
+     */
+    private void remove(int offset, int len) {
+        int first = blockOf(find(charTree, offset));
+        int last = blockOf(find(charTree, offset + len - 1));
+        int start = prefix(charTree, first);
+        int end = prefix(charTree, last + 1);
+        replace(first, last - first + 1, start, end - len - start);
+    }
+
+    /**
+     * Remplace les n blocs à partir du bloc b par le décompte des len
+     *  caractères du document qui commencent en start, puis corrige le
+     *  premier début de mot du bloc qui les suit.
+     */
+    private void replace(int b, int n, int start, int len) {
+        List<Block> counted = new ArrayList<Block>();
+        if (len > 2 * BLOCK_CHARS) {
+            for (int i = 0; i < len; i += BLOCK_CHARS) {
+                counted.add(count(start + i, Math.min(BLOCK_CHARS, len - i)));
+            }
+        } else if (len > 0) {
+            counted.add(count(start, len));
+        }
+        boolean structural = counted.size() != n;
+        if (structural) {
+            blocks.subList(b, b + n).clear();
+            blocks.addAll(b, counted);
+        } else {
+            for (int i = 0; i < n; i++) {
+                Block old = blocks.set(b + i, counted.get(i));
+                add(charTree, b + i, counted.get(i).chars - old.chars);
+                add(lineTree, b + i, counted.get(i).lines - old.lines);
+                add(wordTree, b + i, counted.get(i).words - old.words);
+            }
+        }
+        int next = b + counted.size();
+        if (next < blocks.size()) {
+            int end = start + len;
+            Block block = blocks.get(next);
+            boolean w = isWordStart(end);
+            if (w != block.wordAtStart) {
+                int delta = w ? 1 : -1;
+                block.wordAtStart = w;
+                block.words += delta;
+                if (!structural) {
+                    add(wordTree, next, delta);
+                }
+            }
+        }
+        if (structural) {
+            rebuildTrees();
+        }
+    }
+
+    /**
+     * Le décompte des len caractères du document qui commencent en start.
+     * @pre <pre>
+     *     len > 0 </pre>
+     */
+    private Block count(int start, int len) {
+        Block b = new Block();
+        b.chars = len;
+        boolean blank = start == 0 || isBlank(charAt(start - 1));
+        int done = 0;
+        try {
+            while (done < len) {
+                document.getText(start + done, len - done, text);
+                blank = b.count(text, blank);
+                done += text.count;
+            }
+        } catch (BadLocationException e) {
+            // Ne devrait pas survenir
+            throw new InternalError(e.getMessage());
+        }
+        b.wordAtStart = isWordStart(start);
+        return b;
+    }
+
+    /**
+     * Le nombre de fins de ligne (si lines) ou de débuts de mot qui
+     *  précèdent la position offset.
+     */
+    private int countBefore(boolean lines, int offset) {
+        long loc = find(charTree, offset);
+        int b = blockOf(loc);
+        int k = rest(loc);
+        int n = prefix(lines ? lineTree : wordTree, b);
+        if (k == 0) {
+            return n;
+        }
+        Block block = new Block();
+        int start = prefix(charTree, b);
+        boolean blank = start == 0 || isBlank(charAt(start - 1));
+        int done = 0;
+        try {
+            while (done < k) {
+                document.getText(start + done, k - done, text);
+                blank = block.count(text, blank);
+                done += text.count;
+            }
+        } catch (BadLocationException e) {
+            // Ne devrait pas survenir
+            throw new InternalError(e.getMessage());
+        }
+        return n + (lines ? block.lines : block.words);
+    }
+
+    /**
+     * Un mot commence-t-il à la position offset du document ?
+     */
+    private boolean isWordStart(int offset) {
+        return offset < document.getLength() && !isBlank(charAt(offset))
+                && (offset == 0 || isBlank(charAt(offset - 1)));
+    }
+
+    private char charAt(int offset) {
+        try {
+            document.getText(offset, 1, text);
+        } catch (BadLocationException e) {
+            // Ne devrait pas survenir
+            throw new InternalError(e.getMessage());
+        }
+        return text.array[text.offset];
+    }
+
+    private static boolean isBlank(char c) {
+        return Character.isWhitespace(c);
+    }
+
+    private void rebuildTrees() {
+        int n = blocks.size();
+        charTree = new int[n + 1];
+        lineTree = new int[n + 1];
+        wordTree = new int[n + 1];
+        for (int i = 1; i <= n; i++) {
+            Block b = blocks.get(i - 1);
+            charTree[i] += b.chars;
+            lineTree[i] += b.lines;
+            wordTree[i] += b.words;
+            int parent = i + (i & -i);
+            if (parent <= n) {
+                charTree[parent] += charTree[i];
+                lineTree[parent] += lineTree[i];
+                wordTree[parent] += wordTree[i];
+            }
+        }
+    }
+
+    /**
+     * Ajoute delta à la valeur du bloc b dans tree.
+     */
+    private static void add(int[] tree, int b, int delta) {
+        for (int i = b + 1; i < tree.length; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+
+    /**
+     * La somme des valeurs des n premiers blocs dans tree.
+     */
+    private static int prefix(int[] tree, int n) {
+        int sum = 0;
+        for (int i = n; i > 0; i -= i & -i) {
+            sum += tree[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Le bloc b dont les valeurs cumulées dans tree encadrent target,
+     *  et l'écart r entre target et la somme des valeurs des blocs qui le
+     *  précèdent, regroupés en un long (b dans les 32 bits de poids fort).
+     * Si target est la somme de toutes les valeurs, b est le nombre de blocs
+     *  et r vaut 0.
+     */
+    private static long find(int[] tree, int target) {
+        int pos = 0;
+        int rem = target;
+        for (int step = Integer.highestOneBit(Math.max(1, tree.length - 1));
+                step > 0; step >>= 1) {
+            int next = pos + step;
+            if (next < tree.length && tree[next] <= rem) {
+                pos = next;
+                rem -= tree[next];
+            }
+        }
+        return ((long) pos << 32) | (rem & 0xFFFFFFFFL);
+    }
+
+    private static int blockOf(long location) {
+        return (int) (location >>> 32);
+    }
+
+    private static int rest(long location) {
+        return (int) location;
+    }
+
+    // TYPES IMBRIQUES
+
+    /**
+     * Les nombres de caractères, de fins de ligne et de débuts de mot d'une
+     *  suite de caractères consécutifs du document.
+     */
+    private static final class Block {
+        int chars;
+        int lines;
+        int words;
+        /**
+         * Un mot commence-t-il au premier caractère du bloc ? (Cela dépend
+         *  aussi du caractère qui le précède.)
+         */
+        boolean wordAtStart;
+
+        /**
+         * Ajoute aux nombres de fins de ligne et de débuts de mot ceux des
+         *  caractères de s, dont le précédent est un blanc si blank.
+         * Retourne si le dernier caractère de s est un blanc.
+         */
+        boolean count(Segment s, boolean blank) {
+            char[] a = s.array;
+            boolean b = blank;
+            for (int i = s.offset; i < s.offset + s.count; i++) {
+                char c = a[i];
+                if (c == '\n') {
+                    lines += 1;
+                }
+                boolean cb = isBlank(c);
+                if (b && !cb) {
+                    words += 1;
+                }
+                b = cb;
+            }
+            return b;
+        }
+    }
+
+    /**
+     * Le décompte des blocs [lo, hi[ du texte de snapshot, de longueur
+     *  length, partagé en deux tant qu'il en compte plus de TASK_BLOCKS.
+     */
+    private static final class Counting extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final PieceTableContent.Snapshot snapshot;
+        private final int length;
+        private final Block[] result;
+        private final int lo;
+        private final int hi;
+
+        Counting(PieceTableContent.Snapshot s, int length, Block[] result,
+                int lo, int hi) {
+            snapshot = s;
+            this.length = length;
+            this.result = result;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo > TASK_BLOCKS) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new Counting(snapshot, length, result, lo, mid),
+                        new Counting(snapshot, length, result, mid, hi));
+                return;
+            }
+            Segment seg = new Segment();
+            int from = lo * BLOCK_CHARS;
+            boolean blank = true;
+            if (from > 0) {
+                snapshot.segment(from - 1, 1, seg);
+                blank = isBlank(seg.array[seg.offset]);
+            }
+            for (int k = lo; k < hi; k++) {
+                int to = Math.min(from + BLOCK_CHARS, length);
+                Block b = new Block();
+                b.chars = to - from;
+                int i = from;
+                while (i < to) {
+                    snapshot.segment(i, to - i, seg);
+                    if (i == from) {
+                        b.wordAtStart = blank
+                                && !isBlank(seg.array[seg.offset]);
+                    }
+                    blank = b.count(seg, blank);
+                    i += seg.count;
+                }
+                result[k] = b;
+                from = to;
+            }
+        }
+    }
+}
@@ -0,0 +1,641 @@
+package pet.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.DocumentFilter;
+import javax.swing.undo.CannotUndoException;
+
+import util.Contract;
+
+/**
+ * Historique des modifications d'un document, qui permet de les annuler puis
+ *  de les rétablir.
+ * Les modifications sont interceptées par un DocumentFilter et mémorisées
+ *  sous forme textuelle (position, texte retiré, texte inséré). Les frappes
+ *  successives d'une même saisie, ou d'un même effacement, sont fusionnées
+ *  en une seule modification, qu'une fin de ligne vient clore.
+ *
+ * La mémoire occupée par les modifications à annuler est bornée par un
+ *  budget (en octets) : au-delà de la moitié de celui-ci, les modifications
+ *  les plus anciennes sont regroupées et compressées ; lorsque les groupes
+ *  compressés dépassent à leur tour la moitié du budget, les plus anciens
+ *  sont déportés dans un fichier temporaire. Une modification qui dépasse
+ *  à elle seule la moitié du budget, comme un remplacement de tout le
+ *  texte, est compressée, puis déportée, dès son enregistrement. Aucune
+ *  modification n'est donc perdue avant discardAllEdits(), sauf si le
+ *  fichier temporaire ne peut pas être écrit : les plus anciennes sont
+ *  alors oubliées.
+ *
+ * @inv <pre>
+ *     getBudget() > 0
+ *     getDocument() == null ==> !canUndo() && !canRedo() </pre>
+ *
+ * @cons <pre>
+ *     $ARGS$ long budget
+ *     $PRE$
+ *         budget > 0
+ *     $POST$
+ *         getBudget() == budget
+ *         getDocument() == null </pre>
+ */
+public final class UndoHistory {
+
+    // ATTRIBUTS STATIQUES
+
+    /**
+     * Estimation de la place occupée par une modification en plus de ses
+     *  caractères.
+     */
+    private static final int EDIT_OVERHEAD = 64;
+    /**
+     * Longueur au-delà de laquelle une modification n'absorbe plus de frappe.
+     */
+    private static final int MAX_MERGED_LENGTH = 1024;
+
+    // ATTRIBUTS
+
+    private final long budget;
+    private final DocumentFilter recorder;
+    private AbstractDocument document;
+    /**
+     * Modifications à annuler, non compressées, de la plus ancienne à la plus
+     *  récente.
+     */
+    private final List<Edit> live;
+    private long liveBytes;
+    /**
+     * Groupes compressés des modifications plus anciennes que celles de
+     *  live, du plus ancien au plus récent. Ceux qui ont été déportés forment
+     *  un préfixe de cette liste et sont rangés dans le même ordre dans le
+     *  fichier temporaire.
+     */
+    private final List<Chunk> archive;
+    private long archiveBytes;
+    /**
+     * Modifications annulées, de la dernière rétablie à la première.
+     */
+    private final List<Edit> undone;
+    private boolean mergeable;
+    private boolean replaying;
+    private File spillFile;
+    private RandomAccessFile spill;
+
+    // CONSTRUCTEURS
+
+    public UndoHistory(long budget) {
+        Contract.checkCondition(budget > 0);
+
+        this.budget = budget;
+        recorder = new Recorder();
+        document = null;
+        live = new ArrayList<Edit>();
+        liveBytes = 0;
+        archive = new ArrayList<Chunk>();
+        archiveBytes = 0;
+        undone = new ArrayList<Edit>();
+        mergeable = false;
+        replaying = false;
+        spillFile = null;
+        spill = null;
+    }
+
+    // REQUETES
+
+    /**
+     * Existe-t-il une modification à annuler ?
+     */
+    public boolean canUndo() {
+        return document != null && (!live.isEmpty() || !archive.isEmpty());
+    }
+
+    /**
+     * Existe-t-il une modification annulée à rétablir ?
+     */
+    public boolean canRedo() {
+        return document != null && !undone.isEmpty();
+    }
+
+    /**
+     * La place (en octets) que peuvent occuper en mémoire les modifications
+     *  à annuler.
+     */
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Le document dont les modifications sont enregistrées.
+     */
+    public Document getDocument() {
+        return document;
+    }
+
+    // COMMANDES
+
+    /**
+     * Oublie toutes les modifications enregistrées.
+     * @post <pre>
+     *     !canUndo() && !canRedo() </pre>
+     */
+    public void discardAllEdits() {
+        live.clear();
+        liveBytes = 0;
+        archive.clear();
+        archiveBytes = 0;
+        undone.clear();
+        mergeable = false;
+        if (spill != null) {
+            try {
+                spill.close();
+            } catch (IOException e) {
+                // le fichier est supprimé de toute façon
+            }
+            spillFile.delete();
+            spill = null;
+            spillFile = null;
+        }
+    }
+
+    /**
+     * Rétablit la dernière modification annulée.
+     * @pre <pre>
+     *     canRedo() </pre>
+     * @post <pre>
+     *     la modification a été appliquée de nouveau au document
+     *     canUndo() </pre>
+     */
+    public void redo() {
+        Contract.checkCondition(canRedo());
+
+        Edit e = undone.remove(undone.size() - 1);
+        apply(e.offset, e.removed.length(), e.inserted);
+        live.add(e);
+        liveBytes += e.bytes();
+        mergeable = false;
+        enforceBudget();
+    }
+
+    /**
+     * Reporte sur d l'historique suspendu : les modifications enregistrées
+     *  pourront de nouveau être annulées ou rétablies, sur d.
+     * @pre <pre>
+     *     getDocument() == null
+     *     d instanceof AbstractDocument
+     *     le texte de d est celui du document au moment de suspend() </pre>
+     * @post <pre>
+     *     getDocument() == d </pre>
+     */
+    public void resume(Document d) {
+        Contract.checkCondition(document == null);
+        Contract.checkCondition(d instanceof AbstractDocument);
+
+        document = (AbstractDocument) d;
+        document.setDocumentFilter(recorder);
+    }
+
+    /**
+     * Enregistre désormais les modifications de d plutôt que celles du
+     *  document précédent, et oublie celles déjà enregistrées.
+     * Les modifications d'un document qui n'est pas un AbstractDocument ne
+     *  peuvent pas être enregistrées.
+     * @post <pre>
+     *     d instanceof AbstractDocument ==> getDocument() == d
+     *     !(d instanceof AbstractDocument) ==> getDocument() == null
+     *     !canUndo() && !canRedo() </pre>
+     */
+    public void setDocument(Document d) {
+        discardAllEdits();
+        if (document != null && document.getDocumentFilter() == recorder) {
+            document.setDocumentFilter(null);
+        }
+        if (d instanceof AbstractDocument) {
+            document = (AbstractDocument) d;
+            document.setDocumentFilter(recorder);
+        } else {
+            document = null;
+        }
+    }
+
+    /**
+     * Cesse d'enregistrer les modifications du document, sans oublier celles
+     *  déjà enregistrées, pour qu'elles puissent être reportées plus tard
+     *  sur un autre document par resume().
+     * @post <pre>
+     *     getDocument() == null
+     *     !canUndo() && !canRedo() </pre>
+     */
+    public void suspend() {
+        if (document != null && document.getDocumentFilter() == recorder) {
+            document.setDocumentFilter(null);
+        }
+        document = null;
+        mergeable = false;
+    }
+
+    /**
+     * Annule la dernière modification non annulée.
+     * @pre <pre>
+     *     canUndo() </pre>
+     * @post <pre>
+     *     le document a retrouvé son texte d'avant la modification
+     *     canRedo() </pre>
+     * @throws CannotUndoException
+     *     si la modification, déportée dans le fichier temporaire, n'a pas
+     *      pu y être relue
+     */
+    public void undo() {
+        Contract.checkCondition(canUndo());
+
+        if (live.isEmpty()) {
+            restoreLastChunk();
+        }
+        Edit e = live.remove(live.size() - 1);
+        liveBytes -= e.bytes();
+        apply(e.offset, e.inserted.length(), e.removed);
+        undone.add(e);
+        mergeable = false;
+    }
+
+    // OUTILS
+
+    /**
+     * Remplace, sans l'enregistrer, les len caractères du document commençant
+     *  en offset par text.
+     */
+    private void apply(int offset, int len, String text) {
+        replaying = true;
+        try {
+            document.replace(offset, len, text, null);
+        } catch (BadLocationException e) {
+            // Ne devrait pas survenir
+            throw new InternalError(e.getMessage());
+        } finally {
+            replaying = false;
+        }
+    }
+
+    /**
+     * Enregistre le remplacement du texte removed situé en offset par
+     *  inserted, en le fusionnant si possible avec la modification
+     *  précédente.
+     */
+    private void record(int offset, String removed, String inserted) {
+        undone.clear();
+        Edit last = live.isEmpty() ? null : live.get(live.size() - 1);
+        if (mergeable && last != null) {
+            long before = last.bytes();
+            if (last.absorb(offset, removed, inserted)) {
+                liveBytes += last.bytes() - before;
+                mergeable = isKeystroke(removed, inserted);
+                enforceBudget();
+                return;
+            }
+        }
+        Edit e = new Edit(offset, removed, inserted);
+        live.add(e);
+        liveBytes += e.bytes();
+        mergeable = isKeystroke(removed, inserted);
+        enforceBudget();
+    }
+
+    /**
+     * Le remplacement de removed par inserted est-il une frappe susceptible
+     *  d'être prolongée par la suivante ?
+     */
+    private static boolean isKeystroke(String removed, String inserted) {
+        if (removed.isEmpty()) {
+            return inserted.length() == 1 && inserted.charAt(0) != '\n';
+        }
+        return inserted.isEmpty() && removed.length() == 1;
+    }
+
+    /**
+     * Compresse les modifications les plus anciennes, la plus récente
+     *  comprise si elle suffit à dépasser le budget, puis déporte les groupes
+     *  compressés les plus anciens, ou à défaut les oublie, jusqu'à respecter
+     *  le budget.
+     */
+    private void enforceBudget() {
+        long half = budget / 2;
+        if (liveBytes > half) {
+            int n = 0;
+            long freed = 0;
+            while (n < live.size() && liveBytes - freed > half / 2) {
+                freed += live.get(n).bytes();
+                n += 1;
+            }
+            List<Edit> old = live.subList(0, n);
+            Chunk c = Chunk.compress(old);
+            old.clear();
+            liveBytes -= freed;
+            archive.add(c);
+            archiveBytes += c.size;
+            if (live.isEmpty()) {
+                mergeable = false;
+            }
+        }
+        int i = firstInMemoryChunk();
+        while (archiveBytes > half && i < archive.size()) {
+            try {
+                spill(archive.get(i));
+                archiveBytes -= archive.get(i).size;
+                i += 1;
+            } catch (IOException e) {
+                forgetChunks(i + 1);
+                i = 0;
+            }
+        }
+    }
+
+    /**
+     * Oublie les n groupes les plus anciens de archive, parmi lesquels
+     *  figurent tous ceux qui ont été déportés, et supprime le fichier
+     *  temporaire.
+     */
+    private void forgetChunks(int n) {
+        assert n <= archive.size() && firstInMemoryChunk() <= n;
+
+        List<Chunk> old = archive.subList(0, n);
+        for (Chunk c : old) {
+            if (c.data != null) {
+                archiveBytes -= c.size;
+            }
+        }
+        old.clear();
+        if (spill != null) {
+            try {
+                spill.close();
+            } catch (IOException e) {
+                // le fichier est supprimé de toute façon
+            }
+            spillFile.delete();
+            spill = null;
+            spillFile = null;
+        }
+    }
+
+    private int firstInMemoryChunk() {
+        int i = 0;
+        while (i < archive.size() && archive.get(i).data == null) {
+            i += 1;
+        }
+        return i;
+    }
+
+    /**
+     * Écrit c en fin de fichier temporaire et libère sa copie en mémoire.
+     */
+    private void spill(Chunk c) throws IOException {
+        if (spill == null) {
+            spillFile = File.createTempFile("pet-undo", ".tmp");
+            spillFile.deleteOnExit();
+            spill = new RandomAccessFile(spillFile, "rw");
+        }
+        long pos = spill.length();
+        spill.seek(pos);
+        spill.write(c.data);
+        c.position = pos;
+        c.data = null;
+    }
+
+    /**
+     * Décompresse dans live le plus récent des groupes de archive, en le
+     *  relisant au besoin dans le fichier temporaire (qui est alors tronqué
+     *  à son début).
+     */
+    private void restoreLastChunk() {
+        Chunk c = archive.get(archive.size() - 1);
+        try {
+            if (c.data == null) {
+                byte[] data = new byte[c.size];
+                spill.seek(c.position);
+                spill.readFully(data);
+                spill.setLength(c.position);
+                c.data = data;
+            } else {
+                archiveBytes -= c.size;
+            }
+            archive.remove(archive.size() - 1);
+            for (Edit e : c.expand()) {
+                live.add(e);
+                liveBytes += e.bytes();
+            }
+        } catch (IOException e) {
+            CannotUndoException x = new CannotUndoException();
+            x.initCause(e);
+            throw x;
+        }
+    }
+
+    // TYPES IMBRIQUES
+
+    /**
+     * Le filtre qui enregistre les modifications du document, sauf celles
+     *  qui rejouent l'historique, transmises sans autre traitement.
+     * Une modification est enregistrée avant d'être effectuée, afin que les
+     *  observateurs du document, notifiés pendant qu'elle s'effectue,
+     *  trouvent l'historique à jour ; les positions sont donc vérifiées au
+     *  préalable.
+     */
+    private final class Recorder extends DocumentFilter {
+        @Override
+        public void insertString(FilterBypass fb, int offset, String string,
+                AttributeSet attr) throws BadLocationException {
+            if (replaying) {
+                fb.insertString(offset, string, attr);
+                return;
+            }
+            if (offset < 0 || offset > fb.getDocument().getLength()) {
+                throw new BadLocationException("Insertion invalide", offset);
+            }
+            if (string != null && !string.isEmpty()) {
+                record(offset, "", string);
+            }
+            fb.insertString(offset, string, attr);
+        }
+
+        @Override
+        public void remove(FilterBypass fb, int offset, int length)
+                throws BadLocationException {
+            if (replaying) {
+                fb.remove(offset, length);
+                return;
+            }
+            checkRange(fb.getDocument(), offset, length);
+            String removed = fb.getDocument().getText(offset, length);
+            if (length > 0) {
+                record(offset, removed, "");
+            }
+            fb.remove(offset, length);
+        }
+
+        @Override
+        public void replace(FilterBypass fb, int offset, int length,
+                String text, AttributeSet attrs) throws BadLocationException {
+            if (replaying) {
+                fb.replace(offset, length, text, attrs);
+                return;
+            }
+            checkRange(fb.getDocument(), offset, length);
+            String removed = fb.getDocument().getText(offset, length);
+            String inserted = text == null ? "" : text;
+            if (length > 0 || !inserted.isEmpty()) {
+                record(offset, removed, inserted);
+            }
+            fb.replace(offset, length, text, attrs);
+        }
+
+        private void checkRange(Document d, int offset, int length)
+                throws BadLocationException {
+            if (offset < 0 || length < 0 || offset + length > d.getLength()) {
+                throw new BadLocationException("Suppression invalide", offset);
+            }
+        }
+    }
+
+    /**
+     * Le remplacement, en offset, du texte removed par le texte inserted.
+     */
+    private static final class Edit {
+        int offset;
+        String removed;
+        String inserted;
+
+        Edit(int offset, String removed, String inserted) {
+            this.offset = offset;
+            this.removed = removed;
+            this.inserted = inserted;
+        }
+
+        long bytes() {
+            return EDIT_OVERHEAD + 2L * (removed.length() + inserted.length());
+        }
+
+        /**
+         * Prolonge cette modification par la frappe (offset, r, i), fin de
+         *  ligne comprise, lorsque celle-ci poursuit la même saisie
+         *  (insertion juste après le texte inséré) ou le même effacement
+         *  (retour arrière juste avant, ou suppression au même endroit).
+         */
+        boolean absorb(int offset, String r, String i) {
+            if (r.length() + i.length() != 1
+                    || removed.length() + inserted.length()
+                            >= MAX_MERGED_LENGTH) {
+                return false;
+            }
+            if (r.isEmpty()) {
+                if (!removed.isEmpty()
+                        || offset != this.offset + inserted.length()) {
+                    return false;
+                }
+                inserted += i;
+                return true;
+            }
+            if (!inserted.isEmpty()) {
+                return false;
+            }
+            if (offset + 1 == this.offset) {
+                removed = r + removed;
+                this.offset = offset;
+                return true;
+            }
+            if (offset == this.offset) {
+                removed += r;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Un groupe de modifications consécutives, compressées ensemble.
+     * data est null lorsque le groupe a été déporté en position position
+     *  du fichier temporaire.
+     */
+    private static final class Chunk {
+        byte[] data;
+        final int size;
+        long position;
+
+        private Chunk(byte[] data) {
+            this.data = data;
+            size = data.length;
+            position = -1;
+        }
+
+        static Chunk compress(List<Edit> edits) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try {
+                DataOutputStream out = new DataOutputStream(
+                        new DeflaterOutputStream(bytes, deflater));
+                out.writeInt(edits.size());
+                for (Edit e : edits) {
+                    out.writeInt(e.offset);
+                    writeString(out, e.removed);
+                    writeString(out, e.inserted);
+                }
+                out.close();
+            } catch (IOException e) {
+                // Ne devrait pas survenir
+                throw new InternalError(e.getMessage());
+            } finally {
+                deflater.end();
+            }
+            return new Chunk(bytes.toByteArray());
+        }
+
+        /**
+         * Les modifications du groupe, de la plus ancienne à la plus récente.
+         * @pre <pre>
+         *     data != null </pre>
+         */
+        List<Edit> expand() throws IOException {
+            DataInputStream in = new DataInputStream(
+                    new InflaterInputStream(new ByteArrayInputStream(data)));
+            try {
+                int n = in.readInt();
+                List<Edit> result = new ArrayList<Edit>(n);
+                for (int i = 0; i < n; i++) {
+                    int offset = in.readInt();
+                    String removed = readString(in);
+                    String inserted = readString(in);
+                    result.add(new Edit(offset, removed, inserted));
+                }
+                return result;
+            } finally {
+                in.close();
+            }
+        }
+
+        private static void writeString(DataOutputStream out, String s)
+                throws IOException {
+            out.writeInt(s.length());
+            out.writeChars(s);
+        }
+
+        private static String readString(DataInputStream in)
+                throws IOException {
+            char[] chars = new char[in.readInt()];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = in.readChar();
+            }
+            return new String(chars);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package pet;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import pet.model.StdPetModel;
+
+/**
+ * Le mode sans interface modifie des fichiers en parallèle, avec des
+ *  modèles headless, hors du thread de distribution des événements ; un
+ *  modèle qui n'est pas headless refuse d'y être utilisé.
+ */
+public final class BatchTest {
+
+    public static void main(String[] args) throws Exception {
+        File dir = Files.createTempDirectory("batch").toFile();
+        int n = 50;
+        for (int i = 0; i < n; i++) {
+            write(new File(dir, "f" + i + ".txt"), "un chat\r\ndeux chats\r\n");
+        }
+        int status = Batch.run(new String[] { "--regex", "s/chat/chien/g",
+                "--threads", "8", dir.getPath() });
+        check(status == 0, "code de sortie " + status);
+        for (int i = 0; i < n; i++) {
+            File f = new File(dir, "f" + i + ".txt");
+            check(read(f).equals("un chien\r\ndeux chiens\r\n"), f.getName());
+            f.delete();
+        }
+        dir.delete();
+
+        File f = File.createTempFile("headless", ".txt");
+        write(f, "abc");
+        StdPetModel m = new StdPetModel();
+        m.setJournaling(false);
+        m.setHeadless(true);
+        m.setNewDocAndNewFile(f);
+        m.getDocument().insertString(0, "x", null);
+        check(!m.canUndo(), "pas d'historique");
+        m.saveCurrentDocIntoCurrentFile();
+        check(read(f).equals("xabc"), "sauvegarde headless");
+        m.removeDocAndFile();
+
+        StdPetModel confined = new StdPetModel();
+        confined.setJournaling(false);
+        boolean refused = false;
+        try {
+            confined.setNewDocAndNewFile(f);
+        } catch (IllegalStateException e) {
+            refused = true;
+        }
+        check(refused, "modèle confiné au thread de distribution");
+        f.delete();
+    }
+
+    // OUTILS
+
+    private static void write(File f, String s) throws Exception {
+        Files.write(f.toPath(), s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(File f) throws Exception {
+        return new String(Files.readAllBytes(f.toPath()),
+                StandardCharsets.UTF_8);
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+}
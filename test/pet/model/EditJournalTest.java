@@ -0,0 +1,278 @@
+package pet.model;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.swing.SwingUtilities;
+import javax.swing.text.Document;
+import javax.swing.text.PlainDocument;
+
+/**
+ * Les modifications d'un document non sauvegardé, interrompu par un arrêt
+ *  brutal de son processus, sont retrouvées puis reportées sur son fichier
+ *  au démarrage suivant ; un lot incomplet est ignoré avec ceux qui le
+ *  suivent. Celles apportées pendant une sauvegarde en arrière-plan le sont
+ *  sur le fichier sauvegardé.
+ * Le processus interrompu est une seconde JVM (Crash, SaveCrash), qui
+ *  partage le répertoire de l'utilisateur de celle-ci.
+ */
+public final class EditJournalTest {
+
+    private static final String BASE = "un\r\ndeux\r\ntrois\r\n";
+    /**
+     * Attente suffisante pour que le journal écrive le lot en cours.
+     */
+    private static final long FLUSH_MILLIS = 1500;
+
+    public static void main(String[] args) throws Exception {
+        final File f = File.createTempFile("journal", ".txt");
+        Files.write(f.toPath(), BASE.getBytes(StandardCharsets.UTF_8));
+        crash(Crash.class, f);
+
+        File j = journalOf(f);
+        check(j != null, "journal retrouvé");
+        truncated(j);
+
+        final File journal = j;
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    StdPetModel m = new StdPetModel();
+                    m.recoverJournal(journal);
+                    Document d = m.getDocument();
+                    check(d.getText(0, d.getLength()).equals(
+                            secondBatch(firstBatch(new StringBuilder(
+                                    BASE.replace("\r\n", "\n")))).toString()),
+                            "modifications reportées");
+                    check(m.getFile().equals(f.getAbsoluteFile()),
+                            "fichier rétabli");
+                    check(!m.isSynchronized(), "non sauvegardé");
+                    check(!EditJournal.findJournals().contains(journal),
+                            "journal repris par le modèle");
+                    m.saveCurrentDocIntoCurrentFile();
+                    check(new String(Files.readAllBytes(f.toPath()),
+                            StandardCharsets.UTF_8).equals(d.getText(0,
+                                    d.getLength()).replace("\n", "\r\n")),
+                            "sauvegarde du texte rétabli");
+                    m.removeDocAndFile();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        check(!journal.exists(), "journal supprimé");
+        f.delete();
+        editedDuringSave();
+    }
+
+    /**
+     * Une modification apportée pendant une sauvegarde en arrière-plan est
+     *  journalisée par rapport au fichier sauvegardé.
+     */
+    private static void editedDuringSave() throws Exception {
+        StringBuilder b = new StringBuilder();
+        while (b.length() < 4 << 20) {
+            b.append("une ligne\r\n");
+        }
+        final String original = b.toString();
+        final File f = File.createTempFile("journal", ".txt");
+        Files.write(f.toPath(), original.getBytes(StandardCharsets.UTF_8));
+        crash(SaveCrash.class, f);
+        check(new String(Files.readAllBytes(f.toPath()),
+                StandardCharsets.UTF_8).equals("PENDANT\r\n" + original),
+                "texte de l'image sauvegardé");
+
+        final File journal = journalOf(f);
+        check(journal != null, "journal de la sauvegarde retrouvé");
+        check(EditJournal.read(journal).isBaseUnchanged(),
+                "journal fondé sur le fichier sauvegardé");
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    StdPetModel m = new StdPetModel();
+                    m.recoverJournal(journal);
+                    Document d = m.getDocument();
+                    check(d.getText(0, d.getLength()).equals("PENAPRESDANT\n"
+                            + original.replace("\r\n", "\n")),
+                            "modification postérieure à l'image reportée");
+                    m.removeDocAndFile();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        check(!journal.exists(), "journal de la sauvegarde supprimé");
+        f.delete();
+    }
+
+    /**
+     * Un journal privé de son dernier octet ne rétablit que le premier lot.
+     */
+    private static void truncated(File j) throws Exception {
+        byte[] bytes = Files.readAllBytes(j.toPath());
+        File copy = File.createTempFile("journal", ".pet-journal");
+        Files.write(copy.toPath(), Arrays.copyOf(bytes, bytes.length - 1));
+        EditJournal.Recovery r = EditJournal.read(copy);
+        Document d = new PlainDocument();
+        d.insertString(0, BASE.replace("\r\n", "\n"), null);
+        r.replay(d);
+        check(d.getText(0, d.getLength()).equals(firstBatch(
+                new StringBuilder(BASE.replace("\r\n", "\n"))).toString()),
+                "lot incomplet ignoré");
+        copy.delete();
+    }
+
+    /**
+     * Modifie f dans une seconde JVM, de classe principale main, qui s'arrête
+     *  brutalement après avoir laissé au journal le temps d'écrire.
+     */
+    private static void crash(Class<?> main, File f) throws Exception {
+        String java = new File(new File(System.getProperty("java.home"),
+                "bin"), "java").getPath();
+        Process p = new ProcessBuilder(java,
+                "-Duser.home=" + System.getProperty("user.home"),
+                "-Djava.awt.headless=true", "-ea",
+                "-cp", System.getProperty("java.class.path"),
+                main.getName(), f.getPath()).inheritIO().start();
+        check(p.waitFor() == 0, "processus interrompu");
+    }
+
+    // OUTILS
+
+    /**
+     * Le journal, laissé par un processus interrompu, des modifications de
+     *  f ; null s'il n'y en a pas.
+     */
+    private static File journalOf(File f) throws Exception {
+        File j = null;
+        for (File candidate : EditJournal.findJournals()) {
+            if (EditJournal.read(candidate).getBaseFile()
+                    .equals(f.getAbsoluteFile())) {
+                j = candidate;
+            }
+        }
+        return j;
+    }
+
+    /**
+     * Les modifications du premier lot, dont une insertion plus longue qu'un
+     *  enregistrement du journal et des caractères hors du plan de base.
+     */
+    private static StringBuilder firstBatch(StringBuilder b) {
+        b.insert(0, "zéro\n");
+        b.delete(5, 8);
+        char[] filler = new char[70000];
+        Arrays.fill(filler, 'é');
+        b.insert(b.length(), filler);
+        b.insert(2, "𝄞\u0000");
+        return b;
+    }
+
+    private static StringBuilder secondBatch(StringBuilder b) {
+        b.delete(b.length() - 60000, b.length() - 1);
+        b.insert(b.length(), "fin\n");
+        return b;
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+
+    // TYPES IMBRIQUES
+
+    /**
+     * Ouvre le fichier donné en argument, y reporte les deux lots de
+     *  modifications sans le sauvegarder, puis s'arrête brutalement.
+     */
+    public static final class Crash {
+
+        public static void main(String[] args) throws Exception {
+            final File f = new File(args[0]);
+            final StdPetModel m = new StdPetModel();
+            SwingUtilities.invokeAndWait(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        m.setNewDocAndNewFile(f);
+                        apply(m.getDocument(), firstBatch(new StringBuilder(
+                                BASE.replace("\r\n", "\n"))));
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            Thread.sleep(FLUSH_MILLIS);
+            SwingUtilities.invokeAndWait(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Document d = m.getDocument();
+                        d.remove(d.getLength() - 60000, 59999);
+                        d.insertString(d.getLength(), "fin\n", null);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            Thread.sleep(FLUSH_MILLIS);
+            Runtime.getRuntime().halt(0);
+        }
+
+        /**
+         * Reporte sur d, dans l'ordre de firstBatch(), les modifications
+         *  qui mènent à expected.
+         */
+        private static void apply(Document d, StringBuilder expected)
+                throws Exception {
+            d.insertString(0, "zéro\n", null);
+            d.remove(5, 3);
+            char[] filler = new char[70000];
+            Arrays.fill(filler, 'é');
+            d.insertString(d.getLength(), new String(filler), null);
+            d.insertString(2, "𝄞\u0000", null);
+            check(d.getText(0, d.getLength()).equals(expected.toString()),
+                    "premier lot");
+        }
+    }
+
+    /**
+     * Ouvre le fichier donné en argument, lance sa sauvegarde en
+     *  arrière-plan puis le modifie pendant l'écriture ; s'arrête
+     *  brutalement une fois la sauvegarde terminée et la modification
+     *  journalisée.
+     */
+    public static final class SaveCrash {
+
+        public static void main(String[] args) throws Exception {
+            final File f = new File(args[0]);
+            final StdPetModel m = new StdPetModel();
+            final AtomicReference<CompletableFuture<Void>> io =
+                    new AtomicReference<CompletableFuture<Void>>();
+            SwingUtilities.invokeAndWait(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        m.setNewDocAndNewFile(f);
+                        Document d = m.getDocument();
+                        d.insertString(0, "PENDANT\n", null);
+                        io.set(m.saveCurrentDocIntoCurrentFileAsync(null));
+                        d.insertString(3, "APRES", null);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            io.get().get();
+            Thread.sleep(FLUSH_MILLIS);
+            Runtime.getRuntime().halt(0);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package pet.model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * Détection de l'encodage des fichiers et réécriture à l'identique de leurs
+ *  octets, y compris lorsque l'invalidité UTF-8 n'apparaît qu'au-delà des
+ *  octets examinés par FileEncoding.detect.
+ */
+public final class FileEncodingTest {
+
+    public static void main(String[] args) throws Exception {
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (long threshold : new long[] { Long.MAX_VALUE, 0 }) {
+                        utf8(threshold);
+                        boms(threshold);
+                        lateLatin1(threshold);
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+    }
+
+    private static void utf8(long threshold) throws Exception {
+        byte[] b = "é à ü — 𝄞\r\nfin\n".getBytes(StandardCharsets.UTF_8);
+        StdPetModel m = roundTrip(b, threshold);
+        check(m.getEncoding().equals(
+                new FileEncoding(StandardCharsets.UTF_8, false)), "UTF-8");
+        check(text(m).equals("é à ü — 𝄞\nfin\n"), "texte UTF-8");
+        m.removeDocAndFile();
+    }
+
+    private static void boms(long threshold) throws Exception {
+        String s = "ligne é\r\n";
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        b.write(new byte[] { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF });
+        b.write(s.getBytes(StandardCharsets.UTF_8));
+        StdPetModel m = roundTrip(b.toByteArray(), threshold);
+        check(m.getEncoding().equals(
+                new FileEncoding(StandardCharsets.UTF_8, true)), "BOM UTF-8");
+        m.removeDocAndFile();
+
+        b.reset();
+        b.write(new byte[] { (byte) 0xFF, (byte) 0xFE });
+        b.write(s.getBytes(StandardCharsets.UTF_16LE));
+        m = roundTrip(b.toByteArray(), threshold);
+        check(m.getEncoding().equals(
+                new FileEncoding(StandardCharsets.UTF_16LE, true)),
+                "BOM UTF-16LE");
+        check(text(m).equals("ligne é\n"), "texte UTF-16LE");
+        m.removeDocAndFile();
+    }
+
+    /**
+     * Un fichier ISO-8859-1 dont le seul octet non ASCII se trouve au-delà
+     *  des octets examinés par detect : il est relu selon l'encodage de
+     *  repli, sans caractère de remplacement, et réécrit à l'identique.
+     */
+    private static void lateLatin1(long threshold) throws Exception {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        byte[] line = "abcdefghijklmnopqrstuvwxyz\n"
+                .getBytes(StandardCharsets.US_ASCII);
+        while (b.size() < 200 * 1024) {
+            b.write(line);
+        }
+        b.write("caf".getBytes(StandardCharsets.US_ASCII));
+        b.write(0xE9);
+        b.write('\n');
+        StdPetModel m = roundTrip(b.toByteArray(), threshold);
+        check(!m.getEncoding().getCharset().equals(StandardCharsets.UTF_8),
+                "repli après UTF-8 invalide");
+        check(text(m).indexOf('�') < 0, "aucun caractère remplacé");
+        m.removeDocAndFile();
+    }
+
+    // OUTILS
+
+    /**
+     * Ouvre un fichier contenant b, le sauvegarde tel quel et vérifie que
+     *  ses octets n'ont pas changé.
+     */
+    private static StdPetModel roundTrip(byte[] b, long threshold)
+            throws Exception {
+        File f = File.createTempFile("enc", ".txt");
+        Files.write(f.toPath(), b);
+        StdPetModel m = new StdPetModel();
+        m.setJournaling(false);
+        m.setMappingThreshold(threshold);
+        m.setNewDocAndNewFile(f);
+        m.saveCurrentDocIntoCurrentFile();
+        check(Arrays.equals(Files.readAllBytes(f.toPath()), b),
+                "réécriture en " + m.getEncoding());
+        f.delete();
+        return m;
+    }
+
+    private static String text(StdPetModel m) throws Exception {
+        return m.getDocument().getText(0, m.getDocument().getLength());
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package pet.model;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.swing.SwingUtilities;
+import javax.swing.text.Document;
+
+/**
+ * Les différences ligne à ligne que fournit le modèle marquent les lignes
+ *  ajoutées, modifiées et l'emplacement des lignes retirées ; au fil de
+ *  modifications aléatoires, elles restent minimales (les lignes
+ *  inchangées forment une plus longue sous-suite commune au texte de
+ *  référence) et s'effacent au retour à ce texte ou à la sauvegarde.
+ */
+public final class LineDiffTest {
+
+    private static final String[] LINES = { "a", "b", "c", "", "ligne", "𝄞" };
+
+    public static void main(String[] args) throws Exception {
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    marks();
+                    random(new Random(1));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+    }
+
+    private static void marks() throws Exception {
+        File f = write("un\ndeux\ntrois\nquatre\n");
+        StdPetModel m = open(f);
+        Document d = m.getDocument();
+        check(m.getLineDiff().isEmpty(), "aucune différence au chargement");
+
+        d.insertString(3, "2", null);
+        LineDiff diff = m.getLineDiff();
+        check(diff.getChange(1) == LineDiff.Change.MODIFIED, "ligne modifiée");
+        check(diff.getChange(0) == null && diff.getChange(2) == null,
+                "lignes voisines inchangées");
+        d.remove(3, 1);
+        check(m.getLineDiff().isEmpty(), "retour au texte de référence");
+
+        d.insertString(0, "zéro\n", null);
+        diff = m.getLineDiff();
+        check(diff.getLineCount() == 6, "nombre de lignes");
+        check(diff.getChange(0) == LineDiff.Change.ADDED, "ligne ajoutée");
+        check(diff.getChange(1) == null, "ligne décalée inchangée");
+        d.remove(0, 5);
+
+        d.remove(3, 5);
+        diff = m.getLineDiff();
+        check(diff.getChange(1) == LineDiff.Change.DELETED,
+                "ligne retirée avant");
+        check(diff.getChange(0) == null && diff.getChange(2) == null,
+                "autres lignes inchangées");
+        m.saveCurrentDocIntoCurrentFile();
+        check(m.getLineDiff().isEmpty(), "aucune différence à la sauvegarde");
+
+        d.insertString(d.getLength(), "cinq\n", null);
+        check(m.getLineDiff().getChange(3) == LineDiff.Change.ADDED,
+                "ligne ajoutée à la fin");
+        m.removeDocAndFile();
+        check(m.getLineDiff() == LineDiff.NONE, "aucun document");
+        f.delete();
+    }
+
+    /**
+     * Modifications aléatoires de lignes prises dans un petit vocabulaire,
+     *  pour que les appariements possibles soient nombreux.
+     */
+    private static void random(Random rnd) throws Exception {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            b.append(LINES[rnd.nextInt(LINES.length)]).append('\n');
+        }
+        String reference = b.toString();
+        File f = write(reference);
+        StdPetModel m = open(f);
+        Document d = m.getDocument();
+        for (int step = 0; step < 500; step++) {
+            int len = d.getLength();
+            switch (rnd.nextInt(4)) {
+                case 0:
+                    d.insertString(lineStart(d, rnd),
+                            LINES[rnd.nextInt(LINES.length)] + "\n", null);
+                    break;
+                case 1:
+                    if (len > 0) {
+                        int start = lineStart(d, rnd);
+                        int end = d.getText(0, len).indexOf('\n', start);
+                        if (end >= 0) {
+                            d.remove(start, end + 1 - start);
+                        }
+                    }
+                    break;
+                case 2:
+                    d.insertString(rnd.nextInt(len + 1),
+                            LINES[rnd.nextInt(LINES.length)], null);
+                    break;
+                default:
+                    if (len > 0) {
+                        int offset = rnd.nextInt(len);
+                        d.remove(offset, Math.min(1 + rnd.nextInt(4),
+                                len - offset));
+                    }
+                    break;
+            }
+            String text = d.getText(0, d.getLength());
+            checkDiff(m.getLineDiff(), reference, text, "étape " + step);
+            if (step % 100 == 99) {
+                m.saveCurrentDocIntoCurrentFile();
+                check(m.getLineDiff().isEmpty(), "sauvegarde " + step);
+                reference = text;
+            }
+        }
+        m.removeDocAndFile();
+        f.delete();
+    }
+
+    /**
+     * diff compare text à reference : une ligne par élément du document
+     *  (le texte d'un document se termine toujours par une ligne vide), des
+     *  lignes inchangées qui forment une plus longue sous-suite commune aux
+     *  deux textes.
+     */
+    private static void checkDiff(LineDiff diff, String reference,
+            String text, String what) {
+        List<String> a = lines(reference);
+        List<String> b = lines(text);
+        check(diff.getLineCount() == b.size(), what + " : nombre de lignes");
+        check(diff.isEmpty() == a.equals(b), what + " : aucune différence");
+        List<String> kept = new ArrayList<String>();
+        for (int i = 0; i < b.size(); i++) {
+            LineDiff.Change c = diff.getChange(i);
+            if (c == null || c == LineDiff.Change.DELETED) {
+                kept.add(b.get(i));
+            }
+        }
+        int k = 0;
+        for (int i = 0; i < a.size() && k < kept.size(); i++) {
+            if (a.get(i).equals(kept.get(k))) {
+                k += 1;
+            }
+        }
+        check(k == kept.size(), what + " : lignes inchangées communes");
+        check(kept.size() == lcs(a, b), what + " : différences minimales");
+    }
+
+    // OUTILS
+
+    private static List<String> lines(String s) {
+        List<String> result = new ArrayList<String>();
+        String t = s + "\n";
+        int start = 0;
+        for (int i = 0; i < t.length(); i++) {
+            if (t.charAt(i) == '\n') {
+                result.add(t.substring(start, i + 1));
+                start = i + 1;
+            }
+        }
+        return result;
+    }
+
+    private static int lcs(List<String> a, List<String> b) {
+        int[][] t = new int[a.size() + 1][b.size() + 1];
+        for (int i = a.size() - 1; i >= 0; i--) {
+            for (int j = b.size() - 1; j >= 0; j--) {
+                t[i][j] = a.get(i).equals(b.get(j)) ? t[i + 1][j + 1] + 1
+                        : Math.max(t[i + 1][j], t[i][j + 1]);
+            }
+        }
+        return t[0][0];
+    }
+
+    private static int lineStart(Document d, Random rnd) {
+        int n = d.getDefaultRootElement().getElementCount();
+        return d.getDefaultRootElement().getElement(rnd.nextInt(n))
+                .getStartOffset();
+    }
+
+    private static StdPetModel open(File f) throws Exception {
+        StdPetModel m = new StdPetModel();
+        m.setJournaling(false);
+        m.setNewDocAndNewFile(f);
+        return m;
+    }
+
+    private static File write(String s) throws Exception {
+        File f = File.createTempFile("diff", ".txt");
+        Files.write(f.toPath(), s.getBytes(StandardCharsets.UTF_8));
+        return f;
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+}
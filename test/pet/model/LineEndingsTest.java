@@ -0,0 +1,202 @@
+package pet.model;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.swing.SwingUtilities;
+import javax.swing.text.Document;
+
+/**
+ * Un fichier lu puis sauvegardé, modifié ou non, mis en sommeil ou non, est
+ *  réécrit octet pour octet : fins de ligne mixtes et fin de ligne finale
+ *  comprises.
+ */
+public final class LineEndingsTest {
+
+    private static final String[] SEPARATORS = { "\n", "\r\n", "\r" };
+
+    public static void main(String[] args) throws Exception {
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (long threshold : new long[] { Long.MAX_VALUE, 0 }) {
+                        unchanged(threshold);
+                        finalNewlineTyped(threshold);
+                        edited(threshold);
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Lecture puis sauvegarde sans modification.
+     */
+    private static void unchanged(long threshold) throws Exception {
+        String[] files = { "", "\n", "\r\n", "a", "a\n", "a\r\nb\r\nc",
+                "a\r\nb\r\nc\r\n", "a\rb\rc\r", "a\r\nb\nc\r\nd\re\r\n",
+                "a\nb\r\nc\r\nd\r\n", "\n\n\r\n" };
+        for (String s : files) {
+            File f = write(s);
+            StdPetModel m = open(f, threshold);
+            m.saveCurrentDocIntoCurrentFile();
+            check(read(f).equals(s), "réécriture de " + escape(s));
+            m.removeDocAndFile();
+            f.delete();
+        }
+    }
+
+    /**
+     * Une fin de ligne tapée à la fin d'un fichier qui n'en avait pas
+     *  survit à la sauvegarde, à la relecture et à la mise en sommeil.
+     */
+    private static void finalNewlineTyped(long threshold) throws Exception {
+        File f = write("abc");
+        StdPetModel m = open(f, threshold);
+        Document d = m.getDocument();
+        d.insertString(d.getLength(), "\n", null);
+        m.saveCurrentDocIntoCurrentFile();
+        check(read(f).equals("abc\n"), "fin de ligne tapée");
+        m.resetCurrentDocWithCurrentFile();
+        m.saveCurrentDocIntoCurrentFile();
+        check(read(f).equals("abc\n"), "fin de ligne relue");
+        d = m.getDocument();
+        d.insertString(d.getLength(), "d\r", null);
+        m.hibernate();
+        m.wake();
+        d = m.getDocument();
+        check(d.getText(0, d.getLength()).equals("abc\nd\r"),
+                "texte déporté restitué");
+        m.saveCurrentDocIntoCurrentFile();
+        check(read(f).equals("abc\nd\r"), "sauvegarde après réveil");
+        m.removeDocAndFile();
+        f.delete();
+    }
+
+    /**
+     * Modifications aléatoires d'un fichier aux fins de ligne mixtes,
+     *  comparées à un modèle où chaque '\n' du document garde la fin de
+     *  ligne du fichier qu'il remplace, les nouveaux prenant la dominante.
+     */
+    private static void edited(long threshold) throws Exception {
+        Random r = new Random(7);
+        for (int iter = 0; iter < 200; iter++) {
+            StringBuilder file = new StringBuilder();
+            int n = r.nextInt(8);
+            for (int i = 0; i < n; i++) {
+                file.append("l").append(i)
+                        .append(SEPARATORS[r.nextInt(SEPARATORS.length)]);
+            }
+            if (r.nextBoolean()) {
+                file.append("fin");
+            }
+            File f = write(file.toString());
+            StdPetModel m = open(f, threshold);
+            Document d = m.getDocument();
+            String dominant = m.getLineEndings().getSeparator();
+            List<String> seps = separators(file.toString());
+            for (int k = 0; k < 6; k++) {
+                String text = d.getText(0, d.getLength());
+                if (r.nextBoolean() || text.isEmpty()) {
+                    int off = r.nextInt(text.length() + 1);
+                    String ins = r.nextBoolean() ? "X\nY" : "\n";
+                    d.insertString(off, ins, null);
+                    int line = count(text.substring(0, off));
+                    for (int i = 0; i < count(ins); i++) {
+                        seps.add(line, dominant);
+                    }
+                } else {
+                    int off = r.nextInt(text.length());
+                    int len = 1 + r.nextInt(Math.min(6, text.length() - off));
+                    d.remove(off, len);
+                    int line = count(text.substring(0, off));
+                    for (int i = 0; i < count(text.substring(off, off + len));
+                            i++) {
+                        seps.remove(line);
+                    }
+                }
+            }
+            String text = d.getText(0, d.getLength());
+            StringBuilder expected = new StringBuilder();
+            int line = 0;
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == '\n') {
+                    expected.append(seps.get(line));
+                    line += 1;
+                } else {
+                    expected.append(c);
+                }
+            }
+            m.saveCurrentDocIntoCurrentFile();
+            check(read(f).equals(expected.toString()),
+                    "modification de " + escape(file.toString()));
+            m.removeDocAndFile();
+            f.delete();
+        }
+    }
+
+    // OUTILS
+
+    private static StdPetModel open(File f, long threshold) throws Exception {
+        StdPetModel m = new StdPetModel();
+        m.setJournaling(false);
+        m.setMappingThreshold(threshold);
+        m.setNewDocAndNewFile(f);
+        return m;
+    }
+
+    private static File write(String s) throws Exception {
+        File f = File.createTempFile("eol", ".txt");
+        Files.write(f.toPath(), s.getBytes(StandardCharsets.UTF_8));
+        return f;
+    }
+
+    private static String read(File f) throws Exception {
+        return new String(Files.readAllBytes(f.toPath()),
+                StandardCharsets.UTF_8);
+    }
+
+    private static List<String> separators(String s) {
+        List<String> result = new ArrayList<String>();
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) == '\r') {
+                boolean crlf = i + 1 < s.length() && s.charAt(i + 1) == '\n';
+                result.add(crlf ? "\r\n" : "\r");
+                if (crlf) {
+                    i += 1;
+                }
+            } else if (s.charAt(i) == '\n') {
+                result.add("\n");
+            }
+        }
+        return result;
+    }
+
+    private static int count(String s) {
+        int n = 0;
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) == '\n') {
+                n += 1;
+            }
+        }
+        return n;
+    }
+
+    private static String escape(String s) {
+        return s.replace("\r", "\\r").replace("\n", "\\n");
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package pet.model;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.swing.SwingUtilities;
+import javax.swing.text.Segment;
+
+/**
+ * Un fichier projeté en mémoire se lit comme s'il était chargé dans le
+ *  tas : caractères de plusieurs octets et fins de ligne CRLF à cheval sur
+ *  deux blocs, en UTF-8 comme en ISO-8859-1, BOM comprise. La place
+ *  occupée dans le tas reste bornée quelle que soit la taille du fichier.
+ */
+public final class MappedCharStoreTest {
+
+    /**
+     * Taille d'un bloc et nombre de blocs en cache dans MappedCharStore.
+     */
+    private static final int BLOCK_BYTES = 1 << 16;
+    private static final int CACHE_BLOCKS = 64;
+
+    public static void main(String[] args) throws Exception {
+        Random rnd = new Random(1);
+        for (int shift = 0; shift < 6; shift++) {
+            boundary(StandardCharsets.UTF_8, "€𝄞\r\né\r\n", shift, rnd);
+            boundary(StandardCharsets.ISO_8859_1, "éà\r\nç\r\n", shift, rnd);
+        }
+        withBom(rnd);
+        heapBounded();
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sameAsArray(StandardCharsets.UTF_8, rnd);
+                    sameAsArray(StandardCharsets.ISO_8859_1, rnd);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Les caractères de middle commencent shift octets avant la fin du
+     *  premier bloc.
+     */
+    private static void boundary(Charset cs, String middle, int shift,
+            Random rnd) throws Exception {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < BLOCK_BYTES - shift; i++) {
+            b.append('a');
+        }
+        b.append(middle);
+        b.append(random(cs, 3 * BLOCK_BYTES, rnd));
+        String s = b.toString();
+        File f = write(s.getBytes(cs));
+        MappedCharStore store = MappedCharStore.open(f, 0, cs,
+                new LineEndings.Builder(), IOMonitor.NONE);
+        check(read(store, rnd).equals(normalize(s)),
+                cs + ", décalage " + shift);
+        f.delete();
+    }
+
+    private static void withBom(Random rnd) throws Exception {
+        String s = random(StandardCharsets.UTF_8, 2 * BLOCK_BYTES, rnd);
+        byte[] text = s.getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = new byte[text.length + 3];
+        bytes[0] = (byte) 0xEF;
+        bytes[1] = (byte) 0xBB;
+        bytes[2] = (byte) 0xBF;
+        System.arraycopy(text, 0, bytes, 3, text.length);
+        File f = write(bytes);
+        MappedCharStore store = MappedCharStore.open(f, 3,
+                StandardCharsets.UTF_8, new LineEndings.Builder(),
+                IOMonitor.NONE);
+        check(read(store, rnd).equals(normalize(s)), "BOM sautée");
+        f.delete();
+    }
+
+    /**
+     * Un fichier lu entièrement occupe dans le tas au plus son index et les
+     *  blocs du cache.
+     */
+    private static void heapBounded() throws Exception {
+        int size = 4 * CACHE_BLOCKS * BLOCK_BYTES;
+        byte[] bytes = new byte[size];
+        Arrays.fill(bytes, (byte) 'x');
+        for (int i = 79; i < size; i += 80) {
+            bytes[i] = '\n';
+        }
+        File f = write(bytes);
+        MappedCharStore store = MappedCharStore.open(f, 0,
+                StandardCharsets.UTF_8, new LineEndings.Builder(),
+                IOMonitor.NONE);
+        Segment seg = new Segment();
+        for (int i = 0; i < store.length(); i += seg.count) {
+            store.segment(i, store.length() - i, seg);
+        }
+        long bound = 2L * (CACHE_BLOCKS + 1) * (BLOCK_BYTES + 8)
+                + 12L * (size / BLOCK_BYTES + 2);
+        check(store.heapSize() <= bound, "place dans le tas bornée");
+        check(store.heapSize() < 2L * size / 3, "fichier hors du tas");
+        f.delete();
+    }
+
+    /**
+     * Le modèle donne le même document et réécrit les mêmes octets, que le
+     *  fichier soit projeté ou chargé.
+     */
+    private static void sameAsArray(Charset cs, Random rnd) throws Exception {
+        String s = random(cs, 5 * BLOCK_BYTES, rnd);
+        byte[] bytes = s.getBytes(cs);
+        File f = write(bytes);
+        String[] texts = new String[2];
+        long[] thresholds = { Long.MAX_VALUE, 0 };
+        for (int i = 0; i < thresholds.length; i++) {
+            StdPetModel m = new StdPetModel();
+            m.setJournaling(false);
+            m.setMappingThreshold(thresholds[i]);
+            m.setNewDocAndNewFile(f);
+            check(m.getEncoding().getCharset().equals(cs), "encodage " + cs);
+            texts[i] = m.getDocument().getText(0,
+                    m.getDocument().getLength());
+            m.saveCurrentDocIntoCurrentFile();
+            check(Arrays.equals(Files.readAllBytes(f.toPath()), bytes),
+                    "réécriture en " + cs + ", seuil " + thresholds[i]);
+            m.removeDocAndFile();
+        }
+        check(texts[0].equals(texts[1]), "même texte en " + cs);
+        f.delete();
+    }
+
+    // OUTILS
+
+    /**
+     * Un texte d'au moins n caractères, représentable dans cs, aux fins de
+     *  ligne mélangées.
+     */
+    private static String random(Charset cs, int n, Random rnd) {
+        String[] pieces = cs.equals(StandardCharsets.UTF_8)
+                ? new String[] { "a", "z", " ", "é", "€", "𝄞", "\n", "\r\n",
+                        "\r" }
+                : new String[] { "a", "z", " ", "é", "ÿ", "\n", "\r\n",
+                        "\r" };
+        StringBuilder b = new StringBuilder();
+        while (b.length() < n) {
+            b.append(pieces[rnd.nextInt(pieces.length)]);
+        }
+        return b.toString();
+    }
+
+    private static String normalize(String s) {
+        return s.replace("\r\n", "\n").replace('\r', '\n');
+    }
+
+    /**
+     * Le texte de store, lu par morceaux de longueurs aléatoires.
+     */
+    private static String read(CharStore store, Random rnd) {
+        StringBuilder b = new StringBuilder();
+        Segment seg = new Segment();
+        int i = 0;
+        while (i < store.length()) {
+            int len = Math.min(1 + rnd.nextInt(3 * BLOCK_BYTES),
+                    store.length() - i);
+            store.segment(i, len, seg);
+            check(seg.count > 0 && seg.count <= len, "segment non vide");
+            b.append(seg.array, seg.offset, seg.count);
+            i += seg.count;
+        }
+        return b.toString();
+    }
+
+    private static File write(byte[] bytes) throws Exception {
+        File f = File.createTempFile("mapped", ".txt");
+        Files.write(f.toPath(), bytes);
+        return f;
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package pet.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.swing.event.UndoableEditEvent;
+import javax.swing.event.UndoableEditListener;
+import javax.swing.text.Element;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.undo.UndoManager;
+
+/**
+ * Le document à table de pièces comparé à un texte de référence au fil de
+ *  modifications aléatoires : texte, lignes, positions, images, annulation
+ *  par les UndoableEdit de Swing, suppressions de longueur nulle comprises.
+ */
+public final class PieceTableDocumentTest {
+
+    public static void main(String[] args) throws Exception {
+        Random r = new Random(5);
+        for (int iter = 0; iter < 20; iter++) {
+            String initial = random(r, r.nextInt(3000));
+            PieceTableDocument d = new PieceTableDocument(
+                    new ArrayCharStore(initial.toCharArray(),
+                            initial.length()));
+            final UndoManager undo = new UndoManager();
+            undo.setLimit(-1);
+            d.addUndoableEditListener(new UndoableEditListener() {
+                @Override
+                public void undoableEditHappened(UndoableEditEvent e) {
+                    undo.addEdit(e.getEdit());
+                }
+            });
+            StringBuilder ref = new StringBuilder(initial);
+            List<String> history = new ArrayList<String>();
+            history.add(ref.toString());
+            PieceTableContent.Snapshot first = d.snapshot();
+            Position mark = d.createPosition(ref.length() / 2);
+            int markRef = ref.length() / 2;
+            for (int k = 0; k < 200; k++) {
+                int off = r.nextInt(ref.length() + 1);
+                if (r.nextBoolean()) {
+                    String s = random(r, r.nextInt(12));
+                    d.insertString(off, s, null);
+                    ref.insert(off, s);
+                    if (!s.isEmpty() && off <= markRef && (off < markRef
+                            || markRef != 0)) {
+                        markRef += s.length();
+                    }
+                } else {
+                    int len = r.nextInt(Math.min(10, ref.length() - off) + 1);
+                    d.remove(off, len);
+                    ref.delete(off, off + len);
+                    if (markRef > off) {
+                        markRef = Math.max(off, markRef - len);
+                    }
+                }
+                history.add(ref.toString());
+                check(text(d).equals(ref.toString()), "texte " + k);
+                check(mark.getOffset() == markRef, "position " + k);
+            }
+            checkLines(d, ref.toString());
+            check(d.hasText(first) == ref.toString().equals(initial),
+                    "image initiale");
+            PieceTableContent.Snapshot last = d.snapshot();
+            check(d.hasText(last), "image courante");
+            check(segments(last, ref.length()).equals(ref.toString()),
+                    "lecture de l'image");
+
+            // les modifications de longueur nulle ne produisent pas
+            // d'UndoableEdit : on annule jusqu'à retrouver chaque état
+            int i = history.size() - 1;
+            while (undo.canUndo()) {
+                undo.undo();
+                String t = text(d);
+                while (i > 0 && !history.get(i).equals(t)) {
+                    i -= 1;
+                }
+                check(history.get(i).equals(t), "annulation");
+            }
+            check(text(d).equals(initial), "texte initial retrouvé");
+            check(d.hasText(first), "image initiale retrouvée");
+            while (undo.canRedo()) {
+                undo.redo();
+            }
+            check(text(d).equals(ref.toString()), "rétablissement");
+        }
+    }
+
+    // OUTILS
+
+    private static void checkLines(PieceTableDocument d, String s) {
+        Element root = d.getDefaultRootElement();
+        int lines = 1;
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) == '\n') {
+                lines += 1;
+            }
+        }
+        check(root.getElementCount() == lines, "nombre de lignes");
+        int start = 0;
+        for (int i = 0; i < lines; i++) {
+            Element e = root.getElement(i);
+            check(e.getStartOffset() == start, "début de ligne " + i);
+            int end = s.indexOf('\n', start);
+            end = end < 0 ? s.length() + 1 : end + 1;
+            check(e.getEndOffset() == end, "fin de ligne " + i);
+            start = end;
+        }
+    }
+
+    private static String segments(PieceTableContent.Snapshot snap, int n) {
+        StringBuilder b = new StringBuilder();
+        Segment s = new Segment();
+        while (b.length() < n) {
+            snap.segment(b.length(), n - b.length(), s);
+            b.append(s.array, s.offset, s.count);
+        }
+        return b.toString();
+    }
+
+    private static String random(Random r, int n) {
+        StringBuilder b = new StringBuilder(n);
+        for (int i = 0; i < n; i++) {
+            int c = r.nextInt(10);
+            b.append(c == 0 ? '\n' : (char) ('a' + r.nextInt(26)));
+        }
+        return b.toString();
+    }
+
+    private static String text(PieceTableDocument d) throws Exception {
+        return d.getText(0, d.getLength());
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package pet.model;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.text.Document;
+
+/**
+ * Relecture d'un fichier modifié par un autre processus : par différences
+ *  pour un document en mémoire, en entier si le document est modifié pendant
+ *  la relecture en arrière-plan, par un nouveau document pour un fichier
+ *  projeté en mémoire et réécrit sur place, dont le texte périmé reste
+ *  lisible d'ici là.
+ */
+public final class ReloadTest {
+
+    public static void main(String[] args) throws Exception {
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    diffed();
+                    rewrittenInPlace();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        editedDuringReload();
+    }
+
+    private static void diffed() throws Exception {
+        File f = File.createTempFile("reload", ".txt");
+        write(f, "un\ndeux\ntrois\n");
+        StdPetModel m = open(f, Long.MAX_VALUE);
+        Document d = m.getDocument();
+        write(f, "un\n2\ntrois\nquatre\n");
+        m.resetCurrentDocWithCurrentFile();
+        check(m.getDocument() == d, "même document");
+        check(text(m).equals("un\n2\ntrois\nquatre\n"), "texte relu");
+        check(m.isSynchronized(), "synchronisé");
+        m.removeDocAndFile();
+        f.delete();
+    }
+
+    private static void rewrittenInPlace() throws Exception {
+        File f = File.createTempFile("reload", ".txt");
+        StringBuilder b = new StringBuilder();
+        while (b.length() < 1 << 20) {
+            b.append("ligne projetée en mémoire\n");
+        }
+        write(f, b.toString());
+        StdPetModel m = open(f, 0);
+        Document d = m.getDocument();
+        check(d.getText(0, 5).equals("ligne"), "début lu");
+
+        // réécriture sur place, plus courte : la fin de la projection
+        // n'existe plus
+        FileChannel ch = FileChannel.open(f.toPath(),
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            ch.write(ByteBuffer.wrap(
+                    "court\n".getBytes(StandardCharsets.UTF_8)));
+        } finally {
+            ch.close();
+        }
+        f.setLastModified(f.lastModified() + 2000);
+        String stale = d.getText(0, d.getLength());
+        check(stale.length() == d.getLength(), "texte périmé lisible");
+
+        final List<ChangeEvent> events = new ArrayList<ChangeEvent>();
+        m.addChangeListener(new ChangeListener() {
+            @Override
+            public void stateChanged(ChangeEvent e) {
+                events.add(e);
+            }
+        });
+        m.resetCurrentDocWithCurrentFile();
+        check(m.getDocument() != d, "nouveau document");
+        check(text(m).equals("court\n"), "texte relu");
+        check(m.isSynchronized(), "synchronisé");
+        check(events.size() == 1, "une seule notification");
+        m.removeDocAndFile();
+        f.delete();
+    }
+
+    /**
+     * Un document sans image, modifié une fois les différences calculées en
+     *  arrière-plan mais avant qu'elles ne lui soient appliquées, reçoit le
+     *  texte du fichier en entier.
+     */
+    private static void editedDuringReload() throws Exception {
+        final File f = File.createTempFile("reload", ".txt");
+        write(f, "un\ndeux\ntrois\n");
+        final StdPetModel m = new StdPetModel();
+        final AtomicReference<CompletableFuture<Void>> io =
+                new AtomicReference<CompletableFuture<Void>>();
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    m.setJournaling(false);
+                    m.setDocumentFactory(new PlainDocumentFactory());
+                    m.setNewDocAndNewFile(f);
+                    write(f, "un\n2\ntrois\nquatre\n");
+                    io.set(m.resetCurrentDocWithCurrentFileAsync(null));
+                    // l'application des différences attend la fin de cette
+                    // tâche sur le thread de distribution des événements
+                    Thread.sleep(500);
+                    m.getDocument().insertString(0, "zéro\n", null);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        io.get().get();
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    check(text(m).equals("un\n2\ntrois\nquatre\n"),
+                            "texte relu en entier");
+                    check(m.isSynchronized(), "synchronisé");
+                    m.removeDocAndFile();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        f.delete();
+    }
+
+    // OUTILS
+
+    private static StdPetModel open(File f, long threshold) throws Exception {
+        StdPetModel m = new StdPetModel();
+        m.setJournaling(false);
+        m.setMappingThreshold(threshold);
+        m.setNewDocAndNewFile(f);
+        return m;
+    }
+
+    private static void write(File f, String s) throws Exception {
+        Files.write(f.toPath(), s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String text(StdPetModel m) throws Exception {
+        return m.getDocument().getText(0, m.getDocument().getLength());
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+}
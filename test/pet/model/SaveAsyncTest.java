@@ -0,0 +1,119 @@
+package pet.model;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.swing.SwingUtilities;
+import javax.swing.text.Document;
+
+/**
+ * Une sauvegarde en arrière-plan écrit le texte qu'avait le document lors
+ *  de son lancement, avec ses fins de ligne, même s'il est modifié pendant
+ *  l'écriture.
+ */
+public final class SaveAsyncTest {
+
+    public static void main(String[] args) throws Exception {
+        modified();
+        mixedEndings();
+    }
+
+    private static void modified() throws Exception {
+        StringBuilder b = new StringBuilder();
+        while (b.length() < 8 << 20) {
+            b.append("une ligne de texte assez ordinaire\r\n");
+        }
+        final String original = b.toString();
+        final File f = File.createTempFile("save", ".txt");
+        Files.write(f.toPath(), original.getBytes(StandardCharsets.UTF_8));
+        final StdPetModel m = new StdPetModel();
+        final AtomicReference<CompletableFuture<Void>> io =
+                new AtomicReference<CompletableFuture<Void>>();
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    m.setJournaling(false);
+                    m.setNewDocAndNewFile(f);
+                    Document d = m.getDocument();
+                    d.insertString(0, "avant\n", null);
+                    io.set(m.saveCurrentDocIntoCurrentFileAsync(null));
+                    d.insertString(0, "après\n", null);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        io.get().get();
+        String saved = new String(Files.readAllBytes(f.toPath()),
+                StandardCharsets.UTF_8);
+        check(saved.equals("avant\r\n" + original), "texte sauvegardé");
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                check(!m.isSynchronized(), "modification postérieure");
+                try {
+                    m.getDocument().remove(0, "après\n".length());
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                check(m.isSynchronized(), "retour au texte sauvegardé");
+                m.removeDocAndFile();
+            }
+        });
+        f.delete();
+    }
+
+    /**
+     * Des lignes insérées au début d'un fichier aux fins de ligne mélangées
+     *  pendant sa sauvegarde ne décalent pas les fins de ligne écrites.
+     */
+    private static void mixedEndings() throws Exception {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; b.length() < 8 << 20; i++) {
+            b.append(i % 3 == 0 ? "une ligne\r\n" : "une ligne\n");
+        }
+        final byte[] original = b.toString().getBytes(StandardCharsets.UTF_8);
+        final File f = File.createTempFile("save", ".txt");
+        Files.write(f.toPath(), original);
+        final StdPetModel m = new StdPetModel();
+        final AtomicReference<CompletableFuture<Void>> io =
+                new AtomicReference<CompletableFuture<Void>>();
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    m.setJournaling(false);
+                    m.setNewDocAndNewFile(f);
+                    io.set(m.saveCurrentDocIntoCurrentFileAsync(null));
+                    for (int i = 0; i < 200; i++) {
+                        m.getDocument().insertString(0, "x\n", null);
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        io.get().get();
+        check(Arrays.equals(Files.readAllBytes(f.toPath()), original),
+                "fins de ligne sauvegardées");
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                check(!m.isSynchronized(), "lignes insérées après l'image");
+                m.removeDocAndFile();
+            }
+        });
+        f.delete();
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+}
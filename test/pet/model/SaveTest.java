@@ -0,0 +1,275 @@
+package pet.model;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.swing.SwingUtilities;
+import javax.swing.text.Document;
+
+/**
+ * La sauvegarde par morceaux réécrit un fichier octet pour octet, quelle
+ *  que soit la place des fins de ligne et des paires de substitution par
+ *  rapport aux tampons d'écriture, BOM comprise.
+ * Elle remplace le fichier d'un bloc, quel que soit le niveau de
+ *  durabilité : permissions conservées, cible d'un lien symbolique
+ *  remplacée, fichier intact et aucun fichier temporaire laissé si elle
+ *  est annulée.
+ */
+public final class SaveTest {
+
+    /**
+     * Taille des tampons d'écriture de StdPetModel.
+     */
+    private static final int IO_BUFFER_SIZE = 64 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    buffers();
+                    boms();
+                    edited();
+                    durabilities();
+                    permissions();
+                    symbolicLink();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        cancelled();
+    }
+
+    /**
+     * Un texte qui déborde du tampon de quelques caractères, une fin de
+     *  ligne CRLF ou une paire de substitution à cheval sur sa fin.
+     */
+    private static void buffers() throws Exception {
+        String[] tails = { "", "\r\n", "𝄞", "𝄞\r\n", "\r\n𝄞é" };
+        for (int shift = -3; shift <= 3; shift++) {
+            for (String tail : tails) {
+                String s = repeat('a', IO_BUFFER_SIZE + shift) + tail
+                        + repeat('b', 10) + "\r\n";
+                roundTrip(s.getBytes(StandardCharsets.UTF_8),
+                        "décalage " + shift + ", fin " + escape(tail));
+            }
+        }
+        StringBuilder b = new StringBuilder();
+        while (b.length() < 5 * IO_BUFFER_SIZE) {
+            b.append("ligne 𝄞 é\r\n");
+        }
+        roundTrip(b.toString().getBytes(StandardCharsets.UTF_8),
+                "plusieurs tampons");
+    }
+
+    private static void boms() throws Exception {
+        String s = repeat('a', IO_BUFFER_SIZE - 1) + "𝄞\r\nfin\r\n";
+        roundTrip(withBom(new byte[] { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF },
+                s, StandardCharsets.UTF_8), "BOM UTF-8");
+        roundTrip(withBom(new byte[] { (byte) 0xFF, (byte) 0xFE },
+                s, StandardCharsets.UTF_16LE), "BOM UTF-16LE");
+        roundTrip(withBom(new byte[] { (byte) 0xFE, (byte) 0xFF },
+                s, StandardCharsets.UTF_16BE), "BOM UTF-16BE");
+    }
+
+    /**
+     * Un texte modifié est sauvegardé avec les fins de ligne et l'encodage
+     *  du fichier.
+     */
+    private static void edited() throws Exception {
+        byte[] bom = { (byte) 0xFF, (byte) 0xFE };
+        String s = repeat('a', 2 * IO_BUFFER_SIZE) + "\r\nfin\r\n";
+        File f = write(withBom(bom, s, StandardCharsets.UTF_16LE));
+        StdPetModel m = open(f);
+        Document d = m.getDocument();
+        d.insertString(IO_BUFFER_SIZE - 1, "𝄞\n", null);
+        m.saveCurrentDocIntoCurrentFile();
+        String expected = s.substring(0, IO_BUFFER_SIZE - 1) + "𝄞\r\n"
+                + s.substring(IO_BUFFER_SIZE - 1);
+        check(Arrays.equals(Files.readAllBytes(f.toPath()),
+                withBom(bom, expected, StandardCharsets.UTF_16LE)),
+                "texte modifié");
+        check(m.isSynchronized(), "synchronisé");
+        m.removeDocAndFile();
+        f.delete();
+    }
+
+    private static void durabilities() throws Exception {
+        for (Durability level : Durability.values()) {
+            File f = write("un\r\ndeux\r\n".getBytes(StandardCharsets.UTF_8));
+            StdPetModel m = open(f);
+            m.setDurability(level);
+            m.getDocument().insertString(0, "zéro\n", null);
+            m.saveCurrentDocIntoCurrentFile();
+            check(new String(Files.readAllBytes(f.toPath()),
+                    StandardCharsets.UTF_8).equals("zéro\r\nun\r\ndeux\r\n"),
+                    "durabilité " + level);
+            m.removeDocAndFile();
+            f.delete();
+        }
+    }
+
+    private static void permissions() throws Exception {
+        File f = write("texte\n".getBytes(StandardCharsets.UTF_8));
+        Path p = f.toPath();
+        if (!supportsPosix(p)) {
+            f.delete();
+            return;
+        }
+        Files.setPosixFilePermissions(p,
+                PosixFilePermissions.fromString("rw-r-----"));
+        StdPetModel m = open(f);
+        m.getDocument().insertString(0, "nouveau ", null);
+        m.saveCurrentDocIntoCurrentFile();
+        check(PosixFilePermissions.toString(Files.getPosixFilePermissions(p))
+                .equals("rw-r-----"), "permissions conservées");
+        m.removeDocAndFile();
+        f.delete();
+    }
+
+    private static void symbolicLink() throws Exception {
+        Path dir = Files.createTempDirectory("save");
+        Path target = dir.resolve("cible.txt");
+        Files.write(target, "texte\n".getBytes(StandardCharsets.UTF_8));
+        Path link = dir.resolve("lien.txt");
+        try {
+            Files.createSymbolicLink(link, target.getFileName());
+        } catch (UnsupportedOperationException e) {
+            delete(dir);
+            return;
+        }
+        StdPetModel m = open(link.toFile());
+        m.getDocument().insertString(0, "nouveau ", null);
+        m.saveCurrentDocIntoCurrentFile();
+        check(Files.isSymbolicLink(link), "lien conservé");
+        check(new String(Files.readAllBytes(target), StandardCharsets.UTF_8)
+                .equals("nouveau texte\n"), "cible remplacée");
+        check(dir.toFile().list().length == 2, "aucun fichier temporaire");
+        m.removeDocAndFile();
+        delete(dir);
+    }
+
+    /**
+     * Une sauvegarde en arrière-plan annulée dès son lancement laisse le
+     *  fichier intact.
+     */
+    private static void cancelled() throws Exception {
+        final Path dir = Files.createTempDirectory("save");
+        final Path p = dir.resolve("gros.txt");
+        StringBuilder b = new StringBuilder();
+        while (b.length() < 16 << 20) {
+            b.append("une ligne de texte assez ordinaire\n");
+        }
+        final byte[] bytes = b.toString().getBytes(StandardCharsets.UTF_8);
+        Files.write(p, bytes);
+        final StdPetModel m = new StdPetModel();
+        final AtomicReference<CompletableFuture<Void>> io =
+                new AtomicReference<CompletableFuture<Void>>();
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    m.setJournaling(false);
+                    m.setNewDocAndNewFile(p.toFile());
+                    m.getDocument().insertString(0, "nouveau\n", null);
+                    io.set(m.saveCurrentDocIntoCurrentFileAsync(null));
+                    io.get().cancel(true);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        try {
+            io.get().get();
+            check(false, "sauvegarde annulée");
+        } catch (CancellationException e) {
+            // attendu
+        }
+        // la tâche de fond s'interrompt à son prochain point d'avancement,
+        // puis supprime son fichier temporaire
+        Thread.sleep(200);
+        for (int i = 0; i < 100 && dir.toFile().list().length > 1; i++) {
+            Thread.sleep(50);
+        }
+        check(Arrays.equals(Files.readAllBytes(p), bytes), "fichier intact");
+        check(dir.toFile().list().length == 1, "aucun fichier temporaire");
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                check(!m.isSynchronized(), "toujours modifié");
+                m.removeDocAndFile();
+            }
+        });
+        delete(dir);
+    }
+
+    // OUTILS
+
+    private static boolean supportsPosix(Path p) throws Exception {
+        return Files.getFileStore(p).supportsFileAttributeView("posix");
+    }
+
+    private static void delete(Path dir) throws Exception {
+        for (File f : dir.toFile().listFiles()) {
+            f.delete();
+        }
+        Files.delete(dir);
+    }
+
+    private static void roundTrip(byte[] bytes, String what) throws Exception {
+        File f = write(bytes);
+        StdPetModel m = open(f);
+        f.delete();
+        m.saveCurrentDocIntoCurrentFile();
+        check(Arrays.equals(Files.readAllBytes(f.toPath()), bytes), what);
+        m.removeDocAndFile();
+        f.delete();
+    }
+
+    private static StdPetModel open(File f) throws Exception {
+        StdPetModel m = new StdPetModel();
+        m.setJournaling(false);
+        m.setMappingThreshold(Long.MAX_VALUE);
+        m.setNewDocAndNewFile(f);
+        return m;
+    }
+
+    private static byte[] withBom(byte[] bom, String s, Charset cs) {
+        byte[] text = s.getBytes(cs);
+        byte[] bytes = new byte[bom.length + text.length];
+        System.arraycopy(bom, 0, bytes, 0, bom.length);
+        System.arraycopy(text, 0, bytes, bom.length, text.length);
+        return bytes;
+    }
+
+    private static String repeat(char c, int n) {
+        char[] a = new char[n];
+        Arrays.fill(a, c);
+        return new String(a);
+    }
+
+    private static String escape(String s) {
+        return s.replace("\r", "\\r").replace("\n", "\\n");
+    }
+
+    private static File write(byte[] bytes) throws Exception {
+        File f = File.createTempFile("save", ".txt");
+        Files.write(f.toPath(), bytes);
+        return f;
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+}
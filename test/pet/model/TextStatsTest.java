@@ -0,0 +1,152 @@
+package pet.model;
+
+import java.util.Random;
+
+import javax.swing.text.Document;
+import javax.swing.text.PlainDocument;
+
+/**
+ * Les statistiques d'un document, tenues à jour au fil de modifications
+ *  aléatoires qui créent, vident et fusionnent des blocs, sont comparées à
+ *  un décompte naïf de son texte : texte entier et portions quelconques,
+ *  décompte initial réparti sur plusieurs tâches compris.
+ */
+public final class TextStatsTest {
+
+    /**
+     * Blancs et non-blancs au sens de Character.isWhitespace, dont une
+     *  espace insécable, qui n'est pas un blanc, et un cadratin, qui en
+     *  est un.
+     */
+    private static final String CHARS = "ab é𝄞\t\n\n\u2003\u00A0.";
+
+    public static void main(String[] args) throws Exception {
+        Random rnd = new Random(3);
+        for (int iter = 0; iter < 6; iter++) {
+            String initial = random(rnd, rnd.nextInt(40000));
+            Document d = iter % 2 == 0 ? new PlainDocument()
+                    : new PieceTableDocument(new ArrayCharStore(
+                            initial.toCharArray(), initial.length()));
+            if (iter % 2 == 0) {
+                d.insertString(0, initial, null);
+            }
+            edits(d, rnd);
+        }
+        String large = random(rnd, 3 << 20);
+        PieceTableDocument d = new PieceTableDocument(
+                new ArrayCharStore(large.toCharArray(), large.length()));
+        TextStats stats = new TextStats(d);
+        checkStats(stats, d.getText(0, d.getLength()), rnd,
+                "décompte réparti");
+        stats.dispose();
+    }
+
+    private static void edits(Document d, Random rnd) throws Exception {
+        TextStats stats = new TextStats(d);
+        checkStats(stats, d.getText(0, d.getLength()), rnd, "initial");
+        for (int step = 0; step < 300; step++) {
+            int len = d.getLength();
+            int offset = rnd.nextInt(len + 1);
+            int kind = rnd.nextInt(10);
+            if (kind < 5) {
+                // frappe ou petite insertion, parfois à cheval sur un mot
+                d.insertString(offset, random(rnd, 1 + rnd.nextInt(3)), null);
+            } else if (kind < 6) {
+                // insertion de plusieurs blocs
+                d.insertString(offset, random(rnd, 5000 + rnd.nextInt(20000)),
+                        null);
+            } else if (kind < 9) {
+                d.remove(offset, Math.min(1 + rnd.nextInt(3), len - offset));
+            } else {
+                // suppression de plusieurs blocs
+                d.remove(offset, Math.min(rnd.nextInt(20000), len - offset));
+            }
+            checkStats(stats, d.getText(0, d.getLength()), rnd,
+                    "étape " + step);
+        }
+        stats.dispose();
+        d.insertString(0, "après ", null);
+        check(stats.getCharCount() == d.getLength() - "après ".length(),
+                "modifications ignorées après dispose()");
+    }
+
+    private static void checkStats(TextStats stats, String text, Random rnd,
+            String what) {
+        Counts c = new Counts(text);
+        int n = text.length();
+        check(stats.getCharCount() == n, what + " : caractères");
+        check(stats.getWordCount() == c.words(0, n), what + " : mots");
+        check(stats.getLineCount() == c.lines[n] + 1, what + " : lignes");
+        for (int i = 0; i < 20; i++) {
+            int a = rnd.nextInt(n + 1);
+            int b = i % 4 == 0 ? Math.min(a + rnd.nextInt(3), n)
+                    : rnd.nextInt(n + 1);
+            int start = Math.min(a, b);
+            int end = Math.max(a, b);
+            check(stats.getWordCount(start, end) == c.words(start, end),
+                    what + " : mots de [" + start + ", " + end + "[");
+            int lines = start == end ? 0
+                    : c.lines[end - 1] - c.lines[start] + 1;
+            check(stats.getLineCount(start, end) == lines,
+                    what + " : lignes de [" + start + ", " + end + "[");
+        }
+    }
+
+    // OUTILS
+
+    private static String random(Random rnd, int n) {
+        StringBuilder b = new StringBuilder(n);
+        while (b.length() < n) {
+            int k = rnd.nextInt(CHARS.length());
+            char c = CHARS.charAt(k);
+            if (Character.isHighSurrogate(c)) {
+                b.append(c).append(CHARS.charAt(k + 1));
+            } else if (!Character.isLowSurrogate(c)) {
+                b.append(c);
+            }
+        }
+        return b.toString();
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+
+    // TYPES IMBRIQUES
+
+    /**
+     * Le décompte naïf d'un texte s : lines[i] et starts[i] sont les nombres
+     *  de fins de ligne et de débuts de mot parmi ses i premiers caractères.
+     */
+    private static final class Counts {
+        final String s;
+        final int[] lines;
+        final int[] starts;
+
+        Counts(String s) {
+            this.s = s;
+            lines = new int[s.length() + 1];
+            starts = new int[s.length() + 1];
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                boolean begins = !Character.isWhitespace(c)
+                        && (i == 0 || Character.isWhitespace(s.charAt(i - 1)));
+                lines[i + 1] = lines[i] + (c == '\n' ? 1 : 0);
+                starts[i + 1] = starts[i] + (begins ? 1 : 0);
+            }
+        }
+
+        /**
+         * Le nombre de mots dont [start, end[ contient au moins un caractère.
+         */
+        int words(int start, int end) {
+            if (start == end) {
+                return 0;
+            }
+            int n = starts[end] - starts[start + 1];
+            return Character.isWhitespace(s.charAt(start)) ? n : n + 1;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package pet.model;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.PlainDocument;
+
+/**
+ * Annulations et rétablissements d'un historique au budget réduit, dont les
+ *  modifications sont compressées et déportées, et d'une modification qui
+ *  dépasse à elle seule le budget.
+ */
+public final class UndoHistoryTest {
+
+    public static void main(String[] args) throws Exception {
+        randomEdits();
+        oversizedEdit();
+    }
+
+    /**
+     * Des modifications aléatoires sont annulées puis rétablies une à une,
+     *  le texte du document étant comparé à chaque étape à celui qu'il
+     *  avait ; le rejeu ne relit pas le texte du document.
+     */
+    private static void randomEdits() throws Exception {
+        Random r = new Random(11);
+        CountingDocument d = new CountingDocument();
+        UndoHistory h = new UndoHistory(512);
+        h.setDocument(d);
+        List<String> texts = new ArrayList<String>();
+        texts.add("");
+        for (int k = 0; k < 300; k++) {
+            int len = d.getLength();
+            int off = r.nextInt(len + 1);
+            if (len < 2 || r.nextInt(3) > 0) {
+                int n = 2 + r.nextInt(20);
+                StringBuilder b = new StringBuilder();
+                for (int i = 0; i < n; i++) {
+                    b.append((char) ('a' + r.nextInt(26)));
+                }
+                int rem = Math.min(len - off, r.nextInt(3));
+                d.replace(off, rem == 1 ? 0 : rem, b.toString(), null);
+            } else {
+                off = Math.min(off, len - 2);
+                d.remove(off, 2 + r.nextInt(Math.min(10, len - off) - 1));
+            }
+            texts.add(text(d));
+        }
+        check(memory(h) <= h.getBudget(), "budget respecté");
+        int reads = d.reads;
+        for (int k = texts.size() - 1; k > 0; k--) {
+            check(h.canUndo(), "annulation possible " + k);
+            h.undo();
+            check(text(d).equals(texts.get(k - 1)), "annulation " + k);
+        }
+        check(!h.canUndo(), "historique épuisé");
+        for (int k = 1; k < texts.size(); k++) {
+            h.redo();
+            check(text(d).equals(texts.get(k)), "rétablissement " + k);
+        }
+        check(d.reads == reads, "rejeu sans relecture du texte");
+        h.discardAllEdits();
+    }
+
+    /**
+     * Le remplacement de tout le texte, plus grand que le budget, ne reste
+     *  pas en mémoire tel quel et peut être annulé puis rétabli.
+     */
+    private static void oversizedEdit() throws Exception {
+        Random r = new Random(3);
+        PlainDocument d = new PlainDocument();
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < 200000; i++) {
+            b.append((char) ('a' + r.nextInt(26)));
+        }
+        d.insertString(0, b.toString(), null);
+        String before = text(d);
+        UndoHistory h = new UndoHistory(4096);
+        h.setDocument(d);
+        String after = before.toUpperCase();
+        d.replace(0, d.getLength(), after, null);
+        check(memory(h) <= h.getBudget(), "budget respecté");
+        h.undo();
+        check(text(d).equals(before), "annulation");
+        h.redo();
+        check(text(d).equals(after), "rétablissement");
+        check(memory(h) <= h.getBudget(), "budget respecté après rejeu");
+        h.discardAllEdits();
+    }
+
+    // OUTILS
+
+    /**
+     * La place occupée en mémoire par les modifications à annuler.
+     */
+    private static long memory(UndoHistory h) throws Exception {
+        return field(h, "liveBytes") + field(h, "archiveBytes");
+    }
+
+    private static long field(UndoHistory h, String name) throws Exception {
+        Field f = UndoHistory.class.getDeclaredField(name);
+        f.setAccessible(true);
+        return f.getLong(h);
+    }
+
+    private static String text(PlainDocument d) throws BadLocationException {
+        return d.getText(0, d.getLength());
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+
+    // TYPES IMBRIQUES
+
+    /**
+     * Un document qui compte les lectures partielles de son texte.
+     */
+    private static final class CountingDocument extends PlainDocument {
+        private static final long serialVersionUID = 1L;
+        int reads;
+
+        @Override
+        public String getText(int offset, int length)
+                throws BadLocationException {
+            if (offset != 0 || length != getLength()) {
+                reads += 1;
+            }
+            return super.getText(offset, length);
+        }
+    }
+}
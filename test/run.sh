@@ -0,0 +1,25 @@
+#!/bin/sh
+# Compile les sources de l'éditeur et les tests, puis lance chaque test
+#  (une classe *Test dont main() échoue par une exception).
+# Usage : test/run.sh [classpath de la bibliothèque util]
+set -e
+root=$(cd "$(dirname "$0")/.." && pwd)
+work=$(mktemp -d)
+trap 'rm -rf "$work"' EXIT
+mkdir -p "$work/src" "$work/classes" "$work/home"
+ln -s "$root" "$work/src/pet"
+cp="${1:-$CLASSPATH}"
+cd "$work/src"
+javac -encoding UTF-8 -Xlint:all -cp "$cp" -d "$work/classes" \
+    $(find -L . \( -path ./pet/test -o -path ./pet/bench \) -prune -o -name '*.java' -print) \
+    $(cd "$root/test" && find . -name '*.java' | sed "s|^\.|$root/test|")
+status=0
+for t in $(cd "$root/test" && find . -name '*Test.java' | sed 's|^\./||; s|\.java$||; s|/|.|g'); do
+    if java -Xmx3g -Djava.awt.headless=true -Duser.home="$work/home" -ea -cp "$work/classes:$cp" "$t"; then
+        echo "OK    $t"
+    else
+        echo "ÉCHEC $t"
+        status=1
+    fi
+done
+exit $status